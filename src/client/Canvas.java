@@ -3,35 +3,84 @@ package client;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics;
-import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
-import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.EventListener;
+import java.util.List;
 import javax.swing.*;
 
+import command.Command;
+import logging.Log;
+
 /**
  * Canvas represents a drawing surface that allows the user to draw
  * on it freehand, with the mouse.
+ *
+ * Concurrency Argument:
+ *   - drawing onto the drawing buffer is done by the canvas's RenderThread;
+ *     other threads only queue segments and tasks for it
+ *   - the event dispatch thread only reads the drawing buffer, while holding
+ *     its lock, to paint
  */
 
 public class Canvas extends JPanel {
     
+	private static final Log LOG = Log.get("Canvas");
+
 	// image where the user's drawing is stored
 	private static final long serialVersionUID = 2L;
 	private final Client client;
 	private EventListener currentListener;
 
+	// Repaints are limited to the region of the drawing buffer that has changed.
+	// Drawing only grows dirtyRegion; the repaintTimer then repaints it at most
+	// once per frame, so a burst of segments costs one small blit per frame
+	// rather than one full-canvas blit per segment.
+	private static final int FRAME_MILLIS = 16;
+	private final Object dirtyLock = new Object();
+	private final Rectangle dirtyRegion = new Rectangle();
+	private boolean isDirty = false;
+	private final Timer repaintTimer;
+
+	// Drawing onto the buffer reuses small caches of the Colors and BasicStrokes
+	// most recently drawn with, so drawing a segment allocates nothing of its own.
+	private static final int CACHE_BITS = 6;
+	private static final int CACHE_SIZE = 1 << CACHE_BITS;
+	private final Color[] colorCache = new Color[CACHE_SIZE];
+	private final BasicStroke[] strokeCache = new BasicStroke[CACHE_SIZE];
+
+	// Segments from local input and the network are drawn on this thread
+	private final RenderThread renderThread;
+	private final Thread renderer;
+	private final Object bufferLock = new Object();
+
+	// Optional accelerated presentation path, see VolatileMirror.  Enabled with
+	// setAccelerated or by running with -Dwhiteboard.accelerated=true.
+	private volatile VolatileMirror mirror;
+
 	public Canvas(Client client) {
     this.client = client;
+    this.repaintTimer = new Timer(FRAME_MILLIS, new java.awt.event.ActionListener() {
+        @Override
+        public void actionPerformed(java.awt.event.ActionEvent e) {
+            repaintDirtyRegion();
+        }
+    });
+    this.repaintTimer.setRepeats(false);
+    setAccelerated(Boolean.getBoolean("whiteboard.accelerated"));
+    this.renderThread = new RenderThread(this);
+    this.renderer = this.renderThread.start();
 
-    // Initialize the drawing buffer as soon as the canvas has a size
+    // Initialize the drawing buffer as soon as the canvas has a size, and
+    // show more of the board whenever the canvas grows
     this.addComponentListener(new java.awt.event.ComponentAdapter() {
         @Override
         public void componentResized(java.awt.event.ComponentEvent e) {
-            if (getWidth() > 0 && getHeight() > 0 && client.getDrawingBuffer() == null) {
-                makeDrawingBuffer();
+            if (getWidth() > 0 && getHeight() > 0) {
+                ensureDrawingBuffer();
+                updateVisibleArea();
                 repaint(); // just in case
             }
         }
@@ -44,12 +93,157 @@ public class Canvas extends JPanel {
 	public void paintComponent(Graphics g) {
 		// If this is the first time paintComponent() is being called,
 		// make our drawing buffer.
-		if (client.getDrawingBuffer() == null) {
-			makeDrawingBuffer();
+		ensureDrawingBuffer();
+
+		// Copy the part of the drawing buffer being repainted to the screen.
+		Rectangle clip = g.getClipBounds();
+		if (clip == null) {
+			clip = new Rectangle(0, 0, getWidth(), getHeight());
+		}
+		VolatileMirror mirror = this.mirror;
+		if (mirror == null || !mirror.present(this, g, client.getDrawingBuffer(), clip)) {
+			client.getDrawingBuffer().paint(g, clip);
+		}
+	}
+
+	/**
+	 * Turns the accelerated presentation path on or off.  When on, repaints are
+	 * copied from a VolatileImage mirror of the drawing buffer where the
+	 * platform supports it, falling back to painting from the drawing buffer.
+	 * @param accelerated: whether to present through a VolatileMirror
+	 */
+	public void setAccelerated(boolean accelerated) {
+		final VolatileMirror old = mirror;
+		mirror = accelerated ? new VolatileMirror() : null;
+		if (old != null) {
+			// the old mirror's image belongs to the event dispatch thread
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					old.release();
+				}
+			});
+		}
+		repaint();
+	}
+
+	/**
+	 * @return: whether the accelerated presentation path is on
+	 */
+	public boolean isAccelerated() {
+		return mirror != null;
+	}
+
+	/**
+	 * Adds a region of the drawing buffer to the area that needs repainting and
+	 * schedules a repaint for the next frame if one isn't already pending.
+	 * @param region: the changed region, in drawing buffer pixels
+	 */
+	protected void markDirty(Rectangle region) {
+		markDirty(region.x, region.y, region.width, region.height);
+	}
+
+	/**
+	 * Adds the rectangle (x, y, width, height) to the area that needs repainting
+	 * and schedules a repaint for the next frame if one isn't already pending.
+	 */
+	void markDirty(int x, int y, int width, int height) {
+		VolatileMirror mirror = this.mirror;
+		if (mirror != null) {
+			mirror.invalidate(x, y, width, height);
+		}
+		synchronized (dirtyLock) {
+			if (!isDirty) {
+				dirtyRegion.setBounds(x, y, width, height);
+				isDirty = true;
+			} else {
+				int minX = Math.min(dirtyRegion.x, x);
+				int minY = Math.min(dirtyRegion.y, y);
+				int maxX = Math.max(dirtyRegion.x + dirtyRegion.width, x + width);
+				int maxY = Math.max(dirtyRegion.y + dirtyRegion.height, y + height);
+				dirtyRegion.setBounds(minX, minY, maxX - minX, maxY - minY);
+			}
+		}
+		if (!repaintTimer.isRunning()) {
+			repaintTimer.start();
+		}
+	}
+
+	/**
+	 * Repaints everything marked dirty since the last frame
+	 */
+	private void repaintDirtyRegion() {
+		int x, y, width, height;
+		synchronized (dirtyLock) {
+			if (!isDirty) {
+				return;
+			}
+			x = dirtyRegion.x;
+			y = dirtyRegion.y;
+			width = dirtyRegion.width;
+			height = dirtyRegion.height;
+			isDirty = false;
+		}
+		this.repaint(x, y, width, height);
+	}
+
+	/**
+	 * Computes the region of the drawing buffer covered by a line segment drawn
+	 * with a BasicStroke of the given width.  The default square caps extend
+	 * half the width past each endpoint in the direction of the line, so the
+	 * bounds are padded by half the stroke's diagonal plus a pixel for rounding.
+	 * @return the bounding box of the stroked segment
+	 */
+	static Rectangle lineBounds(int x1, int y1, int x2, int y2, float width) {
+		int pad = linePadding(width);
+		int x = Math.min(x1, x2) - pad;
+		int y = Math.min(y1, y2) - pad;
+		return new Rectangle(x, y, Math.abs(x2 - x1) + 2 * pad + 1, Math.abs(y2 - y1) + 2 * pad + 1);
+	}
+
+	/**
+	 * How far a stroke of the given width can reach past a segment's endpoints
+	 */
+	static int linePadding(float width) {
+		return (int) Math.ceil(width * Math.sqrt(2) / 2) + 1;
+	}
+
+	/**
+	 * Gets an opaque Color for rgb, reusing a cached one when possible
+	 * @param rgb: the color's RGB value; any alpha bits are ignored
+	 * @return a Color with the given RGB value
+	 */
+	Color cachedColor(int rgb) {
+		int argb = 0xff000000 | rgb;
+		int slot = cacheSlot(argb);
+		Color color = colorCache[slot];
+		if (color == null || color.getRGB() != argb) {
+			color = new Color(argb);
+			colorCache[slot] = color;
+		}
+		return color;
+	}
+
+	/**
+	 * Gets a BasicStroke of the given width, reusing a cached one when possible
+	 * @param width: the line width of the stroke
+	 * @return a default BasicStroke with the given width
+	 */
+	BasicStroke cachedStroke(float width) {
+		int slot = cacheSlot(Float.floatToIntBits(width));
+		BasicStroke stroke = strokeCache[slot];
+		if (stroke == null || stroke.getLineWidth() != width) {
+			stroke = new BasicStroke(width);
+			strokeCache[slot] = stroke;
 		}
+		return stroke;
+	}
 
-		// Copy the drawing buffer to the screen.
-		g.drawImage(client.getDrawingBuffer(), 0, 0, null);
+	/**
+	 * Spreads a key over the cache slots.  Multiplicative hashing is used since
+	 * the float widths likely to be drawn with differ only in their high bits.
+	 */
+	private static int cacheSlot(int key) {
+		return (key * 0x9E3779B9) >>> (32 - CACHE_BITS);
 	}
 
 
@@ -57,52 +251,136 @@ public class Canvas extends JPanel {
 	 * Make the drawing buffer and draw some starting content for it.
 	 */
 	protected void makeDrawingBuffer() {
-		client.setDrawingBuffer(new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB));
-		fillWithWhite();
+		synchronized (bufferLock) {
+			client.setDrawingBuffer(new TiledDrawingBuffer());
+			updateVisibleArea();
+		}
+		this.repaint();
 	}
 
 	/**
-	 * Make the drawing buffer entirely white.
+	 * Gets the drawing buffer, making it first if it doesn't exist yet
+	 * @return: the client's drawing buffer
 	 */
-	protected void fillWithWhite() {
-		final Graphics2D g = (Graphics2D) client.getDrawingBuffer().getGraphics();
+	TiledDrawingBuffer ensureDrawingBuffer() {
+		synchronized (bufferLock) {
+			if (client.getDrawingBuffer() == null) {
+				makeDrawingBuffer();
+			}
+			return client.getDrawingBuffer();
+		}
+	}
 
-		g.setColor(Color.WHITE);
-		g.fillRect(0,  0,  getWidth(), getHeight());
+	/**
+	 * Shows as much of the board as fits on the canvas
+	 */
+	private void updateVisibleArea() {
+		client.getDrawingBuffer().setVisibleArea(new Rectangle(0, 0, getWidth(), getHeight()));
+		invalidateMirror();
+	}
 
-		// IMPORTANT!  every time we draw on the internal drawing buffer, we
-		// have to notify Swing to repaint this component on the screen.
-		this.repaint();
+	/**
+	 * Marks all of the accelerated mirror, if any, as out of date
+	 */
+	private void invalidateMirror() {
+		VolatileMirror mirror = this.mirror;
+		if (mirror != null) {
+			mirror.invalidateAll();
+		}
+	}
+
+	/**
+	 * Make the drawing buffer entirely white, once everything queued before
+	 * has been drawn.
+	 */
+	protected void fillWithWhite() {
+		renderThread.queueTask(new Runnable() {
+			public void run() {
+				ensureDrawingBuffer().clear();
+				invalidateMirror();
+
+				// IMPORTANT!  every time we draw on the internal drawing buffer, we
+				// have to notify Swing to repaint this component on the screen.
+				repaint();
+			}
+		});
 	}
 
 	/**
 	 * Draw a line between two points (x1, y1) and (x2, y2), specified in
 	 * pixels relative to the upper-left corner of the drawing buffer.
 	 */
-        @SuppressWarnings("CallToPrintStackTrace")
 	protected void drawLineSegmentAndCall(int x1, int y1, int x2, int y2, int color, float width) {
-		drawLineSegment(x1, y1, x2, y2, color, width);
+		// sent first, so that a draw received before this one is rendered is
+		// known to the local echo as having overtaken it
 		try {
 			client.makeDrawRequest("drawLineSegment "+x1+" "+y1+" "+x2+" "+y2+" "+(color+16777216)+" "+width);
 		} catch (IOException e) {
-			e.printStackTrace();
+			LOG.error("Could not send draw", e);
 		}
+		drawLineSegment(x1, y1, x2, y2, color, width);
 	}
 
 	/**
 	 * Draw a line between two points (x1, y1) and (x2, y2), specified in
-	 * pixels relative to the upper-left corner of the drawing buffer.
+	 * pixels relative to the upper-left corner of the drawing buffer.  The
+	 * segment is queued for the render thread, which draws it and schedules
+	 * the repaint.
 	 */
 	public void drawLineSegment(int x1, int y1, int x2, int y2, int color, float width) {
-		Graphics2D g = (Graphics2D) client.getDrawingBuffer().getGraphics();
-		Color colorObject = new Color(color);
-		g.setColor(colorObject);
-		g.setStroke(new BasicStroke(width));
-		g.drawLine(x1, y1, x2, y2);
-
-		// IMPORTANT!  every time we draw on the internal drawing buffer, we
-		// have to notify Swing to repaint this component on the screen.
-		this.repaint();
+		renderThread.queueSegment(x1, y1, x2, y2, color, width);
+	}
+
+	/**
+	 * Draw a line segment onto buffer, without scheduling a repaint.  Called on
+	 * the render thread, which holds buffer's lock.
+	 */
+	void renderSegment(TiledDrawingBuffer buffer, int x1, int y1, int x2, int y2, int color, float width) {
+		buffer.drawLine(x1, y1, x2, y2, cachedColor(color), cachedStroke(width), linePadding(width));
+	}
+
+	/**
+	 * Queues a batch of commands for the render thread, such as a board's
+	 * history replayed on switch.  Line segments are parsed here and queued
+	 * directly, so the render thread draws them in batches with one repaint
+	 * per batch.  Other commands fall back to being invoked one at a time.
+	 * Safe to call off the event dispatch thread.
+	 * @param commands: the commands to render, in order
+	 */
+	public void drawCommands(List<Command> commands) {
+		for (Command command : commands) {
+			String[] args = command.getArguments();
+			if (command.getName().equals("drawLineSegment") && args.length == 6) {
+				renderThread.queueSegment(Integer.parseInt(args[0]), Integer.parseInt(args[1]),
+						Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+						Integer.parseInt(args[4]), Float.parseFloat(args[5]));
+			} else {
+				command.invokeCommand(this);
+			}
+		}
+	}
+
+	/**
+	 * For testing purposes. Gets the thread segments are rendered on
+	 * @return: the render thread
+	 */
+	Thread getRenderer() {
+		return renderer;
+	}
+
+	/**
+	 * Waits until everything drawn so far has been rendered into the drawing
+	 * buffer.  Must not be called on the render thread.
+	 */
+	public void awaitRendered() {
+		renderThread.awaitRendered();
+	}
+
+	/**
+	 * Stops the render thread once it has drawn everything already queued
+	 */
+	public void stopRendering() {
+		renderThread.shutdown();
 	}
 	
 	/**
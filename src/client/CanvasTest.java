@@ -5,17 +5,24 @@ import static org.junit.Assert.assertTrue;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 import javax.swing.JLabel;
 
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import command.Command;
 import server.Server;
 import testResources.Helper;
 
@@ -34,6 +41,18 @@ public class CanvasTest {
      *      -draws an all-white rectangle over the drawing buffer
      * -drawLineSegment
      *      -draws the correct line segment
+     * -drawCommands
+     *      -a batch renders the same pixels as invoking each command in turn
+     * -cachedColor, cachedStroke
+     *      -return equal objects, reused across calls
+     * -drawLineSegment allocation
+     *      -once warmed up, neither queueing a segment on the calling thread
+     *       nor rendering it on the render thread allocates per segment
+     * -paintComponent, accelerated
+     *      -falls back to painting from the drawing buffer when no volatile
+     *       image can be made, such as when the canvas isn't displayed
+     * -lineBounds
+     *      -every pixel of a stroked segment lies inside its dirty region
      * -updateCurrentUserboard
      *      -sets the JLabel in the upper-right corner to the correct values
      * -addDrawingController
@@ -104,6 +123,7 @@ public class CanvasTest {
         client.getClientGUI().setupCanvas();
         client.getCanvas().makeDrawingBuffer();
         client.getCanvas().fillWithWhite();
+        client.getCanvas().awaitRendered();
         
         BufferedImage madeImage = new BufferedImage(794, 527, BufferedImage.TYPE_INT_RGB);
         final Graphics2D g = (Graphics2D) madeImage.getGraphics();
@@ -130,21 +150,23 @@ public class CanvasTest {
         client.getClientGUI().setupCanvas();
         client.getCanvas().makeDrawingBuffer();
         client.getCanvas().drawLineSegment(50, 50, 60, 60, 0, 10);
+        client.getCanvas().awaitRendered();
         
         Client clientTest = new Client("localhost");
         clientTest.startGUI();
         clientTest.getClientGUI().setupCanvas();
         clientTest.getCanvas().makeDrawingBuffer();
-        Graphics2D g = (Graphics2D) clientTest.getDrawingBuffer().getGraphics();
+        BufferedImage expected = clientTest.getDrawingBuffer().snapshot();
+        Graphics2D g = (Graphics2D) expected.getGraphics();
         Color colorObject = new Color(0);
         g.setColor(colorObject);
         g.setStroke(new BasicStroke(10));
         g.drawLine(50, 50, 60, 60);
         
         boolean same = true;
-        for (int x = 0; x < clientTest.getDrawingBuffer().getWidth(); x++) {
-            for (int y = 0; y < clientTest.getDrawingBuffer().getHeight(); y++) {
-                if (clientTest.getDrawingBuffer().getRGB(x, y) != client.getDrawingBuffer().getRGB(x, y) ) same = false;
+        for (int x = 0; x < expected.getWidth(); x++) {
+            for (int y = 0; y < expected.getHeight(); y++) {
+                if (expected.getRGB(x, y) != client.getDrawingBuffer().getRGB(x, y) ) same = false;
              }
         }
         client.kill();
@@ -193,6 +215,7 @@ public class CanvasTest {
         client.getCanvas().makeDrawingBuffer();
         client.newBoard("board1");
         client.getCanvas().switchBoard("board1");
+        client.getCanvas().awaitRendered();
         assertTrue(client.getCurrentBoardName().equals("board1"));
         BufferedImage madeImage = new BufferedImage(794, 527, BufferedImage.TYPE_INT_RGB);
         final Graphics2D g = (Graphics2D) madeImage.getGraphics();
@@ -211,4 +234,140 @@ public class CanvasTest {
         Thread.sleep(100);
     }
     
+    @Test
+    public void lineBoundsTest() {
+        int[][] segments = {{50, 50, 60, 60}, {10, 40, 90, 45}, {70, 10, 20, 80}, {40, 40, 40, 40}};
+        float[] widths = {1, 10, 25};
+        for (int[] seg : segments) {
+            for (float width : widths) {
+                BufferedImage image = new BufferedImage(120, 120, BufferedImage.TYPE_INT_RGB);
+                Graphics2D g = (Graphics2D) image.getGraphics();
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, 120, 120);
+                g.setColor(Color.BLACK);
+                g.setStroke(new BasicStroke(width));
+                g.drawLine(seg[0], seg[1], seg[2], seg[3]);
+                
+                Rectangle bounds = Canvas.lineBounds(seg[0], seg[1], seg[2], seg[3], width);
+                for (int x = 0; x < image.getWidth(); x++) {
+                    for (int y = 0; y < image.getHeight(); y++) {
+                        if (image.getRGB(x, y) != Color.WHITE.getRGB()) {
+                            assertTrue(bounds.contains(x, y));
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void drawCommandsTest() {
+        Client batchedClient = new Client();
+        batchedClient.setDrawingBuffer(new TiledDrawingBuffer());
+        Canvas batchedCanvas = new Canvas(batchedClient);
+        Client singleClient = new Client();
+        singleClient.setDrawingBuffer(new TiledDrawingBuffer());
+        Canvas singleCanvas = new Canvas(singleClient);
+        
+        List<Command> commands = new ArrayList<Command>();
+        commands.add(new Command("draw board1 drawLineSegment 50 50 60 60 0 10.0".split(" ")));
+        commands.add(new Command("draw board1 drawLineSegment 10 150 190 20 16711680 3.0".split(" ")));
+        commands.add(new Command("draw board1 drawLineSegment 100 10 100 190 65280 25.0".split(" ")));
+        
+        batchedCanvas.drawCommands(commands);
+        for (Command command : commands) {
+            command.invokeCommand(singleCanvas);
+        }
+        batchedCanvas.awaitRendered();
+        singleCanvas.awaitRendered();
+        
+        boolean same = true;
+        for (int x = 0; x < 200; x++) {
+            for (int y = 0; y < 200; y++) {
+                if (batchedClient.getDrawingBuffer().getRGB(x, y) != singleClient.getDrawingBuffer().getRGB(x, y)) same = false;
+             }
+        }
+        assertTrue(same);
+    }
+    
+    @Test
+    public void cachedColorAndStrokeTest() {
+        Client client = new Client();
+        Canvas canvas = new Canvas(client);
+        assertTrue(canvas.cachedColor(0).equals(Color.BLACK));
+        assertTrue(canvas.cachedColor(Color.RED.getRGB()).equals(Color.RED));
+        assertTrue(canvas.cachedColor(16711680) == canvas.cachedColor(Color.RED.getRGB()));
+        assertTrue(canvas.cachedStroke(10).getLineWidth() == 10);
+        assertTrue(canvas.cachedStroke(10) == canvas.cachedStroke(10));
+        assertTrue(canvas.cachedStroke(10).equals(new BasicStroke(10)));
+    }
+    
+    @Test
+    public void drawLineSegmentAllocationTest() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        
+        Client client = new Client();
+        client.setDrawingBuffer(new TiledDrawingBuffer());
+        Canvas canvas = new Canvas(client);
+        long threadId = Thread.currentThread().getId();
+        long renderId = canvas.getRenderer().getId();
+        
+        // warm up so the drawing path is compiled before it is measured
+        drawSegments(canvas, 200000);
+        canvas.awaitRendered();
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        long renderBefore = allocations.getThreadAllocatedBytes(renderId);
+        drawSegments(canvas, 100000);
+        canvas.awaitRendered();
+        long after = allocations.getThreadAllocatedBytes(threadId);
+        long renderAfter = allocations.getThreadAllocatedBytes(renderId);
+        
+        // allow for the odd repaint timer restart, but nothing per segment
+        assertTrue("queueing allocated " + (after - before) + " bytes", after - before < 100000);
+        assertTrue("rendering allocated " + (renderAfter - renderBefore) + " bytes", renderAfter - renderBefore < 100000);
+        canvas.stopRendering();
+    }
+    
+    @Test
+    public void acceleratedFallbackTest() {
+        Client client = new Client();
+        client.setDrawingBuffer(new TiledDrawingBuffer());
+        client.getDrawingBuffer().setVisibleArea(new Rectangle(0, 0, 200, 200));
+        Canvas canvas = new Canvas(client);
+        canvas.setAccelerated(true);
+        assertTrue(canvas.isAccelerated());
+        canvas.setSize(200, 200);
+        canvas.drawLineSegment(20, 20, 180, 180, 0, 5);
+        canvas.awaitRendered();
+        
+        BufferedImage screen = new BufferedImage(200, 200, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = screen.createGraphics();
+        canvas.paintComponent(g);
+        g.dispose();
+        BufferedImage expected = client.getDrawingBuffer().snapshot();
+        boolean same = true;
+        for (int x = 0; x < 200; x++) {
+            for (int y = 0; y < 200; y++) {
+                if (screen.getRGB(x, y) != expected.getRGB(x, y)) same = false;
+            }
+        }
+        assertTrue(same);
+        assertTrue(screen.getRGB(100, 100) == Color.BLACK.getRGB());
+        
+        canvas.setAccelerated(false);
+        assertTrue(!canvas.isAccelerated());
+    }
+    
+    /**
+     * Draws count segments cycling through a few colors and widths
+     */
+    private void drawSegments(Canvas canvas, int count) {
+        for (int i = 0; i < count; i++) {
+            canvas.drawLineSegment(i % 300, (i * 7) % 300, (i * 3) % 300, (i * 11) % 300, (i % 5) * 1000, 1 + (i % 4));
+        }
+    }
+    
 }
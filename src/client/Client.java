@@ -1,7 +1,6 @@
 package client;
 
 import java.awt.Color;
-import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -9,17 +8,21 @@ import java.io.PrintWriter;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.Arrays;
-import java.util.Hashtable;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.net.NetworkInterface;
 import java.net.InetAddress;
 
 import javax.swing.SwingUtilities;
 
 import command.Command;
+import logging.Log;
 
 public class Client {
 
+	private static final Log LOG = Log.get("Client");
+
 	// Default port for the server
 	private static final int DEFAULT_PORT = 4444;
 
@@ -32,23 +35,20 @@ public class Client {
 	private Color currentColor = Color.BLACK;
 	//the width of the brush the user is currently drawing with
 	private float currentWidth = 10;
-	private BufferedImage drawingBuffer;
+	private TiledDrawingBuffer drawingBuffer;
 
 	// used for server-client communications:
-	// All data updated by server requests must also have a tracker as to whether it 
-	// has been updated.  All server responses are handled in a seperate thread so as
-	// to enable real time updates.  This means that each request for an update must 
-	// wait on these tracker variables to confirm that the server has responded with
-	// the updated information
+	// All server responses are handled in a seperate thread so as to enable real
+	// time updates.  Each request that expects a response is sent with a request
+	// id and registers a future with pendingRequests under that id, and the
+	// receive thread completes that future when the response echoing the id
+	// arrives.  Many requests may be outstanding at once.
 	private String[] boards = {};
 	private final long timeoutLength = 500L;
-	private Tracker boardsUpdated = new Tracker(false);
-	private Hashtable<String, Tracker> newBoardMade = new Hashtable<String, Tracker>();
-	private Hashtable<String, Tracker> newBoardSuccessful = new Hashtable<String, Tracker>();
-	private Tracker userCheckMade = new Tracker(false);
-	private Tracker usersUpdated = new Tracker(false);
+	private final PendingRequests pendingRequests = new PendingRequests();
+	// draws rendered locally before the server has acknowledged them
+	private final LocalEcho localEcho = new LocalEcho();
 	private String[] users = {};
-	private Tracker exitComplete = new Tracker(false);
 	private boolean isErasing;
 
 	//the socket with which the user connects to the client
@@ -91,9 +91,9 @@ public class Client {
 		// Construct the server IP
 		String serverIP = clientIP.substring(0, clientIP.indexOf('.', clientIP.indexOf('.') + 1)) + "." + part3 + "." + part4;
 		
-		System.out.println("Client IP Subnet: " + clientIP.substring(0, clientIP.indexOf('.', clientIP.indexOf('.') + 1)));
-		System.out.println("PIN: " + pin + " -> Parts: " + part3 + "." + part4);
-		System.out.println("Connecting to constructed server IP: " + serverIP);
+		LOG.info("Client IP Subnet: " + clientIP.substring(0, clientIP.indexOf('.', clientIP.indexOf('.') + 1)));
+		LOG.info("PIN: " + pin + " -> Parts: " + part3 + "." + part4);
+		LOG.info("Connecting to constructed server IP: " + serverIP);
 		
 		// Connect to the server with timeout
 		socket = new Socket();
@@ -135,7 +135,7 @@ public class Client {
                 }
             }
 		} catch (Exception e) {
-			System.err.println("Error getting IP address: " + e.getMessage());
+			LOG.error("Error getting IP address: " + e.getMessage());
 		}
 		// Fallback to localhost if we can't get the actual IP
 		return "127.0.0.1";
@@ -182,19 +182,29 @@ public class Client {
 	 */
 	public boolean createUser(String username, String boardName) throws Exception {
 		// Make request and wait for a response
-		userCheckMade.setValue(false);
-		makeRequest("checkAndAddUser "+username+" "+boardName).join();
-		timeout(userCheckMade, timeoutLength, "check and add user");
+		PendingRequests.await(requestCreateUser(username, boardName), false, "check and add user");
 
 		return (this.username != null && currentBoardName != null);
 	}
 
+	/**
+	 * Asynchronously asks the server to check the username and add the user to boardName
+	 * @param username: the user's choice of username
+	 * @param boardName: the board to enter
+	 * @return: future completed with whether the user was created
+	 * @throws IOException
+	 */
+	public CompletableFuture<Boolean> requestCreateUser(String username, String boardName) throws IOException {
+		return sendRequest("checkAndAddUser "+username+" "+boardName, "checkAndAddUser "+username+" "+boardName);
+	}
+
 	/**
 	 * Parses and stores response from server after newUser request is made
 	 * @param response: String response from the server
+	 * @return: true if the user was created
 	 * @throws Exception
 	 */
-	public void parseNewUserFromServerResponse(String response) throws Exception {
+	public boolean parseNewUserFromServerResponse(String response) throws Exception {
 		String[] elements = response.split(" ");
 		if(elements[0]!="check"&& elements.length!=4) {
 			throw new Exception("Server returned unexpected result: " + response);
@@ -205,7 +215,7 @@ public class Client {
 			this.username = elements[1];
 			this.currentBoardName = elements[2];
 		}
-		userCheckMade.setValue(true);
+		return created;
 	}
 
 
@@ -217,22 +227,44 @@ public class Client {
 	 */
 	public void switchBoard(String newBoardName) {
 		try {
+			localEcho.clear();
 			makeRequest("switch "+username+" "+currentBoardName+" "+newBoardName);
 			currentBoardName = newBoardName;
 			getCanvas().updateCurrentUserBoard();
 		} catch (IOException e) {
-			e.printStackTrace();
+			LOG.error("Could not switch to board " + newBoardName, e);
 		}
 	}
 
 
 	/**
-	 * Makes request to draw on the server
+	 * Makes request to draw on the server.  The command is sent with a request
+	 * id and remembered until the server acknowledges it, so it can be redrawn
+	 * if the server orders other draws before it.  See LocalEcho.  The command
+	 * must be drawn locally only after this returns, so that a draw received
+	 * before it is rendered is known to have overtaken it.
 	 * @param command
+	 * @return: the id the draw was sent with
 	 * @throws IOException
 	 */
-	public void makeDrawRequest(String command) throws IOException {
-		makeRequest("draw "+currentBoardName+" "+command);
+	public long makeDrawRequest(String command) throws IOException {
+		String request = "draw "+currentBoardName+" "+command;
+		long requestId = pendingRequests.nextRequestId();
+		localEcho.sent(requestId, new Command(request.split(" ")));
+		makeRequest("#"+requestId+" "+request);
+		return requestId;
+	}
+
+	/**
+	 * Handles the server's acknowledgement of a local draw, redrawing it if
+	 * draws ordered before it by the server were rendered over it here
+	 * @param requestId: id of the acknowledged draw
+	 */
+	public void acknowledgeDraw(long requestId) {
+		List<Command> redraw = localEcho.acknowledge(requestId);
+		if (!redraw.isEmpty() && redraw.get(0).checkBoardName(currentBoardName)) {
+			getCanvas().drawCommands(redraw);
+		}
 	}
 
 	/**
@@ -242,6 +274,7 @@ public class Client {
 	 */
 	public void commandCanvas(String boardName, Command command) {
 		if (command.checkBoardName(boardName)) {
+			localEcho.received(command);
 			command.invokeCommand(getCanvas());
 		}
 	}
@@ -251,9 +284,21 @@ public class Client {
 	 * @param command: command to be applied to canvas
 	 */
 	public void applyCommand(Command command) {
+		localEcho.received(command);
 		command.invokeCommand(getCanvas());
 	}
 
+	/**
+	 * invokes a batch of commands on canvas, repainting once for the whole batch
+	 * @param commands: commands to be applied to canvas, in order
+	 */
+	public void applyCommands(List<Command> commands) {
+		for (Command command : commands) {
+			localEcho.received(command);
+		}
+		getCanvas().drawCommands(commands);
+	}
+
 
 
 
@@ -266,38 +311,35 @@ public class Client {
 	 * @return true if the board creation is successful, false if not
 	 */
 	public boolean newBoard(String newBoardName) throws Exception {
-		if (newBoardMade.containsKey(newBoardName)) return false;
+		if (pendingRequests.isPending("newBoard "+newBoardName)) return false;
 
-		// make request and wait for response
-		newBoardMade.put(newBoardName, new Tracker(false));
-		newBoardSuccessful.put(newBoardName, new Tracker(true));
-		makeRequest("newBoard "+newBoardName).join();
-		timeout(newBoardMade.get(newBoardName), timeoutLength, "new board");
+		// make request and wait for response; a board whose creation times
+		// out is assumed to have been made, as before
+		return PendingRequests.await(requestNewBoard(newBoardName), true, "new board");
+	}
 
-		// check if we got a successful response
-		boolean successful = newBoardSuccessful.get(newBoardName).getValue();
-		newBoardMade.remove(newBoardName);
-		newBoardSuccessful.remove(newBoardName);
-		return successful;
+	/**
+	 * Asynchronously asks the server to create a board named newBoardName
+	 * @param newBoardName: the name to name the new board with
+	 * @return: future completed with whether the board creation was successful
+	 * @throws IOException
+	 */
+	public CompletableFuture<Boolean> requestNewBoard(String newBoardName) throws IOException {
+		return sendRequest("newBoard "+newBoardName, "newBoard "+newBoardName);
 	}
 
 	/**
-	 * Parses and stores response from server after new board request is made
+	 * Parses response from server after new board request is made
 	 * @param response: response from server
+	 * @return: true if the board was created
 	 * @throws Exception
 	 */
-	public void parseNewBoardFromServerResponse(String response) throws Exception {
+	public boolean parseNewBoardFromServerResponse(String response) throws Exception {
 		if(!response.contains("newBoard")) {
 			throw new Exception("Server returned unexpected result: " + response);
 		}
 		String[] elements = response.split(" ");
-		String boardName = elements[1];
-		boolean successful = Boolean.valueOf(elements[2]);
-
-		Tracker nbs = newBoardSuccessful.get(boardName);
-		if (!(nbs == null)) { nbs.setValue(successful); }
-		Tracker nbm = newBoardMade.get(boardName);
-		if (!(nbm == null)) { nbm.setValue(true); }
+		return Boolean.valueOf(elements[2]);
 	}
 
 	/**
@@ -305,11 +347,16 @@ public class Client {
 	 */
 	public String[] getUsers() throws Exception {
 		// Make request for users and wait for response
-		usersUpdated.setValue(false);
-		makeRequest("users "+currentBoardName);
-		timeout(usersUpdated, timeoutLength, "Updateing Users");
+		return PendingRequests.await(requestUsers(), users, "Updateing Users");
+	}
 
-		return users;
+	/**
+	 * Asynchronously requests the users for the current board from the server
+	 * @return: future completed with the users on the current board
+	 * @throws IOException
+	 */
+	public CompletableFuture<String[]> requestUsers() throws IOException {
+		return sendRequest("users "+currentBoardName, "users "+currentBoardName);
 	}
 
 	/**
@@ -318,7 +365,6 @@ public class Client {
 	 */
 	public void setUsers(String[] newUsers) {
 		users = newUsers;
-		usersUpdated.setValue(true);
 	}
 
 	/**
@@ -345,15 +391,19 @@ public class Client {
 	 */
 	public String[] getBoards() throws Exception {
 
-		boardsUpdated.setValue(false);
 		// make request for board update and wait for it to finish
-		makeRequest("boards").join();
-		timeout(boardsUpdated, timeoutLength, "boards update");
+		// if it times out then it will return what it last had
+		return PendingRequests.await(requestBoards(), this.boards, "boards update");
 
-		// boards by now will have either been updated, or if it times out
-		// then it will return what it last had
-		return this.boards;
+	}
 
+	/**
+	 * Asynchronously requests the boards currently stored on the server
+	 * @return: future completed with the board names on the server
+	 * @throws IOException
+	 */
+	public CompletableFuture<String[]> requestBoards() throws IOException {
+		return sendRequest("boards", "boards");
 	}
 
 	/**
@@ -362,7 +412,6 @@ public class Client {
 	 */
 	public void setBoards(String[] newBoards) {
 		boards = newBoards;
-		boardsUpdated.setValue(true);
 	}
 
 	/**
@@ -385,28 +434,22 @@ public class Client {
 
 
 	/**
-	 * Timeout function.  Waits on Tracker passed in to change to true, or returns after
-	 * a certain timeout length and prints a timeout error.  Returns true if it does 
-	 * time out, false otherwise.
+	 * Registers a pending request under a new request id and then sends request,
+	 * prefixed with "#id", to the server.  Registration happens first so a fast
+	 * response can't be missed.
 	 * 
-	 * @param variable: Tracker object to watch for a change to true
-	 * @param timeoutLength: Time to wait before timing out
-	 * @param timeoutMessage: Message to append to error log in event of time out
-	 * @return: true if it times out, false if variable becomes true before then
-	 */
-	public boolean timeout(Tracker variable, long timeoutLength, String timeoutMessage) {
-		long startTime = System.currentTimeMillis();
-
-		// Keep going until the variable becomes true or we timeout
-		while(!variable.getValue()) {
-			long currentTime = System.currentTimeMillis();
-			if(currentTime >= startTime + timeoutLength) {
-				System.err.println("Timeout on: " + timeoutMessage);
-				return true;
-			}
-		}
-
-		return false;
+	 * @param request: String of request you want to send
+	 * @param responseKey: key of the response that completes this request, used
+	 *                     if the response comes back without the request id
+	 * @return: future completed by the receive thread when the response arrives,
+	 *          or exceptionally if it times out
+	 * @throws IOException
+	 */
+	public <T> CompletableFuture<T> sendRequest(String request, String responseKey) throws IOException {
+		long requestId = pendingRequests.nextRequestId();
+		CompletableFuture<T> response = pendingRequests.register(requestId, responseKey, timeoutLength);
+		makeRequest("#"+requestId+" "+request);
+		return response;
 	}
 
 	/**
@@ -519,16 +562,16 @@ public class Client {
 	 * Getter for drawingBuffer
 	 * @return
 	 */
-	public BufferedImage getDrawingBuffer() {
+	public TiledDrawingBuffer getDrawingBuffer() {
 		return drawingBuffer;
 	}
 
 	/**
 	 * Setter for drawingBuffer
-	 * @param newImage
+	 * @param newBuffer
 	 */
-	public void setDrawingBuffer(BufferedImage newImage) {
-		drawingBuffer = newImage;
+	public void setDrawingBuffer(TiledDrawingBuffer newBuffer) {
+		drawingBuffer = newBuffer;
 	}
 
 	/**
@@ -547,30 +590,21 @@ public class Client {
 		return isErasing;
 	}
 
-	/**
-	 * Confirms exit of client from server
-	 */
-	public void completeExit() {
-		exitComplete.setValue(true);
-	}
-	
 	public void kill() {
 		try {
 			// kill receiving thread and wait for it to close out
 			if (username!= null) {
-				try {
-					exitComplete.setValue(false);
-					makeRequest("exit "+username).join();
-					timeout(exitComplete, timeoutLength, "Exiting");
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
+				PendingRequests.await(sendRequest("exit "+username, "exit "+username), false, "Exiting");
 			}
 			
 			// Only kill receiveProtocol if it exists (client is connected)
 			if (receiveProtocol != null) {
 				receiveProtocol.kill();
 			}
+			pendingRequests.failAll(new IOException("Client closed"));
+			if (clientGUI != null && getCanvas() != null) {
+				getCanvas().stopRendering();
+			}
 
 			// Only close socket if it exists and is not already closed
 			if (socket != null && !socket.isClosed()) {
@@ -579,7 +613,7 @@ public class Client {
 				socket.close();
 			}
 		} catch (IOException e) {
-			e.printStackTrace();
+			LOG.error("Error closing connection", e);
 		}
 	}
 
@@ -607,18 +641,19 @@ public class Client {
     }
     
     /**
-     * Testing purposes for new board method
+     * For testing purposes. Gets the requests awaiting a server response
      * @return
      */
-    public Hashtable<String, Tracker> getBoardSuccessful() {
-        return newBoardSuccessful;
+    public PendingRequests getPendingRequests() {
+        return pendingRequests;
     }
     
     /**
-     * Get exitComplete
+     * For testing purposes. Gets the draws awaiting the server's acknowledgement
+     * @return
      */
-    public Tracker getExitComplete() {
-        return exitComplete;
+    public LocalEcho getLocalEcho() {
+        return localEcho;
     }
     
     /*
@@ -632,7 +667,7 @@ public class Client {
 					Client client = new Client(); // Use new constructor that doesn't connect immediately
 					client.startGUI();
 				} catch (Exception e) {
-					e.printStackTrace();
+					LOG.error("Error starting client", e);
 				}
 			}
 		});
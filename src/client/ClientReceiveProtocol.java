@@ -2,12 +2,24 @@ package client;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import command.Command;
+import logging.Log;
 
 
 public class ClientReceiveProtocol implements Runnable {
     
+    private static final Log LOG = Log.get("ClientReceiveProtocol");
+    // responses that couldn't be understood, sampled so a misbehaving server
+    // can't flood the console
+    private static final Log.Sampled INVALID = LOG.sampled(Log.Level.WARN);
+    
+    // draws already waiting in the stream are rendered together, up to this many at a time
+    private static final int MAX_DRAW_BATCH = 4096;
+    private static final String DRAW_REGEX = "draw [a-zA-Z0-9\\.]+( [a-zA-Z0-9\\.]+)+";
+    
     private final BufferedReader in;
     private final Client client;
     private boolean isRunning = true;
@@ -38,13 +50,63 @@ public class ClientReceiveProtocol implements Runnable {
     /**
      * Handle connection to server. Returns when client disconnects.
      * 
+     * Draw lines that are already buffered behind one another, such as the
+     * history that follows a switch response or a burst from other users, are
+     * collected without blocking and rendered as a single batch.
+     * 
      * @param socket socket where the client is connected
      * @throws IOException if connection has an error or terminates unexpectedly
      */
     private void handleConnection(BufferedReader in) throws IOException {        
 
-        for (String line = in.readLine(); line != null; line = in.readLine()) {
-        	handleRequest(line);                
+        String line = in.readLine();
+        while (line != null) {
+            if (line.startsWith("draw ")) {
+                List<String> batch = new ArrayList<String>();
+                batch.add(line);
+                line = null;
+                while (batch.size() < MAX_DRAW_BATCH && in.ready()) {
+                    String next = in.readLine();
+                    if (next != null && next.startsWith("draw ")) {
+                        batch.add(next);
+                    } else {
+                        line = next;
+                        break;
+                    }
+                }
+                handleDraws(batch);
+                if (line == null) {
+                    line = in.readLine();
+                }
+            } else {
+                handleRequest(line);
+                line = in.readLine();
+            }
+        }
+    }
+    
+    /**
+     * Handler for a batch of consecutive draw messages from the server.  Draws
+     * for the current board are applied to the canvas together.
+     * 
+     * @param lines draw messages, in the order they were received
+     */
+    private void handleDraws(List<String> lines) {
+        List<Command> commands = new ArrayList<Command>(lines.size());
+        for (String line : lines) {
+            if (line.matches(DRAW_REGEX)) {
+                Command command = new Command(line.split(" "));
+                if (command.checkBoardName(client.getCurrentBoardName())) {
+                    commands.add(command);
+                }
+            } else if (INVALID.sample()) {
+                INVALID.log("Invalid response: " + line);
+            }
+        }
+        try {
+            client.applyCommands(commands);
+        } catch (Exception e) {
+            LOG.error("Error applying draws", e);
         }
     }
     
@@ -56,16 +118,23 @@ public class ClientReceiveProtocol implements Runnable {
      * Update Available Boards = "boards board1 board2 board3"
      * Draw = "draw boardName command param1 param2 param3"
      *      Example: "draw boardName drawLineSegment x1 y1 x2 y2 color width"
+     * Draw acknowledgement = "draw", answering one of this client's own draws
      * Check and add User = "checkAndAddUser username boardName boolean"
      * New Board = "newBoard boardName boolean"
      * 
+     * Any response may be prefixed with the request id of the request it answers,
+     * as in "#id boards board1 board2".  Responses with an id complete the request
+     * with that id; responses without one complete the oldest matching request.
+     * 
      * @param input message from server
      * @return message to client
      * @throws IOException 
      */
     private void handleRequest(String input) throws IOException, IllegalArgumentException {
     	String nameReg = "[a-zA-Z0-9\\.]+";
-    	String regex = "(draw "+nameReg+"( "+nameReg+")+)|"
+    	// at most 18 digits, so any id fits in a long
+    	String requestIdReg = "#[0-9]{1,18}";
+    	String regex = "(draw "+nameReg+"( "+nameReg+")+)|(draw)|"
 		    			+ "(users( "+nameReg+")+)|"
 						+ "(exit "+nameReg+")|"
 		    	        +"(boards( "+nameReg+")*)|"
@@ -73,6 +142,13 @@ public class ClientReceiveProtocol implements Runnable {
 		    	        +"(newBoard "+nameReg+" (true|false))|"
 		        		+ "(switch "+nameReg+" "+nameReg+" "+nameReg+")";
     	
+    	// strip off the request id, if the response carries one
+    	String requestId = null;
+    	if (input.matches(requestIdReg+" .*")) {
+    		requestId = input.substring(1, input.indexOf(' '));
+    		input = input.substring(input.indexOf(' ')+1);
+    	}
+    	
     	// make sure it's a valid input
         if (input.matches(regex)) {
             try {
@@ -80,27 +156,39 @@ public class ClientReceiveProtocol implements Runnable {
 	        	
 	        	//take the boards from the response and set them to the list of boards
 	            if (tokens[0].equals("boards")) {
-					client.setBoards(client.parseBoardsFromServerResponse(input));
+	                String[] boards = client.parseBoardsFromServerResponse(input);
+					client.setBoards(boards);
+					completeRequest(requestId, "boards", boards);
 	            } 
 	            //parse from the response whether the board has been created
 	            else if (tokens[0].equals("newBoard")) {
-	                client.parseNewBoardFromServerResponse(input);
+	                boolean created = client.parseNewBoardFromServerResponse(input);
+	                completeRequest(requestId, "newBoard "+tokens[1], created);
 	            } 
 	            //parse from the response whether the new user has entered successfully
 	            else if (tokens[0].equals("checkAndAddUser")) {
-	                client.parseNewUserFromServerResponse(input);
+	                boolean created = client.parseNewUserFromServerResponse(input);
+	                completeRequest(requestId, "checkAndAddUser "+tokens[1]+" "+tokens[2], created);
 	            } 
 	            //is the set of users is for the correct board
 	            //parse the users from the response and set them to the list of users
 	            else if (tokens[0].equals("users")) {
+	                String[] users = client.parseUsersFromServerResponse(input);
 	                if (client.checkForCorrectBoard(tokens[1])) {   
-	                    client.setUsers(client.parseUsersFromServerResponse(input));
+	                    client.setUsers(users);
 	                }
+	                completeRequest(requestId, "users "+tokens[1], users);
 	            } 
 	            //when the response is received,the client has exited the server and the threads can be stopped
 	            else if (tokens[0].equals("exit")) {
-	                client.completeExit();
+	                completeRequest(requestId, "exit "+tokens[1], true);
 	            } 
+	            //the server has appended one of our own draws, which was already drawn locally
+	            else if (tokens[0].equals("draw") && tokens.length == 1) {
+	                if (requestId != null) {
+	                    client.acknowledgeDraw(Long.parseLong(requestId));
+	                }
+	            }
 	            //check that the draw command is for this board
 	            //invoke the command received on the client's canvas
 	            else if (tokens[0].equals("draw")) {
@@ -110,14 +198,28 @@ public class ClientReceiveProtocol implements Runnable {
 	                }
 	            }
             } catch (Exception e) {
-            	e.printStackTrace();
+            	LOG.error("Error handling response: " + input, e);
             }
-        } else {
-        	System.out.println("Invalid response");
+        } else if (INVALID.sample()) {
+        	INVALID.log("Invalid response: " + input);
         }
    
     }
 
+    /**
+     * Completes the pending request answered by a response
+     * @param requestId: id echoed on the response, or null if it had none
+     * @param responseKey: key of the response, used when there is no id
+     * @param value: parsed response
+     */
+    private void completeRequest(String requestId, String responseKey, Object value) {
+        if (requestId != null) {
+            client.getPendingRequests().complete(Long.parseLong(requestId), value);
+        } else {
+            client.getPendingRequests().complete(responseKey, value);
+        }
+    }
+
     /**
      * Used to kill thread from outside
      */
@@ -6,9 +6,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.Test;
 
+import command.Command;
 import server.Server;
 
 /**
@@ -36,6 +38,11 @@ import server.Server;
  *      Add multiple true and false boards
  *  Exit:
  *      Test exit connection
+ *  Request Ids:
+ *      Complete requests out of order
+ *      Ids too long for a long make the response invalid
+ *  Draw Acknowledgement:
+ *      Acknowledges an unacknowledged local draw
  *      
  *
  * @category no_didit
@@ -353,11 +360,12 @@ public class ClientReceiveProtocolTest {
         Client client = new Client("localhost");
         ClientReceiveProtocol protocol = client.getClientReceiveProtocol();
         
+        CompletableFuture<Boolean> boardMade = client.getPendingRequests().register("newBoard board", 1000);
         String input = "newBoard board true";
         protocol.testHandleRequest(input);
         
-        assertTrue(client.getBoardSuccessful().containsKey("board"));
-        assertTrue(client.getBoardSuccessful().get("board").getValue() == true);
+        assertTrue(boardMade.isDone());
+        assertTrue(boardMade.get() == true);
     }
     
     @Test
@@ -379,15 +387,17 @@ public class ClientReceiveProtocolTest {
         Client client = new Client("localhost");
         ClientReceiveProtocol protocol = client.getClientReceiveProtocol();
         
+        CompletableFuture<Boolean> boardMade = client.getPendingRequests().register("newBoard board", 1000);
         String input = "newBoard board true";
         protocol.testHandleRequest(input);
-        assertTrue(client.getBoardSuccessful().containsKey("board"));
-        assertTrue(client.getBoardSuccessful().get("board").getValue() == true);
+        assertTrue(boardMade.isDone());
+        assertTrue(boardMade.get() == true);
         
+        CompletableFuture<Boolean> board2Made = client.getPendingRequests().register("newBoard board2", 1000);
         String input2 = "newBoard board2 true";
         protocol.testHandleRequest(input2);
-        assertTrue(client.getBoardSuccessful().containsKey("board2"));
-        assertTrue(client.getBoardSuccessful().get("board2").getValue() == true);
+        assertTrue(board2Made.isDone());
+        assertTrue(board2Made.get() == true);
     }
     
     @Test
@@ -409,15 +419,17 @@ public class ClientReceiveProtocolTest {
         Client client = new Client("localhost");
         ClientReceiveProtocol protocol = client.getClientReceiveProtocol();
         
+        CompletableFuture<Boolean> boardMade = client.getPendingRequests().register("newBoard board", 1000);
         String input = "newBoard board false";
         protocol.testHandleRequest(input);
-        assertTrue(client.getBoardSuccessful().containsKey("board"));
-        assertTrue(client.getBoardSuccessful().get("board").getValue() == false);
+        assertTrue(boardMade.isDone());
+        assertTrue(boardMade.get() == false);
         
+        CompletableFuture<Boolean> board2Made = client.getPendingRequests().register("newBoard board2", 1000);
         String input2 = "newBoard board2 false";
         protocol.testHandleRequest(input2);
-        assertTrue(client.getBoardSuccessful().containsKey("board2"));
-        assertTrue(client.getBoardSuccessful().get("board2").getValue() == false);
+        assertTrue(board2Made.isDone());
+        assertTrue(board2Made.get() == false);
     }
     @Test
     // add one true one false
@@ -438,15 +450,17 @@ public class ClientReceiveProtocolTest {
         Client client = new Client("localhost");
         ClientReceiveProtocol protocol = client.getClientReceiveProtocol();
         
+        CompletableFuture<Boolean> boardMade = client.getPendingRequests().register("newBoard board", 1000);
         String input = "newBoard board false";
         protocol.testHandleRequest(input);
-        assertTrue(client.getBoardSuccessful().containsKey("board"));
-        assertTrue(client.getBoardSuccessful().get("board").getValue() == false);
+        assertTrue(boardMade.isDone());
+        assertTrue(boardMade.get() == false);
         
+        CompletableFuture<Boolean> board2Made = client.getPendingRequests().register("newBoard board2", 1000);
         String input2 = "newBoard board2 true";
         protocol.testHandleRequest(input2);
-        assertTrue(client.getBoardSuccessful().containsKey("board2"));
-        assertTrue(client.getBoardSuccessful().get("board2").getValue() == true);
+        assertTrue(board2Made.isDone());
+        assertTrue(board2Made.get() == true);
     }
     
     @Test
@@ -469,10 +483,11 @@ public class ClientReceiveProtocolTest {
         ClientReceiveProtocol protocol = client.getClientReceiveProtocol();
         
         for (int i=0; i<100; i++) {
+            CompletableFuture<Boolean> boardMade = client.getPendingRequests().register("newBoard board" + i, 1000);
             String input = "newBoard board" + i + " true";
             protocol.testHandleRequest(input);
-            assertTrue(client.getBoardSuccessful().containsKey("board" + i));
-            assertTrue(client.getBoardSuccessful().get("board" + i).getValue() == true);
+            assertTrue(boardMade.isDone());
+            assertTrue(boardMade.get() == true);
         }
     }
     
@@ -496,10 +511,11 @@ public class ClientReceiveProtocolTest {
         ClientReceiveProtocol protocol = client.getClientReceiveProtocol();
         
         for (int i=0; i<100; i++) {
+            CompletableFuture<Boolean> boardMade = client.getPendingRequests().register("newBoard board" + i, 1000);
             String input = "newBoard board" + i + " false";
             protocol.testHandleRequest(input);
-            assertTrue(client.getBoardSuccessful().containsKey("board" + i));
-            assertTrue(client.getBoardSuccessful().get("board" + i).getValue() == false);
+            assertTrue(boardMade.isDone());
+            assertTrue(boardMade.get() == false);
         }
     }
     
@@ -524,9 +540,72 @@ public class ClientReceiveProtocolTest {
         Client client = new Client("localhost");
         ClientReceiveProtocol protocol = client.getClientReceiveProtocol();
         
-        assertFalse(client.getExitComplete().getValue());
+        CompletableFuture<Boolean> exitComplete = client.getPendingRequests().register("exit user", 1000);
+        assertFalse(exitComplete.isDone());
         String input = "exit user";
         protocol.testHandleRequest(input);
-        assertTrue(client.getExitComplete().getValue());
+        assertTrue(exitComplete.isDone());
     }
-}
\ No newline at end of file
+    
+    /****************************** Request Ids *******************************/
+    
+    @Test
+    // responses with request ids complete their requests out of order
+    public void outOfOrderRequestIdsTest() throws Exception{
+        Thread t1 = new Thread(new Runnable() {
+            public void run() {
+                Server server;
+                try {
+                    server = new Server(4444);
+                    server.serve();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        t1.start();
+        
+        Client client = new Client("localhost");
+        ClientReceiveProtocol protocol = client.getClientReceiveProtocol();
+        
+        CompletableFuture<String[]> boards = client.getPendingRequests().register(101, "boards", 1000);
+        CompletableFuture<Boolean> boardMade = client.getPendingRequests().register(102, "newBoard board", 1000);
+        
+        protocol.testHandleRequest("#102 newBoard board true");
+        assertTrue(boardMade.get());
+        assertFalse(boards.isDone());
+        
+        protocol.testHandleRequest("#101 boards board1 board2");
+        assertTrue(Arrays.equals(boards.get(), new String[] {"board1", "board2"}));
+        
+        CompletableFuture<String[]> more = client.getPendingRequests().register(103, "boards", 1000);
+        protocol.testHandleRequest("#12345678901234567890 boards board1");
+        protocol.testHandleRequest("#12345678901234567890 draw");
+        assertFalse(more.isDone());
+    }
+    
+    /******************** Draw Acknowledgement  *****************/
+    @Test
+    public void drawAcknowledgementTest() throws Exception{
+        Thread t1 = new Thread(new Runnable() {
+            public void run() {
+                Server server;
+                try {
+                    server = new Server(4444);
+                    server.serve();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        t1.start();
+        
+        Client client = new Client("localhost");
+        ClientReceiveProtocol protocol = client.getClientReceiveProtocol();
+        
+        client.getLocalEcho().sent(7, new Command("draw board drawLineSegment 1 2 3 4 0 4.0".split(" ")));
+        assertEquals(1, client.getLocalEcho().size());
+        protocol.testHandleRequest("#7 draw");
+        assertEquals(0, client.getLocalEcho().size());
+    }
+}
@@ -3,6 +3,9 @@ package client;
 import static org.junit.Assert.*;
 
 import java.awt.image.BufferedImage;
+import java.net.ServerSocket;
+import java.util.List;
+
 import org.junit.Test;
 
 import command.Command;
@@ -20,6 +23,8 @@ public class ClientTest {
 	 * Testing Strategy:
 	 * - Test that all of the board methods work
 	 * - Test basic interactions between boards and servers
+	 * - Test a local draw is awaiting acknowledgement as soon as it is sent,
+	 *   before it is rendered, so a draw received in between overtakes it
 	 */
 	
 	@Test
@@ -44,6 +49,23 @@ public class ClientTest {
 		Thread.sleep(100);
 	}
 	
+	@Test
+	public void testDrawSentBeforeRendered() throws Exception {
+		// a server that never acknowledges, so the draw stays outstanding
+		try (ServerSocket server = new ServerSocket(4444)) {
+			Client client = new Client("localhost");
+			long requestId = client.makeDrawRequest("drawLineSegment 0 0 10 10 0 4.0");
+			assertEquals(1, client.getLocalEcho().size());
+
+			// a remote draw arriving before the local draw is rendered
+			client.getLocalEcho().received(new Command("draw board drawLineSegment 5 0 5 20 0 4.0".split(" ")));
+			List<Command> redraw = client.getLocalEcho().acknowledge(requestId);
+			assertEquals(1, redraw.size());
+			assertEquals("drawLineSegment", redraw.get(0).getName());
+			client.kill();
+		}
+	}
+
 	@Test
 	public void testAllTheThings() throws Exception {
 		Server server = Helper.serverSetup(4444);
@@ -77,9 +99,10 @@ public class ClientTest {
 		
 		new Command("draw board1 drawLineSegment 50 50 60 60 0 10.0".split(" ")).invokeCommand(client1.getCanvas());
 		client1.makeDrawRequest("drawLineSegment 50 50 60 60 0 10.0");
+		client1.getCanvas().awaitRendered();
 		
-		BufferedImage imageDrawn = client1.getDrawingBuffer();
-		BufferedImage imageInvoked = client2.getDrawingBuffer();
+		BufferedImage imageDrawn = client1.getDrawingBuffer().snapshot();
+		BufferedImage imageInvoked = client2.getDrawingBuffer().snapshot();
 		
         boolean same = true;
         for (int x = 0; x < imageInvoked.getWidth(); x++) {
@@ -0,0 +1,156 @@
+package client;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import command.Command;
+
+/**
+ * Tracks the draws this client has rendered optimistically but the server
+ * has not yet acknowledged, and works out which of them must be redrawn so
+ * the canvas ends up matching the order the server put them in.
+ *
+ * A local draw is rendered as soon as it is made and sent with a request id.
+ * The server appends it to the board's history, broadcasts it to everyone
+ * else, and answers the sender with just "#id draw" rather than echoing the
+ * whole command back.  Anything that reaches this client before that
+ * acknowledgement was ordered before the local draw by the server, but was
+ * rendered after it here.  If such a draw overlaps the local draw, the local
+ * draw is marked overtaken, and is drawn again once it is acknowledged,
+ * putting it back on top as it is on every other client.  That redraw in
+ * turn lands on top of the later local draws still awaiting their
+ * acknowledgement, so any of them it overlaps are marked overtaken too.
+ *
+ * Concurrency Argument:
+ *   - This class is made concurrent by the monitor pattern.
+ */
+public class LocalEcho {
+
+	// draws never acknowledged, e.g. because the connection dropped, are
+	// forgotten once this many are outstanding
+	private static final int MAX_UNACKNOWLEDGED = 4096;
+
+	/**
+	 * A draw rendered locally and awaiting its acknowledgement
+	 */
+	private static class Local {
+		private final Command command;
+		private final Rectangle bounds;
+		private boolean overtaken = false;
+
+		private Local(Command command) {
+			this.command = command;
+			this.bounds = bounds(command);
+		}
+	}
+
+	// in the order the draws were made
+	private final LinkedHashMap<Long, Local> unacknowledged = new LinkedHashMap<Long, Local>();
+
+	/**
+	 * Records a draw that has been rendered locally and sent to the server
+	 * @param requestId: id the draw was sent with
+	 * @param command: the draw
+	 */
+	public synchronized void sent(long requestId, Command command) {
+		unacknowledged.put(requestId, new Local(command));
+		if (unacknowledged.size() > MAX_UNACKNOWLEDGED) {
+			Iterator<Long> oldest = unacknowledged.keySet().iterator();
+			oldest.next();
+			oldest.remove();
+		}
+	}
+
+	/**
+	 * Records a draw from another client, rendered on top of every
+	 * unacknowledged local draw although the server ordered it before them
+	 * @param command: the draw received
+	 */
+	public synchronized void received(Command command) {
+		if (unacknowledged.isEmpty()) {
+			return;
+		}
+		overtake(bounds(command));
+	}
+
+	/**
+	 * Records the server's acknowledgement of a local draw
+	 * @param requestId: id echoed on the acknowledgement
+	 * @return: the draws to render again to match the server's order, which
+	 *          is either nothing or the acknowledged draw itself
+	 */
+	public synchronized List<Command> acknowledge(long requestId) {
+		Local acknowledged = unacknowledged.remove(requestId);
+		if (acknowledged == null) {
+			return Collections.emptyList();
+		}
+		// local draws made before this one but still unacknowledged are now
+		// known to come after it in the server's order, but are beneath it here
+		for (Map.Entry<Long, Local> entry : unacknowledged.entrySet()) {
+			if (entry.getKey() < requestId && overlaps(entry.getValue().bounds, acknowledged.bounds)) {
+				entry.getValue().overtaken = true;
+			}
+		}
+		if (!acknowledged.overtaken) {
+			return Collections.emptyList();
+		}
+		// the redraw goes on top of every local draw still unacknowledged,
+		// just as a draw received would
+		overtake(acknowledged.bounds);
+		List<Command> redraw = new ArrayList<Command>(1);
+		redraw.add(acknowledged.command);
+		return redraw;
+	}
+
+	/**
+	 * Marks every unacknowledged draw overlapping a region as overtaken
+	 * @param bounds: the region drawn on top of them, or null if not known
+	 */
+	private void overtake(Rectangle bounds) {
+		for (Local local : unacknowledged.values()) {
+			if (overlaps(local.bounds, bounds)) {
+				local.overtaken = true;
+			}
+		}
+	}
+
+	/**
+	 * Forgets every unacknowledged draw, such as when switching boards
+	 */
+	public synchronized void clear() {
+		unacknowledged.clear();
+	}
+
+	/**
+	 * @return: the number of local draws awaiting acknowledgement
+	 */
+	public synchronized int size() {
+		return unacknowledged.size();
+	}
+
+	/**
+	 * @return: the region a draw covers, or null if it isn't known, in which
+	 *          case it is taken to overlap everything
+	 */
+	private static Rectangle bounds(Command command) {
+		String[] args = command.getArguments();
+		if (!command.getName().equals("drawLineSegment") || args.length != 6) {
+			return null;
+		}
+		try {
+			return Canvas.lineBounds(Integer.parseInt(args[0]), Integer.parseInt(args[1]),
+					Integer.parseInt(args[2]), Integer.parseInt(args[3]), Float.parseFloat(args[5]));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static boolean overlaps(Rectangle a, Rectangle b) {
+		return a == null || b == null || a.intersects(b);
+	}
+}
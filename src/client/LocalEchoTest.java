@@ -0,0 +1,97 @@
+package client;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import command.Command;
+
+public class LocalEchoTest {
+
+	/*
+	 * Testing Strategy:
+	 *
+	 * - Test acknowledging a draw nothing overtook needs no redraw
+	 * - Test a remote draw overlapping an unacknowledged draw causes a redraw
+	 *   on acknowledgement; one that doesn't overlap doesn't
+	 * - Test local draws acknowledged out of order redraw the earlier draw
+	 * - Test redrawing an overtaken draw overtakes the later unacknowledged
+	 *   draws it overlaps, though the remote draw didn't overlap them
+	 * - Test unknown acknowledgements and clear
+	 */
+
+	private static Command segment(int x1, int y1, int x2, int y2) {
+		return new Command(("draw board drawLineSegment "+x1+" "+y1+" "+x2+" "+y2+" 0 4.0").split(" "));
+	}
+
+	@Test
+	public void testAcknowledgeInOrder() {
+		LocalEcho echo = new LocalEcho();
+		echo.sent(1, segment(0, 0, 10, 10));
+		echo.sent(2, segment(5, 5, 20, 20));
+		assertEquals(2, echo.size());
+		assertTrue(echo.acknowledge(1).isEmpty());
+		assertTrue(echo.acknowledge(2).isEmpty());
+		assertEquals(0, echo.size());
+	}
+
+	@Test
+	public void testRemoteOvertakes() {
+		LocalEcho echo = new LocalEcho();
+		Command local = segment(0, 0, 10, 10);
+		echo.sent(1, local);
+		echo.sent(2, segment(500, 500, 510, 510));
+		echo.received(segment(5, 0, 5, 20));
+		List<Command> redraw = echo.acknowledge(1);
+		assertEquals(1, redraw.size());
+		assertSame(local, redraw.get(0));
+		assertTrue(echo.acknowledge(2).isEmpty());
+	}
+
+	@Test
+	public void testLocalReordered() {
+		LocalEcho echo = new LocalEcho();
+		Command first = segment(0, 0, 10, 10);
+		echo.sent(1, first);
+		echo.sent(2, segment(0, 10, 10, 0));
+		assertTrue(echo.acknowledge(2).isEmpty());
+		List<Command> redraw = echo.acknowledge(1);
+		assertEquals(1, redraw.size());
+		assertSame(first, redraw.get(0));
+	}
+
+	@Test
+	public void testRedrawOvertakes() {
+		LocalEcho echo = new LocalEcho();
+		Command first = segment(0, 50, 200, 50);
+		Command second = segment(100, 0, 100, 100);
+		Command third = segment(150, 0, 150, 100);
+		echo.sent(1, first);
+		echo.sent(2, second);
+		echo.sent(3, third);
+		// crosses only the first
+		echo.received(segment(0, 0, 0, 100));
+		List<Command> redraw = echo.acknowledge(1);
+		assertEquals(1, redraw.size());
+		assertSame(first, redraw.get(0));
+		redraw = echo.acknowledge(2);
+		assertEquals(1, redraw.size());
+		assertSame(second, redraw.get(0));
+		redraw = echo.acknowledge(3);
+		assertEquals(1, redraw.size());
+		assertSame(third, redraw.get(0));
+	}
+
+	@Test
+	public void testUnknownAndClear() {
+		LocalEcho echo = new LocalEcho();
+		assertTrue(echo.acknowledge(42).isEmpty());
+		echo.sent(1, segment(0, 0, 10, 10));
+		echo.received(segment(0, 0, 10, 10));
+		echo.clear();
+		assertEquals(0, echo.size());
+		assertTrue(echo.acknowledge(1).isEmpty());
+	}
+}
@@ -0,0 +1,163 @@
+package client;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import logging.Log;
+
+/**
+ * Correlates requests sent to the server with the responses that come back on
+ * the receive thread.  Each outstanding request is given a request id, which is
+ * sent to the server as a "#id" prefix and echoed back on its response, and is
+ * handed back as a CompletableFuture which ClientReceiveProtocol completes when
+ * the matching response arrives.  This lets many requests be in flight on one
+ * connection at once.  Responses that carry no id are matched to the oldest
+ * outstanding request with the same response key instead.  Timeouts are
+ * scheduled on the future rather than polled, so waiting callers block
+ * without spinning.
+ *
+ * Concurrency Argument:
+ *   - pending requests are held in a ConcurrentSkipListMap ordered by id and
+ *     each one is removed exactly once, either by its response or its timeout
+ */
+public class PendingRequests {
+
+	private static final Log LOG = Log.get("PendingRequests");
+
+	/**
+	 * A request awaiting its response
+	 */
+	private static class Pending {
+		private final String responseKey;
+		private final CompletableFuture<Object> future = new CompletableFuture<Object>();
+
+		private Pending(String responseKey) {
+			this.responseKey = responseKey;
+		}
+	}
+
+	private final AtomicLong nextRequestId = new AtomicLong(1);
+	private final ConcurrentSkipListMap<Long, Pending> pending = new ConcurrentSkipListMap<Long, Pending>();
+
+	/**
+	 * Allocates a request id unique to this connection
+	 * @return: the new request id
+	 */
+	public long nextRequestId() {
+		return nextRequestId.getAndIncrement();
+	}
+
+	/**
+	 * Registers a request under a freshly allocated id
+	 * @param responseKey: identifies the response that completes this request
+	 *                     if the server answers without echoing the id
+	 * @param timeoutLength: milliseconds to wait before the future times out
+	 * @return: future completed with the parsed response
+	 */
+	public <T> CompletableFuture<T> register(String responseKey, long timeoutLength) {
+		return register(nextRequestId(), responseKey, timeoutLength);
+	}
+
+	/**
+	 * Registers a request awaiting a response.
+	 * @param requestId: id sent with the request and echoed on its response
+	 * @param responseKey: identifies the response that completes this request
+	 *                     if the server answers without echoing the id
+	 * @param timeoutLength: milliseconds to wait before the future times out
+	 * @return: future completed with the parsed response, or exceptionally with
+	 *          a TimeoutException if no response arrives in time
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> CompletableFuture<T> register(final long requestId, String responseKey, long timeoutLength) {
+		final Pending request = new Pending(responseKey);
+		pending.put(requestId, request);
+		// the request is removed before it is failed, so a caller woken by the
+		// timeout never sees it still pending
+		CompletableFuture.delayedExecutor(timeoutLength, TimeUnit.MILLISECONDS).execute(() -> {
+			if (pending.remove(requestId, request)) {
+				request.future.completeExceptionally(new TimeoutException());
+			}
+		});
+		return (CompletableFuture<T>) request.future;
+	}
+
+	/**
+	 * Completes the outstanding request with the given id, if there is one
+	 * @param requestId: id echoed on the response
+	 * @param value: parsed response to complete the request with
+	 * @return: true if a waiting request was completed, false otherwise
+	 */
+	public boolean complete(long requestId, Object value) {
+		Pending request = pending.remove(requestId);
+		return request != null && request.future.complete(value);
+	}
+
+	/**
+	 * Completes the oldest outstanding request waiting on responseKey, if there
+	 * is one.  Used for responses that carry no request id.
+	 * @param responseKey: identifies the request being answered
+	 * @param value: parsed response to complete the request with
+	 * @return: true if a waiting request was completed, false otherwise
+	 */
+	public boolean complete(String responseKey, Object value) {
+		for (Map.Entry<Long, Pending> entry : pending.entrySet()) {
+			Pending request = entry.getValue();
+			if (request.responseKey.equals(responseKey) && pending.remove(entry.getKey(), request)) {
+				return request.future.complete(value);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether a request is outstanding under responseKey
+	 * @param responseKey
+	 * @return: true if a request waiting on responseKey has not yet completed
+	 */
+	public boolean isPending(String responseKey) {
+		for (Pending request : pending.values()) {
+			if (request.responseKey.equals(responseKey)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Fails every outstanding request, used when the connection is closed
+	 * @param cause: the reason the requests can no longer be answered
+	 */
+	public void failAll(Throwable cause) {
+		for (Map.Entry<Long, Pending> entry = pending.pollFirstEntry(); entry != null; entry = pending.pollFirstEntry()) {
+			entry.getValue().future.completeExceptionally(cause);
+		}
+	}
+
+	/**
+	 * Waits for future to complete.  If it times out or fails, prints a timeout
+	 * error and returns fallback instead.
+	 * @param future: the request to wait on
+	 * @param fallback: value to return if the request does not complete
+	 * @param timeoutMessage: message to append to error log in event of time out
+	 * @return: the response value, or fallback if none arrived
+	 */
+	public static <T> T await(CompletableFuture<T> future, T fallback, String timeoutMessage) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof TimeoutException) {
+				LOG.warn("Timeout on: " + timeoutMessage);
+			} else {
+				LOG.warn("Request failed: " + timeoutMessage + " (" + e.getCause() + ")");
+			}
+		}
+		return fallback;
+	}
+}
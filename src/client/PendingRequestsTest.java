@@ -0,0 +1,96 @@
+package client;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+public class PendingRequestsTest {
+
+	/*
+	 * Testing Strategy:
+	 *
+	 * - Test completing a registered request
+	 * - Test completing a key with nothing registered
+	 * - Test pipelined requests completed by id out of order
+	 * - Test a response without an id completes the oldest matching request
+	 * - Test timeout returns the fallback without spinning
+	 * - Test completion from a separate thread
+	 */
+
+	@Test
+	public void testComplete() throws Exception {
+		PendingRequests requests = new PendingRequests();
+		CompletableFuture<Boolean> future = requests.register("newBoard board", 1000);
+		assertTrue(requests.isPending("newBoard board"));
+		assertTrue(requests.complete("newBoard board", true));
+		assertTrue(future.get());
+		assertFalse(requests.isPending("newBoard board"));
+	}
+
+	@Test
+	public void testCompleteUnregistered() {
+		PendingRequests requests = new PendingRequests();
+		assertFalse(requests.complete("boards", new String[0]));
+	}
+
+	@Test
+	public void testPipelinedOutOfOrder() throws Exception {
+		PendingRequests requests = new PendingRequests();
+		long firstId = requests.nextRequestId();
+		long secondId = requests.nextRequestId();
+		CompletableFuture<Boolean> first = requests.register(firstId, "newBoard board1", 1000);
+		CompletableFuture<Boolean> second = requests.register(secondId, "newBoard board2", 1000);
+		assertTrue(requests.complete(secondId, false));
+		assertFalse(first.isDone());
+		assertFalse(second.get());
+		assertTrue(requests.complete(firstId, true));
+		assertTrue(first.get());
+	}
+
+	@Test
+	public void testCompleteWithoutIdCompletesOldest() throws Exception {
+		PendingRequests requests = new PendingRequests();
+		CompletableFuture<String[]> first = requests.register("boards", 1000);
+		CompletableFuture<String[]> second = requests.register("boards", 1000);
+		assertNotSame(first, second);
+		String[] boards = {"board1"};
+		assertTrue(requests.complete("boards", boards));
+		assertSame(boards, first.get());
+		assertFalse(second.isDone());
+	}
+
+	@Test
+	public void testTimeout() {
+		PendingRequests requests = new PendingRequests();
+		// the timeout is scheduled by register, so timed from before it
+		long startTime = System.currentTimeMillis();
+		CompletableFuture<Boolean> future = requests.register("exit user", 100);
+		assertFalse(PendingRequests.await(future, false, "exit"));
+		assertTrue(System.currentTimeMillis() - startTime >= 100);
+		assertFalse(requests.isPending("exit user"));
+	}
+
+	/**
+	 * Test that a request completed by another thread is seen by the waiting thread
+	 */
+	@Test
+	public void testMultiThreading() {
+		final PendingRequests requests = new PendingRequests();
+		CompletableFuture<Boolean> future = requests.register("exit user", 2000);
+
+		new Thread(new Runnable() {
+			public void run() {
+				try {
+					Thread.sleep(500);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+				requests.complete("exit user", true);
+			}
+		}).start();
+
+		assertTrue(PendingRequests.await(future, false, "exit"));
+	}
+}
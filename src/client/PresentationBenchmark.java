@@ -0,0 +1,150 @@
+package client;
+
+import java.awt.Graphics;
+import java.awt.GraphicsEnvironment;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
+
+import command.Command;
+
+/**
+ * Measures the time Canvas spends painting each frame while several simulated
+ * collaborators draw onto it, comparing painting straight from the drawing
+ * buffer with the accelerated VolatileMirror path.  Needs a display, since
+ * volatile images can't be made headless.
+ *
+ * Usage: PresentationBenchmark [seconds] [collaborators] [segments per second each]
+ *        (default 10 8 2000)
+ */
+public class PresentationBenchmark {
+
+	private static final int WIDTH = 1024;
+	private static final int HEIGHT = 768;
+
+	public static void main(String[] args) throws Exception {
+		if (GraphicsEnvironment.isHeadless()) {
+			System.err.println("PresentationBenchmark needs a display");
+			return;
+		}
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		int collaborators = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		int rate = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+		System.out.printf("%-14s %-8s %-10s %-10s %-10s %-10s%n", "Path", "Frames", "Mean ms", "p50 ms", "p95 ms", "p99 ms");
+		for (boolean accelerated : new boolean[] {false, true}) {
+			long[] frames = run(accelerated, seconds, collaborators, rate);
+			Arrays.sort(frames);
+			double mean = 0;
+			for (long frame : frames) {
+				mean += frame;
+			}
+			mean = frames.length == 0 ? 0 : mean / frames.length / 1e6;
+			System.out.printf("%-14s %-8d %-10.3f %-10.3f %-10.3f %-10.3f%n",
+					accelerated ? "VolatileImage" : "Buffer", frames.length, mean,
+					percentile(frames, 0.50), percentile(frames, 0.95), percentile(frames, 0.99));
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Shows a canvas and draws onto it from collaborators threads for the given
+	 * number of seconds
+	 * @return: nanoseconds spent in each paintComponent call
+	 */
+	private static long[] run(final boolean accelerated, int seconds, int collaborators, final int rate)
+			throws InterruptedException, InvocationTargetException {
+		final Client client = new Client();
+		final List<Long> frameTimes = new ArrayList<Long>();
+		final Canvas[] canvas = new Canvas[1];
+		final JFrame[] frame = new JFrame[1];
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				canvas[0] = new Canvas(client) {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					public void paintComponent(Graphics g) {
+						long start = System.nanoTime();
+						super.paintComponent(g);
+						frameTimes.add(System.nanoTime() - start);
+					}
+				};
+				canvas[0].setAccelerated(accelerated);
+				frame[0] = new JFrame("PresentationBenchmark");
+				frame[0].add(canvas[0]);
+				frame[0].setSize(WIDTH, HEIGHT);
+				frame[0].setVisible(true);
+			}
+		});
+		Thread.sleep(500);
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				frameTimes.clear();
+			}
+		});
+
+		final long end = System.currentTimeMillis() + seconds * 1000L;
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < collaborators; i++) {
+			final Random random = new Random(i);
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					// each collaborator sends its segments in small bursts, as
+					// they would arrive from the network
+					int x = random.nextInt(WIDTH), y = random.nextInt(HEIGHT);
+					int burst = Math.max(1, rate / 100);
+					while (System.currentTimeMillis() < end) {
+						List<Command> commands = new ArrayList<Command>(burst);
+						for (int j = 0; j < burst; j++) {
+							int nextX = Math.max(0, Math.min(WIDTH - 1, x + random.nextInt(21) - 10));
+							int nextY = Math.max(0, Math.min(HEIGHT - 1, y + random.nextInt(21) - 10));
+							commands.add(new Command(("draw board drawLineSegment " + x + " " + y + " " + nextX + " " + nextY
+									+ " " + random.nextInt(16777216) + " " + (1 + random.nextInt(10)) + ".0").split(" ")));
+							x = nextX;
+							y = nextY;
+						}
+						canvas[0].drawCommands(commands);
+						try {
+							Thread.sleep(10);
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		final long[][] result = new long[1][];
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				result[0] = new long[frameTimes.size()];
+				for (int i = 0; i < result[0].length; i++) {
+					result[0][i] = frameTimes.get(i);
+				}
+				frame[0].dispose();
+			}
+		});
+		return result[0];
+	}
+
+	/**
+	 * @return: the pth percentile of sorted nanosecond times, in milliseconds
+	 */
+	private static double percentile(long[] sorted, double p) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))] / 1e6;
+	}
+}
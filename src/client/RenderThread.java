@@ -0,0 +1,233 @@
+package client;
+
+import logging.Log;
+
+/**
+ * The thread that renders onto a Canvas's drawing buffer.  Segments drawn
+ * locally and commands received from the network are queued here in the
+ * order they arrive, and the render thread draws them onto the drawing
+ * buffer in batches, holding the buffer's lock once per batch.  After each
+ * batch it marks the region drawn on as dirty, and Canvas publishes the
+ * dirty region to the event dispatch thread at most once per frame.  Neither
+ * the event dispatch thread nor the receive thread ever waits on rendering,
+ * except when the queue is full.
+ *
+ * Segments are held in a preallocated ring of primitive arrays, so queueing
+ * a segment allocates nothing.  Anything else that must happen in order
+ * with the drawing, such as clearing the board, is queued as a Runnable.
+ *
+ * Concurrency Argument:
+ *   - the ring's indices and counters are guarded by this object's lock
+ *   - a slot is only written by producers while it lies outside
+ *     [head, tail), and only read by the render thread while inside it;
+ *     head is advanced past a batch only after the batch is rendered
+ *   - only the render thread draws onto the drawing buffer through this
+ *     class, and it does so holding the buffer's lock
+ */
+public class RenderThread implements Runnable {
+
+	private static final Log LOG = Log.get("RenderThread");
+
+	public static final int DEFAULT_CAPACITY = 8192;
+	// the most entries drawn while holding the drawing buffer's lock, so that
+	// a long replay doesn't hold off painting for its whole length
+	private static final int MAX_BATCH = 4096;
+
+	private final Canvas canvas;
+	private final int capacity;
+	private final int[] x1s, y1s, x2s, y2s, colors;
+	private final float[] widths;
+	// non-null for queued tasks, null for queued segments
+	private final Runnable[] tasks;
+	private long head = 0;
+	private long tail = 0;
+	private boolean running = true;
+
+	/**
+	 * Makes a render thread for canvas with the default queue capacity
+	 * @param canvas: the canvas whose drawing buffer is rendered onto
+	 */
+	public RenderThread(Canvas canvas) {
+		this(canvas, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param canvas: the canvas whose drawing buffer is rendered onto
+	 * @param capacity: the number of segments and tasks that may be queued
+	 *                  before producers wait for the render thread
+	 */
+	public RenderThread(Canvas canvas, int capacity) {
+		this.canvas = canvas;
+		this.capacity = capacity;
+		this.x1s = new int[capacity];
+		this.y1s = new int[capacity];
+		this.x2s = new int[capacity];
+		this.y2s = new int[capacity];
+		this.colors = new int[capacity];
+		this.widths = new float[capacity];
+		this.tasks = new Runnable[capacity];
+	}
+
+	/**
+	 * Starts rendering on a new daemon thread
+	 * @return: the thread started
+	 */
+	public Thread start() {
+		Thread thread = new Thread(this, "Canvas render thread");
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Queues a line segment to be drawn.  Waits if the queue is full.
+	 */
+	public synchronized void queueSegment(int x1, int y1, int x2, int y2, int color, float width) {
+		int slot = reserveSlot();
+		if (slot < 0) {
+			return;
+		}
+		x1s[slot] = x1;
+		y1s[slot] = y1;
+		x2s[slot] = x2;
+		y2s[slot] = y2;
+		colors[slot] = color;
+		widths[slot] = width;
+		tasks[slot] = null;
+		publishSlot();
+	}
+
+	/**
+	 * Queues a task to be run on the render thread after everything queued
+	 * before it has been drawn.  Waits if the queue is full.
+	 * @param task: the task to run
+	 */
+	public synchronized void queueTask(Runnable task) {
+		int slot = reserveSlot();
+		if (slot < 0) {
+			return;
+		}
+		tasks[slot] = task;
+		publishSlot();
+	}
+
+	/**
+	 * Waits until everything queued so far has been rendered
+	 */
+	public synchronized void awaitRendered() {
+		long target = tail;
+		boolean interrupted = false;
+		while (head < target && running) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stops the render thread once it has rendered everything already queued.
+	 * Anything queued afterwards is dropped.
+	 */
+	public synchronized void shutdown() {
+		running = false;
+		notifyAll();
+	}
+
+	/**
+	 * Renders queued entries until shut down
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			long from, to;
+			synchronized (this) {
+				while (head == tail && running) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (head == tail) {
+					return;
+				}
+				from = head;
+				to = Math.min(tail, head + MAX_BATCH);
+			}
+			render(from, to);
+			synchronized (this) {
+				head = to;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Renders the entries in [from, to).  Runs of segments are drawn while
+	 * holding the drawing buffer's lock, and the area they cover is marked
+	 * dirty once per run.
+	 */
+	private void render(long from, long to) {
+		long next = from;
+		while (next < to) {
+			int slot = (int) (next % capacity);
+			if (tasks[slot] != null) {
+				try {
+					tasks[slot].run();
+				} catch (RuntimeException e) {
+					LOG.error("Error running a render task", e);
+				}
+				tasks[slot] = null;
+				next++;
+				continue;
+			}
+
+			int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+			int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+			TiledDrawingBuffer buffer = canvas.ensureDrawingBuffer();
+			synchronized (buffer) {
+				for (; next < to && tasks[slot = (int) (next % capacity)] == null; next++) {
+					int pad = Canvas.linePadding(widths[slot]);
+					canvas.renderSegment(buffer, x1s[slot], y1s[slot], x2s[slot], y2s[slot], colors[slot], widths[slot]);
+					minX = Math.min(minX, Math.min(x1s[slot], x2s[slot]) - pad);
+					minY = Math.min(minY, Math.min(y1s[slot], y2s[slot]) - pad);
+					maxX = Math.max(maxX, Math.max(x1s[slot], x2s[slot]) + pad + 1);
+					maxY = Math.max(maxY, Math.max(y1s[slot], y2s[slot]) + pad + 1);
+				}
+			}
+			canvas.markDirty(minX, minY, maxX - minX, maxY - minY);
+		}
+	}
+
+	/**
+	 * Waits for a free slot at the tail of the queue
+	 * @return: the index of the slot, or -1 if the render thread is shut down
+	 */
+	private int reserveSlot() {
+		boolean interrupted = false;
+		while (tail - head >= capacity && running) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return running ? (int) (tail % capacity) : -1;
+	}
+
+	/**
+	 * Makes the slot at the tail of the queue visible to the render thread
+	 */
+	private void publishSlot() {
+		tail++;
+		notifyAll();
+	}
+}
@@ -0,0 +1,116 @@
+package client;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RenderThreadTest {
+
+	/*
+	 * Testing Strategy:
+	 *
+	 * - Test queued segments are drawn onto the drawing buffer
+	 * - Test tasks run in order with the segments around them
+	 * - Test producers wait when the queue is full, without losing entries
+	 * - Test segments queued from several threads are all drawn
+	 * - Test entries queued after shutdown are dropped
+	 */
+
+	@Test
+	public void testSegmentsDrawn() {
+		Client client = new Client();
+		client.setDrawingBuffer(new TiledDrawingBuffer());
+		Canvas canvas = new Canvas(client);
+		canvas.drawLineSegment(10, 10, 100, 10, Color.RED.getRGB(), 3);
+		canvas.awaitRendered();
+		assertEquals(Color.RED.getRGB(), client.getDrawingBuffer().getRGB(50, 10));
+		canvas.stopRendering();
+	}
+
+	@Test
+	public void testTaskOrdering() {
+		Client client = new Client();
+		client.setDrawingBuffer(new TiledDrawingBuffer());
+		Canvas canvas = new Canvas(client);
+		canvas.drawLineSegment(10, 10, 100, 10, Color.RED.getRGB(), 3);
+		canvas.fillWithWhite();
+		canvas.drawLineSegment(10, 50, 100, 50, Color.BLUE.getRGB(), 3);
+		canvas.awaitRendered();
+		assertEquals(Color.WHITE.getRGB(), client.getDrawingBuffer().getRGB(50, 10));
+		assertEquals(Color.BLUE.getRGB(), client.getDrawingBuffer().getRGB(50, 50));
+		canvas.stopRendering();
+	}
+
+	@Test
+	public void testBackpressure() {
+		Client client = new Client();
+		client.setDrawingBuffer(new TiledDrawingBuffer());
+		Canvas canvas = new Canvas(client);
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		RenderThread renderThread = new RenderThread(canvas, 4);
+		renderThread.start();
+		for (int i = 0; i < 100; i++) {
+			final int index = i;
+			renderThread.queueSegment(i, 0, i, 10, 0, 1);
+			renderThread.queueTask(new Runnable() {
+				public void run() {
+					order.add(index);
+				}
+			});
+		}
+		renderThread.awaitRendered();
+		assertEquals(100, order.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, (int) order.get(i));
+		}
+		assertEquals(Color.BLACK.getRGB(), client.getDrawingBuffer().getRGB(99, 5));
+		renderThread.shutdown();
+		canvas.stopRendering();
+	}
+
+	@Test
+	public void testMultiThreading() throws InterruptedException {
+		Client client = new Client();
+		client.setDrawingBuffer(new TiledDrawingBuffer());
+		final Canvas canvas = new Canvas(client);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			final int row = t * 20;
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					for (int i = 0; i < 10000; i++) {
+						canvas.drawLineSegment(i % 200, row, i % 200, row + 1, 0, 1);
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		canvas.awaitRendered();
+		for (int t = 0; t < 4; t++) {
+			for (int x = 0; x < 200; x++) {
+				assertEquals(Color.BLACK.getRGB(), client.getDrawingBuffer().getRGB(x, t * 20));
+			}
+		}
+		canvas.stopRendering();
+	}
+
+	@Test
+	public void testShutdown() {
+		Client client = new Client();
+		client.setDrawingBuffer(new TiledDrawingBuffer());
+		Canvas canvas = new Canvas(client);
+		canvas.stopRendering();
+		canvas.drawLineSegment(10, 10, 100, 10, Color.RED.getRGB(), 3);
+		canvas.awaitRendered();
+		assertEquals(Color.WHITE.getRGB(), client.getDrawingBuffer().getRGB(50, 10));
+	}
+}
@@ -0,0 +1,92 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import command.Command;
+
+/**
+ * Measures time-to-full-board when replaying a board's history, comparing the
+ * per-command path (each draw line invoked on the canvas on its own) with the
+ * batched Canvas.drawCommands path.  Runs headless; no server is needed.
+ *
+ * Usage: ReplayBenchmark [segments...]   (default 10000 100000 1000000)
+ */
+public class ReplayBenchmark {
+
+	private static final int WIDTH = 800;
+	private static final int HEIGHT = 600;
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		int[] sizes = {10000, 100000, 1000000};
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		// warm up both paths before measuring
+		run(20000, false);
+		run(20000, true);
+
+		System.out.printf("%-12s %-16s %-16s%n", "Segments", "Per-command ms", "Batched ms");
+		for (int size : sizes) {
+			long perCommand = run(size, false);
+			long batched = run(size, true);
+			System.out.printf("%-12d %-16d %-16d%n", size, perCommand, batched);
+		}
+	}
+
+	/**
+	 * Replays size random segments from their wire form onto a fresh canvas
+	 * @param size: number of segments
+	 * @param batched: whether to use the batched replay path
+	 * @return: elapsed milliseconds, including parsing
+	 */
+	private static long run(int size, boolean batched) {
+		List<String> lines = makeHistory(size);
+		Client client = new Client();
+		client.setDrawingBuffer(new TiledDrawingBuffer());
+		Canvas canvas = new Canvas(client);
+
+		long start = System.nanoTime();
+		if (batched) {
+			List<Command> commands = new ArrayList<Command>(lines.size());
+			for (String line : lines) {
+				commands.add(new Command(line.split(" ")));
+			}
+			canvas.drawCommands(commands);
+		} else {
+			for (String line : lines) {
+				new Command(line.split(" ")).invokeCommand(canvas);
+			}
+		}
+		canvas.awaitRendered();
+		long elapsed = (System.nanoTime() - start) / 1000000;
+		canvas.stopRendering();
+		return elapsed;
+	}
+
+	/**
+	 * Makes a board history of short freehand-like segments in wire form
+	 */
+	private static List<String> makeHistory(int size) {
+		Random random = new Random(42);
+		List<String> lines = new ArrayList<String>(size);
+		int x = WIDTH / 2;
+		int y = HEIGHT / 2;
+		for (int i = 0; i < size; i++) {
+			int nextX = Math.max(0, Math.min(WIDTH - 1, x + random.nextInt(21) - 10));
+			int nextY = Math.max(0, Math.min(HEIGHT - 1, y + random.nextInt(21) - 10));
+			int color = random.nextInt(16777216);
+			int width = 1 + random.nextInt(20);
+			lines.add("draw board drawLineSegment " + x + " " + y + " " + nextX + " " + nextY + " " + color + " " + width + ".0");
+			x = nextX;
+			y = nextY;
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,359 @@
+package client;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Backing store for a board's drawing, split into fixed-size square tiles.
+ * Tiles are only allocated once something is drawn on them; everywhere else
+ * the board is background white, so memory scales with the area drawn on
+ * rather than the size of the board, and the board can extend in any
+ * direction past the window.  When more than maxLiveTiles tiles are held
+ * as images, the least recently drawn tiles outside the visible area are
+ * compressed and restored the next time they are drawn on or shown.
+ *
+ * Coordinates are board pixels; tile (tx, ty) covers the pixels from
+ * (tx*TILE_SIZE, ty*TILE_SIZE) up to but excluding ((tx+1)*TILE_SIZE, (ty+1)*TILE_SIZE).
+ *
+ * Concurrency Argument:
+ *   - This class is made concurrent by the monitor pattern.  Callers that
+ *     need several operations to happen together may hold its lock.
+ */
+public class TiledDrawingBuffer {
+
+	public static final int TILE_SIZE = 256;
+	public static final int DEFAULT_MAX_LIVE_TILES = 64;
+	private static final Color BACKGROUND = Color.WHITE;
+	private static final int RECENT_SIZE = 16;
+
+	/**
+	 * One tile of the board.  Exactly one of image and compressed is set.
+	 */
+	private static class Tile {
+		private final int tx, ty;
+		private BufferedImage image;
+		private Graphics2D graphics;
+		private byte[] compressed;
+		private long lastUsed;
+
+		private Tile(int tx, int ty) {
+			this.tx = tx;
+			this.ty = ty;
+		}
+	}
+
+	private final HashMap<Long, Tile> tiles = new HashMap<Long, Tile>();
+	// small direct-mapped cache of recently used tiles, so that consecutive
+	// segments drawn on the same tiles don't box a key to look them up
+	private final Tile[] recent = new Tile[RECENT_SIZE];
+	private final int maxLiveTiles;
+	private int liveTiles = 0;
+	private long useCounter = 0;
+	private final Rectangle visibleArea = new Rectangle();
+
+	/**
+	 * Creates an empty, all-white board holding at most DEFAULT_MAX_LIVE_TILES
+	 * uncompressed tiles outside the visible area
+	 */
+	public TiledDrawingBuffer() {
+		this(DEFAULT_MAX_LIVE_TILES);
+	}
+
+	/**
+	 * Creates an empty, all-white board
+	 * @param maxLiveTiles: the number of uncompressed tiles to keep before
+	 *                      compressing tiles outside the visible area
+	 */
+	public TiledDrawingBuffer(int maxLiveTiles) {
+		this.maxLiveTiles = maxLiveTiles;
+	}
+
+	/**
+	 * Sets the area of the board being shown on screen.  Tiles in this area are
+	 * never compressed.
+	 * @param area: the visible area, in board pixels
+	 */
+	public synchronized void setVisibleArea(Rectangle area) {
+		visibleArea.setBounds(area);
+	}
+
+	/**
+	 * @return: a copy of the area of the board being shown on screen
+	 */
+	public synchronized Rectangle getVisibleArea() {
+		return new Rectangle(visibleArea);
+	}
+
+	/**
+	 * @return: the width of the visible area
+	 */
+	public synchronized int getWidth() {
+		return visibleArea.width;
+	}
+
+	/**
+	 * @return: the height of the visible area
+	 */
+	public synchronized int getHeight() {
+		return visibleArea.height;
+	}
+
+	/**
+	 * Draws a line segment from (x1, y1) to (x2, y2) on every tile it touches
+	 * @param pad: how far the stroke can reach past the segment's endpoints
+	 */
+	public synchronized void drawLine(int x1, int y1, int x2, int y2, Color color, BasicStroke stroke, int pad) {
+		int minTx = tileIndex(Math.min(x1, x2) - pad);
+		int maxTx = tileIndex(Math.max(x1, x2) + pad);
+		int minTy = tileIndex(Math.min(y1, y2) - pad);
+		int maxTy = tileIndex(Math.max(y1, y2) + pad);
+		for (int tx = minTx; tx <= maxTx; tx++) {
+			for (int ty = minTy; ty <= maxTy; ty++) {
+				Tile tile = liveTile(tx, ty);
+				int originX = tx * TILE_SIZE;
+				int originY = ty * TILE_SIZE;
+				tile.graphics.setColor(color);
+				tile.graphics.setStroke(stroke);
+				tile.graphics.drawLine(x1 - originX, y1 - originY, x2 - originX, y2 - originY);
+			}
+		}
+		evictIfNeeded();
+	}
+
+	/**
+	 * Makes the whole board white again, releasing every tile
+	 */
+	public synchronized void clear() {
+		for (Tile tile : tiles.values()) {
+			if (tile.graphics != null) {
+				tile.graphics.dispose();
+			}
+		}
+		tiles.clear();
+		Arrays.fill(recent, null);
+		liveTiles = 0;
+	}
+
+	/**
+	 * Gets the color of one pixel of the board
+	 * @return: the pixel's RGB value, as BufferedImage.getRGB
+	 */
+	public synchronized int getRGB(int x, int y) {
+		Tile tile = existingTile(tileIndex(x), tileIndex(y));
+		if (tile == null) {
+			return BACKGROUND.getRGB();
+		}
+		restore(tile);
+		return tile.image.getRGB(x - tile.tx * TILE_SIZE, y - tile.ty * TILE_SIZE);
+	}
+
+	/**
+	 * Copies part of the board onto g.
+	 * @param g: graphics to paint onto, whose origin is the visible area's corner
+	 * @param area: the part of the visible area to paint, relative to its corner
+	 */
+	public synchronized void paint(Graphics g, Rectangle area) {
+		int boardX = visibleArea.x + area.x;
+		int boardY = visibleArea.y + area.y;
+		for (int tx = tileIndex(boardX); tx <= tileIndex(boardX + area.width - 1); tx++) {
+			for (int ty = tileIndex(boardY); ty <= tileIndex(boardY + area.height - 1); ty++) {
+				int screenX = tx * TILE_SIZE - visibleArea.x;
+				int screenY = ty * TILE_SIZE - visibleArea.y;
+				// only copy the part of the tile inside area
+				int fromX = Math.max(screenX, area.x);
+				int fromY = Math.max(screenY, area.y);
+				int toX = Math.min(screenX + TILE_SIZE, area.x + area.width);
+				int toY = Math.min(screenY + TILE_SIZE, area.y + area.height);
+				Tile tile = existingTile(tx, ty);
+				if (tile == null) {
+					g.setColor(BACKGROUND);
+					g.fillRect(fromX, fromY, toX - fromX, toY - fromY);
+				} else {
+					restore(tile);
+					g.drawImage(tile.image, fromX, fromY, toX, toY,
+							fromX - screenX, fromY - screenY, toX - screenX, toY - screenY, null);
+				}
+			}
+		}
+		evictIfNeeded();
+	}
+
+	/**
+	 * @return: a copy of the visible area of the board
+	 */
+	public synchronized BufferedImage snapshot() {
+		BufferedImage image = new BufferedImage(Math.max(1, visibleArea.width), Math.max(1, visibleArea.height), BufferedImage.TYPE_INT_RGB);
+		Graphics g = image.getGraphics();
+		paint(g, new Rectangle(0, 0, visibleArea.width, visibleArea.height));
+		g.dispose();
+		return image;
+	}
+
+	/**
+	 * @return: the number of tiles that have been drawn on
+	 */
+	public synchronized int getTileCount() {
+		return tiles.size();
+	}
+
+	/**
+	 * @return: the number of tiles currently held compressed
+	 */
+	public synchronized int getCompressedTileCount() {
+		return tiles.size() - liveTiles;
+	}
+
+	/**
+	 * Gets the index of the tile containing a board coordinate
+	 */
+	private static int tileIndex(int coordinate) {
+		return Math.floorDiv(coordinate, TILE_SIZE);
+	}
+
+	private static long key(int tx, int ty) {
+		return ((long) tx << 32) | (ty & 0xffffffffL);
+	}
+
+	private static int recentSlot(int tx, int ty) {
+		return ((tx * 0x9E3779B9) ^ ty) & (RECENT_SIZE - 1);
+	}
+
+	/**
+	 * Gets the tile (tx, ty) if it has been drawn on, or null
+	 */
+	private Tile existingTile(int tx, int ty) {
+		int slot = recentSlot(tx, ty);
+		Tile tile = recent[slot];
+		if (tile == null || tile.tx != tx || tile.ty != ty) {
+			tile = tiles.get(key(tx, ty));
+			if (tile == null) {
+				return null;
+			}
+			recent[slot] = tile;
+		}
+		tile.lastUsed = ++useCounter;
+		return tile;
+	}
+
+	/**
+	 * Gets the uncompressed tile (tx, ty), allocating it if needed
+	 */
+	private Tile liveTile(int tx, int ty) {
+		Tile tile = existingTile(tx, ty);
+		if (tile == null) {
+			tile = new Tile(tx, ty);
+			tile.image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+			tile.graphics = tile.image.createGraphics();
+			tile.graphics.setColor(BACKGROUND);
+			tile.graphics.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+			tile.lastUsed = ++useCounter;
+			tiles.put(key(tx, ty), tile);
+			recent[recentSlot(tx, ty)] = tile;
+			liveTiles++;
+		} else {
+			restore(tile);
+		}
+		return tile;
+	}
+
+	/**
+	 * Compresses the least recently used tiles outside the visible area until
+	 * at most maxLiveTiles are uncompressed, or only visible tiles remain
+	 */
+	private void evictIfNeeded() {
+		if (liveTiles <= maxLiveTiles) {
+			return;
+		}
+		List<Tile> candidates = new ArrayList<Tile>();
+		for (Tile tile : tiles.values()) {
+			if (tile.image != null && !isVisible(tile)) {
+				candidates.add(tile);
+			}
+		}
+		Collections.sort(candidates, new Comparator<Tile>() {
+			@Override
+			public int compare(Tile a, Tile b) {
+				return Long.compare(a.lastUsed, b.lastUsed);
+			}
+		});
+		// evict a quarter more than needed so eviction doesn't happen on every draw
+		int toEvict = liveTiles - maxLiveTiles * 3 / 4;
+		for (int i = 0; i < toEvict && i < candidates.size(); i++) {
+			compress(candidates.get(i));
+		}
+	}
+
+	private boolean isVisible(Tile tile) {
+		return visibleArea.intersects(tile.tx * TILE_SIZE, tile.ty * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+	}
+
+	/**
+	 * Replaces a tile's image with its pixels deflated
+	 */
+	private void compress(Tile tile) {
+		int[] pixels = (int[]) tile.image.getRaster().getDataElements(0, 0, TILE_SIZE, TILE_SIZE, null);
+		ByteBuffer bytes = ByteBuffer.allocate(pixels.length * 4);
+		bytes.asIntBuffer().put(pixels);
+
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		deflater.setInput(bytes.array());
+		deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] chunk = new byte[8192];
+		while (!deflater.finished()) {
+			out.write(chunk, 0, deflater.deflate(chunk));
+		}
+		deflater.end();
+
+		tile.compressed = out.toByteArray();
+		tile.graphics.dispose();
+		tile.graphics = null;
+		tile.image = null;
+		liveTiles--;
+	}
+
+	/**
+	 * Inflates a compressed tile back into an image, if it was compressed
+	 */
+	private void restore(Tile tile) {
+		if (tile.image != null) {
+			return;
+		}
+		byte[] bytes = new byte[TILE_SIZE * TILE_SIZE * 4];
+		Inflater inflater = new Inflater();
+		inflater.setInput(tile.compressed);
+		try {
+			int read = 0;
+			while (read < bytes.length && !inflater.finished()) {
+				read += inflater.inflate(bytes, read, bytes.length - read);
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Corrupt compressed tile", e);
+		} finally {
+			inflater.end();
+		}
+
+		int[] pixels = new int[TILE_SIZE * TILE_SIZE];
+		ByteBuffer.wrap(bytes).asIntBuffer().get(pixels);
+		tile.image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+		tile.image.getRaster().setDataElements(0, 0, TILE_SIZE, TILE_SIZE, pixels);
+		tile.graphics = tile.image.createGraphics();
+		tile.compressed = null;
+		liveTiles++;
+	}
+}
@@ -0,0 +1,126 @@
+package client;
+
+import static org.junit.Assert.*;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TiledDrawingBufferTest {
+
+    /*
+     * Testing Strategy:
+     *
+     * -an empty board is white everywhere and holds no tiles
+     * -segments crossing tile boundaries render the same pixels as one image
+     * -drawing far from the origin, including negative coordinates, only
+     *  allocates the tiles drawn on
+     * -least recently used tiles outside the visible area are compressed
+     *  and restored intact; visible tiles are never compressed
+     * -clear releases every tile
+     * -snapshot copies the visible area
+     */
+
+    private static final int SIZE = 3 * TiledDrawingBuffer.TILE_SIZE;
+
+    @Test
+    public void emptyBoardTest() {
+        TiledDrawingBuffer buffer = new TiledDrawingBuffer();
+        assertEquals(Color.WHITE.getRGB(), buffer.getRGB(0, 0));
+        assertEquals(Color.WHITE.getRGB(), buffer.getRGB(-100000, 100000));
+        assertEquals(0, buffer.getTileCount());
+    }
+
+    @Test
+    public void matchesSingleImageTest() {
+        TiledDrawingBuffer buffer = new TiledDrawingBuffer();
+        BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, SIZE, SIZE);
+
+        Random random = new Random(7);
+        for (int i = 0; i < 300; i++) {
+            int x1 = random.nextInt(SIZE), y1 = random.nextInt(SIZE);
+            int x2 = random.nextInt(SIZE), y2 = random.nextInt(SIZE);
+            Color color = new Color(random.nextInt(16777216));
+            BasicStroke stroke = new BasicStroke(1 + random.nextInt(30));
+            buffer.drawLine(x1, y1, x2, y2, color, stroke, (int) Math.ceil(stroke.getLineWidth()) + 1);
+            g.setColor(color);
+            g.setStroke(stroke);
+            g.drawLine(x1, y1, x2, y2);
+        }
+
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                assertEquals(image.getRGB(x, y), buffer.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void sparseAllocationTest() {
+        TiledDrawingBuffer buffer = new TiledDrawingBuffer();
+        buffer.drawLine(1000000, 1000000, 1000010, 1000010, Color.BLACK, new BasicStroke(2), 3);
+        buffer.drawLine(-5000, -5000, -5010, -5010, Color.BLACK, new BasicStroke(2), 3);
+        assertEquals(2, buffer.getTileCount());
+        assertEquals(Color.BLACK.getRGB(), buffer.getRGB(1000005, 1000005));
+        assertEquals(Color.BLACK.getRGB(), buffer.getRGB(-5005, -5005));
+    }
+
+    @Test
+    public void evictionTest() {
+        int tile = TiledDrawingBuffer.TILE_SIZE;
+        TiledDrawingBuffer buffer = new TiledDrawingBuffer(4);
+        buffer.setVisibleArea(new Rectangle(0, 0, tile, tile));
+        for (int i = 0; i < 20; i++) {
+            buffer.drawLine(i * tile + 10, 10, i * tile + 100, 100, Color.RED, new BasicStroke(5), 5);
+        }
+        assertEquals(20, buffer.getTileCount());
+        assertTrue(buffer.getCompressedTileCount() > 0);
+        assertTrue(buffer.getTileCount() - buffer.getCompressedTileCount() <= 4);
+
+        // every tile, compressed or not, still holds its segment
+        for (int i = 0; i < 20; i++) {
+            assertEquals(Color.RED.getRGB(), buffer.getRGB(i * tile + 50, 50));
+            assertEquals(Color.WHITE.getRGB(), buffer.getRGB(i * tile + 200, 50));
+        }
+
+        // the visible tile was drawn on first but is never compressed
+        for (int i = 1; i < 20; i++) {
+            buffer.drawLine(i * tile + 10, 10, i * tile + 100, 100, Color.BLUE, new BasicStroke(5), 5);
+        }
+        BufferedImage visible = buffer.snapshot();
+        assertEquals(Color.RED.getRGB(), visible.getRGB(50, 50));
+    }
+
+    @Test
+    public void clearTest() {
+        TiledDrawingBuffer buffer = new TiledDrawingBuffer();
+        buffer.drawLine(0, 0, 600, 600, Color.BLACK, new BasicStroke(10), 8);
+        assertTrue(buffer.getTileCount() > 0);
+        buffer.clear();
+        assertEquals(0, buffer.getTileCount());
+        assertEquals(Color.WHITE.getRGB(), buffer.getRGB(300, 300));
+    }
+
+    @Test
+    public void snapshotTest() {
+        TiledDrawingBuffer buffer = new TiledDrawingBuffer();
+        buffer.setVisibleArea(new Rectangle(-100, -100, 400, 300));
+        buffer.drawLine(-50, -50, 250, 150, Color.GREEN, new BasicStroke(4), 4);
+        BufferedImage snapshot = buffer.snapshot();
+        assertEquals(400, snapshot.getWidth());
+        assertEquals(300, snapshot.getHeight());
+        for (int x = 0; x < 400; x++) {
+            for (int y = 0; y < 300; y++) {
+                assertEquals(buffer.getRGB(x - 100, y - 100), snapshot.getRGB(x, y));
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package client;
+
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.image.VolatileImage;
+
+/**
+ * Optional presentation path for Canvas.  Keeps a copy of the visible part of
+ * the drawing buffer in a VolatileImage, which the platform can keep in video
+ * memory, so that repaints are an accelerated blit from that copy rather than
+ * a software copy from the tiles.  Only the regions of the drawing buffer
+ * that have changed are copied into the mirror; whenever the mirror's
+ * contents are lost (display mode changes, another application taking the
+ * video memory, ...) it is refilled from the drawing buffer in full.
+ *
+ * If no volatile image can be made, for example when running headless, or
+ * its contents keep being lost, present returns false and the caller should
+ * paint from the drawing buffer directly.
+ *
+ * Concurrency Argument:
+ *   - the stale region is guarded by this object's lock, so regions may be
+ *     invalidated from any thread
+ *   - the volatile image is confined to the event dispatch thread, which is
+ *     the only thread that calls present and release
+ *   - the drawing buffer is painted from without holding this object's lock,
+ *     so a thread holding the buffer's lock while invalidating cannot deadlock
+ *     with present
+ */
+public class VolatileMirror {
+
+	// how many times to retry a frame whose contents were lost mid-copy
+	private static final int MAX_ATTEMPTS = 3;
+
+	// confined to the event dispatch thread
+	private VolatileImage image;
+	// the part of the mirror that no longer matches the drawing buffer
+	private final Rectangle staleRegion = new Rectangle();
+	private boolean isStale = false;
+	private boolean isAllStale = true;
+
+	/**
+	 * Marks a region of the visible area as changed in the drawing buffer, so
+	 * that it is copied into the mirror before the next present
+	 * @param region: the changed region, relative to the visible area's corner
+	 */
+	public synchronized void invalidate(Rectangle region) {
+		invalidate(region.x, region.y, region.width, region.height);
+	}
+
+	/**
+	 * Marks the rectangle (x, y, width, height) of the visible area as changed.
+	 * See invalidate(Rectangle).
+	 */
+	public synchronized void invalidate(int x, int y, int width, int height) {
+		if (!isStale) {
+			staleRegion.setBounds(x, y, width, height);
+			isStale = true;
+		} else {
+			int minX = Math.min(staleRegion.x, x);
+			int minY = Math.min(staleRegion.y, y);
+			int maxX = Math.max(staleRegion.x + staleRegion.width, x + width);
+			int maxY = Math.max(staleRegion.y + staleRegion.height, y + height);
+			staleRegion.setBounds(minX, minY, maxX - minX, maxY - minY);
+		}
+	}
+
+	/**
+	 * Marks the whole mirror as changed, such as when the drawing buffer is
+	 * cleared or the visible area moves
+	 */
+	public synchronized void invalidateAll() {
+		isAllStale = true;
+	}
+
+	/**
+	 * Paints part of the visible area onto g from the mirror, first bringing the
+	 * mirror up to date with buffer.
+	 * @param component: the component being painted, which supplies the
+	 *                   graphics configuration the mirror is made for
+	 * @param g: graphics to paint onto, whose origin is the visible area's corner
+	 * @param buffer: the drawing buffer being mirrored
+	 * @param clip: the part of the visible area to paint
+	 * @return: true if the area was painted, false if the mirror could not be
+	 *          used and the caller should paint from buffer itself
+	 * Must be called on the event dispatch thread.
+	 */
+	public boolean present(Component component, Graphics g, TiledDrawingBuffer buffer, Rectangle clip) {
+		GraphicsConfiguration configuration = component.getGraphicsConfiguration();
+		int width = component.getWidth();
+		int height = component.getHeight();
+		if (configuration == null || width <= 0 || height <= 0) {
+			return false;
+		}
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			if (image == null || image.getWidth() != width || image.getHeight() != height) {
+				release();
+				try {
+					image = configuration.createCompatibleVolatileImage(width, height);
+				} catch (RuntimeException e) {
+					image = null;
+				}
+				if (image == null) {
+					return false;
+				}
+				invalidateAll();
+			}
+			int status = image.validate(configuration);
+			if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+				release();
+				continue;
+			}
+			if (status == VolatileImage.IMAGE_RESTORED) {
+				invalidateAll();
+			}
+			refresh(buffer, width, height);
+			if (image.contentsLost()) {
+				invalidateAll();
+				continue;
+			}
+			g.drawImage(image, clip.x, clip.y, clip.x + clip.width, clip.y + clip.height,
+					clip.x, clip.y, clip.x + clip.width, clip.y + clip.height, null);
+			if (!image.contentsLost()) {
+				return true;
+			}
+			invalidateAll();
+		}
+		return false;
+	}
+
+	/**
+	 * Releases the mirror's video memory.  The mirror is remade on the next
+	 * present.  Must be called on the event dispatch thread.
+	 */
+	public void release() {
+		if (image != null) {
+			image.flush();
+			image = null;
+		}
+		invalidateAll();
+	}
+
+	/**
+	 * Copies whatever is stale from buffer into the mirror
+	 */
+	private void refresh(TiledDrawingBuffer buffer, int width, int height) {
+		Rectangle region = takeStaleRegion(width, height);
+		if (region == null || region.isEmpty()) {
+			return;
+		}
+		Graphics2D g = image.createGraphics();
+		try {
+			buffer.paint(g, region);
+		} finally {
+			g.dispose();
+		}
+	}
+
+	/**
+	 * Takes the region of the mirror that needs copying, marking it up to date
+	 * @return: the stale region clipped to the mirror's size, or null if none
+	 */
+	private synchronized Rectangle takeStaleRegion(int width, int height) {
+		Rectangle region;
+		if (isAllStale) {
+			region = new Rectangle(0, 0, width, height);
+		} else if (isStale) {
+			region = staleRegion.intersection(new Rectangle(0, 0, width, height));
+		} else {
+			return null;
+		}
+		isAllStale = false;
+		isStale = false;
+		return region;
+	}
+}
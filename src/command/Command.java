@@ -5,8 +5,11 @@ import java.lang.reflect.Method;
 import java.util.Arrays;
 
 import client.Canvas;
+import logging.Log;
 
 public class Command {
+    private static final Log LOG = Log.get("Command");
+
     private final String command;
     private final String[] arguments;
     private final String boardName;
@@ -85,12 +88,28 @@ public class Command {
                     method.invoke(canvas, typedArgs);
                 } catch (IllegalAccessException | IllegalArgumentException
                         | InvocationTargetException e) {
-                    e.printStackTrace();
+                    LOG.error("Could not invoke " + command, e);
                 }
             }
         }
     }
     
+    /**
+     * Gets the name of the canvas method this command invokes
+     * @return the command name
+     */
+    public String getName() {
+        return command;
+    }
+    
+    /**
+     * Gets the command's arguments as they were sent
+     * @return the list of arguments as strings
+     */
+    public String[] getArguments() {
+        return arguments;
+    }
+    
     /**
      * Compares the board name given to make sure the command is for the same board
      * @param compareBoardName: the board name the command should be for
@@ -55,8 +55,10 @@ public class CommandTest {
             Client clientDrawn = new Client("localhost");
             clientDrawn.getClientGUI().setupCanvas();
             clientDrawn.getCanvas().drawLineSegment(50, 50, 60, 60, 0, 10);
-            BufferedImage imageInvoked = clientInvoked.getDrawingBuffer();
-            BufferedImage imageDrawn = clientDrawn.getDrawingBuffer();
+            clientInvoked.getCanvas().awaitRendered();
+            clientDrawn.getCanvas().awaitRendered();
+            BufferedImage imageInvoked = clientInvoked.getDrawingBuffer().snapshot();
+            BufferedImage imageDrawn = clientDrawn.getDrawingBuffer().snapshot();
             boolean same = true;
             for (int x = 0; x < imageInvoked.getWidth(); x++) {
                 for (int y = 0; y < imageInvoked.getHeight(); y++) {
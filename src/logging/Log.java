@@ -0,0 +1,299 @@
+package logging;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Leveled logging for the client and server.  Logging a line only puts it
+ * on a queue; a single writer thread formats the lines and prints them, so
+ * a thread handling clients never waits on the console.  Errors and
+ * warnings go to System.err, everything else to System.out.
+ *
+ * A logger logs lines at its level and above.  Every logger's level is
+ * INFO unless the whiteboard.log.level system property (or
+ * WHITEBOARD_LOG_LEVEL environment variable) says otherwise, and one
+ * logger's can be set on its own with whiteboard.log.level.NAME, e.g.
+ * -Dwhiteboard.log.level.ServerProtocol=DEBUG.  Events happening for every
+ * message, like each request received, are logged at DEBUG or TRACE, so
+ * are off by default, and through a Sampled, which when on logs the first
+ * event and then one in whiteboard.log.sample (by default 100).
+ *
+ * The queue is bounded; if the console falls so far behind that it fills,
+ * further lines are dropped and counted rather than blocking, and the
+ * count is logged once there is room again.  Lines still queued when the
+ * JVM exits are written by a shutdown hook.
+ *
+ * Concurrency Argument:
+ *   - lines are handed to the writer thread through an ArrayBlockingQueue,
+ *     which any number of threads may offer to
+ *   - only the writer thread prints, so lines are printed whole, in the
+ *     order they were queued
+ *   - levels are volatile and sample counts are AtomicLongs
+ */
+public class Log {
+
+    public enum Level { ERROR, WARN, INFO, DEBUG, TRACE }
+
+    public static final Level DEFAULT_LEVEL = Level.INFO;
+    public static final int DEFAULT_SAMPLE = 100;
+
+    private static final int CAPACITY = 10000;
+    // how long flush waits for the queued lines to be printed
+    private static final long FLUSH_TIMEOUT = 2000;
+
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    /**
+     * A line to print, or a flush marker
+     */
+    private static class Entry {
+        private final long time;
+        private final Level level;
+        private final String name;
+        private final String message;
+        private final Throwable thrown;
+        private final CountDownLatch flushed;
+
+        private Entry(Level level, String name, String message, Throwable thrown, CountDownLatch flushed) {
+            this.time = System.currentTimeMillis();
+            this.level = level;
+            this.name = name;
+            this.message = message;
+            this.thrown = thrown;
+            this.flushed = flushed;
+        }
+    }
+
+    private static final BlockingQueue<Entry> queue = new ArrayBlockingQueue<Entry>(CAPACITY);
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final Level configuredLevel = parseLevel(setting("whiteboard.log.level", "WHITEBOARD_LOG_LEVEL"), DEFAULT_LEVEL);
+    private static final int sampleEvery = parseSample(setting("whiteboard.log.sample", "WHITEBOARD_LOG_SAMPLE"));
+
+    static {
+        Thread writer = new Thread(Log::write, "Log writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "Log flush"));
+    }
+
+    /**
+     * Events logged one in so many, e.g. requests received
+     */
+    public class Sampled {
+        private final Level level;
+        private final AtomicLong events = new AtomicLong();
+
+        private Sampled(Level level) {
+            this.level = level;
+        }
+
+        /**
+         * Counts an event
+         * @return: whether to log it, i.e. the level is on and this is the
+         *          first event or one in every whiteboard.log.sample
+         */
+        public boolean sample() {
+            return isEnabled(level) && events.getAndIncrement() % sampleEvery == 0;
+        }
+
+        /**
+         * Logs an event sample() said to
+         * @param message: what happened
+         */
+        public void log(String message) {
+            enqueue(level, sampleEvery == 1 ? message : message + " (1 in " + sampleEvery + ")", null);
+        }
+    }
+
+    private final String name;
+    private volatile Level level;
+
+    private Log(String name) {
+        this.name = name;
+        this.level = parseLevel(System.getProperty("whiteboard.log.level." + name), configuredLevel);
+    }
+
+    /**
+     * Gets a logger, at the configured level
+     * @param name: what is logging, e.g. Server
+     * @return: the logger
+     */
+    public static Log get(String name) {
+        return new Log(name);
+    }
+
+    /**
+     * Makes a sampler for events logged at a level
+     * @param level: the level the events are logged at
+     * @return: the sampler
+     */
+    public Sampled sampled(Level level) {
+        return new Sampled(level);
+    }
+
+    /**
+     * @param level: the lowest level to log
+     */
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * @param level: a level
+     * @return: whether lines at the level are logged
+     */
+    public boolean isEnabled(Level level) {
+        return level.compareTo(this.level) <= 0;
+    }
+
+    public void error(String message) {
+        log(Level.ERROR, message, null);
+    }
+
+    /**
+     * @param message: what went wrong
+     * @param thrown: the exception, whose stack trace is printed
+     */
+    public void error(String message, Throwable thrown) {
+        log(Level.ERROR, message, thrown);
+    }
+
+    public void warn(String message) {
+        log(Level.WARN, message, null);
+    }
+
+    public void info(String message) {
+        log(Level.INFO, message, null);
+    }
+
+    public void debug(String message) {
+        log(Level.DEBUG, message, null);
+    }
+
+    public void trace(String message) {
+        log(Level.TRACE, message, null);
+    }
+
+    /**
+     * @param level: the line's level
+     * @param message: the line
+     * @param thrown: an exception whose stack trace to print, or null
+     */
+    public void log(Level level, String message, Throwable thrown) {
+        if (isEnabled(level)) {
+            enqueue(level, message, thrown);
+        }
+    }
+
+    private void enqueue(Level level, String message, Throwable thrown) {
+        if (!queue.offer(new Entry(level, name, message, thrown, null))) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Waits until every line logged before this is printed, e.g. before
+     * exiting, or at most a couple of seconds if the console is stuck
+     */
+    public static void flush() {
+        Entry marker = new Entry(null, null, null, null, new CountDownLatch(1));
+        try {
+            if (queue.offer(marker, FLUSH_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                marker.flushed.await(FLUSH_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return: the number of lines dropped because the queue was full
+     */
+    public static long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Prints queued lines forever
+     */
+    private static void write() {
+        long reported = 0;
+        while (true) {
+            Entry entry;
+            try {
+                entry = queue.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            long lost = dropped.get();
+            if (lost != reported) {
+                print(new Entry(Level.WARN, "Log", (lost - reported) + " log lines dropped; the console fell behind", null, null));
+                reported = lost;
+            }
+            if (entry.flushed != null) {
+                System.out.flush();
+                System.err.flush();
+                entry.flushed.countDown();
+            } else {
+                print(entry);
+            }
+        }
+    }
+
+    private static void print(Entry entry) {
+        PrintStream out = entry.level.compareTo(Level.WARN) <= 0 ? System.err : System.out;
+        out.println(TIME_FORMAT.format(Instant.ofEpochMilli(entry.time)) + " "
+                + String.format("%-5s", entry.level) + " " + entry.name + ": " + entry.message);
+        if (entry.thrown != null) {
+            entry.thrown.printStackTrace(out);
+        }
+    }
+
+    /**
+     * @return: a system property, or else environment variable, or null if
+     *          neither is set
+     */
+    private static String setting(String property, String environment) {
+        String value = System.getProperty(property);
+        if (value == null || value.isEmpty()) {
+            value = System.getenv(environment);
+        }
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    private static Level parseLevel(String value, Level otherwise) {
+        if (value == null) {
+            return otherwise;
+        }
+        try {
+            return Level.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown log level " + value + ", using " + otherwise);
+            return otherwise;
+        }
+    }
+
+    private static int parseSample(String value) {
+        if (value == null) {
+            return DEFAULT_SAMPLE;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            System.err.println("Unknown log sample " + value + ", using " + DEFAULT_SAMPLE);
+            return DEFAULT_SAMPLE;
+        }
+    }
+}
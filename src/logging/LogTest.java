@@ -0,0 +1,135 @@
+package logging;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LogTest {
+
+    /*
+     * Testing Strategy:
+     *
+     * -lines at and above a logger's level are printed once flushed, below
+     *  it aren't; the level defaults to INFO and can be changed
+     * -errors and warnings go to System.err with any stack trace, the rest
+     *  to System.out, each with its level and logger's name
+     * -lines from many threads are all printed, whole
+     * -sampled events log the first and then one in DEFAULT_SAMPLE, and
+     *  nothing while their level is off
+     */
+
+    private final PrintStream console = System.out;
+    private final PrintStream consoleErr = System.err;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    @Before
+    public void capture() {
+        Log.flush();
+        System.setOut(new PrintStream(out, true));
+        System.setErr(new PrintStream(err, true));
+    }
+
+    @After
+    public void restore() {
+        Log.flush();
+        System.setOut(console);
+        System.setErr(consoleErr);
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void levelTest() {
+        Log log = Log.get("LevelTest");
+        assertEquals(Log.DEFAULT_LEVEL, log.getLevel());
+        log.info("started");
+        log.debug("detail");
+        log.setLevel(Log.Level.DEBUG);
+        assertTrue(log.isEnabled(Log.Level.DEBUG));
+        assertFalse(log.isEnabled(Log.Level.TRACE));
+        log.debug("more detail");
+        log.trace("every detail");
+        Log.flush();
+
+        String printed = out.toString();
+        assertTrue(printed.contains("INFO  LevelTest: started\n"));
+        assertTrue(printed.contains("DEBUG LevelTest: more detail\n"));
+        assertFalse(printed.contains("every detail"));
+        assertFalse(printed.contains("LevelTest: detail\n"));
+        assertTrue(printed.indexOf("started") < printed.indexOf("more detail"));
+    }
+
+    @Test
+    public void streamTest() {
+        Log log = Log.get("StreamTest");
+        log.warn("careful");
+        log.error("broken", new IllegalStateException("cause"));
+        log.info("fine");
+        Log.flush();
+
+        assertTrue(err.toString().contains("WARN  StreamTest: careful\n"));
+        assertTrue(err.toString().contains("ERROR StreamTest: broken\njava.lang.IllegalStateException: cause"));
+        assertFalse(err.toString().contains("fine"));
+        assertTrue(out.toString().contains("INFO  StreamTest: fine\n"));
+    }
+
+    @Test
+    public void concurrentTest() throws InterruptedException {
+        Log log = Log.get("ConcurrentTest");
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    log.info("thread " + thread + " line " + i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Log.flush();
+
+        String printed = out.toString();
+        assertEquals(4000, count(printed, "ConcurrentTest: thread "));
+        assertTrue(printed.contains("ConcurrentTest: thread 3 line 999\n"));
+    }
+
+    @Test
+    public void sampleTest() {
+        Log log = Log.get("SampleTest");
+        Log.Sampled requests = log.sampled(Log.Level.DEBUG);
+        for (int i = 0; i < 10; i++) {
+            assertFalse(requests.sample());
+        }
+
+        log.setLevel(Log.Level.DEBUG);
+        int logged = 0;
+        for (int i = 0; i < 2 * Log.DEFAULT_SAMPLE + 1; i++) {
+            if (requests.sample()) {
+                requests.log("request " + i);
+                logged++;
+            }
+        }
+        Log.flush();
+
+        assertEquals(3, logged);
+        String printed = out.toString();
+        assertTrue(printed.contains("DEBUG SampleTest: request 0 (1 in " + Log.DEFAULT_SAMPLE + ")\n"));
+        assertTrue(printed.contains("request " + Log.DEFAULT_SAMPLE + " "));
+        assertEquals(3, count(printed, "SampleTest: request"));
+    }
+}
@@ -0,0 +1,167 @@
+package server;
+
+import java.io.PrintWriter;
+
+/**
+ * Writes user activity records out one at a time, as a table for reading,
+ * CSV or JSON, so any number of records can be exported in constant memory.
+ * Call begin() before the first record and end() after the last.
+ */
+public class ActivityExporter {
+
+    public enum Format { TABLE, CSV, JSON }
+
+    private static final String TABLE_ROW = "%-10s %-15s %-10s %-20s %-20s %-20s %-10s%n";
+    private static final String[] COLUMNS = {
+        "activity_id", "session_id", "username", "board_name", "entry_time", "exit_time", "status"
+    };
+
+    private final PrintWriter out;
+    private final Format format;
+    private int written = 0;
+    private int lastId = -1;
+
+    /**
+     * @param out: where records are written
+     * @param format: how they are written
+     */
+    public ActivityExporter(PrintWriter out, Format format) {
+        this.out = out;
+        this.format = format;
+    }
+
+    /**
+     * Writes whatever comes before the first record
+     */
+    public void begin() {
+        switch (format) {
+        case TABLE:
+            out.printf(TABLE_ROW, "Activity ID", "Username", "Session", "Board", "Entry Time", "Exit Time", "Status");
+            out.println("------------------------------------------------------------------------------------------------------------");
+            break;
+        case CSV:
+            out.println(String.join(",", COLUMNS));
+            break;
+        case JSON:
+            out.print("[");
+            break;
+        }
+    }
+
+    /**
+     * Writes one record
+     * @param record: the record
+     */
+    public void write(ActivityStore.ActivityRecord record) {
+        switch (format) {
+        case TABLE:
+            out.printf(TABLE_ROW, record.getActivityId(), record.getUsername(), record.getSessionId(),
+                    record.getBoardName(), record.getEntryTime(),
+                    record.getExitTime() != null ? record.getExitTime() : "N/A", record.getStatus());
+            break;
+        case CSV:
+            out.print(record.getActivityId());
+            out.print(',');
+            out.print(record.getSessionId());
+            out.print(',');
+            out.print(csv(record.getUsername()));
+            out.print(',');
+            out.print(csv(record.getBoardName()));
+            out.print(',');
+            out.print(csv(record.getEntryTime()));
+            out.print(',');
+            out.print(csv(record.getExitTime()));
+            out.print(',');
+            out.println(csv(record.getStatus()));
+            break;
+        case JSON:
+            out.print(written == 0 ? "\n" : ",\n");
+            out.print("  {\"activity_id\": " + record.getActivityId()
+                    + ", \"session_id\": " + record.getSessionId()
+                    + ", \"username\": " + json(record.getUsername())
+                    + ", \"board_name\": " + json(record.getBoardName())
+                    + ", \"entry_time\": " + json(record.getEntryTime())
+                    + ", \"exit_time\": " + json(record.getExitTime())
+                    + ", \"status\": " + json(record.getStatus()) + "}");
+            break;
+        }
+        written++;
+        lastId = record.getActivityId();
+    }
+
+    /**
+     * Writes whatever comes after the last record and flushes
+     */
+    public void end() {
+        if (format == Format.JSON) {
+            out.println(written == 0 ? "]" : "\n]");
+        }
+        out.flush();
+    }
+
+    /**
+     * @return: the number of records written
+     */
+    public int getWritten() {
+        return written;
+    }
+
+    /**
+     * @return: the id of the last record written, which the next page
+     *          continues before, or -1 if none were written
+     */
+    public int getLastId() {
+        return lastId;
+    }
+
+    /**
+     * @return: a CSV field, quoted if it needs to be; null is an empty field
+     */
+    static String csv(String field) {
+        if (field == null) {
+            return "";
+        }
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0 && field.indexOf('\r') < 0) {
+            return field;
+        }
+        return "\"" + field.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * @return: a JSON string literal, or null
+     */
+    static String json(String field) {
+        if (field == null) {
+            return "null";
+        }
+        StringBuilder literal = new StringBuilder(field.length() + 2);
+        literal.append('"');
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            switch (c) {
+            case '"':
+                literal.append("\\\"");
+                break;
+            case '\\':
+                literal.append("\\\\");
+                break;
+            case '\n':
+                literal.append("\\n");
+                break;
+            case '\r':
+                literal.append("\\r");
+                break;
+            case '\t':
+                literal.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    literal.append(String.format("\\u%04x", (int) c));
+                } else {
+                    literal.append(c);
+                }
+            }
+        }
+        return literal.append('"').toString();
+    }
+}
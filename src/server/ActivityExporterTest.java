@@ -0,0 +1,75 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class ActivityExporterTest {
+
+    /*
+     * Testing Strategy:
+     * 
+     * -each format with no records, and with records
+     * -CSV fields with commas, quotes and newlines are quoted; a missing exit
+     *  time is an empty field
+     * -JSON strings escape quotes, backslashes and control characters; a
+     *  missing exit time is null
+     * -the exporter remembers how many records it wrote and the last id
+     */
+
+    private static final ActivityStore.ActivityRecord ACTIVE =
+            new ActivityStore.ActivityRecord(7, 2, "alice", "board1", "2026-01-01 10:00:00", null, "active");
+    private static final ActivityStore.ActivityRecord AWKWARD =
+            new ActivityStore.ActivityRecord(5, 2, "bob \"b\"", "a,b\nc\\d", "2026-01-01 09:00:00", "2026-01-01 09:30:00", "exited");
+
+    private static String export(ActivityExporter.Format format, ActivityStore.ActivityRecord... records) {
+        StringWriter text = new StringWriter();
+        ActivityExporter exporter = new ActivityExporter(new PrintWriter(text), format);
+        exporter.begin();
+        for (ActivityStore.ActivityRecord record : records) {
+            exporter.write(record);
+        }
+        exporter.end();
+        assertEquals(records.length, exporter.getWritten());
+        assertEquals(records.length == 0 ? -1 : records[records.length - 1].getActivityId(), exporter.getLastId());
+        return text.toString().replace(System.lineSeparator(), "\n");
+    }
+
+    @Test
+    public void emptyTest() {
+        assertEquals("[]\n", export(ActivityExporter.Format.JSON));
+        assertEquals("activity_id,session_id,username,board_name,entry_time,exit_time,status\n",
+                export(ActivityExporter.Format.CSV));
+        assertTrue(export(ActivityExporter.Format.TABLE).startsWith("Activity ID"));
+    }
+
+    @Test
+    public void csvTest() {
+        assertEquals("activity_id,session_id,username,board_name,entry_time,exit_time,status\n"
+                + "7,2,alice,board1,2026-01-01 10:00:00,,active\n"
+                + "5,2,\"bob \"\"b\"\"\",\"a,b\nc\\d\",2026-01-01 09:00:00,2026-01-01 09:30:00,exited\n",
+                export(ActivityExporter.Format.CSV, ACTIVE, AWKWARD));
+    }
+
+    @Test
+    public void jsonTest() {
+        assertEquals("[\n"
+                + "  {\"activity_id\": 7, \"session_id\": 2, \"username\": \"alice\", \"board_name\": \"board1\", "
+                + "\"entry_time\": \"2026-01-01 10:00:00\", \"exit_time\": null, \"status\": \"active\"},\n"
+                + "  {\"activity_id\": 5, \"session_id\": 2, \"username\": \"bob \\\"b\\\"\", \"board_name\": \"a,b\\nc\\\\d\", "
+                + "\"entry_time\": \"2026-01-01 09:00:00\", \"exit_time\": \"2026-01-01 09:30:00\", \"status\": \"exited\"}\n"
+                + "]\n",
+                export(ActivityExporter.Format.JSON, ACTIVE, AWKWARD));
+        assertEquals("\"\\u0001\\t\"", ActivityExporter.json("\u0001\t"));
+    }
+
+    @Test
+    public void tableTest() {
+        String table = export(ActivityExporter.Format.TABLE, ACTIVE);
+        assertTrue(table.contains("alice"));
+        assertTrue(table.contains("N/A"));
+    }
+}
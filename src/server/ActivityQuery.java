@@ -0,0 +1,176 @@
+package server;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Filters and paging for a query of user activity.  Activity is returned
+ * newest first, by activity id; a page is continued by asking for the
+ * activity before the last id of the previous page, so every page costs
+ * the same however deep into the history it is.  Asking for the activity
+ * after an id instead returns it oldest first, for reading forward from a
+ * watermark (see ActivityRollup).  Every filter is optional.
+ */
+public class ActivityQuery {
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private Integer sessionId = null;
+    private String username = null;
+    private String boardName = null;
+    private LocalDateTime from = null;
+    private LocalDateTime to = null;
+    private Integer beforeId = null;
+    private Integer afterId = null;
+    private int limit = 0;
+    private int fetchSize = 0;
+
+    /**
+     * @param sessionId: only activity in this session
+     * @return: this query
+     */
+    public ActivityQuery session(int sessionId) {
+        this.sessionId = sessionId;
+        return this;
+    }
+
+    /**
+     * @param username: only this user's activity
+     * @return: this query
+     */
+    public ActivityQuery user(String username) {
+        this.username = username;
+        return this;
+    }
+
+    /**
+     * @param boardName: only activity on this board
+     * @return: this query
+     */
+    public ActivityQuery board(String boardName) {
+        this.boardName = boardName;
+        return this;
+    }
+
+    /**
+     * @param from: only entries at or after this time
+     * @return: this query
+     */
+    public ActivityQuery from(LocalDateTime from) {
+        this.from = from;
+        return this;
+    }
+
+    /**
+     * @param to: only entries before this time
+     * @return: this query
+     */
+    public ActivityQuery to(LocalDateTime to) {
+        this.to = to;
+        return this;
+    }
+
+    /**
+     * @param beforeId: only activity with a lower id, e.g. the last id of the
+     *                  previous page
+     * @return: this query
+     */
+    public ActivityQuery before(int beforeId) {
+        this.beforeId = beforeId;
+        return this;
+    }
+
+    /**
+     * @param afterId: only activity with a higher id, returned oldest first
+     * @return: this query
+     */
+    public ActivityQuery after(int afterId) {
+        this.afterId = afterId;
+        return this;
+    }
+
+    /**
+     * @param limit: most rows to return, or 0 for every match
+     * @return: this query
+     */
+    public ActivityQuery limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * @param fetchSize: rows the database sends at once, or 0 to stream them
+     *                   one at a time (see DatabaseManager.streamUserActivity)
+     * @return: this query
+     */
+    public ActivityQuery fetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
+    public Integer getSessionId() {
+        return sessionId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getBoardName() {
+        return boardName;
+    }
+
+    /**
+     * @return: the start of the time range as yyyy-MM-dd HH:mm:ss, or null
+     */
+    public String getFrom() {
+        return from == null ? null : from.format(TIME_FORMAT);
+    }
+
+    /**
+     * @return: the end of the time range as yyyy-MM-dd HH:mm:ss, or null
+     */
+    public String getTo() {
+        return to == null ? null : to.format(TIME_FORMAT);
+    }
+
+    public Integer getBeforeId() {
+        return beforeId;
+    }
+
+    public Integer getAfterId() {
+        return afterId;
+    }
+
+    /**
+     * @return: whether activity is returned oldest first, as it is when
+     *          reading after an id
+     */
+    public boolean isOldestFirst() {
+        return afterId != null;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Checks a record against every filter but the limit
+     * @param record: the activity
+     * @return: whether the query selects it
+     */
+    public boolean matches(ActivityStore.ActivityRecord record) {
+        // times are all yyyy-MM-dd HH:mm:ss, so they compare as strings
+        return (sessionId == null || record.getSessionId() == sessionId)
+                && (username == null || record.getUsername().equals(username))
+                && (boardName == null || record.getBoardName().equals(boardName))
+                && (from == null || record.getEntryTime().compareTo(getFrom()) >= 0)
+                && (to == null || record.getEntryTime().compareTo(getTo()) < 0)
+                && (beforeId == null || record.getActivityId() < beforeId)
+                && (afterId == null || record.getActivityId() > afterId);
+    }
+}
@@ -0,0 +1,185 @@
+package server;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Measures the activity queries the server runs on a large user_activity
+ * table, before and after DatabaseManager's secondary indexes are created:
+ * an exit matched by session, username and status, an exit by activity id,
+ * and the active users of the current session that the statistics list.
+ *
+ * Seeds a scratch database with the given number of activity rows spread
+ * over many sessions, a few of them still active in the last session.  The
+ * scratch tables are dropped and recreated, so point it at a database of its
+ * own, never the server's:
+ *
+ * Usage: java -Dwhiteboard.db.url=jdbc:mysql://localhost:3306/inksync_bench
+ *             [-Dwhiteboard.db.user=root -Dwhiteboard.db.password=...]
+ *             server.ActivityQueryBenchmark [rows] [queries]
+ *        (default 1000000 rows, 200 queries of each kind)
+ */
+public class ActivityQueryBenchmark {
+
+    private static final int SESSIONS = 500;
+    private static final int USERS = 20000;
+    private static final int SEED_BATCH = 10000;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        String url = DatabaseManager.configuredSetting("whiteboard.db.url", "WHITEBOARD_DB_URL");
+        if (url == null || url.endsWith("/inksync_db")) {
+            System.err.println("Set whiteboard.db.url to a scratch database; its tables are dropped");
+            System.exit(1);
+        }
+        String user = DatabaseManager.configuredSetting("whiteboard.db.user", "WHITEBOARD_DB_USER");
+        String password = DatabaseManager.configuredSetting("whiteboard.db.password", "WHITEBOARD_DB_PASSWORD");
+
+        try (Connection connection = DriverManager.getConnection(url, user != null ? user : "root",
+                password != null ? password : "")) {
+            createTables(connection);
+            long start = System.nanoTime();
+            int session = seed(connection, rows);
+            System.out.printf("Seeded %d rows in %.1f s%n", rows, (System.nanoTime() - start) / 1e9);
+
+            System.out.printf("%-12s %-22s %-22s %-22s%n", "Indexes", "Exit by user (ms)", "Exit by id (ms)", "Active users (ms)");
+            // without the indexes, exits by id are the same primary key lookup either way
+            measure(connection, "none", queries, session, 0);
+            start = System.nanoTime();
+            DatabaseManager.createIndexesIfNotExist(connection);
+            System.out.printf("Created indexes in %.1f s%n", (System.nanoTime() - start) / 1e9);
+            measure(connection, "composite", queries, session, queries);
+        }
+    }
+
+    /**
+     * Drops and recreates the scratch tables as DatabaseManager makes them,
+     * without secondary indexes
+     */
+    private static void createTables(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("DROP TABLE IF EXISTS user_activity");
+            stmt.executeUpdate("DROP TABLE IF EXISTS server_sessions");
+            stmt.executeUpdate("CREATE TABLE server_sessions ("
+                    + "session_id INT AUTO_INCREMENT PRIMARY KEY, start_time DATETIME NOT NULL, "
+                    + "end_time DATETIME NULL, status ENUM('active', 'ended') DEFAULT 'active')");
+            stmt.executeUpdate("CREATE TABLE user_activity ("
+                    + "activity_id INT AUTO_INCREMENT PRIMARY KEY, session_id INT NOT NULL, "
+                    + "username VARCHAR(50) NOT NULL, board_name VARCHAR(100) NOT NULL, "
+                    + "entry_time DATETIME NOT NULL, exit_time DATETIME NULL, "
+                    + "status ENUM('active', 'exited') DEFAULT 'active', "
+                    + "FOREIGN KEY (session_id) REFERENCES server_sessions(session_id))");
+        }
+    }
+
+    /**
+     * Seeds sessions and activity rows, every row exited except the last
+     * USERS, one per user, which are active in the last session
+     * @return the id of the last session
+     */
+    private static int seed(Connection connection, int rows) throws SQLException {
+        connection.setAutoCommit(false);
+        try (PreparedStatement sessions = connection.prepareStatement(
+                "INSERT INTO server_sessions (session_id, start_time, end_time, status) VALUES (?, ?, ?, ?)")) {
+            for (int s = 1; s <= SESSIONS; s++) {
+                sessions.setInt(1, s);
+                sessions.setString(2, "2026-01-01 00:00:00");
+                sessions.setString(3, s == SESSIONS ? null : "2026-01-01 01:00:00");
+                sessions.setString(4, s == SESSIONS ? "active" : "ended");
+                sessions.addBatch();
+            }
+            sessions.executeBatch();
+        }
+        try (PreparedStatement activity = connection.prepareStatement(
+                "INSERT INTO user_activity (session_id, username, board_name, entry_time, exit_time, status) VALUES (?, ?, ?, ?, ?, ?)")) {
+            int perSession = Math.max(1, rows / SESSIONS);
+            for (int i = 0; i < rows; i++) {
+                boolean active = i >= rows - Math.min(USERS, rows);
+                int session = active ? SESSIONS : Math.min(SESSIONS - 1, i / perSession + 1);
+                activity.setInt(1, session);
+                activity.setString(2, "user" + (i % USERS));
+                activity.setString(3, "board" + (i % 50));
+                activity.setString(4, "2026-01-01 00:00:00");
+                activity.setString(5, active ? null : "2026-01-01 00:30:00");
+                activity.setString(6, active ? "active" : "exited");
+                activity.addBatch();
+                if ((i + 1) % SEED_BATCH == 0) {
+                    activity.executeBatch();
+                    connection.commit();
+                }
+            }
+            activity.executeBatch();
+            connection.commit();
+        }
+        connection.setAutoCommit(true);
+        return SESSIONS;
+    }
+
+    /**
+     * Times each kind of query and prints the mean of each
+     * @param firstUser: index of the first active user to exit, so each run
+     *                   exits users the last run didn't
+     */
+    private static void measure(Connection connection, String label, int queries, int session, int firstUser)
+            throws SQLException {
+        String exitByUser = "UPDATE user_activity SET exit_time = ?, status = 'exited' WHERE session_id = ? AND username = ? AND status = 'active'";
+        String exitById = "UPDATE user_activity SET exit_time = ?, status = 'exited' WHERE activity_id = ? AND status = 'active'";
+        String activeUsers = "SELECT username, board_name, entry_time FROM user_activity WHERE session_id = ? AND status = 'active'";
+        String findIds = "SELECT activity_id FROM user_activity WHERE session_id = ? AND status = 'active' ORDER BY activity_id DESC LIMIT ?";
+
+        double byUser;
+        try (PreparedStatement stmt = connection.prepareStatement(exitByUser)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                stmt.setString(1, "2026-01-01 02:00:00");
+                stmt.setInt(2, session);
+                stmt.setString(3, "user" + (firstUser + i));
+                stmt.executeUpdate();
+            }
+            byUser = (System.nanoTime() - start) / 1e6 / queries;
+        }
+
+        // ids of active entries the exits above didn't close, as kept at entry
+        int[] ids = new int[queries];
+        try (PreparedStatement stmt = connection.prepareStatement(findIds)) {
+            stmt.setInt(1, session);
+            stmt.setInt(2, queries);
+            try (ResultSet rs = stmt.executeQuery()) {
+                for (int i = 0; i < queries && rs.next(); i++) {
+                    ids[i] = rs.getInt(1);
+                }
+            }
+        }
+        double byId;
+        try (PreparedStatement stmt = connection.prepareStatement(exitById)) {
+            long start = System.nanoTime();
+            for (int id : ids) {
+                stmt.setString(1, "2026-01-01 02:00:00");
+                stmt.setInt(2, id);
+                stmt.executeUpdate();
+            }
+            byId = (System.nanoTime() - start) / 1e6 / queries;
+        }
+
+        double active;
+        try (PreparedStatement stmt = connection.prepareStatement(activeUsers)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                stmt.setInt(1, session);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        rs.getString(1);
+                    }
+                }
+            }
+            active = (System.nanoTime() - start) / 1e6 / queries;
+        }
+
+        System.out.printf("%-12s %-22.3f %-22.3f %-22.3f%n", label, byUser, byId, active);
+    }
+}
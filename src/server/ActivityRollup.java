@@ -0,0 +1,441 @@
+package server;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import logging.Log;
+
+/**
+ * Board usage rolled up from user activity, so usage trends are read from
+ * two small summaries rather than by scanning every activity row:
+ *   - hourly usage: for each hour and board, the visits started, the
+ *     user-seconds spent on the board, from which the average number of
+ *     concurrent users follows, and the longest visit
+ *   - user usage: for each user, their visits, total and longest time on
+ *     the boards, and when they were last seen
+ *
+ * Rollups are incremental.  The store keeps a watermark, the id of the last
+ * activity rolled up; a run reads the activity after it oldest first, adds
+ * each finished visit to the summaries and moves the watermark past it.  A
+ * visit still in progress is passed over and kept pending by the store, so
+ * one user staying on a board doesn't hold up rolling up everyone else; each
+ * run starts with the pending visits and adds those that have finished since.
+ * No visit is counted before its length is known, or counted twice.  A
+ * visit left open by a session that ended lasts until the session's end; one
+ * left open by a server that crashed, known because a later session
+ * started, is counted with no time.
+ *
+ * An ActivityRollup is one run's additions to the summaries, which the store
+ * saves together with the new watermark and the changes to the pending
+ * visits (see ActivityStore.saveRollup).
+ */
+public class ActivityRollup implements Consumer<ActivityStore.ActivityRecord> {
+
+    // activities read from the store per rollup saved
+    public static final int BATCH = 5000;
+
+    private static final Log LOG = Log.get("ActivityRollup");
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * Use of one board during one hour
+     */
+    public static class HourlyUsage {
+        private final String hour;
+        private final String boardName;
+        private int visits;
+        private long userSeconds;
+        private long longestSeconds;
+
+        /**
+         * @param hour: the start of the hour, as yyyy-MM-dd HH:00:00
+         * @param boardName: the board
+         * @param visits: visits to the board starting in the hour
+         * @param userSeconds: seconds users spent on the board in the hour
+         * @param longestSeconds: length of the longest visit starting in the hour
+         */
+        public HourlyUsage(String hour, String boardName, int visits, long userSeconds, long longestSeconds) {
+            this.hour = hour;
+            this.boardName = boardName;
+            this.visits = visits;
+            this.userSeconds = userSeconds;
+            this.longestSeconds = longestSeconds;
+        }
+
+        public String getHour() {
+            return hour;
+        }
+
+        public String getBoardName() {
+            return boardName;
+        }
+
+        public int getVisits() {
+            return visits;
+        }
+
+        public long getUserSeconds() {
+            return userSeconds;
+        }
+
+        public long getLongestSeconds() {
+            return longestSeconds;
+        }
+
+        /**
+         * @return: the average number of users on the board over the hour
+         */
+        public double getAverageUsers() {
+            return userSeconds / 3600.0;
+        }
+
+        /**
+         * Adds another rollup's usage of the same board and hour to this
+         */
+        void add(HourlyUsage other) {
+            visits += other.visits;
+            userSeconds += other.userSeconds;
+            longestSeconds = Math.max(longestSeconds, other.longestSeconds);
+        }
+    }
+
+    /**
+     * Use of the boards by one user
+     */
+    public static class UserUsage {
+        private final String username;
+        private int visits;
+        private long totalSeconds;
+        private long longestSeconds;
+        private String lastSeen;
+
+        /**
+         * @param username: the user
+         * @param visits: the user's visits to boards
+         * @param totalSeconds: seconds the user spent on boards
+         * @param longestSeconds: length of the user's longest visit
+         * @param lastSeen: when the user last left a board, as yyyy-MM-dd HH:mm:ss
+         */
+        public UserUsage(String username, int visits, long totalSeconds, long longestSeconds, String lastSeen) {
+            this.username = username;
+            this.visits = visits;
+            this.totalSeconds = totalSeconds;
+            this.longestSeconds = longestSeconds;
+            this.lastSeen = lastSeen;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public int getVisits() {
+            return visits;
+        }
+
+        public long getTotalSeconds() {
+            return totalSeconds;
+        }
+
+        public long getLongestSeconds() {
+            return longestSeconds;
+        }
+
+        public String getLastSeen() {
+            return lastSeen;
+        }
+
+        /**
+         * @return: the mean length of the user's visits in seconds
+         */
+        public long getAverageSeconds() {
+            return visits == 0 ? 0 : totalSeconds / visits;
+        }
+
+        /**
+         * Adds another rollup's usage by the same user to this
+         */
+        void add(UserUsage other) {
+            visits += other.visits;
+            totalSeconds += other.totalSeconds;
+            longestSeconds = Math.max(longestSeconds, other.longestSeconds);
+            // times are all yyyy-MM-dd HH:mm:ss, so they compare as strings
+            if (other.lastSeen.compareTo(lastSeen) > 0) {
+                lastSeen = other.lastSeen;
+            }
+        }
+    }
+
+    private final int fromId;
+    private int toId;
+    private int visits = 0;
+    // ids of visits after the watermark still in progress, to keep pending,
+    // and of pending visits that have finished, to stop keeping
+    private final List<Integer> opened = new ArrayList<Integer>();
+    private final List<Integer> closed = new ArrayList<Integer>();
+    // sessions by id, and the newest, the only one that may still be running
+    private final Map<Integer, ActivityStore.SessionRecord> sessions = new HashMap<Integer, ActivityStore.SessionRecord>();
+    private int newestSessionId = -1;
+    // by hour then board name, and by username
+    private final Map<String, HourlyUsage> hourly = new TreeMap<String, HourlyUsage>();
+    private final Map<String, UserUsage> users = new TreeMap<String, UserUsage>();
+
+    /**
+     * Starts a rollup of the activity after a watermark, with no visits pending
+     * @param watermark: the id of the last activity already rolled up, 0 if none
+     * @param sessions: every server session, so visits left open can be told
+     *                  apart from visits in progress
+     */
+    public ActivityRollup(int watermark, List<ActivityStore.SessionRecord> sessions) {
+        this(watermark, sessions, Collections.<ActivityStore.ActivityRecord>emptyList());
+    }
+
+    /**
+     * Starts a rollup of the activity after a watermark, adding the pending
+     * visits that have finished
+     * @param watermark: the id of the last activity already rolled up, 0 if none
+     * @param sessions: every server session, so visits left open can be told
+     *                  apart from visits in progress
+     * @param pending: the visits before the watermark still in progress when
+     *                 last rolled up (see ActivityStore.getPendingActivity)
+     */
+    public ActivityRollup(int watermark, List<ActivityStore.SessionRecord> sessions,
+            List<ActivityStore.ActivityRecord> pending) {
+        this.fromId = watermark;
+        this.toId = watermark;
+        for (ActivityStore.SessionRecord session : sessions) {
+            this.sessions.put(session.getSessionId(), session);
+            newestSessionId = Math.max(newestSessionId, session.getSessionId());
+        }
+        for (ActivityStore.ActivityRecord record : pending) {
+            if (!isInProgress(record)) {
+                add(record, exitTime(record));
+                closed.add(record.getActivityId());
+            }
+        }
+    }
+
+    /**
+     * Adds the next activity after the watermark, oldest first, or keeps it
+     * pending if the visit is still in progress
+     * @param record: the activity
+     */
+    @Override
+    public void accept(ActivityStore.ActivityRecord record) {
+        if (isInProgress(record)) {
+            opened.add(record.getActivityId());
+        } else {
+            add(record, exitTime(record));
+        }
+        toId = record.getActivityId();
+    }
+
+    /**
+     * @return: whether a visit hasn't finished: it has no exit and its
+     *          session is the newest and still running, or started since
+     *          the sessions were read
+     */
+    private boolean isInProgress(ActivityStore.ActivityRecord record) {
+        if (record.getExitTime() != null) {
+            return false;
+        }
+        ActivityStore.SessionRecord session = sessions.get(record.getSessionId());
+        return session == null || (session.getEndTime() == null && session.getSessionId() >= newestSessionId);
+    }
+
+    /**
+     * @return: when a finished visit ended: its exit, or else its session's
+     *          end, or null if its server crashed
+     */
+    private String exitTime(ActivityStore.ActivityRecord record) {
+        if (record.getExitTime() != null) {
+            return record.getExitTime();
+        }
+        return sessions.get(record.getSessionId()).getEndTime();
+    }
+
+    /**
+     * Adds a finished visit to the summaries
+     * @param exitTime: when the visit ended, or null if that isn't known
+     */
+    private void add(ActivityStore.ActivityRecord record, String exitTime) {
+        LocalDateTime entry = LocalDateTime.parse(record.getEntryTime(), TIME_FORMAT);
+        LocalDateTime exit = exitTime == null ? entry : LocalDateTime.parse(exitTime, TIME_FORMAT);
+        if (exit.isBefore(entry)) {
+            exit = entry;
+        }
+        long seconds = Duration.between(entry, exit).getSeconds();
+        visits++;
+
+        LocalDateTime firstHour = entry.truncatedTo(ChronoUnit.HOURS);
+        hourly(firstHour, record.getBoardName()).add(
+                new HourlyUsage(null, null, 1, 0, seconds));
+        // spread the visit's time over the hours it spans
+        for (LocalDateTime hour = firstHour; hour.isBefore(exit); hour = hour.plusHours(1)) {
+            LocalDateTime start = entry.isAfter(hour) ? entry : hour;
+            LocalDateTime end = exit.isBefore(hour.plusHours(1)) ? exit : hour.plusHours(1);
+            hourly(hour, record.getBoardName()).add(
+                    new HourlyUsage(null, null, 0, Duration.between(start, end).getSeconds(), 0));
+        }
+
+        String lastSeen = exit.format(TIME_FORMAT);
+        UserUsage user = users.get(record.getUsername());
+        if (user == null) {
+            users.put(record.getUsername(), new UserUsage(record.getUsername(), 1, seconds, seconds, lastSeen));
+        } else {
+            user.add(new UserUsage(record.getUsername(), 1, seconds, seconds, lastSeen));
+        }
+    }
+
+    private HourlyUsage hourly(LocalDateTime hour, String boardName) {
+        String formatted = hour.format(TIME_FORMAT);
+        return hourly.computeIfAbsent(formatted + "\t" + boardName,
+                key -> new HourlyUsage(formatted, boardName, 0, 0, 0));
+    }
+
+    /**
+     * @return: the watermark the rollup started from
+     */
+    public int getFromId() {
+        return fromId;
+    }
+
+    /**
+     * @return: the id of the last activity rolled up, the new watermark
+     */
+    public int getToId() {
+        return toId;
+    }
+
+    /**
+     * @return: the number of visits rolled up
+     */
+    public int getVisits() {
+        return visits;
+    }
+
+    /**
+     * @return: ids of the visits after the watermark still in progress, for
+     *          the store to keep pending
+     */
+    public List<Integer> getOpened() {
+        return opened;
+    }
+
+    /**
+     * @return: ids of the pending visits rolled up, for the store to stop
+     *          keeping pending
+     */
+    public List<Integer> getClosed() {
+        return closed;
+    }
+
+    /**
+     * @return: usage to add to the hourly summary, by hour then board name
+     */
+    public Collection<HourlyUsage> getHourlyUsage() {
+        return hourly.values();
+    }
+
+    /**
+     * @return: usage to add to the user summary, by username
+     */
+    public Collection<UserUsage> getUserUsage() {
+        return users.values();
+    }
+
+    /**
+     * Rolls up the pending visits that have finished and every finished visit
+     * after the store's watermark, BATCH activities at a time, each saved
+     * with its watermark before the next is read
+     * @param store: the store to roll up
+     * @return: the number of visits rolled up
+     * @throws Exception if the store can't be read or the rollup saved
+     */
+    public static int run(ActivityStore store) throws Exception {
+        List<ActivityStore.SessionRecord> sessions = store.getSessions();
+        List<ActivityStore.ActivityRecord> pending = store.getPendingActivity();
+        int total = 0;
+        while (true) {
+            ActivityRollup rollup = new ActivityRollup(store.getRollupWatermark(), sessions, pending);
+            pending = Collections.emptyList();
+            int read = store.streamUserActivity(new ActivityQuery().after(rollup.getFromId()).limit(BATCH), rollup);
+            if (rollup.getToId() == rollup.getFromId() && rollup.getClosed().isEmpty()) {
+                break;
+            }
+            if (!store.saveRollup(rollup)) {
+                LOG.warn("Activity rollup stopped: the watermark was moved by another rollup");
+                break;
+            }
+            total += rollup.getVisits();
+            if (read < BATCH) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Describes usage over the last hours from the rolled up summaries: the
+     * busiest boards, the busiest hours and the users who spent longest on
+     * the boards
+     * @param store: the store holding the summaries
+     * @param hours: how many hours back to describe
+     * @param topUsers: how many users to list
+     * @return: formatted report string
+     * @throws Exception if the store can't be read
+     */
+    public static String getUsageReport(ActivityStore store, int hours, int topUsers) throws Exception {
+        LocalDateTime to = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS).plusHours(1);
+        List<HourlyUsage> usage = store.getHourlyUsage(to.minusHours(hours), to);
+
+        // totals by board, and by hour over every board
+        Map<String, HourlyUsage> boards = new TreeMap<String, HourlyUsage>();
+        Map<String, HourlyUsage> hourTotals = new TreeMap<String, HourlyUsage>();
+        for (HourlyUsage hour : usage) {
+            boards.computeIfAbsent(hour.boardName, name -> new HourlyUsage(null, name, 0, 0, 0)).add(hour);
+            hourTotals.computeIfAbsent(hour.hour, time -> new HourlyUsage(time, null, 0, 0, 0)).add(hour);
+        }
+        List<HourlyUsage> busiestBoards = new ArrayList<HourlyUsage>(boards.values());
+        busiestBoards.sort((a, b) -> Long.compare(b.userSeconds, a.userSeconds));
+        List<HourlyUsage> busiestHours = new ArrayList<HourlyUsage>(hourTotals.values());
+        busiestHours.sort((a, b) -> Long.compare(b.userSeconds, a.userSeconds));
+
+        StringBuilder report = new StringBuilder();
+        report.append("Usage over the last ").append(hours).append(" hours (rolled up to activity ")
+              .append(store.getRollupWatermark()).append(")\n\n");
+        report.append(String.format("%-20s %8s %10s %10s%n", "Board", "Visits", "User-hours", "Avg users"));
+        for (HourlyUsage board : busiestBoards) {
+            report.append(String.format("%-20s %8d %10.1f %10.2f%n", board.boardName, board.visits,
+                    board.userSeconds / 3600.0, board.userSeconds / 3600.0 / hours));
+        }
+        report.append(String.format("%n%-20s %8s %10s %10s%n", "Busiest hours", "Visits", "Avg users", "Longest"));
+        for (HourlyUsage hour : busiestHours.subList(0, Math.min(5, busiestHours.size()))) {
+            report.append(String.format("%-20s %8d %10.2f %10s%n", hour.hour, hour.visits,
+                    hour.getAverageUsers(), formatDuration(hour.longestSeconds)));
+        }
+        report.append(String.format("%n%-20s %8s %10s %10s  %s%n", "User", "Visits", "Total", "Average", "Last seen"));
+        for (UserUsage user : store.getUserUsage(topUsers)) {
+            report.append(String.format("%-20s %8d %10s %10s  %s%n", user.username, user.visits,
+                    formatDuration(user.totalSeconds), formatDuration(user.getAverageSeconds()), user.lastSeen));
+        }
+        return report.toString();
+    }
+
+    /**
+     * @return: seconds as hours and minutes, e.g. 2h 05m
+     */
+    static String formatDuration(long seconds) {
+        return String.format("%dh %02dm", seconds / 3600, seconds / 60 % 60);
+    }
+}
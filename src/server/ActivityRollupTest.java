@@ -0,0 +1,241 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ActivityRollupTest {
+
+    /*
+     * Testing Strategy:
+     *
+     * -a visit within an hour, and one spanning several hours, whose time is
+     *  split over the hours it spans and counted as a visit in the first
+     * -user usage adds up visits and time, keeps the longest visit and the
+     *  latest exit
+     * -a visit in progress is kept pending while the visits after it are
+     *  rolled up, and is rolled up once it exits, without counting anything
+     *  twice
+     * -a visit left open by an ended session lasts until the session's end;
+     *  one left open by a crashed server has no time
+     * -a rollup started from a watermark that has since moved, or closing a
+     *  pending visit another rollup has closed, saves nothing
+     * -summaries, the watermark and pending visits survive reopening the
+     *  file, but usage written without its watermark doesn't count, nor
+     *  does a second rollup of activity already rolled up
+     * -the usage report lists boards and users
+     */
+
+    private static final LocalDateTime T = LocalDateTime.of(2026, 1, 1, 10, 30, 0);
+
+    private static File makeFile() throws IOException {
+        File file = File.createTempFile("activity", ".log");
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static ActivityWriter.Activity entry(String username, String boardName, LocalDateTime time) {
+        return new ActivityWriter.Activity(ActivityWriter.Activity.Type.ENTRY, username, boardName, time);
+    }
+
+    private static ActivityWriter.Activity exit(String username, LocalDateTime time) {
+        return new ActivityWriter.Activity(ActivityWriter.Activity.Type.EXIT, username, null, time);
+    }
+
+    private static List<ActivityRollup.HourlyUsage> allHours(ActivityStore store) throws Exception {
+        return store.getHourlyUsage(LocalDateTime.of(2000, 1, 1, 0, 0), LocalDateTime.of(2100, 1, 1, 0, 0));
+    }
+
+    private static void assertHour(ActivityRollup.HourlyUsage usage, String hour, String boardName,
+            int visits, long userSeconds, long longestSeconds) {
+        assertEquals(hour, usage.getHour());
+        assertEquals(boardName, usage.getBoardName());
+        assertEquals(visits, usage.getVisits());
+        assertEquals(userSeconds, usage.getUserSeconds());
+        assertEquals(longestSeconds, usage.getLongestSeconds());
+    }
+
+    @Test
+    public void hoursTest() throws Exception {
+        FileActivityStore store = new FileActivityStore(makeFile().getPath());
+        store.startServerSession();
+        // alice 10:30-12:15 on board1, bob 10:40-10:50 on board1, alice 12:20-12:30 on board2
+        store.writeActivity(Arrays.asList(entry("alice", "board1", T), entry("bob", "board1", T.plusMinutes(10)),
+                exit("bob", T.plusMinutes(20)), exit("alice", T.plusMinutes(105)),
+                entry("alice", "board2", T.plusMinutes(110)), exit("alice", T.plusMinutes(120))));
+        assertEquals(3, ActivityRollup.run(store));
+        assertEquals(3, store.getRollupWatermark());
+
+        List<ActivityRollup.HourlyUsage> hours = allHours(store);
+        assertEquals(4, hours.size());
+        assertHour(hours.get(0), "2026-01-01 10:00:00", "board1", 2, 1800 + 600, 6300);
+        assertHour(hours.get(1), "2026-01-01 11:00:00", "board1", 0, 3600, 0);
+        assertHour(hours.get(2), "2026-01-01 12:00:00", "board1", 0, 900, 0);
+        assertHour(hours.get(3), "2026-01-01 12:00:00", "board2", 1, 600, 600);
+        assertEquals(1.0, hours.get(1).getAverageUsers(), 1e-9);
+        // a range of hours
+        assertEquals(2, store.getHourlyUsage(T.withMinute(0).plusHours(2), T.withMinute(0).plusHours(3)).size());
+
+        List<ActivityRollup.UserUsage> users = store.getUserUsage(10);
+        assertEquals(2, users.size());
+        ActivityRollup.UserUsage alice = users.get(0);
+        assertEquals("alice", alice.getUsername());
+        assertEquals(2, alice.getVisits());
+        assertEquals(6900, alice.getTotalSeconds());
+        assertEquals(6300, alice.getLongestSeconds());
+        assertEquals(3450, alice.getAverageSeconds());
+        assertEquals("2026-01-01 12:30:00", alice.getLastSeen());
+        assertEquals("bob", users.get(1).getUsername());
+        assertEquals(1, store.getUserUsage(1).size());
+    }
+
+    @Test
+    public void watermarkTest() throws Exception {
+        FileActivityStore store = new FileActivityStore(makeFile().getPath());
+        store.startServerSession();
+        store.writeActivity(Arrays.asList(entry("alice", "board1", T), entry("bob", "board1", T),
+                exit("bob", T.plusMinutes(10))));
+        // alice is still on board1, so only bob's visit after hers is rolled up
+        assertEquals(1, ActivityRollup.run(store));
+        assertEquals(2, store.getRollupWatermark());
+        assertEquals(1, store.getPendingActivity().size());
+        assertEquals("alice", store.getPendingActivity().get(0).getUsername());
+        assertEquals("bob", store.getUserUsage(10).get(0).getUsername());
+        assertEquals(1, store.getUserUsage(10).size());
+
+        store.writeActivity(Arrays.asList(exit("alice", T.plusMinutes(20)), entry("carol", "board1", T.plusMinutes(25))));
+        assertEquals(1, ActivityRollup.run(store));
+        assertEquals(3, store.getRollupWatermark());
+        assertEquals("carol", store.getPendingActivity().get(0).getUsername());
+        assertEquals(0, ActivityRollup.run(store));
+        List<ActivityRollup.HourlyUsage> hours = allHours(store);
+        assertEquals(1, hours.size());
+        assertHour(hours.get(0), "2026-01-01 10:00:00", "board1", 2, 1800, 1200);
+
+        store.writeActivity(Collections.singletonList(exit("carol", T.plusMinutes(29))));
+        assertEquals(1, ActivityRollup.run(store));
+        assertEquals(3, store.getRollupWatermark());
+        assertTrue(store.getPendingActivity().isEmpty());
+        assertHour(allHours(store).get(0), "2026-01-01 10:00:00", "board1", 3, 2040, 1200);
+    }
+
+    @Test
+    public void openVisitsTest() throws Exception {
+        File file = makeFile();
+        FileActivityStore crashed = new FileActivityStore(file.getPath());
+        crashed.startServerSession();
+        crashed.writeActivity(Collections.singletonList(entry("alice", "board1", T)));
+        // never ended: the server crashed
+        crashed.close();
+
+        FileActivityStore store = new FileActivityStore(file.getPath());
+        store.startServerSession();
+        LocalDateTime hourAgo = LocalDateTime.now().minusHours(1).truncatedTo(ChronoUnit.SECONDS);
+        store.writeActivity(Collections.singletonList(entry("bob", "board1", hourAgo)));
+        // bob is in progress until the session ends
+        assertEquals(1, ActivityRollup.run(store));
+        store.endServerSession();
+        assertEquals(1, ActivityRollup.run(store));
+        assertEquals(2, store.getRollupWatermark());
+
+        List<ActivityRollup.UserUsage> users = store.getUserUsage(10);
+        assertEquals("bob", users.get(0).getUsername());
+        assertTrue(users.get(0).getTotalSeconds() >= 3600);
+        assertEquals("alice", users.get(1).getUsername());
+        assertEquals(1, users.get(1).getVisits());
+        assertEquals(0, users.get(1).getTotalSeconds());
+    }
+
+    @Test
+    public void raceTest() throws Exception {
+        FileActivityStore store = new FileActivityStore(makeFile().getPath());
+        store.startServerSession();
+        store.writeActivity(Arrays.asList(entry("alice", "board1", T), exit("alice", T.plusMinutes(10))));
+        ActivityRollup stale = new ActivityRollup(store.getRollupWatermark(), store.getSessions());
+        store.streamUserActivity(new ActivityQuery().after(0), stale);
+        assertEquals(1, ActivityRollup.run(store));
+        assertFalse(store.saveRollup(stale));
+        assertEquals(1, store.getUserUsage(10).get(0).getVisits());
+
+        // two rollups closing the same pending visit
+        store.writeActivity(Collections.singletonList(entry("bob", "board1", T.plusMinutes(20))));
+        assertEquals(0, ActivityRollup.run(store));
+        store.writeActivity(Collections.singletonList(exit("bob", T.plusMinutes(30))));
+        ActivityRollup first = new ActivityRollup(store.getRollupWatermark(), store.getSessions(), store.getPendingActivity());
+        ActivityRollup second = new ActivityRollup(store.getRollupWatermark(), store.getSessions(), store.getPendingActivity());
+        assertTrue(store.saveRollup(first));
+        assertFalse(store.saveRollup(second));
+        assertEquals(1, store.getUserUsage(10).get(1).getVisits());
+    }
+
+    @Test
+    public void pendingReloadTest() throws Exception {
+        File file = makeFile();
+        FileActivityStore store = new FileActivityStore(file.getPath());
+        store.startServerSession();
+        store.writeActivity(Arrays.asList(entry("alice", "board1", T), entry("bob", "board1", T),
+                exit("bob", T.plusMinutes(10))));
+        assertEquals(1, ActivityRollup.run(store));
+        store.close();
+        // a pending visit a crash cut off before its watermark
+        try (FileWriter writer = new FileWriter(file, true)) {
+            writer.write("P\t2\n");
+        }
+
+        FileActivityStore reopened = new FileActivityStore(file.getPath());
+        assertEquals(2, reopened.getRollupWatermark());
+        assertEquals(1, reopened.getPendingActivity().size());
+        assertEquals(1, reopened.getPendingActivity().get(0).getActivityId());
+        // alice's session never ended, so once another starts her visit is counted with no time
+        reopened.startServerSession();
+        assertEquals(1, ActivityRollup.run(reopened));
+        assertTrue(reopened.getPendingActivity().isEmpty());
+        assertEquals(2, reopened.getUserUsage(10).size());
+        reopened.close();
+    }
+
+    @Test
+    public void reloadTest() throws Exception {
+        File file = makeFile();
+        FileActivityStore store = new FileActivityStore(file.getPath());
+        store.startServerSession();
+        store.writeActivity(Arrays.asList(entry("alice", "board\t1", T), exit("alice", T.plusMinutes(10))));
+        ActivityRollup.run(store);
+        store.close();
+        try (FileWriter writer = new FileWriter(file, true)) {
+            // another rollup of the same activity, from the watermark before
+            writer.write("H\t2026-01-01 10:00:00\tboard\\t1\t1\t600\t600\nU\talice\t1\t600\t600\t2026-01-01 10:40:00\n"
+                    + "W\t0\t1\n");
+            // usage a crash cut off before its watermark
+            writer.write("H\t2026-01-01 10:00:00\tboard\\t1\t5\t500\t100\nU\talice\t5\t500\t100\t2026-01-01 11:00:00\n");
+        }
+
+        FileActivityStore reopened = new FileActivityStore(file.getPath());
+        assertEquals(1, reopened.getRollupWatermark());
+        List<ActivityRollup.HourlyUsage> hours = allHours(reopened);
+        assertEquals(1, hours.size());
+        assertHour(hours.get(0), "2026-01-01 10:00:00", "board\t1", 1, 600, 600);
+        assertEquals(1, reopened.getUserUsage(10).get(0).getVisits());
+        assertEquals("2026-01-01 10:40:00", reopened.getUserUsage(10).get(0).getLastSeen());
+
+        String report = ActivityRollup.getUsageReport(reopened, 24, 10);
+        assertTrue(report.contains("alice"));
+        assertTrue(report.startsWith("Usage over the last 24 hours (rolled up to activity 1)"));
+
+        reopened.clear();
+        assertEquals(0, reopened.getRollupWatermark());
+        assertTrue(allHours(reopened).isEmpty());
+        assertTrue(reopened.getUserUsage(10).isEmpty());
+        reopened.close();
+    }
+}
@@ -0,0 +1,281 @@
+package server;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Where server sessions and user activity are recorded.  DatabaseManager
+ * keeps them in MySQL; FileActivityStore keeps them in a local append-only
+ * file and needs no external service.  Which one the server uses is chosen
+ * by the whiteboard.activity.store system property (see open()).
+ *
+ * Stores hold the same two tables whichever they are: server_sessions, one
+ * row per server run, and user_activity, one row per user entering a board,
+ * closed when the user exits.  They also hold the usage summaries rolled up
+ * from user_activity (see ActivityRollup.java) and the rollup's watermark,
+ * and, when draw telemetry is on, draw counts (see DrawTelemetry.java).
+ */
+public interface ActivityStore {
+
+    /**
+     * A row of server_sessions
+     */
+    public static class SessionRecord {
+        private final int sessionId;
+        private final String startTime;
+        private final String endTime;
+        private final String status;
+
+        /**
+         * @param sessionId: the session's id
+         * @param startTime: when the server started, as yyyy-MM-dd HH:mm:ss
+         * @param endTime: when the server stopped, or null if it hasn't
+         * @param status: "active" or "ended"
+         */
+        public SessionRecord(int sessionId, String startTime, String endTime, String status) {
+            this.sessionId = sessionId;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.status = status;
+        }
+
+        public int getSessionId() {
+            return sessionId;
+        }
+
+        public String getStartTime() {
+            return startTime;
+        }
+
+        public String getEndTime() {
+            return endTime;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+    }
+
+    /**
+     * A row of user_activity
+     */
+    public static class ActivityRecord {
+        private final int activityId;
+        private final int sessionId;
+        private final String username;
+        private final String boardName;
+        private final String entryTime;
+        private final String exitTime;
+        private final String status;
+
+        /**
+         * @param activityId: the entry's id
+         * @param sessionId: the session the user entered during
+         * @param username: the user
+         * @param boardName: the board entered
+         * @param entryTime: when the user entered, as yyyy-MM-dd HH:mm:ss
+         * @param exitTime: when the user exited, or null if they haven't
+         * @param status: "active" or "exited"
+         */
+        public ActivityRecord(int activityId, int sessionId, String username, String boardName,
+                String entryTime, String exitTime, String status) {
+            this.activityId = activityId;
+            this.sessionId = sessionId;
+            this.username = username;
+            this.boardName = boardName;
+            this.entryTime = entryTime;
+            this.exitTime = exitTime;
+            this.status = status;
+        }
+
+        public int getActivityId() {
+            return activityId;
+        }
+
+        public int getSessionId() {
+            return sessionId;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getBoardName() {
+            return boardName;
+        }
+
+        public String getEntryTime() {
+            return entryTime;
+        }
+
+        public String getExitTime() {
+            return exitTime;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+    }
+
+    /**
+     * Start a new server session
+     * @return session ID, or -1 if the store isn't available
+     */
+    int startServerSession();
+
+    /**
+     * End the current server session
+     */
+    void endServerSession();
+
+    /**
+     * Check whether the store connected or loaded successfully
+     * @return true if the store can be queried
+     */
+    boolean isOpen();
+
+    /**
+     * Check whether the store can only be read, e.g. a file another process
+     * has open for writing
+     * @return true if the store is open but can't be written to
+     */
+    boolean isReadOnly();
+
+    /**
+     * Check whether activity can be recorded
+     * @return true if the store is open and a server session has been started
+     */
+    boolean isAvailable();
+
+    /**
+     * Record a batch of user entries and exits in order; the activity
+     * writer's sink
+     * @param batch: the activities to record, oldest first
+     * @throws Exception if the batch could not be recorded
+     */
+    void writeActivity(List<ActivityWriter.Activity> batch) throws Exception;
+
+    /**
+     * Get current session statistics
+     * @return formatted statistics string
+     */
+    String getSessionStatistics();
+
+    /**
+     * Get every server session, newest first
+     * @return the sessions
+     * @throws Exception if the store can't be read
+     */
+    List<SessionRecord> getSessions() throws Exception;
+
+    /**
+     * Get every user activity, newest entry first
+     * @return the activity
+     * @throws Exception if the store can't be read
+     */
+    List<ActivityRecord> getUserActivity() throws Exception;
+
+    /**
+     * Stream the user activity a query selects, newest first by activity id
+     * (oldest first when the query reads after an id),
+     * handing each record over as it is read rather than collecting them, so
+     * any amount of activity is read in constant memory
+     * @param query: the filters and page to read
+     * @param handler: given each record in turn
+     * @return the number of records handed over
+     * @throws Exception if the store can't be read
+     */
+    int streamUserActivity(ActivityQuery query, Consumer<ActivityRecord> handler) throws Exception;
+
+    /**
+     * Get the rollup watermark
+     * @return the id of the last activity rolled up into the usage summaries,
+     *         0 if none has been
+     * @throws Exception if the store can't be read
+     */
+    int getRollupWatermark() throws Exception;
+
+    /**
+     * Get the pending visits: those the watermark has passed that were still
+     * in progress, and so not yet rolled up
+     * @return the visits as they are now, oldest first
+     * @throws Exception if the store can't be read
+     */
+    List<ActivityRecord> getPendingActivity() throws Exception;
+
+    /**
+     * Add a rollup's usage to the summaries, move the watermark to its last
+     * activity, keep the visits it left open pending and stop keeping those
+     * it closed, all together or not at all
+     * @param rollup: the rollup, started from the current watermark
+     * @return false, saving nothing, if the watermark has moved since the
+     *         rollup started or a visit it closed is no longer pending, i.e.
+     *         another rollup saved the same activity
+     * @throws Exception if the rollup can't be saved
+     */
+    boolean saveRollup(ActivityRollup rollup) throws Exception;
+
+    /**
+     * Get the rolled up usage of every board in a range of hours
+     * @param from: the first hour
+     * @param to: the end of the range, exclusive
+     * @return the usage, oldest hour first and by board name within an hour
+     * @throws Exception if the store can't be read
+     */
+    List<ActivityRollup.HourlyUsage> getHourlyUsage(LocalDateTime from, LocalDateTime to) throws Exception;
+
+    /**
+     * Get the rolled up usage of the users who spent longest on the boards
+     * @param limit: most users to return
+     * @return the usage, most time first
+     * @throws Exception if the store can't be read
+     */
+    List<ActivityRollup.UserUsage> getUserUsage(int limit) throws Exception;
+
+    /**
+     * Add draw counts to those recorded; counts for a bucket, board and user
+     * already recorded are added to
+     * @param stats: the counts; the draw telemetry's sink
+     * @throws Exception if the counts could not be recorded
+     */
+    void writeDrawStats(List<DrawTelemetry.DrawStats> stats) throws Exception;
+
+    /**
+     * Get the draw counts of the buckets starting in a range of time
+     * @param from: the start of the range
+     * @param to: the end of the range, exclusive
+     * @return the counts, oldest bucket first, then by board and user
+     * @throws Exception if the store can't be read
+     */
+    List<DrawTelemetry.DrawStats> getDrawStats(LocalDateTime from, LocalDateTime to) throws Exception;
+
+    /**
+     * Delete every session, activity, usage summary and draw count and
+     * restart their ids from 1
+     * @throws Exception if the store can't be cleared
+     */
+    void clear() throws Exception;
+
+    /**
+     * Close the store
+     */
+    void close();
+
+    /**
+     * Opens the store chosen by the whiteboard.activity.store system property
+     * (or WHITEBOARD_ACTIVITY_STORE environment variable): "mysql", the
+     * default, connects to MySQL (see DatabaseManager); "file" opens the file
+     * named by whiteboard.activity.file, by default whiteboard-activity.log.
+     * Blocks while the store connects or loads.
+     * @return the store, which may have failed to open (see isAvailable)
+     */
+    static ActivityStore open() {
+        String store = DatabaseManager.configuredSetting("whiteboard.activity.store", "WHITEBOARD_ACTIVITY_STORE");
+        if ("file".equalsIgnoreCase(store)) {
+            String file = DatabaseManager.configuredSetting("whiteboard.activity.file", "WHITEBOARD_ACTIVITY_FILE");
+            return new FileActivityStore(file != null ? file : FileActivityStore.DEFAULT_FILE);
+        }
+        return new DatabaseManager();
+    }
+}
@@ -0,0 +1,306 @@
+package server;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import logging.Log;
+
+/**
+ * Records user activity in the background.  Logins and exits enqueue an
+ * Activity and return at once; a single writer thread takes them off the
+ * queue and hands them to a Sink in batches, so a slow database delays the
+ * activity log rather than the clients logging in.
+ *
+ * A batch is written once it holds batchSize activities, or flushInterval
+ * milliseconds after its first activity was taken, whichever comes first.
+ * The queue is bounded; if the database falls so far behind that it fills,
+ * further activities are dropped and counted rather than blocking logins.
+ * close() stops accepting activities and writes everything still queued.
+ *
+ * Concurrency Argument:
+ *   - activities are handed to the writer thread through an
+ *     ArrayBlockingQueue, which any number of threads may offer to
+ *   - only the writer thread calls the sink, so batches are written one at a
+ *     time in the order their activities were enqueued
+ *   - counters are AtomicLongs
+ *   - close is made concurrent via the monitor pattern
+ */
+public class ActivityWriter implements Runnable {
+
+    private static final Log LOG = Log.get("ActivityWriter");
+
+    public static final int DEFAULT_CAPACITY = 10000;
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final long DEFAULT_FLUSH_INTERVAL = 500;
+
+    // how long close waits for the last batches to be written
+    private static final long CLOSE_TIMEOUT = 10000;
+
+    /**
+     * Writes batches of activity, in order, to wherever it is recorded
+     */
+    public interface Sink {
+        /**
+         * @param batch: the activities to record, oldest first
+         * @throws Exception if the batch could not be recorded
+         */
+        void write(List<Activity> batch) throws Exception;
+    }
+
+    /**
+     * A user entering a board or exiting the server
+     */
+    public static class Activity {
+
+        public enum Type { ENTRY, EXIT }
+
+        private final Type type;
+        private final String username;
+        private final String boardName;
+        private final LocalDateTime time;
+
+        /**
+         * @param type: whether the user entered or exited
+         * @param username: the user
+         * @param boardName: the board entered, or null for an exit
+         * @param time: when it happened
+         */
+        public Activity(Type type, String username, String boardName, LocalDateTime time) {
+            this.type = type;
+            this.username = username;
+            this.boardName = boardName;
+            this.time = time;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getBoardName() {
+            return boardName;
+        }
+
+        public LocalDateTime getTime() {
+            return time;
+        }
+    }
+
+    private final Sink sink;
+    private final ArrayBlockingQueue<Activity> queue;
+    private final int batchSize;
+    private final long flushInterval;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    // milliseconds from the oldest activity of the last batch written
+    // happening to its being written
+    private volatile long lag = 0;
+
+    /**
+     * Creates a writer with the default capacity and flush thresholds and
+     * starts its thread
+     * @param sink: where batches are written
+     */
+    public ActivityWriter(Sink sink) {
+        this(sink, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * Creates a writer and starts its thread
+     * @param sink: where batches are written
+     * @param capacity: activities that may be queued before more are dropped
+     * @param batchSize: activities written at once
+     * @param flushInterval: milliseconds a partial batch waits to fill
+     */
+    public ActivityWriter(Sink sink, int capacity, int batchSize, long flushInterval) {
+        this.sink = sink;
+        this.queue = new ArrayBlockingQueue<Activity>(capacity);
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        thread = new Thread(this, "Activity writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues a user's entry to a board, timestamped now
+     * @param username: the user entering
+     * @param boardName: the board entered
+     * @return: whether it was queued, rather than dropped
+     */
+    public boolean recordEntry(String username, String boardName) {
+        return record(new Activity(Activity.Type.ENTRY, username, boardName, LocalDateTime.now()));
+    }
+
+    /**
+     * Queues a user's exit, timestamped now
+     * @param username: the user exiting
+     * @return: whether it was queued, rather than dropped
+     */
+    public boolean recordExit(String username) {
+        return record(new Activity(Activity.Type.EXIT, username, null, LocalDateTime.now()));
+    }
+
+    /**
+     * Queues an activity without blocking
+     * @param activity: the activity to record
+     * @return: whether it was queued, rather than dropped because the queue
+     *          is full or the writer is closed
+     */
+    public boolean record(Activity activity) {
+        if (running && queue.offer(activity)) {
+            enqueued.incrementAndGet();
+            return true;
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Stops accepting activities, writes those still queued and stops the
+     * writer thread.  Waits for the last batches to be written.
+     */
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(CLOSE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // anything offered while the writer was finishing is never written
+        int stranded = queue.size();
+        queue.clear();
+        dropped.addAndGet(stranded);
+        LOG.info("Activity writer closed: " + written.get() + " written in " + batches.get()
+                + " batches, " + dropped.get() + " dropped, " + failed.get() + " failed");
+    }
+
+    /**
+     * Writes batches until closed, then writes whatever is left
+     */
+    @Override
+    public void run() {
+        List<Activity> batch = new ArrayList<Activity>(batchSize);
+        try {
+            while (running) {
+                fill(batch);
+                write(batch);
+            }
+        } catch (InterruptedException e) {
+            // closed; the batch being filled is written below
+        }
+        do {
+            write(batch);
+            queue.drainTo(batch, batchSize);
+        } while (!batch.isEmpty());
+    }
+
+    /**
+     * Blocks until an activity is queued, then gathers more until the batch
+     * is full or the flush interval has passed since the first
+     */
+    private void fill(List<Activity> batch) throws InterruptedException {
+        batch.add(queue.take());
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushInterval);
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0) {
+                return;
+            }
+            Activity next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    /**
+     * Hands a batch to the sink and empties it
+     */
+    private void write(List<Activity> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            sink.write(batch);
+            written.addAndGet(batch.size());
+            batches.incrementAndGet();
+            lag = Duration.between(batch.get(0).getTime(), LocalDateTime.now()).toMillis();
+        } catch (Exception e) {
+            failed.addAndGet(batch.size());
+            LOG.error("Error recording user activity", e);
+        }
+        batch.clear();
+    }
+
+    /**
+     * @return: the number of activities queued so far
+     */
+    public long getEnqueued() {
+        return enqueued.get();
+    }
+
+    /**
+     * @return: the number of activities the sink has recorded
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return: the number of activities dropped because the queue was full
+     *          or the writer was closed
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return: the number of activities in batches the sink failed to record
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return: the number of batches the sink has recorded
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * @return: how far behind the last batch written was, in milliseconds
+     *          from its oldest activity happening to its being written
+     */
+    public long getLag() {
+        return lag;
+    }
+
+    /**
+     * @return: the number of activities waiting to be written
+     */
+    public int getQueued() {
+        return queue.size();
+    }
+}
@@ -0,0 +1,162 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ActivityWriterTest {
+
+    /*
+     * Testing Strategy:
+     * 
+     * -a full batch is written without waiting for the flush interval
+     * -a partial batch is written once the flush interval passes
+     * -activities are written in the order they were recorded, across batches
+     * -activities recorded while the queue is full are dropped and counted,
+     *  without blocking
+     * -close writes everything still queued, and later activities are dropped
+     * -a batch the sink fails to write is counted and later batches still written
+     */
+
+    /**
+     * Sink remembering every activity written and the size of each batch
+     */
+    private static class RecordingSink implements ActivityWriter.Sink {
+        private final List<ActivityWriter.Activity> written =
+                Collections.synchronizedList(new ArrayList<ActivityWriter.Activity>());
+        private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+        @Override
+        public void write(List<ActivityWriter.Activity> batch) throws SQLException {
+            written.addAll(batch);
+            batchSizes.add(batch.size());
+        }
+    }
+
+    @Test
+    public void fullBatchTest() throws InterruptedException {
+        RecordingSink sink = new RecordingSink();
+        ActivityWriter writer = new ActivityWriter(sink, 100, 10, 60000);
+        for (int i = 0; i < 10; i++) {
+            writer.recordEntry("user" + i, "board");
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (writer.getWritten() < 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(10, writer.getWritten());
+        assertEquals(1, writer.getBatches());
+        writer.close();
+    }
+
+    @Test
+    public void flushIntervalTest() throws InterruptedException {
+        RecordingSink sink = new RecordingSink();
+        ActivityWriter writer = new ActivityWriter(sink, 100, 10, 50);
+        writer.recordEntry("user", "board");
+        writer.recordExit("user");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (writer.getWritten() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(2, writer.getWritten());
+        assertEquals(ActivityWriter.Activity.Type.ENTRY, sink.written.get(0).getType());
+        assertEquals("board", sink.written.get(0).getBoardName());
+        assertEquals(ActivityWriter.Activity.Type.EXIT, sink.written.get(1).getType());
+        assertNull(sink.written.get(1).getBoardName());
+        writer.close();
+    }
+
+    @Test
+    public void orderTest() {
+        RecordingSink sink = new RecordingSink();
+        ActivityWriter writer = new ActivityWriter(sink, 1000, 7, 10);
+        for (int i = 0; i < 500; i++) {
+            assertTrue(writer.recordEntry("user" + i, "board"));
+        }
+        writer.close();
+        assertEquals(500, sink.written.size());
+        for (int i = 0; i < 500; i++) {
+            assertEquals("user" + i, sink.written.get(i).getUsername());
+        }
+        for (int size : sink.batchSizes) {
+            assertTrue(size <= 7);
+        }
+    }
+
+    @Test
+    public void dropWhenFullTest() throws InterruptedException {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingSink recorded = new RecordingSink();
+        ActivityWriter writer = new ActivityWriter(new ActivityWriter.Sink() {
+            public void write(List<ActivityWriter.Activity> batch) throws SQLException {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+                recorded.write(batch);
+            }
+        }, 5, 1, 10);
+        // the first activity is taken off the queue and holds up the writer
+        writer.recordEntry("first", "board");
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) {
+            assertTrue(writer.recordEntry("queued" + i, "board"));
+        }
+        assertFalse(writer.recordEntry("dropped", "board"));
+        assertFalse(writer.recordExit("dropped"));
+        assertEquals(2, writer.getDropped());
+        assertEquals(6, writer.getEnqueued());
+        release.countDown();
+        writer.close();
+        assertEquals(6, writer.getWritten());
+        assertEquals(6, recorded.written.size());
+    }
+
+    @Test
+    public void closeTest() {
+        RecordingSink sink = new RecordingSink();
+        ActivityWriter writer = new ActivityWriter(sink, 100, 50, 60000);
+        for (int i = 0; i < 20; i++) {
+            writer.recordEntry("user" + i, "board");
+        }
+        writer.close();
+        assertEquals(20, sink.written.size());
+        assertEquals(0, writer.getQueued());
+        assertFalse(writer.recordExit("late"));
+        assertEquals(1, writer.getDropped());
+        // closing again does nothing
+        writer.close();
+    }
+
+    @Test
+    public void sinkFailureTest() {
+        final RecordingSink recorded = new RecordingSink();
+        ActivityWriter writer = new ActivityWriter(new ActivityWriter.Sink() {
+            private boolean failedOnce = false;
+
+            public void write(List<ActivityWriter.Activity> batch) throws SQLException {
+                if (!failedOnce) {
+                    failedOnce = true;
+                    throw new SQLException("database gone away");
+                }
+                recorded.write(batch);
+            }
+        }, 100, 1, 10);
+        writer.recordEntry("lost", "board");
+        writer.recordEntry("kept", "board");
+        writer.close();
+        assertEquals(1, writer.getFailed());
+        assertEquals(1, writer.getWritten());
+        assertEquals("kept", recorded.written.get(0).getUsername());
+    }
+}
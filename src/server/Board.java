@@ -1,9 +1,9 @@
 package server;
 
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import command.Command;
 
@@ -14,26 +14,23 @@ import command.Command;
  * clients.  Also stores all current users connected to this whiteboard.
  * 
  * Concurrency Argument:
- *   - This class is made concurrent by the monitor pattern
+ *   - The users are guarded by the monitor pattern
+ *   - The history is a CommandHistory, which is appended to and read
+ *     without this object's lock (see CommandHistory.java)
  *
  */
 public class Board {
 
-    private LinkedList<Command> commands = new LinkedList<Command>();
-    private List<String> users = new LinkedList<String>();
+    private final CommandHistory commands = new CommandHistory();
+    // in the order the users entered
+    private Set<String> users = new LinkedHashSet<String>();
 
     /**
      * Deletes user from board if user is in board
      * @param username
      */
     public synchronized void deleteUser(String username) {
-    	Iterator<String> it = users.iterator();
-    	while(it.hasNext()) {
-    		String user = it.next();
-    		if (user.equals(username)) {
-    			it.remove();
-    		}
-    	}
+    	users.remove(username);
     }
     
     /**
@@ -54,10 +51,19 @@ public class Board {
     }
     
     /**
-     * Returns all commands ever sent to this board
-     * @return
+     * Returns all commands sent to this board so far
+     * @return an immutable view of the history, which doesn't change as
+     *         more commands are added
      */
-    public synchronized LinkedList<Command> getCommands() {
+    public List<Command> getCommands() {
+        return commands.snapshot();
+    }
+    
+    /**
+     * Returns the board's history, e.g. to take a view of it up to a sequence number
+     * @return the history
+     */
+    public CommandHistory getHistory() {
         return commands;
     }
     
@@ -65,8 +71,8 @@ public class Board {
      * Adds a command to the board
      * @param command
      */
-    public synchronized void addCommand(Command command) {
-        this.commands.add(command);
+    public void addCommand(Command command) {
+        this.commands.append(command);
     }
     
     /**
@@ -83,9 +89,7 @@ public class Board {
      * @param newUsers: the new array to set the users to
      */
     public synchronized void setUsers(String[] newUsers) {
-        LinkedList<String> usersList = new LinkedList<String>();
-        usersList.addAll(Arrays.asList(newUsers));
-        users = usersList;
+        users = new LinkedHashSet<String>(Arrays.asList(newUsers));
     }
 
 }
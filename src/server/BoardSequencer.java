@@ -0,0 +1,204 @@
+package server;
+
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Supplier;
+
+import command.Command;
+import logging.Log;
+
+/**
+ * Single writer for one board's history.  Every client's ServerProtocol
+ * thread submits its draws for the board here, and the sequencer thread
+ * drains them off the queue in batches of up to MAX_BATCH, so a burst costs
+ * one wakeup.  It then goes through each batch in queue order, appending
+ * each draw to the board's history, broadcasting it to the other clients
+ * and acknowledging it to the client that drew it, all in the same order.
+ * Since nothing else appends to the board or writes its draws, every client
+ * sees the board's draws in the order of its history, and the sender's
+ * acknowledgement arrives after exactly the draws ordered before its own.
+ *
+ * Other work that must be ordered with the board's draws, like sending a
+ * client switching to the board its history, is submitted as a task.  It
+ * is queued and drained with the draws, and run in its place among them.
+ *
+ * The sequencer thread is started with the first draw and stopped by shutdown.
+ *
+ * Concurrency Argument:
+ *   - submitted draws and tasks are handed over as jobs through a
+ *     LinkedBlockingQueue, which any number of threads may offer to; only
+ *     the sequencer thread takes from it, running each batch it drains in
+ *     order before draining the next
+ *   - only the sequencer thread appends to the board and writes draws to
+ *     clients, so appends are never contended and broadcasts never interleave
+ *   - the thread is started at most once, guarded by this object's lock
+ */
+public class BoardSequencer implements Runnable {
+
+    private static final Log LOG = Log.get("BoardSequencer");
+
+    // jobs drained off the queue at once, so a burst costs one wakeup
+    private static final int MAX_BATCH = 256;
+
+    /**
+     * A draw waiting to be sequenced, or a task waiting to be run
+     */
+    private static class Job {
+        private final Command command;
+        private final Socket sender;
+        private final String ack;
+        // null for a draw
+        private final Runnable task;
+        private final CompletableFuture<Void> done = new CompletableFuture<Void>();
+
+        private Job(Command command, Socket sender, String ack, Runnable task) {
+            this.command = command;
+            this.sender = sender;
+            this.ack = ack;
+            this.task = task;
+        }
+    }
+
+    private final Board board;
+    private final Server server;
+    private final LinkedBlockingQueue<Job> queue = new LinkedBlockingQueue<Job>();
+    private volatile Thread thread;
+    private volatile boolean running = true;
+    // acknowledgements sent, counted with the server's other draw lines out
+    private final Metrics.Counter acks;
+
+    /**
+     * @param board: the board whose history this sequences
+     * @param server: the server whose clients draws are broadcast to
+     */
+    public BoardSequencer(Board board, Server server) {
+        this.board = board;
+        this.server = server;
+        this.acks = server.messagesOut("draw");
+    }
+
+    /**
+     * Queues a draw to be appended to the board and broadcast
+     * @param command: the draw
+     * @param sender: the client that drew it, which is not sent the draw, or
+     *                null if it didn't come from a client
+     * @param ack: line to send the sender once the draw is sequenced, or null
+     *             to send nothing
+     * @return: future completed once the draw has been appended and broadcast
+     */
+    public CompletableFuture<Void> submit(Command command, Socket sender, String ack) {
+        return enqueue(new Job(command, sender, ack, null));
+    }
+
+    /**
+     * Queues a task to run on the sequencer thread, after every draw
+     * submitted before it and before every draw submitted after it
+     * @param task: the task, e.g. snapshotting the board's history
+     * @return: future completed with the task's result once it has run
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<T>();
+        enqueue(new Job(null, null, null, () -> result.complete(task.get())))
+                .whenComplete((done, e) -> {
+                    if (e != null) {
+                        result.completeExceptionally(e);
+                    }
+                });
+        return result;
+    }
+
+    private CompletableFuture<Void> enqueue(Job job) {
+        if (!running) {
+            job.done.completeExceptionally(new IllegalStateException("Board sequencer shut down"));
+            return job.done;
+        }
+        if (thread == null) {
+            startIfNeeded();
+        }
+        queue.add(job);
+        if (!running && queue.remove(job)) {
+            // shut down while being queued, so the sequencer may never see it
+            job.done.completeExceptionally(new IllegalStateException("Board sequencer shut down"));
+        }
+        return job.done;
+    }
+
+    /**
+     * Stops the sequencer thread.  Draws and tasks still queued are not run.
+     */
+    public synchronized void shutdown() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Sequences queued jobs, a batch at a time, until shut down
+     */
+    @Override
+    public void run() {
+        List<Job> batch = new ArrayList<Job>();
+        try {
+            while (running) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                for (Job job : batch) {
+                    sequence(job);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // shut down
+        }
+        for (Job job = queue.poll(); job != null; job = queue.poll()) {
+            job.done.completeExceptionally(new IllegalStateException("Board sequencer shut down"));
+        }
+    }
+
+    /**
+     * Appends one draw to the board, broadcasts it and acknowledges it, or
+     * runs one task
+     */
+    private void sequence(Job job) {
+        try {
+            if (job.task != null) {
+                job.task.run();
+                job.done.complete(null);
+                return;
+            }
+            board.addCommand(job.command);
+            server.sendCommandToClients(job.command, job.sender);
+            if (job.sender != null && job.ack != null) {
+                PrintWriter out = server.getWriter(job.sender);
+                if (out != null) {
+                    out.println(job.ack);
+                    acks.inc();
+                }
+            }
+            job.done.complete(null);
+        } catch (RuntimeException e) {
+            LOG.error("Error sequencing " + (job.task != null ? "task" : job.command), e);
+            job.done.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return: the number of draws and tasks waiting to be sequenced
+     */
+    public int getQueued() {
+        return queue.size();
+    }
+
+    private synchronized void startIfNeeded() {
+        if (thread == null && running) {
+            thread = new Thread(this, "Board sequencer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import command.Command;
+
+public class BoardSequencerTest {
+
+    /*
+     * Testing Strategy:
+     * 
+     * -draws submitted from one thread are appended in submission order
+     * -draws submitted from many threads are all appended exactly once
+     * -draws submitted after shutdown fail without being appended
+     * -a task runs after the draws submitted before it and before those
+     *  submitted after it; one that throws fails its future
+     */
+
+    private static Command draw(int i) {
+        return new Command(("draw board drawLineSegment "+i+" 0 "+i+" 10 0 1.0").split(" "));
+    }
+
+    @Test
+    public void submissionOrderTest() throws IOException {
+        Server server = new Server(4444);
+        try {
+            Board board = new Board();
+            BoardSequencer sequencer = new BoardSequencer(board, server);
+            List<Command> expected = new ArrayList<Command>();
+            CompletableFuture<Void> last = null;
+            for (int i = 0; i < 1000; i++) {
+                Command command = draw(i);
+                expected.add(command);
+                last = sequencer.submit(command, null, null);
+            }
+            last.join();
+            assertEquals(expected, board.getCommands());
+            sequencer.shutdown();
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void multiThreadedTest() throws IOException, InterruptedException {
+        Server server = new Server(4444);
+        try {
+            Board board = new Board();
+            final BoardSequencer sequencer = new BoardSequencer(board, server);
+            final List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int t = 0; t < 8; t++) {
+                final int offset = t * 1000;
+                Thread thread = new Thread(new Runnable() {
+                    public void run() {
+                        for (int i = 0; i < 1000; i++) {
+                            CompletableFuture<Void> future = sequencer.submit(draw(offset + i), null, null);
+                            synchronized (futures) {
+                                futures.add(future);
+                            }
+                        }
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+            
+            Set<String> drawn = new HashSet<String>();
+            for (Command command : board.getCommands()) {
+                drawn.add(command.toString());
+            }
+            assertEquals(8000, board.getCommands().size());
+            assertEquals(8000, drawn.size());
+            sequencer.shutdown();
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void taskOrderTest() throws IOException, InterruptedException {
+        Server server = new Server(4444);
+        try {
+            Board board = new Board();
+            BoardSequencer sequencer = new BoardSequencer(board, server);
+            for (int i = 0; i < 500; i++) {
+                sequencer.submit(draw(i), null, null);
+            }
+            CompletableFuture<Integer> snapshot = sequencer.submit(() -> board.getCommands().size());
+            CompletableFuture<Void> last = null;
+            for (int i = 500; i < 1000; i++) {
+                last = sequencer.submit(draw(i), null, null);
+            }
+            last.join();
+            assertEquals(500, (int) snapshot.join());
+
+            CompletableFuture<Object> failed = sequencer.submit(() -> {
+                throw new IllegalStateException("task failed");
+            });
+            try {
+                failed.get();
+                fail("expected task to fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+            sequencer.shutdown();
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void shutdownTest() throws IOException, InterruptedException {
+        Server server = new Server(4444);
+        try {
+            Board board = new Board();
+            BoardSequencer sequencer = new BoardSequencer(board, server);
+            sequencer.submit(draw(0), null, null).join();
+            sequencer.shutdown();
+            CompletableFuture<Void> rejected = sequencer.submit(draw(1), null, null);
+            try {
+                rejected.get();
+                fail("expected draw to be rejected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+            assertEquals(1, board.getCommands().size());
+        } finally {
+            server.close();
+        }
+    }
+}
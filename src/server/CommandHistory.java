@@ -0,0 +1,115 @@
+package server;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import command.Command;
+
+/**
+ * Append-only history of the commands drawn on a board.  Commands are stored
+ * in fixed-size chunks which are never moved once allocated, so appending
+ * never copies the history, and a reader can take an immutable view of the
+ * first n commands without copying them or taking a lock.  The view keeps
+ * its size however many commands are appended after it is taken.
+ *
+ * A command's sequence number is its index in the history; size() is the
+ * sequence number the next command will get.
+ *
+ * Concurrency Argument:
+ *   - appends are serialized by this object's lock (in practice there is one
+ *     writer, the board's sequencer, so the lock is uncontended)
+ *   - a command and any chunk holding it are written before size is
+ *     incremented, and size is volatile, so a reader that has read size n
+ *     sees the first n commands fully
+ *   - chunks are never moved or overwritten; growing the chunk table copies
+ *     the references into a new table that is then published through the
+ *     volatile chunks field, before the size that needs it
+ */
+public class CommandHistory {
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private volatile Command[][] chunks = new Command[16][];
+    private volatile int size = 0;
+
+    /**
+     * Appends a command to the history
+     * @param command: the command to append
+     * @return: the command's sequence number
+     */
+    public synchronized int append(Command command) {
+        int index = size;
+        int chunk = index >>> CHUNK_BITS;
+        Command[][] table = chunks;
+        if (chunk >= table.length) {
+            Command[][] grown = new Command[table.length * 2][];
+            System.arraycopy(table, 0, grown, 0, table.length);
+            table = grown;
+            chunks = table;
+        }
+        if (table[chunk] == null) {
+            table[chunk] = new Command[CHUNK_SIZE];
+        }
+        table[chunk][index & CHUNK_MASK] = command;
+        size = index + 1;
+        return index;
+    }
+
+    /**
+     * @return: the number of commands in the history
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return: an immutable view of every command in the history so far
+     */
+    public List<Command> snapshot() {
+        int n = size;
+        return new View(chunks, n);
+    }
+
+    /**
+     * Gets an immutable view of the start of the history
+     * @param upTo: the number of commands to include, at most size()
+     * @return: a view of the commands with sequence numbers below upTo
+     */
+    public List<Command> snapshot(int upTo) {
+        int n = size;
+        if (upTo < 0 || upTo > n) {
+            throw new IndexOutOfBoundsException("upTo " + upTo + " outside history of size " + n);
+        }
+        return new View(chunks, upTo);
+    }
+
+    /**
+     * Immutable view of the first size commands of the history.  The chunk
+     * table it holds was read after size, so it holds every chunk needed.
+     */
+    private static class View extends AbstractList<Command> implements RandomAccess {
+        private final Command[][] chunks;
+        private final int size;
+
+        private View(Command[][] chunks, int size) {
+            this.chunks = chunks;
+            this.size = size;
+        }
+
+        @Override
+        public Command get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return chunks[index >>> CHUNK_BITS][index & CHUNK_MASK];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
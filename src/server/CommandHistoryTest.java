@@ -0,0 +1,117 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import command.Command;
+
+public class CommandHistoryTest {
+
+    /*
+     * Testing Strategy:
+     * 
+     * -an empty history has an empty snapshot
+     * -appends across many chunks are read back in order with their sequence numbers
+     * -a snapshot keeps its size and contents while more commands are appended
+     * -a snapshot up to a sequence number holds exactly the commands before it
+     * -a snapshot can't be modified
+     * -readers taking snapshots while a writer appends always see a complete prefix
+     */
+
+    private static Command draw(int i) {
+        return new Command(("draw board drawLineSegment "+i+" 0 "+i+" 10 0 1.0").split(" "));
+    }
+
+    @Test
+    public void emptyTest() {
+        CommandHistory history = new CommandHistory();
+        assertEquals(0, history.size());
+        assertTrue(history.snapshot().isEmpty());
+    }
+
+    @Test
+    public void appendTest() {
+        CommandHistory history = new CommandHistory();
+        List<Command> expected = new ArrayList<Command>();
+        for (int i = 0; i < 50000; i++) {
+            Command command = draw(i);
+            expected.add(command);
+            assertEquals(i, history.append(command));
+        }
+        assertEquals(50000, history.size());
+        assertEquals(expected, history.snapshot());
+    }
+
+    @Test
+    public void snapshotIsFixedTest() {
+        CommandHistory history = new CommandHistory();
+        for (int i = 0; i < 1500; i++) {
+            history.append(draw(i));
+        }
+        List<Command> snapshot = history.snapshot();
+        List<Command> prefix = history.snapshot(1000);
+        for (int i = 1500; i < 5000; i++) {
+            history.append(draw(i));
+        }
+        assertEquals(1500, snapshot.size());
+        assertEquals(1000, prefix.size());
+        assertEquals(history.snapshot().subList(0, 1500), snapshot);
+        assertEquals(history.snapshot().subList(0, 1000), prefix);
+        try {
+            snapshot.get(1500);
+            fail("expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+        }
+        try {
+            history.snapshot(5001);
+            fail("expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+        }
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void immutableTest() {
+        CommandHistory history = new CommandHistory();
+        history.append(draw(0));
+        history.snapshot().add(draw(1));
+    }
+
+    @Test
+    public void concurrentReadersTest() throws InterruptedException {
+        final CommandHistory history = new CommandHistory();
+        final Command[] commands = new Command[100000];
+        for (int i = 0; i < commands.length; i++) {
+            commands[i] = draw(i);
+        }
+        final boolean[] failed = {false};
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            Thread reader = new Thread(new Runnable() {
+                public void run() {
+                    while (history.size() < commands.length) {
+                        List<Command> snapshot = history.snapshot();
+                        for (int i = 0; i < snapshot.size(); i++) {
+                            if (snapshot.get(i) != commands[i]) {
+                                failed[0] = true;
+                                return;
+                            }
+                        }
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        for (Command command : commands) {
+            history.append(command);
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertFalse(failed[0]);
+    }
+}
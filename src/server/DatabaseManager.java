@@ -1,14 +1,34 @@
 package server;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import logging.Log;
 
 /**
  * Database manager for tracking server sessions and user activity
  * Auto-detects local database configurations for hassle-free setup
+ * 
+ * Statements are prepared once on the one connection and reused (see
+ * StatementCache.java); getStatementCache() reports reuse and query latency.
+ * 
+ * Concurrency Argument:
+ *   - the connection and its cached statements are used by the activity
+ *     writer, shutdown and the server GUI's statistics; every method using
+ *     them is made concurrent via the monitor pattern
  */
-public class DatabaseManager {
+public class DatabaseManager implements ActivityStore {
+    
+    private static final Log LOG = Log.get("DatabaseManager");
     
     // Common local database configurations to try
     private static final String[] DB_URLS = {
@@ -30,39 +50,102 @@ public class DatabaseManager {
         "srujan07" // Your actual password
     };
     
+    // seconds to wait for a database login, and milliseconds to wait for a
+    // database server to accept a connection before skipping it
+    private static final int LOGIN_TIMEOUT = 5;
+    private static final int PROBE_TIMEOUT = 500;
+    
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final String ENTRY_SQL = "INSERT INTO user_activity (session_id, username, board_name, entry_time, status) VALUES (?, ?, ?, ?, 'active')";
+    private static final String EXIT_SQL = "UPDATE user_activity SET exit_time = ?, status = 'exited' WHERE session_id = ? AND username = ? AND status = 'active'";
+    private static final String EXIT_BY_ID_SQL = "UPDATE user_activity SET exit_time = ?, status = 'exited' WHERE activity_id = ? AND status = 'active'";
+    
+    // usage summaries rolled up from user_activity (see ActivityRollup.java)
+    private static final String HOURLY_USAGE_SQL = "INSERT INTO board_hourly_usage (usage_hour, board_name, visits, user_seconds, longest_seconds) VALUES (?, ?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE visits = visits + VALUES(visits), user_seconds = user_seconds + VALUES(user_seconds), longest_seconds = GREATEST(longest_seconds, VALUES(longest_seconds))";
+    private static final String USER_USAGE_SQL = "INSERT INTO user_usage (username, visits, total_seconds, longest_seconds, last_seen) VALUES (?, ?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE visits = visits + VALUES(visits), total_seconds = total_seconds + VALUES(total_seconds), "
+            + "longest_seconds = GREATEST(longest_seconds, VALUES(longest_seconds)), last_seen = GREATEST(last_seen, VALUES(last_seen))";
+    private static final String WATERMARK_SQL = "SELECT last_activity_id FROM rollup_watermark WHERE name = 'user_activity'";
+    private static final String MOVE_WATERMARK_SQL = "UPDATE rollup_watermark SET last_activity_id = ? WHERE name = 'user_activity'";
+    private static final String ADD_PENDING_SQL = "INSERT IGNORE INTO rollup_pending (activity_id) VALUES (?)";
+    private static final String REMOVE_PENDING_SQL = "DELETE FROM rollup_pending WHERE activity_id = ?";
+    private static final String PENDING_ACTIVITY_SQL = "SELECT a.activity_id, a.session_id, a.username, a.board_name, a.entry_time, a.exit_time, a.status "
+            + "FROM rollup_pending p JOIN user_activity a ON a.activity_id = p.activity_id ORDER BY a.activity_id";
+    
+    // draw counts from the draw telemetry (see DrawTelemetry.java)
+    private static final String DRAW_STATS_SQL = "INSERT INTO draw_stats (bucket_start, bucket_seconds, board_name, username, draws, bytes) VALUES (?, ?, ?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE draws = draws + VALUES(draws), bytes = bytes + VALUES(bytes)";
+    
+    // secondary indexes as {table, index name, columns}: active users of a
+    // session, exits of users whose entry id isn't known, and the viewer's
+    // newest-first listings
+    static final String[][] INDEXES = {
+        {"user_activity", "idx_activity_session_status", "session_id, status"},
+        {"user_activity", "idx_activity_session_user", "session_id, username, status"},
+        {"user_activity", "idx_activity_entry_time", "entry_time"},
+        {"server_sessions", "idx_sessions_start_time", "start_time"}
+    };
+    
     private Connection connection;
-    private int currentSessionId;
+    // statements prepared on connection, reused for its lifetime
+    private StatementCache statements;
+    private int currentSessionId = -1;
+    // activity ids of the entries recorded this session and not yet exited,
+    // by username, so an exit updates its rows by primary key
+    private final Map<String, List<Integer>> openEntries = new HashMap<String, List<Integer>>();
     
     /**
-     * Initialize database connection and create tables if they don't exist
-     * Automatically tries common local database configurations
+     * Initialize database connection and create tables if they don't exist.
+     * An explicitly configured database (see configuredSetting) is the only
+     * one tried; otherwise common local database configurations are tried,
+     * skipping any server that isn't listening.  Blocks until connected or
+     * every configuration has failed, so the server runs this in the
+     * background rather than before it starts accepting clients.
      */
     public DatabaseManager() {
-        System.out.println("🔍 Auto-detecting local database configuration...");
+        long start = System.nanoTime();
         
         // Try to load MySQL JDBC driver
         try {
             Class.forName("com.mysql.cj.jdbc.Driver");
         } catch (ClassNotFoundException e) {
-            System.err.println("❌ MySQL JDBC driver not found. Database tracking disabled.");
-            System.err.println("   To enable database tracking, ensure mysql-connector-java.jar is in the lib folder.");
+            LOG.warn("❌ MySQL JDBC driver not found. Database tracking disabled.\n"
+                    + "   To enable database tracking, ensure mysql-connector-java.jar is in the lib folder.");
+            connection = null;
+            return;
+        }
+        if (DriverManager.getLoginTimeout() == 0) {
+            DriverManager.setLoginTimeout(LOGIN_TIMEOUT);
+        }
+        
+        String configuredUrl = configuredSetting("whiteboard.db.url", "WHITEBOARD_DB_URL");
+        if (configuredUrl != null) {
+            String dbUser = configuredSetting("whiteboard.db.user", "WHITEBOARD_DB_USER");
+            String dbPassword = configuredSetting("whiteboard.db.password", "WHITEBOARD_DB_PASSWORD");
+            LOG.info("🔍 Connecting to configured database...");
+            if (tryConnect(configuredUrl, dbUser != null ? dbUser : DB_USERS[0], dbPassword != null ? dbPassword : "", false)) {
+                connected(configuredUrl, dbUser, dbPassword, start);
+                return;
+            }
+            LOG.warn("❌ Could not connect to configured database " + configuredUrl + "\n"
+                    + "   Application will run without database tracking.");
             connection = null;
             return;
         }
         
-        // Try different database configurations
+        LOG.info("🔍 Auto-detecting local database configuration...");
+        
+        // Try different database configurations on every server listening
         for (String dbUrl : DB_URLS) {
+            if (!isListening(dbUrl)) {
+                LOG.info("   No database server at " + dbUrl.replace("jdbc:mysql://", ""));
+                continue;
+            }
             for (String dbUser : DB_USERS) {
                 for (String dbPassword : DB_PASSWORDS) {
-                    if (tryConnect(dbUrl, dbUser, dbPassword)) {
-                        System.out.println("✅ Database connected successfully!");
-                        System.out.println("   URL: " + dbUrl);
-                        System.out.println("   User: " + dbUser);
-                        System.out.println("   Password: " + (dbPassword.isEmpty() ? "(none)" : "***"));
-                        
-                        // Create database and tables
-                        createDatabaseIfNotExists();
-                        createTablesIfNotExist();
+                    if (tryConnect(dbUrl, dbUser, dbPassword, true)) {
+                        connected(dbUrl, dbUser, dbPassword, start);
                         return;
                     }
                 }
@@ -70,71 +153,99 @@ public class DatabaseManager {
         }
         
         // If we get here, no configuration worked
-        System.err.println("❌ Could not connect to any local database configuration.");
-        System.err.println("   Application will run without database tracking.");
-        System.err.println("   To enable database tracking:");
-        System.err.println("   1. Install MySQL (XAMPP, WAMP, or standalone)");
-        System.err.println("   2. Start MySQL service");
-        System.err.println("   3. Create database: CREATE DATABASE inksync_db;");
-        System.err.println("   4. Restart the application");
+        LOG.warn("❌ Could not connect to any local database configuration ("
+                + (System.nanoTime() - start) / 1000000 + " ms).\n"
+                + "   Application will run without database tracking.\n"
+                + "   To enable database tracking:\n"
+                + "   1. Install MySQL (XAMPP, WAMP, or standalone)\n"
+                + "   2. Start MySQL service\n"
+                + "   3. Create database: CREATE DATABASE inksync_db;\n"
+                + "   4. Restart the application, or set whiteboard.db.url,\n"
+                + "      whiteboard.db.user and whiteboard.db.password to your database");
         connection = null;
     }
     
     /**
-     * Try to connect to database with given credentials
+     * Look up an explicit database setting.  A system property takes
+     * precedence over an environment variable.
+     * @param property the system property, e.g. whiteboard.db.url
+     * @param environmentVariable the environment variable, e.g. WHITEBOARD_DB_URL
+     * @return the setting, or null if neither is set
      */
-    private boolean tryConnect(String dbUrl, String dbUser, String dbPassword) {
-        try {
-            System.out.print("   Trying: " + dbUser + "@" + dbUrl.replace("jdbc:mysql://", "") + "... ");
-            
-            // First try to connect to MySQL server (without database)
-            String serverUrl = dbUrl.substring(0, dbUrl.lastIndexOf("/"));
-            Connection tempConnection = DriverManager.getConnection(serverUrl, dbUser, dbPassword);
-            
-            // If successful, try to connect to our database
-            connection = DriverManager.getConnection(dbUrl, dbUser, dbPassword);
-            tempConnection.close();
-            
-            System.out.println("✅ SUCCESS!");
+    static String configuredSetting(String property, String environmentVariable) {
+        String value = System.getProperty(property);
+        if (value == null || value.isEmpty()) {
+            value = System.getenv(environmentVariable);
+        }
+        return value == null || value.isEmpty() ? null : value;
+    }
+    
+    /**
+     * Finish setting up once connected: create tables and report the connection
+     */
+    private void connected(String dbUrl, String dbUser, String dbPassword, long start) {
+        LOG.info("✅ Database connected successfully in " + (System.nanoTime() - start) / 1000000 + " ms!\n"
+                + "   URL: " + dbUrl + "\n"
+                + "   User: " + dbUser + "\n"
+                + "   Password: " + (dbPassword == null || dbPassword.isEmpty() ? "(none)" : "***"));
+        
+        createTablesIfNotExist();
+        statements = new StatementCache(connection);
+    }
+    
+    /**
+     * Check whether anything is listening at a database URL's host and port,
+     * so credentials aren't tried against a server that isn't there
+     */
+    private static boolean isListening(String dbUrl) {
+        String address = dbUrl.replace("jdbc:mysql://", "");
+        address = address.substring(0, address.indexOf("/"));
+        int colon = address.lastIndexOf(":");
+        String host = colon < 0 ? address : address.substring(0, colon);
+        int port = colon < 0 ? 3306 : Integer.parseInt(address.substring(colon + 1));
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), PROBE_TIMEOUT);
             return true;
-            
-        } catch (SQLException e) {
-            System.out.println("❌ Failed");
+        } catch (IOException e) {
             return false;
         }
     }
     
     /**
-     * Create database if it doesn't exist
+     * Try to connect to database with given credentials
+     * @param createDatabase whether to connect to the server without the
+     *        database, create the database if it doesn't exist and then use it,
+     *        rather than connecting to the URL as given
      */
-    private void createDatabaseIfNotExists() {
+    private boolean tryConnect(String dbUrl, String dbUser, String dbPassword, boolean createDatabase) {
+        String trying = "   Trying: " + dbUser + "@" + dbUrl.replace("jdbc:mysql://", "") + "... ";
         try {
-            // Connect to MySQL server (without specifying database)
-            String serverUrl = "jdbc:mysql://localhost:3306";
-            Connection tempConnection = null;
-            
-            // Try to connect with the same credentials that worked
-            for (String dbUser : DB_USERS) {
-                for (String dbPassword : DB_PASSWORDS) {
-                    try {
-                        tempConnection = DriverManager.getConnection(serverUrl, dbUser, dbPassword);
-                        break;
-                    } catch (SQLException e) {
-                        continue;
-                    }
+            if (createDatabase) {
+                // Connect to MySQL server (without database), then create and use our database
+                String serverUrl = dbUrl.substring(0, dbUrl.lastIndexOf("/"));
+                String dbName = dbUrl.substring(dbUrl.lastIndexOf("/") + 1);
+                connection = DriverManager.getConnection(serverUrl, dbUser, dbPassword);
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.executeUpdate("CREATE DATABASE IF NOT EXISTS " + dbName);
                 }
-                if (tempConnection != null) break;
+                connection.setCatalog(dbName);
+            } else {
+                connection = DriverManager.getConnection(dbUrl, dbUser, dbPassword);
             }
             
-            if (tempConnection != null) {
-                Statement stmt = tempConnection.createStatement();
-                stmt.executeUpdate("CREATE DATABASE IF NOT EXISTS inksync_db");
-                tempConnection.close();
-                System.out.println("✅ Database 'inksync_db' created/verified");
-            }
+            LOG.info(trying + "✅ SUCCESS!");
+            return true;
             
         } catch (SQLException e) {
-            System.err.println("⚠️  Could not create database: " + e.getMessage());
+            LOG.info(trying + "❌ Failed");
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException closeError) {
+                }
+                connection = null;
+            }
+            return false;
         }
     }
     
@@ -169,14 +280,96 @@ public class DatabaseManager {
                 )
                 """;
             
+            // Usage summaries and the watermark of the activity rolled up into them
+            String createHourlyUsageTable = """
+                CREATE TABLE IF NOT EXISTS board_hourly_usage (
+                    usage_hour DATETIME NOT NULL,
+                    board_name VARCHAR(100) NOT NULL,
+                    visits INT NOT NULL DEFAULT 0,
+                    user_seconds BIGINT NOT NULL DEFAULT 0,
+                    longest_seconds BIGINT NOT NULL DEFAULT 0,
+                    PRIMARY KEY (usage_hour, board_name)
+                )
+                """;
+            
+            String createUserUsageTable = """
+                CREATE TABLE IF NOT EXISTS user_usage (
+                    username VARCHAR(50) PRIMARY KEY,
+                    visits INT NOT NULL DEFAULT 0,
+                    total_seconds BIGINT NOT NULL DEFAULT 0,
+                    longest_seconds BIGINT NOT NULL DEFAULT 0,
+                    last_seen DATETIME NOT NULL
+                )
+                """;
+            
+            String createWatermarkTable = """
+                CREATE TABLE IF NOT EXISTS rollup_watermark (
+                    name VARCHAR(50) PRIMARY KEY,
+                    last_activity_id INT NOT NULL
+                )
+                """;
+            
+            // Visits the watermark passed while they were in progress
+            String createPendingTable = """
+                CREATE TABLE IF NOT EXISTS rollup_pending (
+                    activity_id INT PRIMARY KEY
+                )
+                """;
+            
+            // Draw counts per time bucket, board and user
+            String createDrawStatsTable = """
+                CREATE TABLE IF NOT EXISTS draw_stats (
+                    bucket_start DATETIME NOT NULL,
+                    bucket_seconds INT NOT NULL,
+                    board_name VARCHAR(100) NOT NULL,
+                    username VARCHAR(50) NOT NULL DEFAULT '',
+                    draws BIGINT NOT NULL DEFAULT 0,
+                    bytes BIGINT NOT NULL DEFAULT 0,
+                    PRIMARY KEY (bucket_start, board_name, username)
+                )
+                """;
+            
             stmt.executeUpdate(createSessionsTable);
             stmt.executeUpdate(createUserActivityTable);
+            stmt.executeUpdate(createHourlyUsageTable);
+            stmt.executeUpdate(createUserUsageTable);
+            stmt.executeUpdate(createWatermarkTable);
+            stmt.executeUpdate(createPendingTable);
+            stmt.executeUpdate(createDrawStatsTable);
+            // the row a rollup locks to move the watermark
+            stmt.executeUpdate("INSERT IGNORE INTO rollup_watermark (name, last_activity_id) VALUES ('user_activity', 0)");
+            createIndexesIfNotExist(connection);
             
-            System.out.println("Database tables created/verified successfully");
+            LOG.info("Database tables created/verified successfully");
             
         } catch (SQLException e) {
-            System.err.println("Error creating tables: " + e.getMessage());
-            e.printStackTrace();
+            LOG.error("Error creating tables: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Create any of the secondary indexes that don't exist yet, for tables
+     * made before they were added.  MySQL has no CREATE INDEX IF NOT EXISTS,
+     * so the indexes present are looked up first.
+     * @param connection the connection to the database to migrate
+     * @throws SQLException if the indexes can't be listed or created
+     */
+    static void createIndexesIfNotExist(Connection connection) throws SQLException {
+        String existsSql = "SELECT 1 FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = ? AND index_name = ? LIMIT 1";
+        try (PreparedStatement exists = connection.prepareStatement(existsSql);
+             Statement stmt = connection.createStatement()) {
+            for (String[] index : INDEXES) {
+                exists.setString(1, index[0]);
+                exists.setString(2, index[1]);
+                boolean present;
+                try (ResultSet rs = exists.executeQuery()) {
+                    present = rs.next();
+                }
+                if (!present) {
+                    stmt.executeUpdate("CREATE INDEX " + index[1] + " ON " + index[0] + " (" + index[2] + ")");
+                    LOG.info("Created index " + index[1] + " on " + index[0]);
+                }
+            }
         }
     }
     
@@ -184,31 +377,34 @@ public class DatabaseManager {
      * Start a new server session
      * @return session ID
      */
-    public int startServerSession() {
+    public synchronized int startServerSession() {
         if (connection == null) {
-            System.out.println("Database not available - skipping session tracking");
+            LOG.info("Database not available - skipping session tracking");
             return -1;
         }
         
         try {
             String sql = "INSERT INTO server_sessions (start_time, status) VALUES (?, 'active')";
-            PreparedStatement pstmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            PreparedStatement pstmt = statements.prepare(sql, true);
             
             LocalDateTime now = LocalDateTime.now();
-            pstmt.setString(1, now.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+            pstmt.setString(1, now.format(TIME_FORMAT));
             
+            long start = System.nanoTime();
             pstmt.executeUpdate();
+            statements.recordQuery(start);
             
-            ResultSet rs = pstmt.getGeneratedKeys();
-            if (rs.next()) {
-                currentSessionId = rs.getInt(1);
-                System.out.println("Server session started with ID: " + currentSessionId);
-                return currentSessionId;
+            try (ResultSet rs = pstmt.getGeneratedKeys()) {
+                if (rs.next()) {
+                    currentSessionId = rs.getInt(1);
+                    openEntries.clear();
+                    LOG.info("Server session started with ID: " + currentSessionId);
+                    return currentSessionId;
+                }
             }
             
         } catch (SQLException e) {
-            System.err.println("Error starting server session: " + e.getMessage());
-            e.printStackTrace();
+            LOG.error("Error starting server session: " + e.getMessage(), e);
         }
         return -1;
     }
@@ -216,26 +412,27 @@ public class DatabaseManager {
     /**
      * End the current server session
      */
-    public void endServerSession() {
-        if (connection == null || currentSessionId == -1) {
-            System.out.println("Database not available - skipping session end tracking");
+    public synchronized void endServerSession() {
+        if (!isAvailable()) {
+            LOG.info("Database not available - skipping session end tracking");
             return;
         }
         
         try {
             String sql = "UPDATE server_sessions SET end_time = ?, status = 'ended' WHERE session_id = ?";
-            PreparedStatement pstmt = connection.prepareStatement(sql);
+            PreparedStatement pstmt = statements.prepare(sql);
             
             LocalDateTime now = LocalDateTime.now();
-            pstmt.setString(1, now.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+            pstmt.setString(1, now.format(TIME_FORMAT));
             pstmt.setInt(2, currentSessionId);
             
+            long start = System.nanoTime();
             pstmt.executeUpdate();
-            System.out.println("Server session ended: " + currentSessionId);
+            statements.recordQuery(start);
+            LOG.info("Server session ended: " + currentSessionId);
             
         } catch (SQLException e) {
-            System.err.println("Error ending server session: " + e.getMessage());
-            e.printStackTrace();
+            LOG.error("Error ending server session: " + e.getMessage(), e);
         }
     }
     
@@ -245,35 +442,37 @@ public class DatabaseManager {
      * @param boardName the board name
      * @return activity ID
      */
-    public int recordUserEntry(String username, String boardName) {
-        if (connection == null || currentSessionId == -1) {
-            System.out.println("Database not available - skipping user entry tracking");
+    public synchronized int recordUserEntry(String username, String boardName) {
+        if (!isAvailable()) {
+            LOG.debug("Database not available - skipping user entry tracking");
             return -1;
         }
         
         try {
-            String sql = "INSERT INTO user_activity (session_id, username, board_name, entry_time, status) VALUES (?, ?, ?, ?, 'active')";
-            PreparedStatement pstmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            PreparedStatement pstmt = statements.prepare(ENTRY_SQL, true);
             
             pstmt.setInt(1, currentSessionId);
             pstmt.setString(2, username);
             pstmt.setString(3, boardName);
             
             LocalDateTime now = LocalDateTime.now();
-            pstmt.setString(4, now.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+            pstmt.setString(4, now.format(TIME_FORMAT));
             
+            long start = System.nanoTime();
             pstmt.executeUpdate();
+            statements.recordQuery(start);
             
-            ResultSet rs = pstmt.getGeneratedKeys();
-            if (rs.next()) {
-                int activityId = rs.getInt(1);
-                System.out.println("User entry recorded: " + username + " on board " + boardName + " (ID: " + activityId + ")");
-                return activityId;
+            try (ResultSet rs = pstmt.getGeneratedKeys()) {
+                if (rs.next()) {
+                    int activityId = rs.getInt(1);
+                    openEntries.computeIfAbsent(username, user -> new ArrayList<Integer>(1)).add(activityId);
+                    LOG.debug("User entry recorded: " + username + " on board " + boardName + " (ID: " + activityId + ")");
+                    return activityId;
+                }
             }
             
         } catch (SQLException e) {
-            System.err.println("Error recording user entry: " + e.getMessage());
-            e.printStackTrace();
+            LOG.error("Error recording user entry: " + e.getMessage(), e);
         }
         return -1;
     }
@@ -282,85 +481,616 @@ public class DatabaseManager {
      * Record user exit
      * @param username the username
      */
-    public void recordUserExit(String username) {
-        if (connection == null || currentSessionId == -1) {
-            System.out.println("Database not available - skipping user exit tracking");
+    public synchronized void recordUserExit(String username) {
+        if (!isAvailable()) {
+            LOG.debug("Database not available - skipping user exit tracking");
             return;
         }
         
         try {
-            String sql = "UPDATE user_activity SET exit_time = ?, status = 'exited' WHERE session_id = ? AND username = ? AND status = 'active'";
-            PreparedStatement pstmt = connection.prepareStatement(sql);
-            
-            LocalDateTime now = LocalDateTime.now();
-            pstmt.setString(1, now.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
-            pstmt.setInt(2, currentSessionId);
-            pstmt.setString(3, username);
-            
-            int rowsAffected = pstmt.executeUpdate();
-            if (rowsAffected > 0) {
-                System.out.println("User exit recorded: " + username);
+            List<ActivityWriter.Activity> exit = new ArrayList<ActivityWriter.Activity>(1);
+            exit.add(new ActivityWriter.Activity(ActivityWriter.Activity.Type.EXIT, username, null, LocalDateTime.now()));
+            if (recordExits(exit) > 0) {
+                LOG.debug("User exit recorded: " + username);
             }
             
         } catch (SQLException e) {
-            System.err.println("Error recording user exit: " + e.getMessage());
-            e.printStackTrace();
+            LOG.error("Error recording user exit: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Check whether the database connected
+     * @return true if connected
+     */
+    public synchronized boolean isOpen() {
+        return connection != null;
+    }
+
+    /**
+     * The database takes writes from any number of processes
+     * @return false
+     */
+    public synchronized boolean isReadOnly() {
+        return false;
+    }
+    
+    /**
+     * Check whether activity can be recorded
+     * @return true if connected and a server session has been started
+     */
+    public synchronized boolean isAvailable() {
+        return connection != null && currentSessionId != -1;
+    }
+    
+    /**
+     * Record a batch of user entries and exits in order, as JDBC batches.
+     * Consecutive activities of the same type are sent as one batch, so an
+     * exit is never applied before the entry it closes.  The ids generated
+     * for entries are kept, so exits update their rows by primary key.
+     * @param batch the activities to record, oldest first
+     * @throws SQLException if the database rejects the batch
+     */
+    public synchronized void writeActivity(List<ActivityWriter.Activity> batch) throws SQLException {
+        if (!isAvailable()) {
+            return;
+        }
+        
+        int start = 0;
+        while (start < batch.size()) {
+            ActivityWriter.Activity.Type type = batch.get(start).getType();
+            int end = start + 1;
+            while (end < batch.size() && batch.get(end).getType() == type) {
+                end++;
+            }
+            if (type == ActivityWriter.Activity.Type.ENTRY) {
+                recordEntries(batch.subList(start, end));
+            } else {
+                recordExits(batch.subList(start, end));
+            }
+            start = end;
+        }
+    }
+    
+    /**
+     * Insert entries as one batch and keep the ids generated for them
+     */
+    private void recordEntries(List<ActivityWriter.Activity> entries) throws SQLException {
+        PreparedStatement stmt = statements.prepare(ENTRY_SQL, true);
+        for (ActivityWriter.Activity entry : entries) {
+            stmt.setInt(1, currentSessionId);
+            stmt.setString(2, entry.getUsername());
+            stmt.setString(3, entry.getBoardName());
+            stmt.setString(4, entry.getTime().format(TIME_FORMAT));
+            stmt.addBatch();
+        }
+        long start = System.nanoTime();
+        try {
+            stmt.executeBatch();
+            // keys come back in the order the rows were added
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                for (int i = 0; i < entries.size() && keys.next(); i++) {
+                    openEntries.computeIfAbsent(entries.get(i).getUsername(), user -> new ArrayList<Integer>(1))
+                            .add(keys.getInt(1));
+                }
+            }
+        } finally {
+            stmt.clearBatch();
+        }
+        statements.recordQuery(start);
+    }
+    
+    /**
+     * Close the open entries of exiting users as one batch: by activity id
+     * where it was kept at entry, and otherwise by session and username
+     * @return the number of rows updated
+     */
+    private int recordExits(List<ActivityWriter.Activity> exits) throws SQLException {
+        PreparedStatement byId = null;
+        PreparedStatement byUser = null;
+        for (ActivityWriter.Activity exit : exits) {
+            String time = exit.getTime().format(TIME_FORMAT);
+            List<Integer> ids = openEntries.remove(exit.getUsername());
+            if (ids != null) {
+                if (byId == null) {
+                    byId = statements.prepare(EXIT_BY_ID_SQL);
+                }
+                for (int id : ids) {
+                    byId.setString(1, time);
+                    byId.setInt(2, id);
+                    byId.addBatch();
+                }
+            } else {
+                if (byUser == null) {
+                    byUser = statements.prepare(EXIT_SQL);
+                }
+                byUser.setString(1, time);
+                byUser.setInt(2, currentSessionId);
+                byUser.setString(3, exit.getUsername());
+                byUser.addBatch();
+            }
+        }
+        int updated = 0;
+        if (byId != null) {
+            updated += executeBatch(byId);
+        }
+        if (byUser != null) {
+            updated += executeBatch(byUser);
+        }
+        return updated;
+    }
+    
+    /**
+     * Execute a statement's batch, timing it as one query
+     * @return the number of rows updated, where the driver reports it
+     */
+    private int executeBatch(PreparedStatement stmt) throws SQLException {
+        long start = System.nanoTime();
+        int updated = 0;
+        try {
+            for (int count : stmt.executeBatch()) {
+                if (count > 0) {
+                    updated += count;
+                }
+            }
+        } finally {
+            stmt.clearBatch();
         }
+        statements.recordQuery(start);
+        return updated;
     }
     
     /**
      * Get current session statistics
      * @return formatted statistics string
      */
-    public String getSessionStatistics() {
+    public synchronized String getSessionStatistics() {
+        if (!isAvailable()) {
+            return "Database not available";
+        }
+        
         try {
             StringBuilder stats = new StringBuilder();
             
             // Get session info
             String sessionSql = "SELECT start_time, status FROM server_sessions WHERE session_id = ?";
-            PreparedStatement sessionStmt = connection.prepareStatement(sessionSql);
+            PreparedStatement sessionStmt = statements.prepare(sessionSql);
             sessionStmt.setInt(1, currentSessionId);
             
-            ResultSet sessionRs = sessionStmt.executeQuery();
-            if (sessionRs.next()) {
-                stats.append("Session ID: ").append(currentSessionId).append("\n");
-                stats.append("Start Time: ").append(sessionRs.getString("start_time")).append("\n");
-                stats.append("Status: ").append(sessionRs.getString("status")).append("\n\n");
+            long start = System.nanoTime();
+            try (ResultSet sessionRs = sessionStmt.executeQuery()) {
+                if (sessionRs.next()) {
+                    stats.append("Session ID: ").append(currentSessionId).append("\n");
+                    stats.append("Start Time: ").append(sessionRs.getString("start_time")).append("\n");
+                    stats.append("Status: ").append(sessionRs.getString("status")).append("\n\n");
+                }
             }
+            statements.recordQuery(start);
             
             // Get active users
             String activeUsersSql = "SELECT username, board_name, entry_time FROM user_activity WHERE session_id = ? AND status = 'active'";
-            PreparedStatement usersStmt = connection.prepareStatement(activeUsersSql);
+            PreparedStatement usersStmt = statements.prepare(activeUsersSql);
             usersStmt.setInt(1, currentSessionId);
             
-            ResultSet usersRs = usersStmt.executeQuery();
-            stats.append("Active Users:\n");
-            while (usersRs.next()) {
-                stats.append("- ").append(usersRs.getString("username"))
-                     .append(" (Board: ").append(usersRs.getString("board_name"))
-                     .append(", Joined: ").append(usersRs.getString("entry_time"))
-                     .append(")\n");
+            start = System.nanoTime();
+            try (ResultSet usersRs = usersStmt.executeQuery()) {
+                stats.append("Active Users:\n");
+                while (usersRs.next()) {
+                    stats.append("- ").append(usersRs.getString("username"))
+                         .append(" (Board: ").append(usersRs.getString("board_name"))
+                         .append(", Joined: ").append(usersRs.getString("entry_time"))
+                         .append(")\n");
+                }
             }
+            statements.recordQuery(start);
             
+            stats.append("\n").append(statements);
             return stats.toString();
             
         } catch (SQLException e) {
-            System.err.println("Error getting session statistics: " + e.getMessage());
+            LOG.error("Error getting session statistics: " + e.getMessage());
             return "Error retrieving statistics";
         }
     }
     
+    /**
+     * Get every server session, newest first
+     * @return the sessions
+     * @throws SQLException if the query fails
+     */
+    public synchronized List<SessionRecord> getSessions() throws SQLException {
+        List<SessionRecord> sessions = new ArrayList<SessionRecord>();
+        if (connection == null) {
+            return sessions;
+        }
+        String sql = "SELECT * FROM server_sessions ORDER BY start_time DESC";
+        long start = System.nanoTime();
+        try (ResultSet rs = statements.prepare(sql).executeQuery()) {
+            while (rs.next()) {
+                sessions.add(new SessionRecord(rs.getInt("session_id"), rs.getString("start_time"),
+                        rs.getString("end_time"), rs.getString("status")));
+            }
+        }
+        statements.recordQuery(start);
+        return sessions;
+    }
+    
+    /**
+     * Get every user activity, newest entry first
+     * @return the activity
+     * @throws SQLException if the query fails
+     */
+    public synchronized List<ActivityRecord> getUserActivity() throws SQLException {
+        List<ActivityRecord> activity = new ArrayList<ActivityRecord>();
+        if (connection == null) {
+            return activity;
+        }
+        String sql = "SELECT * FROM user_activity ORDER BY entry_time DESC";
+        long start = System.nanoTime();
+        try (ResultSet rs = statements.prepare(sql).executeQuery()) {
+            while (rs.next()) {
+                activity.add(new ActivityRecord(rs.getInt("activity_id"), rs.getInt("session_id"),
+                        rs.getString("username"), rs.getString("board_name"), rs.getString("entry_time"),
+                        rs.getString("exit_time"), rs.getString("status")));
+            }
+        }
+        statements.recordQuery(start);
+        return activity;
+    }
+    
+    /**
+     * Stream the user activity a query selects, newest first by activity id,
+     * or oldest first when the query reads after an id.
+     * Rows are read from a forward-only cursor and handed over one at a time,
+     * never collected, and a page continues from an id so it costs the same
+     * however deep into the history it is.
+     * 
+     * With no fetch size, MySQL streams rows one at a time; the connection
+     * can't be used for anything else until the stream is finished, which
+     * this object's lock ensures.  A fetch size reads that many rows at once
+     * from a server-side cursor, when the URL has useCursorFetch=true.
+     * @param query the filters and page to read
+     * @param handler given each record in turn
+     * @return the number of records handed over
+     * @throws SQLException if the query fails
+     */
+    public synchronized int streamUserActivity(ActivityQuery query, Consumer<ActivityRecord> handler) throws SQLException {
+        if (connection == null) {
+            return 0;
+        }
+        
+        StringBuilder sql = new StringBuilder(
+                "SELECT activity_id, session_id, username, board_name, entry_time, exit_time, status FROM user_activity WHERE 1 = 1");
+        List<Object> parameters = new ArrayList<Object>();
+        if (query.getSessionId() != null) {
+            sql.append(" AND session_id = ?");
+            parameters.add(query.getSessionId());
+        }
+        if (query.getUsername() != null) {
+            sql.append(" AND username = ?");
+            parameters.add(query.getUsername());
+        }
+        if (query.getBoardName() != null) {
+            sql.append(" AND board_name = ?");
+            parameters.add(query.getBoardName());
+        }
+        if (query.getFrom() != null) {
+            sql.append(" AND entry_time >= ?");
+            parameters.add(query.getFrom());
+        }
+        if (query.getTo() != null) {
+            sql.append(" AND entry_time < ?");
+            parameters.add(query.getTo());
+        }
+        if (query.getBeforeId() != null) {
+            sql.append(" AND activity_id < ?");
+            parameters.add(query.getBeforeId());
+        }
+        if (query.getAfterId() != null) {
+            sql.append(" AND activity_id > ?");
+            parameters.add(query.getAfterId());
+        }
+        sql.append(query.isOldestFirst() ? " ORDER BY activity_id" : " ORDER BY activity_id DESC");
+        if (query.getLimit() > 0) {
+            sql.append(" LIMIT ?");
+            parameters.add(query.getLimit());
+        }
+        
+        int count = 0;
+        long start = System.nanoTime();
+        try (PreparedStatement stmt = connection.prepareStatement(sql.toString(),
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            stmt.setFetchSize(query.getFetchSize() > 0 ? query.getFetchSize() : Integer.MIN_VALUE);
+            for (int i = 0; i < parameters.size(); i++) {
+                stmt.setObject(i + 1, parameters.get(i));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    handler.accept(new ActivityRecord(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getString(4),
+                            rs.getString(5), rs.getString(6), rs.getString(7)));
+                    count++;
+                }
+            }
+        }
+        statements.recordQuery(start);
+        return count;
+    }
+    
+    /**
+     * Get the rollup watermark
+     * @return the id of the last activity rolled up, 0 if none has been
+     * @throws SQLException if the query fails
+     */
+    public synchronized int getRollupWatermark() throws SQLException {
+        if (connection == null) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        int watermark;
+        try (ResultSet rs = statements.prepare(WATERMARK_SQL).executeQuery()) {
+            watermark = rs.next() ? rs.getInt(1) : 0;
+        }
+        statements.recordQuery(start);
+        return watermark;
+    }
+    
+    /**
+     * Get the visits the watermark passed while they were in progress
+     * @return the visits as they are now, oldest first
+     * @throws SQLException if the query fails
+     */
+    public synchronized List<ActivityRecord> getPendingActivity() throws SQLException {
+        List<ActivityRecord> activity = new ArrayList<ActivityRecord>();
+        if (connection == null) {
+            return activity;
+        }
+        long start = System.nanoTime();
+        try (ResultSet rs = statements.prepare(PENDING_ACTIVITY_SQL).executeQuery()) {
+            while (rs.next()) {
+                activity.add(new ActivityRecord(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getString(4),
+                        rs.getString(5), rs.getString(6), rs.getString(7)));
+            }
+        }
+        statements.recordQuery(start);
+        return activity;
+    }
+    
+    /**
+     * Add a rollup's usage to the summary tables, move the watermark and
+     * update the pending visits in one transaction.  The watermark row is
+     * locked first, so a rollup racing with another (the server's and
+     * DatabaseViewer's, say) either finds the watermark where it started and
+     * its closed visits still pending and saves, or saves nothing.
+     * @param rollup the rollup, started from the current watermark
+     * @return false if the watermark has moved since the rollup started, or
+     *         a visit it closed is no longer pending
+     * @throws SQLException if the rollup can't be saved
+     */
+    public synchronized boolean saveRollup(ActivityRollup rollup) throws SQLException {
+        if (connection == null) {
+            throw new SQLException("Database not available");
+        }
+        connection.setAutoCommit(false);
+        try {
+            long start = System.nanoTime();
+            int watermark;
+            try (ResultSet rs = statements.prepare(WATERMARK_SQL + " FOR UPDATE").executeQuery()) {
+                watermark = rs.next() ? rs.getInt(1) : 0;
+            }
+            statements.recordQuery(start);
+            if (watermark != rollup.getFromId()) {
+                connection.rollback();
+                return false;
+            }
+            
+            PreparedStatement remove = statements.prepare(REMOVE_PENDING_SQL);
+            for (int id : rollup.getClosed()) {
+                remove.setInt(1, id);
+                remove.addBatch();
+            }
+            if (executeBatch(remove) != rollup.getClosed().size()) {
+                // another rollup closed some of them since they were read
+                connection.rollback();
+                return false;
+            }
+            PreparedStatement add = statements.prepare(ADD_PENDING_SQL);
+            for (int id : rollup.getOpened()) {
+                add.setInt(1, id);
+                add.addBatch();
+            }
+            executeBatch(add);
+            
+            PreparedStatement hourly = statements.prepare(HOURLY_USAGE_SQL);
+            for (ActivityRollup.HourlyUsage usage : rollup.getHourlyUsage()) {
+                hourly.setString(1, usage.getHour());
+                hourly.setString(2, usage.getBoardName());
+                hourly.setInt(3, usage.getVisits());
+                hourly.setLong(4, usage.getUserSeconds());
+                hourly.setLong(5, usage.getLongestSeconds());
+                hourly.addBatch();
+            }
+            executeBatch(hourly);
+            PreparedStatement users = statements.prepare(USER_USAGE_SQL);
+            for (ActivityRollup.UserUsage usage : rollup.getUserUsage()) {
+                users.setString(1, usage.getUsername());
+                users.setInt(2, usage.getVisits());
+                users.setLong(3, usage.getTotalSeconds());
+                users.setLong(4, usage.getLongestSeconds());
+                users.setString(5, usage.getLastSeen());
+                users.addBatch();
+            }
+            executeBatch(users);
+            PreparedStatement move = statements.prepare(MOVE_WATERMARK_SQL);
+            move.setInt(1, rollup.getToId());
+            start = System.nanoTime();
+            move.executeUpdate();
+            statements.recordQuery(start);
+            
+            connection.commit();
+            return true;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+    
+    /**
+     * Get the rolled up usage of every board in a range of hours
+     * @param from the first hour
+     * @param to the end of the range, exclusive
+     * @return the usage, oldest hour first and by board name within an hour
+     * @throws SQLException if the query fails
+     */
+    public synchronized List<ActivityRollup.HourlyUsage> getHourlyUsage(LocalDateTime from, LocalDateTime to) throws SQLException {
+        List<ActivityRollup.HourlyUsage> usage = new ArrayList<ActivityRollup.HourlyUsage>();
+        if (connection == null) {
+            return usage;
+        }
+        String sql = "SELECT usage_hour, board_name, visits, user_seconds, longest_seconds FROM board_hourly_usage "
+                + "WHERE usage_hour >= ? AND usage_hour < ? ORDER BY usage_hour, board_name";
+        PreparedStatement stmt = statements.prepare(sql);
+        stmt.setString(1, from.format(TIME_FORMAT));
+        stmt.setString(2, to.format(TIME_FORMAT));
+        long start = System.nanoTime();
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                usage.add(new ActivityRollup.HourlyUsage(rs.getString(1), rs.getString(2), rs.getInt(3),
+                        rs.getLong(4), rs.getLong(5)));
+            }
+        }
+        statements.recordQuery(start);
+        return usage;
+    }
+    
+    /**
+     * Get the rolled up usage of the users who spent longest on the boards
+     * @param limit most users to return
+     * @return the usage, most time first
+     * @throws SQLException if the query fails
+     */
+    public synchronized List<ActivityRollup.UserUsage> getUserUsage(int limit) throws SQLException {
+        List<ActivityRollup.UserUsage> usage = new ArrayList<ActivityRollup.UserUsage>();
+        if (connection == null) {
+            return usage;
+        }
+        String sql = "SELECT username, visits, total_seconds, longest_seconds, last_seen FROM user_usage "
+                + "ORDER BY total_seconds DESC LIMIT ?";
+        PreparedStatement stmt = statements.prepare(sql);
+        stmt.setInt(1, limit);
+        long start = System.nanoTime();
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                usage.add(new ActivityRollup.UserUsage(rs.getString(1), rs.getInt(2), rs.getLong(3),
+                        rs.getLong(4), rs.getString(5)));
+            }
+        }
+        statements.recordQuery(start);
+        return usage;
+    }
+    
+    /**
+     * Add draw counts to those recorded, as one batch of upserts
+     * @param stats the counts
+     * @throws SQLException if the database rejects the batch
+     */
+    public synchronized void writeDrawStats(List<DrawTelemetry.DrawStats> stats) throws SQLException {
+        if (connection == null) {
+            throw new SQLException("Database not available");
+        }
+        PreparedStatement stmt = statements.prepare(DRAW_STATS_SQL);
+        for (DrawTelemetry.DrawStats row : stats) {
+            stmt.setString(1, row.getBucketStart());
+            stmt.setInt(2, row.getBucketSeconds());
+            stmt.setString(3, row.getBoardName());
+            stmt.setString(4, row.getUsername());
+            stmt.setLong(5, row.getDraws());
+            stmt.setLong(6, row.getBytes());
+            stmt.addBatch();
+        }
+        executeBatch(stmt);
+    }
+    
+    /**
+     * Get the draw counts of the buckets starting in a range of time
+     * @param from the start of the range
+     * @param to the end of the range, exclusive
+     * @return the counts, oldest bucket first, then by board and user
+     * @throws SQLException if the query fails
+     */
+    public synchronized List<DrawTelemetry.DrawStats> getDrawStats(LocalDateTime from, LocalDateTime to) throws SQLException {
+        List<DrawTelemetry.DrawStats> stats = new ArrayList<DrawTelemetry.DrawStats>();
+        if (connection == null) {
+            return stats;
+        }
+        String sql = "SELECT bucket_start, bucket_seconds, board_name, username, draws, bytes FROM draw_stats "
+                + "WHERE bucket_start >= ? AND bucket_start < ? ORDER BY bucket_start, board_name, username";
+        PreparedStatement stmt = statements.prepare(sql);
+        stmt.setString(1, from.format(TIME_FORMAT));
+        stmt.setString(2, to.format(TIME_FORMAT));
+        long start = System.nanoTime();
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                stats.add(new DrawTelemetry.DrawStats(rs.getString(1), rs.getInt(2), rs.getString(3),
+                        rs.getString(4), rs.getLong(5), rs.getLong(6)));
+            }
+        }
+        statements.recordQuery(start);
+        return stats;
+    }
+    
+    /**
+     * Delete every session, activity, usage summary and draw count and
+     * restart their ids from 1
+     * @throws SQLException if the tables can't be cleared
+     */
+    public synchronized void clear() throws SQLException {
+        if (connection == null) {
+            throw new SQLException("Database not available");
+        }
+        try (Statement stmt = connection.createStatement()) {
+            // Clear user activity first (due to foreign key constraint)
+            int userActivityDeleted = stmt.executeUpdate("DELETE FROM user_activity");
+            LOG.info("   Deleted " + userActivityDeleted + " user activity records");
+            int serverSessionsDeleted = stmt.executeUpdate("DELETE FROM server_sessions");
+            LOG.info("   Deleted " + serverSessionsDeleted + " server sessions");
+            stmt.executeUpdate("ALTER TABLE user_activity AUTO_INCREMENT = 1");
+            stmt.executeUpdate("ALTER TABLE server_sessions AUTO_INCREMENT = 1");
+            stmt.executeUpdate("DELETE FROM board_hourly_usage");
+            stmt.executeUpdate("DELETE FROM user_usage");
+            stmt.executeUpdate("UPDATE rollup_watermark SET last_activity_id = 0");
+            stmt.executeUpdate("DELETE FROM rollup_pending");
+            LOG.info("   Deleted usage summaries");
+            int drawStatsDeleted = stmt.executeUpdate("DELETE FROM draw_stats");
+            LOG.info("   Deleted " + drawStatsDeleted + " draw counts");
+        }
+        currentSessionId = -1;
+        openEntries.clear();
+    }
+    
+    /**
+     * Get the statement cache, for its reuse and latency metrics
+     * @return the statement cache, or null if not connected
+     */
+    public StatementCache getStatementCache() {
+        return statements;
+    }
+    
     /**
      * Close database connection
      */
-    public void close() {
+    public synchronized void close() {
+        if (statements != null) {
+            statements.close();
+        }
         try {
             if (connection != null && !connection.isClosed()) {
                 connection.close();
-                System.out.println("Database connection closed");
+                LOG.info("Database connection closed");
             }
         } catch (SQLException e) {
-            System.err.println("Error closing database connection: " + e.getMessage());
+            LOG.error("Error closing database connection: " + e.getMessage());
         }
     }
     
@@ -1,26 +1,121 @@
 package server;
 
-import java.sql.*;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
+import logging.Log;
+
 /**
- * Simple utility to view database contents
+ * Simple utility to view database contents.  Views the activity store the
+ * server is configured to use (see ActivityStore.open), MySQL by default.
+ * 
+ * User activity is streamed from the store a record at a time and written
+ * straight out, a page at a time unless every record is asked for, so even
+ * a long history is viewed or exported in constant memory.
+ * 
+ * Usage: DatabaseViewer                 sessions and the newest page of activity
+ *        DatabaseViewer sessions        every server session
+ *        DatabaseViewer activity [options]
+ *        DatabaseViewer usage [--hours N] [--users N]
+ *                                       board and user usage trends over the
+ *                                       last N hours (default 24), from the
+ *                                       rolled up summaries, rolling up any
+ *                                       activity since the last rollup first
+ *                                       unless the server has the activity
+ *                                       file open
+ *        DatabaseViewer draws [--hours N]
+ *                                       draws and bytes per board and user over
+ *                                       the last N hours (default 24), as
+ *                                       counted by the server's draw telemetry
+ *        DatabaseViewer clear           delete every session and activity
+ * Activity options:
+ *        --session ID   --user NAME   --board NAME
+ *        --from TIME    --to TIME     entries in [from, to), as "yyyy-MM-dd HH:mm:ss"
+ *        --page-size N  rows per page (default 50)
+ *        --before ID    the page of activity before this id, as printed
+ *                       after each page
+ *        --all          every matching row, unpaged
+ *        --fetch-size N rows fetched from the database at once (default:
+ *                       streamed one at a time)
+ *        --format table|csv|json   --out FILE
  */
 public class DatabaseViewer {
     
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    
     public static void main(String[] args) {
         // Check if clear command is requested
         if (args.length > 0 && args[0].equals("clear")) {
             clearDatabase();
             return;
         }
+        if (args.length > 0 && (args[0].equals("usage") || args[0].equals("draws"))) {
+            showUsage(args);
+            return;
+        }
         
+        String command = args.length > 0 ? args[0] : "";
+        ActivityQuery query = new ActivityQuery().limit(DEFAULT_PAGE_SIZE);
+        ActivityExporter.Format format = ActivityExporter.Format.TABLE;
+        String outFile = null;
+        try {
+            if (!command.isEmpty() && !command.equals("sessions") && !command.equals("activity")) {
+                throw new IllegalArgumentException("Unknown command " + command);
+            }
+            for (int i = 1; i < args.length; i++) {
+                String option = args[i];
+                if (option.equals("--all")) {
+                    query.limit(0);
+                    continue;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + option);
+                }
+                String value = args[++i];
+                switch (option) {
+                case "--session": query.session(Integer.parseInt(value)); break;
+                case "--user": query.user(value); break;
+                case "--board": query.board(value); break;
+                case "--from": query.from(LocalDateTime.parse(value, TIME_FORMAT)); break;
+                case "--to": query.to(LocalDateTime.parse(value, TIME_FORMAT)); break;
+                case "--before": query.before(Integer.parseInt(value)); break;
+                case "--page-size": query.limit(Integer.parseInt(value)); break;
+                case "--fetch-size": query.fetchSize(Integer.parseInt(value)); break;
+                case "--format": format = ActivityExporter.Format.valueOf(value.toUpperCase()); break;
+                case "--out": outFile = value; break;
+                default: throw new IllegalArgumentException("Unknown option " + option);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("❌ " + e.getMessage());
+            System.err.println("Usage: DatabaseViewer [sessions | activity [options] | usage [--hours N] [--users N] | draws [--hours N] | clear]");
+            System.err.println("  --session ID --user NAME --board NAME --from TIME --to TIME");
+            System.err.println("  --page-size N --before ID --all --fetch-size N");
+            System.err.println("  --format table|csv|json --out FILE");
+            return;
+        }
+        
+        // exports are kept clean of the banner and connection messages
+        boolean export = format != ActivityExporter.Format.TABLE || outFile != null;
+        PrintStream console = System.out;
+        if (export) {
+            System.setOut(System.err);
+        }
         System.out.println("=== Ink-Sync Database Viewer ===\n");
         
         try {
-            DatabaseManager dbManager = new DatabaseManager();
+            ActivityStore dbManager = ActivityStore.open();
+            // print how it connected before what is viewed
+            Log.flush();
             
-            if (dbManager.getConnection() == null) {
+            if (!dbManager.isOpen()) {
                 System.out.println("❌ Database connection failed!");
                 System.out.println("\n📋 MySQL Setup Instructions:");
                 System.out.println("1. Install MySQL if not installed:");
@@ -42,10 +137,22 @@ public class DatabaseViewer {
             }
             
             // Show all server sessions
-            showAllSessions(dbManager);
+            if (!command.equals("activity")) {
+                showAllSessions(dbManager);
+            }
             
-            // Show all user activity
-            showAllUserActivity(dbManager);
+            // Show a page of user activity, or export it
+            if (!command.equals("sessions")) {
+                if (outFile != null) {
+                    try (PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                            new FileOutputStream(outFile), StandardCharsets.UTF_8)))) {
+                        showUserActivity(dbManager, query, new ActivityExporter(out, format));
+                    }
+                } else {
+                    PrintWriter out = new PrintWriter(new OutputStreamWriter(console, StandardCharsets.UTF_8));
+                    showUserActivity(dbManager, query, new ActivityExporter(out, format));
+                }
+            }
             
             dbManager.close();
             
@@ -56,6 +163,10 @@ public class DatabaseViewer {
             System.out.println("2. Check credentials in DatabaseManager.java");
             System.out.println("3. Ensure database 'inksync_db' exists");
             System.out.println("4. Verify MySQL user has proper permissions");
+        } finally {
+            // logged while exporting, so still to go to System.err
+            Log.flush();
+            System.setOut(console);
         }
     }
     
@@ -65,36 +176,20 @@ public class DatabaseViewer {
         System.out.println("");
         
         try {
-            DatabaseManager dbManager = new DatabaseManager();
+            ActivityStore dbManager = ActivityStore.open();
+            // print how it connected before what is viewed
+            Log.flush();
             
-            if (dbManager.getConnection() == null) {
+            if (!dbManager.isOpen()) {
                 System.out.println("❌ Database connection failed! Cannot clear database.");
                 return;
             }
             
-            Connection conn = dbManager.getConnection();
-            
-            // Clear user activity first (due to foreign key constraint)
-            String clearUserActivity = "DELETE FROM user_activity";
-            String clearServerSessions = "DELETE FROM server_sessions";
-            String resetUserActivityAutoIncrement = "ALTER TABLE user_activity AUTO_INCREMENT = 1";
-            String resetServerSessionsAutoIncrement = "ALTER TABLE server_sessions AUTO_INCREMENT = 1";
-            
-            Statement stmt = conn.createStatement();
-            
-            System.out.println("Clearing user activity records...");
-            int userActivityDeleted = stmt.executeUpdate(clearUserActivity);
-            System.out.println("   Deleted " + userActivityDeleted + " user activity records");
-            
-            System.out.println("Clearing server sessions...");
-            int serverSessionsDeleted = stmt.executeUpdate(clearServerSessions);
-            System.out.println("   Deleted " + serverSessionsDeleted + " server sessions");
-            
-            System.out.println("Resetting auto-increment counters...");
-            stmt.executeUpdate(resetUserActivityAutoIncrement);
-            stmt.executeUpdate(resetServerSessionsAutoIncrement);
-            
+            System.out.println("Clearing user activity records and server sessions...");
+            dbManager.clear();
             dbManager.close();
+            // the deleted counts are logged; print them before carrying on
+            Log.flush();
             
             System.out.println("");
             System.out.println("✅ Database cleared successfully!");
@@ -106,82 +201,115 @@ public class DatabaseViewer {
         }
     }
     
-    private static void showAllSessions(DatabaseManager dbManager) {
+    /**
+     * Prints the draw counts, or rolls up any activity since the last rollup
+     * and prints the usage trends the summaries hold
+     */
+    private static void showUsage(String[] args) {
+        int hours = 24;
+        int users = 10;
         try {
-            Connection conn = dbManager.getConnection();
-            if (conn == null) {
-                System.out.println("❌ No database connection available");
+            for (int i = 1; i < args.length; i += 2) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + args[i]);
+                }
+                switch (args[i]) {
+                case "--hours": hours = Integer.parseInt(args[i + 1]); break;
+                case "--users": users = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("❌ " + e.getMessage());
+            System.err.println("Usage: DatabaseViewer usage [--hours N] [--users N] | draws [--hours N]");
+            return;
+        }
+        
+        System.out.println("=== Ink-Sync Usage ===\n");
+        try {
+            ActivityStore dbManager = ActivityStore.open();
+            // print how it connected before what is viewed
+            Log.flush();
+            if (!dbManager.isOpen()) {
+                System.out.println("❌ Database connection failed!");
                 return;
             }
             
-            String sql = "SELECT * FROM server_sessions ORDER BY start_time DESC";
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery(sql);
-            
-            System.out.println("=== Server Sessions ===");
-            System.out.printf("%-10s %-20s %-20s %-10s%n", "Session ID", "Start Time", "End Time", "Status");
-            System.out.println("------------------------------------------------------------");
-            
-            boolean hasData = false;
-            while (rs.next()) {
-                hasData = true;
-                System.out.printf("%-10d %-20s %-20s %-10s%n",
-                    rs.getInt("session_id"),
-                    rs.getString("start_time"),
-                    rs.getString("end_time") != null ? rs.getString("end_time") : "N/A",
-                    rs.getString("status")
-                );
+            if (args[0].equals("draws")) {
+                System.out.println(DrawTelemetry.getReport(dbManager, hours));
+                dbManager.close();
+                return;
             }
-            
-            if (!hasData) {
-                System.out.println("No server sessions found. Start the server to create sessions.");
+            // the server rolls up the file it has open itself
+            if (dbManager.isReadOnly()) {
+                System.out.println("The server has the activity file open; showing its last rollup\n");
+            } else {
+                long start = System.nanoTime();
+                int visits = ActivityRollup.run(dbManager);
+                System.out.println("Rolled up " + visits + " visits in " + (System.nanoTime() - start) / 1000000 + " ms\n");
             }
-            System.out.println();
+            System.out.println(ActivityRollup.getUsageReport(dbManager, hours, users));
+            dbManager.close();
             
-        } catch (SQLException e) {
-            System.err.println("Error viewing sessions: " + e.getMessage());
+        } catch (Exception e) {
+            System.out.println("❌ Error viewing usage: " + e.getMessage());
+            e.printStackTrace();
         }
     }
     
-    private static void showAllUserActivity(DatabaseManager dbManager) {
+    private static void showAllSessions(ActivityStore dbManager) {
         try {
-            Connection conn = dbManager.getConnection();
-            if (conn == null) {
+            if (!dbManager.isOpen()) {
                 System.out.println("❌ No database connection available");
                 return;
             }
             
-            String sql = "SELECT ua.*, ss.start_time as session_start FROM user_activity ua " +
-                        "JOIN server_sessions ss ON ua.session_id = ss.session_id " +
-                        "ORDER BY ua.entry_time DESC";
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery(sql);
-            
-            System.out.println("=== User Activity ===");
-            System.out.printf("%-10s %-15s %-20s %-20s %-20s %-10s%n", 
-                "Activity ID", "Username", "Board", "Entry Time", "Exit Time", "Status");
-            System.out.println("--------------------------------------------------------------------------------");
+            System.out.println("=== Server Sessions ===");
+            System.out.printf("%-10s %-20s %-20s %-10s%n", "Session ID", "Start Time", "End Time", "Status");
+            System.out.println("------------------------------------------------------------");
             
             boolean hasData = false;
-            while (rs.next()) {
+            for (ActivityStore.SessionRecord session : dbManager.getSessions()) {
                 hasData = true;
-                System.out.printf("%-10d %-15s %-20s %-20s %-20s %-10s%n",
-                    rs.getInt("activity_id"),
-                    rs.getString("username"),
-                    rs.getString("board_name"),
-                    rs.getString("entry_time"),
-                    rs.getString("exit_time") != null ? rs.getString("exit_time") : "N/A",
-                    rs.getString("status")
+                System.out.printf("%-10d %-20s %-20s %-10s%n",
+                    session.getSessionId(),
+                    session.getStartTime(),
+                    session.getEndTime() != null ? session.getEndTime() : "N/A",
+                    session.getStatus()
                 );
             }
             
             if (!hasData) {
-                System.out.println("No user activity found. Connect clients to the server to see activity.");
+                System.out.println("No server sessions found. Start the server to create sessions.");
             }
             System.out.println();
             
-        } catch (SQLException e) {
-            System.err.println("Error viewing user activity: " + e.getMessage());
+        } catch (Exception e) {
+            System.err.println("Error viewing sessions: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Streams the activity a query selects through an exporter, then says
+     * how to get the next page if there may be one
+     */
+    static int showUserActivity(ActivityStore dbManager, ActivityQuery query, ActivityExporter exporter)
+            throws Exception {
+        if (!dbManager.isOpen()) {
+            System.out.println("❌ No database connection available");
+            return 0;
+        }
+        
+        exporter.begin();
+        int count = dbManager.streamUserActivity(query, exporter::write);
+        exporter.end();
+        
+        if (count == 0 && query.getBeforeId() == null) {
+            System.out.println("No user activity found. Connect clients to the server to see activity.");
+        } else if (query.getLimit() > 0 && count == query.getLimit()) {
+            System.out.println("More activity: add --before " + exporter.getLastId() + " for the next page");
         }
+        System.out.println();
+        return count;
     }
-} 
\ No newline at end of file
+}
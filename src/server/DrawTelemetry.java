@@ -0,0 +1,350 @@
+package server;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import logging.Log;
+
+/**
+ * Counts draws and the bytes they take, per board and user, without logging
+ * each draw.  Draws are added up in memory into fixed time buckets, by
+ * default five minutes long; a flusher thread hands the buckets that have
+ * ended to a Sink, by default once a minute, so the activity store gets one
+ * row per board, user and bucket however much is drawn.
+ *
+ * A draw's bytes are the length of its request line, newline included, as
+ * the server received it; what it costs to broadcast is that times the
+ * number of users on the board.  Draws from a connection that hasn't logged
+ * in are counted against the empty username.
+ *
+ * Concurrency Argument:
+ *   - buckets, and the boards and users within them, are ConcurrentHashMaps
+ *     filled with computeIfAbsent, and the counts are LongAdders, so draws
+ *     from every board's thread are counted without a lock
+ *   - only the flusher thread takes buckets out, and only GRACE milliseconds
+ *     after they end, so draws counted by threads that read the clock just
+ *     before a bucket ended are in it when it is flushed
+ *   - only the flusher thread calls the sink
+ *   - close is made concurrent via the monitor pattern
+ */
+public class DrawTelemetry implements Runnable {
+
+    private static final Log LOG = Log.get("DrawTelemetry");
+
+    public static final int DEFAULT_BUCKET_SECONDS = 300;
+    public static final long DEFAULT_FLUSH_INTERVAL = 60000;
+
+    // how long after a bucket ends it is flushed, and how long close waits
+    // for the last buckets to be written
+    private static final long GRACE = 1000;
+    private static final long CLOSE_TIMEOUT = 10000;
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * Writes the draw counts of buckets that have ended to wherever they are
+     * recorded
+     */
+    public interface Sink {
+        /**
+         * @param stats: the counts, by bucket, board and user
+         * @throws Exception if the counts could not be recorded
+         */
+        void write(List<DrawStats> stats) throws Exception;
+    }
+
+    /**
+     * The draws one user made on one board during one bucket
+     */
+    public static class DrawStats {
+        private final String bucketStart;
+        private final int bucketSeconds;
+        private final String boardName;
+        private final String username;
+        private long draws;
+        private long bytes;
+
+        /**
+         * @param bucketStart: when the bucket started, as yyyy-MM-dd HH:mm:ss
+         * @param bucketSeconds: how long the bucket is
+         * @param boardName: the board drawn on
+         * @param username: the user who drew, or "" if not known
+         * @param draws: the number of draws
+         * @param bytes: the bytes the draws took
+         */
+        public DrawStats(String bucketStart, int bucketSeconds, String boardName, String username, long draws, long bytes) {
+            this.bucketStart = bucketStart;
+            this.bucketSeconds = bucketSeconds;
+            this.boardName = boardName;
+            this.username = username;
+            this.draws = draws;
+            this.bytes = bytes;
+        }
+
+        public String getBucketStart() {
+            return bucketStart;
+        }
+
+        public int getBucketSeconds() {
+            return bucketSeconds;
+        }
+
+        public String getBoardName() {
+            return boardName;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public long getDraws() {
+            return draws;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Adds more draws by the same user on the same board in the same
+         * bucket to this
+         */
+        void add(DrawStats other) {
+            draws += other.draws;
+            bytes += other.bytes;
+        }
+    }
+
+    private static class Counter {
+        private final LongAdder draws = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+    }
+
+    /**
+     * The counts of one bucket, by board and then user
+     */
+    private static class Bucket {
+        private final long start;
+        private final ConcurrentHashMap<String, ConcurrentHashMap<String, Counter>> boards =
+                new ConcurrentHashMap<String, ConcurrentHashMap<String, Counter>>();
+
+        private Bucket(long start) {
+            this.start = start;
+        }
+    }
+
+    private final Sink sink;
+    private final int bucketSeconds;
+    private final long bucketMillis;
+    private final long flushInterval;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    // by start, in milliseconds since the epoch; the bucket draws are being
+    // counted in is cached so most draws skip the lookup
+    private final ConcurrentHashMap<Long, Bucket> buckets = new ConcurrentHashMap<Long, Bucket>();
+    private volatile Bucket current = null;
+
+    private final LongAdder recorded = new LongAdder();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Creates telemetry with the default bucket length and flush interval
+     * and starts its flusher thread
+     * @param sink: where the counts are written
+     */
+    public DrawTelemetry(Sink sink) {
+        this(sink, DEFAULT_BUCKET_SECONDS, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * Creates telemetry and starts its flusher thread
+     * @param sink: where the counts are written
+     * @param bucketSeconds: length of a bucket
+     * @param flushInterval: milliseconds between flushes of buckets that have ended
+     */
+    public DrawTelemetry(Sink sink, int bucketSeconds, long flushInterval) {
+        this.sink = sink;
+        this.bucketSeconds = bucketSeconds;
+        this.bucketMillis = bucketSeconds * 1000L;
+        this.flushInterval = flushInterval;
+        thread = new Thread(this, "Draw telemetry");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Counts a draw
+     * @param boardName: the board drawn on
+     * @param username: the user who drew, or null if not known
+     * @param bytes: the bytes the draw took
+     */
+    public void record(String boardName, String username, int bytes) {
+        long now = System.currentTimeMillis();
+        long start = now - now % bucketMillis;
+        Bucket bucket = current;
+        if (bucket == null || bucket.start != start) {
+            bucket = buckets.computeIfAbsent(start, Bucket::new);
+            current = bucket;
+        }
+        ConcurrentHashMap<String, Counter> users = bucket.boards.get(boardName);
+        if (users == null) {
+            users = bucket.boards.computeIfAbsent(boardName, name -> new ConcurrentHashMap<String, Counter>());
+        }
+        String user = username == null ? "" : username;
+        Counter counter = users.get(user);
+        if (counter == null) {
+            counter = users.computeIfAbsent(user, name -> new Counter());
+        }
+        counter.draws.increment();
+        counter.bytes.add(bytes);
+        recorded.increment();
+    }
+
+    /**
+     * Stops the flusher thread, writing every bucket, including the one in
+     * progress.  Draws counted after this are never written.
+     */
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(CLOSE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LOG.info("Draw telemetry closed: " + recorded.sum() + " draws counted, " + written.get()
+                + " rows written, " + failed.get() + " failed");
+    }
+
+    /**
+     * Flushes buckets that have ended until closed, then flushes the rest
+     */
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                Thread.sleep(flushInterval);
+                flush(System.currentTimeMillis() - GRACE);
+            }
+        } catch (InterruptedException e) {
+            // closed; everything is flushed below
+        }
+        flush(Long.MAX_VALUE);
+    }
+
+    /**
+     * Takes out every bucket ending by a time and hands their counts to the sink
+     * @param end: milliseconds since the epoch
+     */
+    private void flush(long end) {
+        // oldest bucket first, then by board and user
+        Map<Long, Bucket> ended = new TreeMap<Long, Bucket>();
+        for (Iterator<Bucket> it = buckets.values().iterator(); it.hasNext();) {
+            Bucket bucket = it.next();
+            if (end == Long.MAX_VALUE || bucket.start + bucketMillis <= end) {
+                ended.put(bucket.start, bucket);
+                it.remove();
+            }
+        }
+        List<DrawStats> stats = new ArrayList<DrawStats>();
+        for (Bucket bucket : ended.values()) {
+            String start = LocalDateTime.ofInstant(Instant.ofEpochMilli(bucket.start), ZoneId.systemDefault())
+                    .format(TIME_FORMAT);
+            for (Map.Entry<String, ConcurrentHashMap<String, Counter>> board : new TreeMap<String, ConcurrentHashMap<String, Counter>>(bucket.boards).entrySet()) {
+                for (Map.Entry<String, Counter> user : new TreeMap<String, Counter>(board.getValue()).entrySet()) {
+                    stats.add(new DrawStats(start, bucketSeconds, board.getKey(), user.getKey(),
+                            user.getValue().draws.sum(), user.getValue().bytes.sum()));
+                }
+            }
+        }
+        if (stats.isEmpty()) {
+            return;
+        }
+        try {
+            sink.write(stats);
+            written.addAndGet(stats.size());
+        } catch (Exception e) {
+            failed.addAndGet(stats.size());
+            LOG.error("Error recording draw telemetry", e);
+        }
+    }
+
+    /**
+     * @return: the number of draws counted so far
+     */
+    public long getRecorded() {
+        return recorded.sum();
+    }
+
+    /**
+     * @return: the number of rows the sink has recorded
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return: the number of rows the sink failed to record
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Describes drawing over the last hours from the recorded counts: each
+     * board's draws, bytes and busiest rate, and each user's draws and bytes
+     * @param store: the store holding the counts
+     * @param hours: how many hours back to describe
+     * @return: formatted report string
+     * @throws Exception if the store can't be read
+     */
+    public static String getReport(ActivityStore store, int hours) throws Exception {
+        LocalDateTime to = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS).plusHours(1);
+        List<DrawStats> stats = store.getDrawStats(to.minusHours(hours), to);
+
+        // totals by board and by user, and each board's draws per bucket
+        Map<String, DrawStats> boards = new TreeMap<String, DrawStats>();
+        Map<String, DrawStats> users = new TreeMap<String, DrawStats>();
+        Map<String, DrawStats> boardBuckets = new TreeMap<String, DrawStats>();
+        for (DrawStats row : stats) {
+            boards.computeIfAbsent(row.boardName, name -> new DrawStats(null, 0, name, null, 0, 0)).add(row);
+            users.computeIfAbsent(row.username, name -> new DrawStats(null, 0, null, name, 0, 0)).add(row);
+            boardBuckets.computeIfAbsent(row.boardName + "\t" + row.bucketStart,
+                    key -> new DrawStats(row.bucketStart, row.bucketSeconds, row.boardName, null, 0, 0)).add(row);
+        }
+        Map<String, Double> peakRates = new TreeMap<String, Double>();
+        for (DrawStats bucket : boardBuckets.values()) {
+            peakRates.merge(bucket.boardName, bucket.draws / (double) bucket.bucketSeconds, Math::max);
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append("Drawing over the last ").append(hours).append(" hours\n\n");
+        report.append(String.format("%-20s %10s %10s %14s%n", "Board", "Draws", "KB", "Peak draws/s"));
+        for (DrawStats board : boards.values()) {
+            report.append(String.format("%-20s %10d %10.1f %14.2f%n", board.boardName, board.draws,
+                    board.bytes / 1024.0, peakRates.get(board.boardName)));
+        }
+        report.append(String.format("%n%-20s %10s %10s%n", "User", "Draws", "KB"));
+        for (DrawStats user : users.values()) {
+            report.append(String.format("%-20s %10d %10.1f%n", user.username.isEmpty() ? "(not logged in)" : user.username,
+                    user.draws, user.bytes / 1024.0));
+        }
+        return report.toString();
+    }
+}
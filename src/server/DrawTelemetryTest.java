@@ -0,0 +1,167 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DrawTelemetryTest {
+
+    /*
+     * Testing Strategy:
+     *
+     * -draws are counted per board and user, with their bytes; draws without
+     *  a user are counted against ""
+     * -draws from many threads at once are all counted
+     * -a bucket is written once it has ended, not while in progress, and
+     *  close writes the bucket in progress
+     * -a write the sink fails is counted
+     * -the file store adds up counts for the same bucket, board and user,
+     *  keeps them across a reload, selects them by time range and clears
+     *  them; the report totals boards and users
+     */
+
+    /**
+     * Sink remembering every row written
+     */
+    private static class RecordingSink implements DrawTelemetry.Sink {
+        private final List<DrawTelemetry.DrawStats> written =
+                Collections.synchronizedList(new ArrayList<DrawTelemetry.DrawStats>());
+
+        @Override
+        public void write(List<DrawTelemetry.DrawStats> stats) {
+            written.addAll(stats);
+        }
+    }
+
+    private static DrawTelemetry.DrawStats find(List<DrawTelemetry.DrawStats> stats, String boardName, String username) {
+        long draws = 0;
+        long bytes = 0;
+        for (DrawTelemetry.DrawStats row : stats) {
+            if (row.getBoardName().equals(boardName) && row.getUsername().equals(username)) {
+                draws += row.getDraws();
+                bytes += row.getBytes();
+            }
+        }
+        return new DrawTelemetry.DrawStats(null, 0, boardName, username, draws, bytes);
+    }
+
+    @Test
+    public void countTest() throws InterruptedException {
+        RecordingSink sink = new RecordingSink();
+        DrawTelemetry telemetry = new DrawTelemetry(sink, 300, 60000);
+        telemetry.record("board1", "alice", 40);
+        telemetry.record("board1", "alice", 50);
+        telemetry.record("board1", "bob", 10);
+        telemetry.record("board2", null, 5);
+        assertEquals(4, telemetry.getRecorded());
+        assertTrue(sink.written.isEmpty());
+        telemetry.close();
+
+        assertEquals(2, find(sink.written, "board1", "alice").getDraws());
+        assertEquals(90, find(sink.written, "board1", "alice").getBytes());
+        assertEquals(1, find(sink.written, "board1", "bob").getDraws());
+        assertEquals(5, find(sink.written, "board2", "").getBytes());
+        assertEquals(300, sink.written.get(0).getBucketSeconds());
+        assertEquals(sink.written.size(), telemetry.getWritten());
+    }
+
+    @Test
+    public void concurrentTest() throws InterruptedException {
+        RecordingSink sink = new RecordingSink();
+        DrawTelemetry telemetry = new DrawTelemetry(sink, 1, 50);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final String board = "board" + (t % 2);
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    telemetry.record(board, "user" + (i % 4), 1);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        telemetry.close();
+        long draws = 0;
+        long bytes = 0;
+        for (DrawTelemetry.DrawStats row : sink.written) {
+            draws += row.getDraws();
+            bytes += row.getBytes();
+        }
+        assertEquals(160000, draws);
+        assertEquals(160000, bytes);
+        assertEquals(20000, find(sink.written, "board0", "user0").getDraws());
+    }
+
+    @Test
+    public void bucketTest() throws InterruptedException {
+        RecordingSink sink = new RecordingSink();
+        DrawTelemetry telemetry = new DrawTelemetry(sink, 1, 50);
+        telemetry.record("board1", "alice", 1);
+        // the bucket ends within a second, and is written a second after that
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sink.written.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, sink.written.size());
+        assertEquals(1, sink.written.get(0).getBucketSeconds());
+        telemetry.close();
+        assertEquals(1, sink.written.size());
+    }
+
+    @Test
+    public void failureTest() {
+        DrawTelemetry telemetry = new DrawTelemetry(stats -> {
+            throw new IOException("disk full");
+        }, 300, 60000);
+        telemetry.record("board1", "alice", 1);
+        telemetry.record("board1", "bob", 1);
+        telemetry.close();
+        assertEquals(0, telemetry.getWritten());
+        assertEquals(2, telemetry.getFailed());
+    }
+
+    @Test
+    public void storeTest() throws Exception {
+        File file = File.createTempFile("activity", ".log");
+        file.delete();
+        file.deleteOnExit();
+        FileActivityStore store = new FileActivityStore(file.getPath());
+        String now = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:00"));
+        store.writeDrawStats(Arrays.asList(
+                new DrawTelemetry.DrawStats(now, 300, "board1", "alice", 10, 400),
+                new DrawTelemetry.DrawStats(now, 300, "board\t2", "", 1, 30),
+                new DrawTelemetry.DrawStats("2020-01-01 00:00:00", 300, "board1", "alice", 99, 99)));
+        store.writeDrawStats(Collections.singletonList(new DrawTelemetry.DrawStats(now, 300, "board1", "alice", 5, 200)));
+        store.close();
+
+        FileActivityStore reopened = new FileActivityStore(file.getPath());
+        List<DrawTelemetry.DrawStats> stats = reopened.getDrawStats(LocalDateTime.now().minusHours(1), LocalDateTime.now().plusHours(1));
+        assertEquals(2, stats.size());
+        assertEquals(15, find(stats, "board1", "alice").getDraws());
+        assertEquals(600, find(stats, "board1", "alice").getBytes());
+        assertEquals(1, find(stats, "board\t2", "").getDraws());
+        assertEquals(3, reopened.getDrawStats(LocalDateTime.of(2000, 1, 1, 0, 0), LocalDateTime.now().plusHours(1)).size());
+
+        String report = DrawTelemetry.getReport(reopened, 24);
+        assertTrue(report.contains("alice"));
+        assertTrue(report.contains("(not logged in)"));
+        assertFalse(report.contains("99"));
+
+        reopened.clear();
+        assertTrue(reopened.getDrawStats(LocalDateTime.of(2000, 1, 1, 0, 0), LocalDateTime.now().plusHours(1)).isEmpty());
+        reopened.close();
+    }
+}
@@ -0,0 +1,706 @@
+package server;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+import logging.Log;
+
+/**
+ * Activity store kept in a local file, for running without MySQL.  Every
+ * change is appended to the file as one line, and the file is replayed into
+ * memory when the store is opened; queries are answered from memory.
+ *
+ * Lines are tab-separated, with tabs, newlines and backslashes in names
+ * escaped:
+ *   S id start          a server session started
+ *   E id end            a server session ended
+ *   I id session user board entry
+ *                       a user entered a board
+ *   X session user exit every active entry of the user in the session exited
+ *   H hour board visits seconds longest
+ *                       usage of a board in an hour to add to the summary
+ *   U user visits seconds longest lastSeen
+ *                       usage by a user to add to the summary
+ *   P id                the visit id, in progress, is pending
+ *   R id                the pending visit id has been rolled up
+ *   W from to           the rollup watermark moved from id from to id to;
+ *                       the H, U, P and R lines since the last W are
+ *                       applied only when their W is read, so a rollup cut
+ *                       short by a crash is not half counted, and only if
+ *                       the watermark was then still from, so a second
+ *                       rollup of the same activity is not counted twice
+ *   D bucket seconds board user draws bytes
+ *                       draws to add to the counts of a bucket, board and user
+ *   C                   everything before was cleared
+ *
+ * The file has a single writer: the store holds an exclusive lock on it
+ * while open, and a store opened while another process (or another store
+ * in this one) holds the lock only reads it, e.g. DatabaseViewer while the
+ * server is running.  Such a store leaves out a last line without its
+ * newline, as the writer may be part way through writing it.  The writer
+ * cuts such a line off when it opens the file, as a crash left it, so it is
+ * neither replayed nor joined to the next line appended.
+ *
+ * Concurrency Argument:
+ *   - This class is made concurrent by the monitor pattern.
+ */
+public class FileActivityStore implements ActivityStore {
+
+    public static final String DEFAULT_FILE = "whiteboard-activity.log";
+
+    private static final Log LOG = Log.get("FileActivityStore");
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * A row of server_sessions
+     */
+    private static class Session {
+        private final int id;
+        private final String start;
+        private String end = null;
+
+        private Session(int id, String start) {
+            this.id = id;
+            this.start = start;
+        }
+    }
+
+    /**
+     * A row of user_activity
+     */
+    private static class Entry {
+        private final int id;
+        private final int sessionId;
+        private final String username;
+        private final String boardName;
+        private final String entryTime;
+        private String exitTime = null;
+
+        private Entry(int id, int sessionId, String username, String boardName, String entryTime) {
+            this.id = id;
+            this.sessionId = sessionId;
+            this.username = username;
+            this.boardName = boardName;
+            this.entryTime = entryTime;
+        }
+    }
+
+    private final File file;
+    // the locked file and the writer appending to it, or null if the store
+    // failed to open, is closed or only reads the file
+    private FileChannel channel;
+    private BufferedWriter log;
+    private boolean readOnly = false;
+
+    // in id order
+    private final List<Session> sessions = new ArrayList<Session>();
+    private final List<Entry> entries = new ArrayList<Entry>();
+    // entries not yet exited, in id order, and the same entries by username
+    private final LinkedHashMap<Integer, Entry> active = new LinkedHashMap<Integer, Entry>();
+    private final Map<String, List<Entry>> activeByUser = new HashMap<String, List<Entry>>();
+    private int nextSessionId = 1;
+    private int nextEntryId = 1;
+    private int currentSessionId = -1;
+    // usage summaries, by hour then board and by username, the rollup
+    // watermark, the ids of the visits pending, and usage and pending lines
+    // read since the last W line
+    private final TreeMap<String, ActivityRollup.HourlyUsage> hourlyUsage = new TreeMap<String, ActivityRollup.HourlyUsage>();
+    private final Map<String, ActivityRollup.UserUsage> userUsage = new HashMap<String, ActivityRollup.UserUsage>();
+    private int rollupWatermark = 0;
+    private final TreeSet<Integer> rollupPending = new TreeSet<Integer>();
+    private final List<String[]> pendingUsage = new ArrayList<String[]>();
+    // draw counts by bucket, then board and user
+    private final TreeMap<String, DrawTelemetry.DrawStats> drawStats = new TreeMap<String, DrawTelemetry.DrawStats>();
+
+    /**
+     * Opens the store kept in a file, loading what it holds, and creating the
+     * file if it doesn't exist
+     * @param path: the file
+     */
+    public FileActivityStore(String path) {
+        file = new File(path);
+        FileChannel opened = null;
+        try {
+            opened = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            if (lock(opened)) {
+                // reads through the channel, as closing another stream on the
+                // file may release the lock
+                long whole = load(Channels.newInputStream(opened));
+                if (whole < opened.size()) {
+                    LOG.warn("Dropping " + (opened.size() - whole) + " bytes of a line cut short at the end of " + file);
+                    opened.truncate(whole);
+                }
+                opened.position(whole);
+                channel = opened;
+                log = new BufferedWriter(Channels.newWriter(opened, StandardCharsets.UTF_8.newEncoder(), -1));
+            } else {
+                opened.close();
+                try (InputStream in = new FileInputStream(file)) {
+                    load(in);
+                }
+                readOnly = true;
+                LOG.warn("Activity store " + file + " is open in another process, so is only read");
+            }
+            LOG.info("Activity store opened: " + file.getAbsolutePath() + " (" + sessions.size()
+                    + " sessions, " + entries.size() + " user activities)");
+        } catch (IOException e) {
+            LOG.error("Could not open activity store " + file + ": " + e.getMessage());
+            if (opened != null) {
+                try {
+                    opened.close();
+                } catch (IOException ignored) {
+                }
+            }
+            channel = null;
+            log = null;
+        }
+    }
+
+    /**
+     * Takes the file's exclusive lock, held until the channel is closed
+     * @return: whether the lock was taken, rather than being held by another
+     *          process or another store in this one
+     */
+    private static boolean lock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock() != null;
+        } catch (OverlappingFileLockException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Replays the file's whole lines into memory, leaving out a last line
+     * without its newline
+     * @param in: the file, read from the start; not closed
+     * @return: the number of bytes up to the end of the last whole line
+     */
+    private long load(InputStream in) throws IOException {
+        byte[] buffer = new byte[65536];
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        long read = 0;
+        long whole = 0;
+        int lineNumber = 0;
+        for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+            int start = 0;
+            for (int i = 0; i < n; i++) {
+                if (buffer[i] != '\n') {
+                    continue;
+                }
+                line.write(buffer, start, i - start);
+                lineNumber++;
+                try {
+                    apply(new String(line.toByteArray(), StandardCharsets.UTF_8).split("\t", -1));
+                } catch (RuntimeException e) {
+                    LOG.warn("Skipping unreadable line " + lineNumber + " of " + file);
+                }
+                line.reset();
+                start = i + 1;
+                whole = read + start;
+            }
+            line.write(buffer, start, n - start);
+            read += n;
+        }
+        // lines after the last W are from a rollup a crash stopped saving,
+        // so must not be applied by the next rollup's W
+        pendingUsage.clear();
+        return whole;
+    }
+
+    /**
+     * @throws IOException if the store can't be written to
+     */
+    private void checkWritable() throws IOException {
+        if (log == null) {
+            throw new IOException(readOnly ? "Activity store " + file + " is open in another process"
+                    : "Activity store not available");
+        }
+    }
+
+    /**
+     * Applies one line of the file to memory
+     */
+    private void apply(String[] fields) {
+        switch (fields[0]) {
+        case "S": {
+            Session session = new Session(Integer.parseInt(fields[1]), fields[2]);
+            sessions.add(session);
+            nextSessionId = Math.max(nextSessionId, session.id + 1);
+            break;
+        }
+        case "E": {
+            Session session = findSession(Integer.parseInt(fields[1]));
+            if (session != null) {
+                session.end = fields[2];
+            }
+            break;
+        }
+        case "I": {
+            Entry entry = new Entry(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]),
+                    unescape(fields[3]), unescape(fields[4]), fields[5]);
+            entries.add(entry);
+            active.put(entry.id, entry);
+            activeByUser.computeIfAbsent(entry.username, user -> new ArrayList<Entry>(1)).add(entry);
+            nextEntryId = Math.max(nextEntryId, entry.id + 1);
+            break;
+        }
+        case "X": {
+            int sessionId = Integer.parseInt(fields[1]);
+            String username = unescape(fields[2]);
+            List<Entry> userEntries = activeByUser.get(username);
+            if (userEntries == null) {
+                break;
+            }
+            for (Iterator<Entry> it = userEntries.iterator(); it.hasNext();) {
+                Entry entry = it.next();
+                if (entry.sessionId == sessionId) {
+                    entry.exitTime = fields[3];
+                    active.remove(entry.id);
+                    it.remove();
+                }
+            }
+            if (userEntries.isEmpty()) {
+                activeByUser.remove(username);
+            }
+            break;
+        }
+        case "H":
+        case "U":
+        case "P":
+        case "R":
+            pendingUsage.add(fields);
+            break;
+        case "W":
+            // files written before W held the id rolled up from have only
+            // the id rolled up to
+            if (fields.length < 3 || Integer.parseInt(fields[1]) == rollupWatermark) {
+                for (String[] usage : pendingUsage) {
+                    addUsage(usage);
+                }
+                rollupWatermark = Integer.parseInt(fields[fields.length - 1]);
+            } else {
+                LOG.warn("Skipping a rollup from " + fields[1] + " in " + file + ", the watermark being "
+                        + rollupWatermark);
+            }
+            pendingUsage.clear();
+            break;
+        case "D": {
+            DrawTelemetry.DrawStats stats = new DrawTelemetry.DrawStats(fields[1], Integer.parseInt(fields[2]),
+                    unescape(fields[3]), unescape(fields[4]), Long.parseLong(fields[5]), Long.parseLong(fields[6]));
+            DrawTelemetry.DrawStats counts = drawStats.putIfAbsent(
+                    stats.getBucketStart() + "\t" + stats.getBoardName() + "\t" + stats.getUsername(), stats);
+            if (counts != null) {
+                counts.add(stats);
+            }
+            break;
+        }
+        case "C":
+            sessions.clear();
+            entries.clear();
+            active.clear();
+            activeByUser.clear();
+            hourlyUsage.clear();
+            userUsage.clear();
+            rollupPending.clear();
+            pendingUsage.clear();
+            drawStats.clear();
+            nextSessionId = 1;
+            nextEntryId = 1;
+            rollupWatermark = 0;
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown record " + fields[0]);
+        }
+    }
+
+    /**
+     * Adds an H or U line's usage to the summaries, or applies a P or R
+     * line to the pending visits
+     */
+    private void addUsage(String[] fields) {
+        if (fields[0].equals("P")) {
+            rollupPending.add(Integer.parseInt(fields[1]));
+        } else if (fields[0].equals("R")) {
+            rollupPending.remove(Integer.parseInt(fields[1]));
+        } else if (fields[0].equals("H")) {
+            ActivityRollup.HourlyUsage usage = new ActivityRollup.HourlyUsage(fields[1], unescape(fields[2]),
+                    Integer.parseInt(fields[3]), Long.parseLong(fields[4]), Long.parseLong(fields[5]));
+            ActivityRollup.HourlyUsage summary = hourlyUsage.putIfAbsent(usage.getHour() + "\t" + usage.getBoardName(), usage);
+            if (summary != null) {
+                summary.add(usage);
+            }
+        } else {
+            ActivityRollup.UserUsage usage = new ActivityRollup.UserUsage(unescape(fields[1]),
+                    Integer.parseInt(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4]), fields[5]);
+            ActivityRollup.UserUsage summary = userUsage.putIfAbsent(usage.getUsername(), usage);
+            if (summary != null) {
+                summary.add(usage);
+            }
+        }
+    }
+
+    /**
+     * Appends a line to the file and applies it to memory
+     */
+    private void append(String... fields) throws IOException {
+        log.write(String.join("\t", fields));
+        log.write('\n');
+        apply(fields);
+    }
+
+    private Session findSession(int id) {
+        // ids are handed out in order, so the session is near its id's index
+        for (int i = Math.min(id, sessions.size()) - 1; i >= 0; i--) {
+            if (sessions.get(i).id == id) {
+                return sessions.get(i);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized int startServerSession() {
+        if (log == null) {
+            LOG.info("Activity store not available - skipping session tracking");
+            return -1;
+        }
+        try {
+            int id = nextSessionId;
+            append("S", Integer.toString(id), LocalDateTime.now().format(TIME_FORMAT));
+            log.flush();
+            currentSessionId = id;
+            LOG.info("Server session started with ID: " + currentSessionId);
+            return id;
+        } catch (IOException e) {
+            LOG.error("Error starting server session", e);
+            return -1;
+        }
+    }
+
+    @Override
+    public synchronized void endServerSession() {
+        if (!isAvailable()) {
+            LOG.info("Activity store not available - skipping session end tracking");
+            return;
+        }
+        try {
+            append("E", Integer.toString(currentSessionId), LocalDateTime.now().format(TIME_FORMAT));
+            log.flush();
+            LOG.info("Server session ended: " + currentSessionId);
+        } catch (IOException e) {
+            LOG.error("Error ending server session", e);
+        }
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return log != null || readOnly;
+    }
+
+    @Override
+    public synchronized boolean isReadOnly() {
+        return readOnly;
+    }
+
+    @Override
+    public synchronized boolean isAvailable() {
+        return log != null && currentSessionId != -1;
+    }
+
+    /**
+     * Records a batch of user entries and exits in order, written to the
+     * file together
+     * @param batch: the activities to record, oldest first
+     * @throws IOException if the file can't be written
+     */
+    @Override
+    public synchronized void writeActivity(List<ActivityWriter.Activity> batch) throws IOException {
+        if (!isAvailable()) {
+            return;
+        }
+        String session = Integer.toString(currentSessionId);
+        for (ActivityWriter.Activity activity : batch) {
+            String time = activity.getTime().format(TIME_FORMAT);
+            if (activity.getType() == ActivityWriter.Activity.Type.ENTRY) {
+                append("I", Integer.toString(nextEntryId), session, escape(activity.getUsername()),
+                        escape(activity.getBoardName()), time);
+            } else {
+                append("X", session, escape(activity.getUsername()), time);
+            }
+        }
+        log.flush();
+    }
+
+    @Override
+    public synchronized String getSessionStatistics() {
+        if (!isAvailable()) {
+            return "Activity store not available";
+        }
+        StringBuilder stats = new StringBuilder();
+        Session session = findSession(currentSessionId);
+        if (session != null) {
+            stats.append("Session ID: ").append(currentSessionId).append("\n");
+            stats.append("Start Time: ").append(session.start).append("\n");
+            stats.append("Status: ").append(session.end == null ? "active" : "ended").append("\n\n");
+        }
+        stats.append("Active Users:\n");
+        for (Entry entry : active.values()) {
+            if (entry.sessionId == currentSessionId) {
+                stats.append("- ").append(entry.username)
+                     .append(" (Board: ").append(entry.boardName)
+                     .append(", Joined: ").append(entry.entryTime)
+                     .append(")\n");
+            }
+        }
+        stats.append("\nActivity store: ").append(file.getPath()).append("\n");
+        return stats.toString();
+    }
+
+    @Override
+    public synchronized List<SessionRecord> getSessions() {
+        List<SessionRecord> records = new ArrayList<SessionRecord>(sessions.size());
+        for (int i = sessions.size() - 1; i >= 0; i--) {
+            Session session = sessions.get(i);
+            records.add(new SessionRecord(session.id, session.start, session.end,
+                    session.end == null ? "active" : "ended"));
+        }
+        return records;
+    }
+
+    @Override
+    public synchronized List<ActivityRecord> getUserActivity() {
+        List<ActivityRecord> records = new ArrayList<ActivityRecord>(entries.size());
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            records.add(toRecord(entries.get(i)));
+        }
+        return records;
+    }
+
+    /**
+     * Streams matching activity, newest first, or oldest first after an id.
+     * Entries are held in id order, so a page starting before or after an id
+     * begins with a binary search.
+     */
+    @Override
+    public synchronized int streamUserActivity(ActivityQuery query, Consumer<ActivityRecord> handler) {
+        int count = 0;
+        if (query.isOldestFirst()) {
+            int end = query.getBeforeId() != null ? indexOf(query.getBeforeId()) : entries.size();
+            for (int i = indexOf(query.getAfterId() + 1); i < end && (query.getLimit() <= 0 || count < query.getLimit()); i++) {
+                ActivityRecord record = toRecord(entries.get(i));
+                if (query.matches(record)) {
+                    handler.accept(record);
+                    count++;
+                }
+            }
+            return count;
+        }
+        int start = query.getBeforeId() != null ? indexOf(query.getBeforeId()) - 1 : entries.size() - 1;
+        for (int i = start; i >= 0 && (query.getLimit() <= 0 || count < query.getLimit()); i--) {
+            ActivityRecord record = toRecord(entries.get(i));
+            if (query.matches(record)) {
+                handler.accept(record);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return: the index of the first entry whose id is at least id
+     */
+    private int indexOf(int id) {
+        int low = 0;
+        int high = entries.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (entries.get(mid).id < id) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static ActivityRecord toRecord(Entry entry) {
+        return new ActivityRecord(entry.id, entry.sessionId, entry.username, entry.boardName,
+                entry.entryTime, entry.exitTime, entry.exitTime == null ? "active" : "exited");
+    }
+
+    @Override
+    public synchronized int getRollupWatermark() {
+        return rollupWatermark;
+    }
+
+    @Override
+    public synchronized List<ActivityRecord> getPendingActivity() {
+        List<ActivityRecord> records = new ArrayList<ActivityRecord>(rollupPending.size());
+        for (int id : rollupPending) {
+            int index = indexOf(id);
+            if (index < entries.size() && entries.get(index).id == id) {
+                records.add(toRecord(entries.get(index)));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Appends the rollup's usage and pending visits and then its watermark,
+     * which is what makes them count when the file is replayed
+     * @throws IOException if the file can't be written
+     */
+    @Override
+    public synchronized boolean saveRollup(ActivityRollup rollup) throws IOException {
+        checkWritable();
+        if (rollup.getFromId() != rollupWatermark || !rollupPending.containsAll(rollup.getClosed())) {
+            return false;
+        }
+        for (int id : rollup.getOpened()) {
+            append("P", Integer.toString(id));
+        }
+        for (int id : rollup.getClosed()) {
+            append("R", Integer.toString(id));
+        }
+        for (ActivityRollup.HourlyUsage usage : rollup.getHourlyUsage()) {
+            append("H", usage.getHour(), escape(usage.getBoardName()), Integer.toString(usage.getVisits()),
+                    Long.toString(usage.getUserSeconds()), Long.toString(usage.getLongestSeconds()));
+        }
+        for (ActivityRollup.UserUsage usage : rollup.getUserUsage()) {
+            append("U", escape(usage.getUsername()), Integer.toString(usage.getVisits()),
+                    Long.toString(usage.getTotalSeconds()), Long.toString(usage.getLongestSeconds()), usage.getLastSeen());
+        }
+        append("W", Integer.toString(rollup.getFromId()), Integer.toString(rollup.getToId()));
+        log.flush();
+        return true;
+    }
+
+    @Override
+    public synchronized List<ActivityRollup.HourlyUsage> getHourlyUsage(LocalDateTime from, LocalDateTime to) {
+        // keys start with the hour, so the range is a sub map; the summaries
+        // are added to as rollups are saved, so copies are returned
+        List<ActivityRollup.HourlyUsage> usage = new ArrayList<ActivityRollup.HourlyUsage>();
+        for (ActivityRollup.HourlyUsage hour : hourlyUsage.subMap(from.format(TIME_FORMAT), to.format(TIME_FORMAT)).values()) {
+            usage.add(new ActivityRollup.HourlyUsage(hour.getHour(), hour.getBoardName(), hour.getVisits(),
+                    hour.getUserSeconds(), hour.getLongestSeconds()));
+        }
+        return usage;
+    }
+
+    @Override
+    public synchronized List<ActivityRollup.UserUsage> getUserUsage(int limit) {
+        List<ActivityRollup.UserUsage> usage = new ArrayList<ActivityRollup.UserUsage>(userUsage.size());
+        for (ActivityRollup.UserUsage user : userUsage.values()) {
+            usage.add(new ActivityRollup.UserUsage(user.getUsername(), user.getVisits(), user.getTotalSeconds(),
+                    user.getLongestSeconds(), user.getLastSeen()));
+        }
+        usage.sort((a, b) -> Long.compare(b.getTotalSeconds(), a.getTotalSeconds()));
+        return usage.size() > limit ? new ArrayList<ActivityRollup.UserUsage>(usage.subList(0, limit)) : usage;
+    }
+
+    /**
+     * Appends the counts, written to the file together
+     * @throws IOException if the file can't be written
+     */
+    @Override
+    public synchronized void writeDrawStats(List<DrawTelemetry.DrawStats> stats) throws IOException {
+        checkWritable();
+        for (DrawTelemetry.DrawStats row : stats) {
+            append("D", row.getBucketStart(), Integer.toString(row.getBucketSeconds()), escape(row.getBoardName()),
+                    escape(row.getUsername()), Long.toString(row.getDraws()), Long.toString(row.getBytes()));
+        }
+        log.flush();
+    }
+
+    @Override
+    public synchronized List<DrawTelemetry.DrawStats> getDrawStats(LocalDateTime from, LocalDateTime to) {
+        List<DrawTelemetry.DrawStats> stats = new ArrayList<DrawTelemetry.DrawStats>();
+        for (DrawTelemetry.DrawStats row : drawStats.subMap(from.format(TIME_FORMAT), to.format(TIME_FORMAT)).values()) {
+            stats.add(new DrawTelemetry.DrawStats(row.getBucketStart(), row.getBucketSeconds(), row.getBoardName(),
+                    row.getUsername(), row.getDraws(), row.getBytes()));
+        }
+        return stats;
+    }
+
+    /**
+     * Deletes every session, activity, usage summary and draw count by
+     * starting the file afresh
+     * @throws IOException if the file can't be rewritten
+     */
+    @Override
+    public synchronized void clear() throws IOException {
+        checkWritable();
+        log.flush();
+        channel.truncate(0);
+        apply(new String[] {"C"});
+        currentSessionId = -1;
+    }
+
+    @Override
+    public synchronized void close() {
+        readOnly = false;
+        if (log == null) {
+            return;
+        }
+        try {
+            // closes the channel, releasing the lock
+            log.close();
+            LOG.info("Activity store closed");
+        } catch (IOException e) {
+            LOG.error("Error closing activity store: " + e.getMessage());
+        }
+        channel = null;
+        log = null;
+    }
+
+    /**
+     * Get current session ID
+     * @return session ID
+     */
+    public synchronized int getCurrentSessionId() {
+        return currentSessionId;
+    }
+
+    private static String escape(String field) {
+        return field.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String field) {
+        if (field.indexOf('\\') < 0) {
+            return field;
+        }
+        StringBuilder unescaped = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\\' && i + 1 < field.length()) {
+                char next = field.charAt(++i);
+                unescaped.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                unescaped.append(c);
+            }
+        }
+        return unescaped.toString();
+    }
+}
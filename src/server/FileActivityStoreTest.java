@@ -0,0 +1,314 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FileActivityStoreTest {
+
+    /*
+     * Testing Strategy:
+     * 
+     * -a new file has no sessions; starting one makes the store available,
+     *  ending it marks it ended
+     * -entries are active until the user exits, and an exit closes every
+     *  active entry of that user in the session only
+     * -sessions and activity are listed newest first
+     * -reopening the file restores every session and activity, continues the
+     *  ids, and skips a line cut short
+     * -a last line cut short by a crash is dropped on opening, so the next
+     *  line appended is read back whole
+     * -a store opened while another has the file open only reads it: it
+     *  leaves out, but doesn't cut off, a line being written, and refuses to
+     *  be written to; once the writer closes, the file can be written again
+     * -names containing tabs, newlines and backslashes survive a reload
+     * -clear empties the store and the file
+     * -a large batch of activity is recorded and reloaded
+     * -streamed activity is newest first, filtered by session, user, board
+     *  and time range, and paged by limit and the last id of the page before
+     */
+
+    private static File makeFile() throws IOException {
+        File file = File.createTempFile("activity", ".log");
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static ActivityWriter.Activity entry(String username, String boardName) {
+        return new ActivityWriter.Activity(ActivityWriter.Activity.Type.ENTRY, username, boardName, LocalDateTime.now());
+    }
+
+    private static ActivityWriter.Activity exit(String username) {
+        return new ActivityWriter.Activity(ActivityWriter.Activity.Type.EXIT, username, null, LocalDateTime.now());
+    }
+
+    @Test
+    public void sessionTest() throws IOException {
+        FileActivityStore store = new FileActivityStore(makeFile().getPath());
+        assertTrue(store.isOpen());
+        assertFalse(store.isAvailable());
+        assertTrue(store.getSessions().isEmpty());
+        assertEquals(1, store.startServerSession());
+        assertTrue(store.isAvailable());
+        assertEquals("active", store.getSessions().get(0).getStatus());
+        assertNull(store.getSessions().get(0).getEndTime());
+        store.endServerSession();
+        assertEquals("ended", store.getSessions().get(0).getStatus());
+        assertNotNull(store.getSessions().get(0).getEndTime());
+        store.close();
+        assertFalse(store.isOpen());
+    }
+
+    @Test
+    public void activityTest() throws IOException {
+        FileActivityStore store = new FileActivityStore(makeFile().getPath());
+        store.startServerSession();
+        store.writeActivity(Arrays.asList(entry("alice", "board1"), entry("bob", "board1"),
+                entry("alice", "board2"), exit("alice")));
+        List<ActivityStore.ActivityRecord> activity = store.getUserActivity();
+        assertEquals(3, activity.size());
+        // newest first
+        assertEquals(3, activity.get(0).getActivityId());
+        assertEquals("exited", activity.get(0).getStatus());
+        assertEquals("active", activity.get(1).getStatus());
+        assertEquals("bob", activity.get(1).getUsername());
+        assertEquals("exited", activity.get(2).getStatus());
+        assertNotNull(activity.get(2).getExitTime());
+        String stats = store.getSessionStatistics();
+        assertTrue(stats.contains("- bob (Board: board1"));
+        assertFalse(stats.contains("alice"));
+        store.close();
+    }
+
+    @Test
+    public void exitOnlyClosesCurrentSessionTest() throws IOException {
+        String path = makeFile().getPath();
+        FileActivityStore store = new FileActivityStore(path);
+        store.startServerSession();
+        store.writeActivity(Arrays.asList(entry("alice", "board1")));
+        // crashed without recording the exit
+        store.close();
+        store = new FileActivityStore(path);
+        assertEquals(2, store.startServerSession());
+        store.writeActivity(Arrays.asList(entry("alice", "board1"), exit("alice")));
+        List<ActivityStore.ActivityRecord> activity = store.getUserActivity();
+        assertEquals("exited", activity.get(0).getStatus());
+        assertEquals(2, activity.get(0).getSessionId());
+        assertEquals("active", activity.get(1).getStatus());
+        store.close();
+    }
+
+    @Test
+    public void reloadTest() throws IOException {
+        File file = makeFile();
+        FileActivityStore store = new FileActivityStore(file.getPath());
+        store.startServerSession();
+        store.writeActivity(Arrays.asList(entry("al\tice", "board\\1"), entry("bob\nby", "board2"), exit("bob\nby")));
+        store.endServerSession();
+        store.close();
+        // a line cut short by a crash
+        try (FileWriter writer = new FileWriter(file, true)) {
+            writer.write("I\t9\t");
+        }
+
+        store = new FileActivityStore(file.getPath());
+        assertEquals(1, store.getSessions().size());
+        assertEquals("ended", store.getSessions().get(0).getStatus());
+        List<ActivityStore.ActivityRecord> activity = store.getUserActivity();
+        assertEquals(2, activity.size());
+        assertEquals("bob\nby", activity.get(0).getUsername());
+        assertEquals("exited", activity.get(0).getStatus());
+        assertEquals("al\tice", activity.get(1).getUsername());
+        assertEquals("board\\1", activity.get(1).getBoardName());
+        assertEquals("active", activity.get(1).getStatus());
+        assertEquals(2, store.startServerSession());
+        store.writeActivity(Arrays.asList(entry("carol", "board1")));
+        assertEquals(3, store.getUserActivity().get(0).getActivityId());
+        store.close();
+    }
+
+    @Test
+    public void partialLineTest() throws IOException {
+        File file = makeFile();
+        FileActivityStore store = new FileActivityStore(file.getPath());
+        store.startServerSession();
+        store.writeActivity(Arrays.asList(entry("alice", "board1")));
+        store.close();
+        // a crash part way through writing an exit
+        try (FileWriter writer = new FileWriter(file, true)) {
+            writer.write("X\t1\tali");
+        }
+
+        store = new FileActivityStore(file.getPath());
+        store.startServerSession();
+        store.writeActivity(Arrays.asList(entry("bob", "board1")));
+        store.close();
+        String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        assertFalse(text.contains("X\t1\tali"));
+        assertTrue(text.endsWith("\n"));
+
+        store = new FileActivityStore(file.getPath());
+        List<ActivityStore.ActivityRecord> activity = store.getUserActivity();
+        assertEquals(2, activity.size());
+        assertEquals("bob", activity.get(0).getUsername());
+        assertEquals("board1", activity.get(0).getBoardName());
+        assertEquals("alice", activity.get(1).getUsername());
+        assertEquals("active", activity.get(1).getStatus());
+        store.close();
+    }
+
+    @Test
+    public void sharedTest() throws Exception {
+        File file = makeFile();
+        FileActivityStore writer = new FileActivityStore(file.getPath());
+        writer.startServerSession();
+        writer.writeActivity(Arrays.asList(entry("alice", "board1")));
+        // the writer part way through a line
+        try (FileWriter partial = new FileWriter(file, true)) {
+            partial.write("I\t2\t1\tbob");
+        }
+        long length = file.length();
+
+        FileActivityStore reader = new FileActivityStore(file.getPath());
+        assertTrue(reader.isOpen());
+        assertTrue(reader.isReadOnly());
+        assertFalse(writer.isReadOnly());
+        assertEquals(length, file.length());
+        assertEquals(1, reader.getUserActivity().size());
+        assertEquals("alice", reader.getUserActivity().get(0).getUsername());
+        assertEquals(-1, reader.startServerSession());
+        try {
+            reader.clear();
+            fail("cleared a file another store has open");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("another process"));
+        }
+        assertEquals(length, file.length());
+        reader.close();
+        assertFalse(reader.isOpen());
+        writer.close();
+
+        FileActivityStore reopened = new FileActivityStore(file.getPath());
+        assertFalse(reopened.isReadOnly());
+        assertEquals(1, reopened.getUserActivity().size());
+        reopened.clear();
+        assertEquals(0, file.length());
+        reopened.close();
+    }
+
+    @Test
+    public void clearTest() throws IOException {
+        File file = makeFile();
+        FileActivityStore store = new FileActivityStore(file.getPath());
+        store.startServerSession();
+        store.writeActivity(Arrays.asList(entry("alice", "board1")));
+        store.clear();
+        assertTrue(store.getSessions().isEmpty());
+        assertTrue(store.getUserActivity().isEmpty());
+        assertFalse(store.isAvailable());
+        store.close();
+        assertEquals(0, file.length());
+        store = new FileActivityStore(file.getPath());
+        assertEquals(1, store.startServerSession());
+        store.close();
+    }
+
+    @Test
+    public void manyEventsTest() throws IOException {
+        File file = makeFile();
+        FileActivityStore store = new FileActivityStore(file.getPath());
+        store.startServerSession();
+        List<ActivityWriter.Activity> batch = new ArrayList<ActivityWriter.Activity>();
+        for (int i = 0; i < 20000; i++) {
+            batch.add(entry("user" + i, "board" + (i % 10)));
+            batch.add(exit("user" + i));
+            if (batch.size() == 100) {
+                store.writeActivity(batch);
+                batch.clear();
+            }
+        }
+        store.close();
+        store = new FileActivityStore(file.getPath());
+        List<ActivityStore.ActivityRecord> activity = store.getUserActivity();
+        assertEquals(20000, activity.size());
+        for (ActivityStore.ActivityRecord record : activity) {
+            assertEquals("exited", record.getStatus());
+        }
+        store.close();
+    }
+
+    @Test
+    public void streamTest() throws IOException {
+        FileActivityStore store = new FileActivityStore(makeFile().getPath());
+        store.startServerSession();
+        List<ActivityWriter.Activity> batch = new ArrayList<ActivityWriter.Activity>();
+        for (int i = 0; i < 30; i++) {
+            batch.add(entry("user" + (i % 3), "board" + (i % 2)));
+        }
+        batch.add(new ActivityWriter.Activity(ActivityWriter.Activity.Type.ENTRY, "late", "board0",
+                LocalDateTime.of(2030, 1, 1, 12, 0)));
+        store.writeActivity(batch);
+        store.endServerSession();
+        store.startServerSession();
+        store.writeActivity(Arrays.asList(entry("user0", "board0")));
+
+        final List<ActivityStore.ActivityRecord> streamed = new ArrayList<ActivityStore.ActivityRecord>();
+        assertEquals(32, store.streamUserActivity(new ActivityQuery(), streamed::add));
+        for (int i = 0; i < 32; i++) {
+            assertEquals(32 - i, streamed.get(i).getActivityId());
+        }
+
+        streamed.clear();
+        assertEquals(10, store.streamUserActivity(new ActivityQuery().session(1).user("user0"), streamed::add));
+        for (ActivityStore.ActivityRecord record : streamed) {
+            assertEquals("user0", record.getUsername());
+            assertEquals(1, record.getSessionId());
+            assertEquals("board" + ((record.getActivityId() - 1) % 2), record.getBoardName());
+        }
+
+        streamed.clear();
+        assertEquals(6, store.streamUserActivity(new ActivityQuery().user("user0").board("board0"), streamed::add));
+
+        streamed.clear();
+        store.streamUserActivity(new ActivityQuery().from(LocalDateTime.of(2030, 1, 1, 0, 0)), streamed::add);
+        assertEquals(1, streamed.size());
+        assertEquals("late", streamed.get(0).getUsername());
+        streamed.clear();
+        assertEquals(31, store.streamUserActivity(new ActivityQuery().to(LocalDateTime.of(2030, 1, 1, 0, 0)), streamed::add));
+
+        // pages of 7, each continuing before the last id of the one before
+        List<Integer> ids = new ArrayList<Integer>();
+        Integer before = null;
+        while (true) {
+            streamed.clear();
+            ActivityQuery page = new ActivityQuery().limit(7);
+            if (before != null) {
+                page.before(before);
+            }
+            int count = store.streamUserActivity(page, streamed::add);
+            for (ActivityStore.ActivityRecord record : streamed) {
+                ids.add(record.getActivityId());
+            }
+            if (count < 7) {
+                break;
+            }
+            before = streamed.get(count - 1).getActivityId();
+        }
+        assertEquals(32, ids.size());
+        for (int i = 0; i < 32; i++) {
+            assertEquals(32 - i, (int) ids.get(i));
+        }
+        store.close();
+    }
+}
@@ -0,0 +1,344 @@
+package server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the server's metrics: counters, gauges and latency histograms,
+ * each optionally labelled, e.g. messages in by verb.  Metrics are written
+ * out in the Prometheus text format by scrape(), which MetricsEndpoint
+ * serves over HTTP, and as a summary for reading by getSummary(), which
+ * ServerGUI shows.
+ *
+ * Counters and histograms are updated where things happen; gauges, and
+ * counters kept elsewhere, are functions read when the metrics are written
+ * out, so they cost nothing until then.
+ *
+ * Concurrency Argument:
+ *   - metrics and their labelled series are registered in
+ *     ConcurrentSkipListMaps, so they are found and added without a lock
+ *     and written out in name order
+ *   - counters and histogram buckets are LongAdders and DoubleAdders, so
+ *     any number of threads update them without a lock; a scrape during
+ *     updates may see a histogram's count and sum a few observations apart
+ */
+public class Metrics {
+
+    // upper bounds in seconds of the buckets of a latency histogram
+    public static final double[] LATENCY_BUCKETS = {
+        0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5
+    };
+
+    /**
+     * A count that only goes up
+     */
+    public static class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void inc() {
+            value.increment();
+        }
+
+        /**
+         * @param n: how much to add, at least 0
+         */
+        public void add(long n) {
+            value.add(n);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * Observations, e.g. latencies in seconds, counted in buckets by upper bound
+     */
+    public static class Histogram {
+        private final double[] bounds;
+        // counts[i] holds observations in (bounds[i - 1], bounds[i]]; the
+        // last holds those above every bound
+        private final LongAdder[] counts;
+        private final DoubleAdder sum = new DoubleAdder();
+
+        private Histogram(double[] bounds) {
+            this.bounds = bounds.clone();
+            counts = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * @param value: the observation, e.g. seconds taken
+         */
+        public void observe(double value) {
+            int bucket = 0;
+            while (bucket < bounds.length && value > bounds[bucket]) {
+                bucket++;
+            }
+            counts[bucket].increment();
+            sum.add(value);
+        }
+
+        /**
+         * Observes the seconds since a start time
+         * @param startNanos: System.nanoTime() at the start
+         */
+        public void observeSince(long startNanos) {
+            observe((System.nanoTime() - startNanos) / 1e9);
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (LongAdder bucket : counts) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        public double getSum() {
+            return sum.sum();
+        }
+
+        /**
+         * @param q: the quantile, e.g. 0.99
+         * @return: the upper bound of the bucket holding the quantile, an
+         *          overestimate by at most the bucket's width; infinity if
+         *          it is above every bound, 0 if nothing was observed
+         */
+        public double getQuantile(double q) {
+            long[] snapshot = new long[counts.length];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                snapshot[i] = counts[i].sum();
+                total += snapshot[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(q * total);
+            long seen = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return bounds[i];
+                }
+            }
+            return Double.POSITIVE_INFINITY;
+        }
+    }
+
+    /**
+     * A metric's series, by their labels as written out, e.g. {verb="draw"}
+     */
+    private static class Family {
+        private final String name;
+        private final String help;
+        private final String type;
+        // Counter, Histogram or DoubleSupplier
+        private final ConcurrentSkipListMap<String, Object> series = new ConcurrentSkipListMap<String, Object>();
+
+        private Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private final ConcurrentSkipListMap<String, Family> families = new ConcurrentSkipListMap<String, Family>();
+
+    /**
+     * Gets a counter, registering it the first time
+     * @param name: the metric's name, e.g. whiteboard_messages_in_total
+     * @param help: what it counts
+     * @param labels: label names and values in turn, e.g. "verb", "draw"
+     * @return: the counter
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) series(name, help, "counter", labels, () -> new Counter());
+    }
+
+    /**
+     * Registers a counter kept elsewhere, read when metrics are written out,
+     * replacing any registered with the same labels
+     * @param name: the metric's name
+     * @param help: what it counts
+     * @param value: reads the count
+     * @param labels: label names and values in turn
+     */
+    public void counter(String name, String help, LongSupplier value, String... labels) {
+        family(name, help, "counter").series.put(labels(labels), (DoubleSupplier) () -> value.getAsLong());
+    }
+
+    /**
+     * Registers a gauge, read when metrics are written out, replacing any
+     * registered with the same labels
+     * @param name: the metric's name, e.g. whiteboard_connections
+     * @param help: what it measures
+     * @param value: reads the value
+     * @param labels: label names and values in turn
+     */
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "gauge").series.put(labels(labels), value);
+    }
+
+    /**
+     * Gets a histogram, registering it the first time
+     * @param name: the metric's name, e.g. whiteboard_broadcast_seconds
+     * @param help: what it observes
+     * @param bounds: the buckets' upper bounds, ascending; ignored if the
+     *                histogram is already registered
+     * @param labels: label names and values in turn
+     * @return: the histogram
+     */
+    public Histogram histogram(String name, String help, double[] bounds, String... labels) {
+        return (Histogram) series(name, help, "histogram", labels, () -> new Histogram(bounds));
+    }
+
+    private Object series(String name, String help, String type, String[] labels, Supplier<Object> create) {
+        Family family = family(name, help, type);
+        String key = labels(labels);
+        Object series = family.series.get(key);
+        if (series == null) {
+            series = family.series.computeIfAbsent(key, k -> create.get());
+        }
+        return series;
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.get(name);
+        if (family == null) {
+            family = families.computeIfAbsent(name, n -> new Family(n, help, type));
+        }
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is a " + family.type + ", not a " + type);
+        }
+        return family;
+    }
+
+    /**
+     * @return: labels as written out, e.g. {board="board1",verb="draw"}, or
+     *          "" for none
+     */
+    private static String labels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be names and values in turn");
+        }
+        if (labels.length == 0) {
+            return "";
+        }
+        StringBuilder text = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                text.append(',');
+            }
+            text.append(labels[i]).append("=\"")
+                .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                .append('"');
+        }
+        return text.append('}').toString();
+    }
+
+    /**
+     * Writes every metric out in the Prometheus text format
+     * @return: the metrics, one sample per line
+     */
+    public String scrape() {
+        StringBuilder text = new StringBuilder();
+        for (Family family : families.values()) {
+            text.append("# HELP ").append(family.name).append(' ')
+                .append(family.help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+            text.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> series : family.series.entrySet()) {
+                String labels = series.getKey();
+                Object metric = series.getValue();
+                if (metric instanceof Histogram) {
+                    Histogram histogram = (Histogram) metric;
+                    long cumulative = 0;
+                    for (int i = 0; i <= histogram.bounds.length; i++) {
+                        cumulative += histogram.counts[i].sum();
+                        String le = i < histogram.bounds.length ? format(histogram.bounds[i]) : "+Inf";
+                        text.append(family.name).append("_bucket").append(withLabel(labels, "le", le))
+                            .append(' ').append(cumulative).append('\n');
+                    }
+                    text.append(family.name).append("_sum").append(labels).append(' ')
+                        .append(format(histogram.getSum())).append('\n');
+                    text.append(family.name).append("_count").append(labels).append(' ')
+                        .append(cumulative).append('\n');
+                } else {
+                    Double value = read(metric);
+                    if (value != null) {
+                        text.append(family.name).append(labels).append(' ').append(format(value)).append('\n');
+                    }
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Describes every metric for reading: counters and gauges with their
+     * values, histograms with their count, mean and 99th percentile
+     * @return: formatted summary string
+     */
+    public String getSummary() {
+        StringBuilder text = new StringBuilder();
+        for (Family family : families.values()) {
+            for (Map.Entry<String, Object> series : family.series.entrySet()) {
+                Object metric = series.getValue();
+                text.append(family.name).append(series.getKey()).append(": ");
+                if (metric instanceof Histogram) {
+                    Histogram histogram = (Histogram) metric;
+                    long count = histogram.getCount();
+                    text.append(String.format("%d, mean %.3f ms, p99 <= %s ms", count,
+                            count == 0 ? 0 : histogram.getSum() / count * 1000,
+                            format(histogram.getQuantile(0.99) * 1000)));
+                } else {
+                    Double value = read(metric);
+                    text.append(value == null ? "?" : format(value));
+                }
+                text.append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return: a counter's or function's value, or null if the function failed
+     */
+    private static Double read(Object metric) {
+        if (metric instanceof Counter) {
+            return (double) ((Counter) metric).get();
+        }
+        try {
+            return ((DoubleSupplier) metric).getAsDouble();
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String withLabel(String labels, String name, String value) {
+        String label = name + "=\"" + value + "\"";
+        return labels.isEmpty() ? "{" + label + "}" : labels.substring(0, labels.length() - 1) + "," + label + "}";
+    }
+
+    /**
+     * @return: a value as Prometheus writes it: whole numbers without a
+     *          fraction, and +Inf for infinity
+     */
+    static String format(double value) {
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
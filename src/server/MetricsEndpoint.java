@@ -0,0 +1,88 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves a metrics registry in the Prometheus text format at /metrics, over
+ * HTTP on the loopback interface only, so the metrics can be scraped or
+ * read with curl on the server's machine without being open to clients.
+ * Uses the JDK's built-in HTTP server; scrapes are answered one at a time
+ * on a daemon thread.
+ */
+public class MetricsEndpoint {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer http;
+    private final ExecutorService executor;
+
+    /**
+     * Starts serving the metrics
+     * @param metrics: the registry to serve
+     * @param port: the port to listen on, or 0 for any free port
+     * @throws IOException if the port can't be listened on
+     */
+    public MetricsEndpoint(Metrics metrics, int port) throws IOException {
+        http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Metrics endpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        http.createContext("/metrics", exchange -> respond(exchange, metrics));
+        http.setExecutor(executor);
+        http.start();
+    }
+
+    private static void respond(HttpExchange exchange, Metrics metrics) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return: the port the metrics are served on
+     */
+    public int getPort() {
+        return http.getAddress().getPort();
+    }
+
+    /**
+     * @return: the URL the metrics are served at
+     */
+    public String getUrl() {
+        return "http://" + http.getAddress().getHostString() + ":" + getPort() + "/metrics";
+    }
+
+    /**
+     * Stops serving the metrics
+     */
+    public void close() {
+        http.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,134 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class MetricsTest {
+
+    /*
+     * Testing Strategy:
+     *
+     * -counters, with and without labels, written out with HELP and TYPE
+     *  once per metric and series in label order; the same name and labels
+     *  give the same counter
+     * -counters kept elsewhere and gauges are read when written out; a gauge
+     *  that fails is left out
+     * -label values with quotes, backslashes and newlines are escaped
+     * -registering a name as another type fails
+     * -histograms write cumulative buckets, +Inf, sum and count; quantiles
+     *  are bucket upper bounds, infinity above every bound, 0 when empty
+     * -the summary shows counters, gauges and histograms
+     * -the endpoint serves the scrape over HTTP, and refuses other methods
+     */
+
+    @Test
+    public void counterTest() {
+        Metrics metrics = new Metrics();
+        Metrics.Counter draw = metrics.counter("whiteboard_messages_in_total", "Requests received", "verb", "draw");
+        draw.inc();
+        draw.add(2);
+        metrics.counter("whiteboard_messages_in_total", "Requests received", "verb", "check").inc();
+        assertSame(draw, metrics.counter("whiteboard_messages_in_total", "Requests received", "verb", "draw"));
+        metrics.counter("whiteboard_connections_total", "Connections accepted").inc();
+
+        assertEquals("# HELP whiteboard_connections_total Connections accepted\n"
+                + "# TYPE whiteboard_connections_total counter\n"
+                + "whiteboard_connections_total 1\n"
+                + "# HELP whiteboard_messages_in_total Requests received\n"
+                + "# TYPE whiteboard_messages_in_total counter\n"
+                + "whiteboard_messages_in_total{verb=\"check\"} 1\n"
+                + "whiteboard_messages_in_total{verb=\"draw\"} 3\n", metrics.scrape());
+    }
+
+    @Test
+    public void functionTest() {
+        Metrics metrics = new Metrics();
+        AtomicLong written = new AtomicLong(5);
+        metrics.counter("whiteboard_activity_written_total", "Activity written", written::get);
+        metrics.gauge("whiteboard_lag_seconds", "Lag", () -> 0.25);
+        metrics.gauge("whiteboard_board_users", "Users", () -> {
+            throw new IllegalStateException("board gone");
+        }, "board", "board1");
+        written.set(7);
+
+        String scrape = metrics.scrape();
+        assertTrue(scrape.contains("whiteboard_activity_written_total 7\n"));
+        assertTrue(scrape.contains("# TYPE whiteboard_lag_seconds gauge\nwhiteboard_lag_seconds 0.25\n"));
+        assertFalse(scrape.contains("whiteboard_board_users{"));
+        assertTrue(metrics.getSummary().contains("whiteboard_board_users{board=\"board1\"}: ?"));
+    }
+
+    @Test
+    public void escapeTest() {
+        Metrics metrics = new Metrics();
+        metrics.gauge("whiteboard_board_commands", "Commands", () -> 1, "board", "my \"board\"\\\n");
+        assertTrue(metrics.scrape().contains("whiteboard_board_commands{board=\"my \\\"board\\\"\\\\\\n\"} 1\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void typeTest() {
+        Metrics metrics = new Metrics();
+        metrics.counter("whiteboard_users", "Users");
+        metrics.gauge("whiteboard_users", "Users", () -> 1);
+    }
+
+    @Test
+    public void histogramTest() {
+        Metrics metrics = new Metrics();
+        Metrics.Histogram histogram = metrics.histogram("whiteboard_request_seconds", "Request time",
+                new double[] {0.001, 0.01, 0.1}, "verb", "draw");
+        assertEquals(0, histogram.getQuantile(0.5), 0);
+        histogram.observe(0.0005);
+        histogram.observe(0.001);
+        histogram.observe(0.005);
+        histogram.observe(2);
+
+        assertEquals(4, histogram.getCount());
+        assertEquals(2.0065, histogram.getSum(), 1e-9);
+        assertEquals(0.001, histogram.getQuantile(0.5), 0);
+        assertEquals(0.01, histogram.getQuantile(0.75), 0);
+        assertEquals(Double.POSITIVE_INFINITY, histogram.getQuantile(0.99), 0);
+
+        String scrape = metrics.scrape();
+        assertTrue(scrape.contains("# TYPE whiteboard_request_seconds histogram\n"
+                + "whiteboard_request_seconds_bucket{verb=\"draw\",le=\"0.001\"} 2\n"
+                + "whiteboard_request_seconds_bucket{verb=\"draw\",le=\"0.01\"} 3\n"
+                + "whiteboard_request_seconds_bucket{verb=\"draw\",le=\"0.1\"} 3\n"
+                + "whiteboard_request_seconds_bucket{verb=\"draw\",le=\"+Inf\"} 4\n"
+                + "whiteboard_request_seconds_sum{verb=\"draw\"} 2.0065\n"
+                + "whiteboard_request_seconds_count{verb=\"draw\"} 4\n"));
+        assertTrue(metrics.getSummary().startsWith("whiteboard_request_seconds{verb=\"draw\"}: 4, mean "));
+    }
+
+    @Test
+    public void endpointTest() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.counter("whiteboard_connections_total", "Connections accepted").add(3);
+        MetricsEndpoint endpoint = new MetricsEndpoint(metrics, 0);
+        try {
+            assertTrue(endpoint.getPort() > 0);
+            HttpURLConnection connection = (HttpURLConnection) new URL(endpoint.getUrl()).openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertTrue(connection.getContentType().startsWith("text/plain; version=0.0.4"));
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream in = connection.getInputStream()) {
+                in.transferTo(body);
+            }
+            assertEquals(metrics.scrape(), body.toString(StandardCharsets.UTF_8.name()));
+
+            HttpURLConnection post = (HttpURLConnection) new URL(endpoint.getUrl()).openConnection();
+            post.setRequestMethod("POST");
+            assertEquals(405, post.getResponseCode());
+        } finally {
+            endpoint.close();
+        }
+    }
+}
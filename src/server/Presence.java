@@ -0,0 +1,254 @@
+package server;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live model of who is on the server: every logged in user, the board they
+ * are on and when they joined it, and how fast each board is being drawn on.
+ * Kept in memory and updated as users log in, switch boards, exit and draw,
+ * so statistics about the live session never need the activity store, which
+ * is left for history.
+ *
+ * Concurrency Argument:
+ *   - members are indexed by username in a ConcurrentHashMap; a login claims
+ *     its username with putIfAbsent, so usernames stay unique without a lock
+ *   - Members are immutable, and replaced whole when a user switches boards
+ *   - draw counts are LongAdders and per-second AtomicLongArray buckets, so
+ *     draws from every board's sequencer are counted without a lock; a
+ *     bucket being reused for a new second may lose the odd draw counted
+ *     concurrently, which only makes the rate approximate
+ */
+public class Presence {
+
+    // seconds of draws kept to work out rates
+    public static final int RATE_WINDOW = 60;
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * A logged in user
+     */
+    public static class Member {
+        private final String username;
+        private final String boardName;
+        private final LocalDateTime loggedIn;
+        private final LocalDateTime joinedBoard;
+
+        private Member(String username, String boardName, LocalDateTime loggedIn, LocalDateTime joinedBoard) {
+            this.username = username;
+            this.boardName = boardName;
+            this.loggedIn = loggedIn;
+            this.joinedBoard = joinedBoard;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getBoardName() {
+            return boardName;
+        }
+
+        /**
+         * @return: when the user logged in
+         */
+        public LocalDateTime getLoggedIn() {
+            return loggedIn;
+        }
+
+        /**
+         * @return: when the user moved to the board they are on
+         */
+        public LocalDateTime getJoinedBoard() {
+            return joinedBoard;
+        }
+    }
+
+    /**
+     * Draws made on one board, in total and over the last RATE_WINDOW seconds
+     */
+    private static class DrawCounter {
+        private final LongAdder total = new LongAdder();
+        private final AtomicLongArray counts = new AtomicLongArray(RATE_WINDOW);
+        private final AtomicLongArray seconds = new AtomicLongArray(RATE_WINDOW);
+
+        private void record(long second) {
+            total.increment();
+            int bucket = (int) (second % RATE_WINDOW);
+            long bucketSecond = seconds.get(bucket);
+            if (bucketSecond != second && seconds.compareAndSet(bucket, bucketSecond, second)) {
+                counts.set(bucket, 0);
+            }
+            counts.incrementAndGet(bucket);
+        }
+
+        /**
+         * @return: draws per second over the window seconds before second
+         */
+        private double rate(long second, int window) {
+            long sum = 0;
+            for (int i = 0; i < RATE_WINDOW; i++) {
+                long age = second - seconds.get(i);
+                if (age >= 0 && age < window) {
+                    sum += counts.get(i);
+                }
+            }
+            return sum / (double) window;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Member> members = new ConcurrentHashMap<String, Member>();
+    private final ConcurrentHashMap<String, DrawCounter> draws = new ConcurrentHashMap<String, DrawCounter>();
+    private final LocalDateTime started = LocalDateTime.now();
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * Logs a user in, unless the username is taken
+     * @param username: the user
+     * @param boardName: the board they enter
+     * @return: whether the user was logged in, false if the username is taken
+     */
+    public boolean join(String username, String boardName) {
+        LocalDateTime now = LocalDateTime.now();
+        return members.putIfAbsent(username, new Member(username, boardName, now, now)) == null;
+    }
+
+    /**
+     * Logs a user in, replacing anyone already logged in with the username
+     * @param username: the user
+     * @param boardName: the board they enter
+     */
+    public void enter(String username, String boardName) {
+        LocalDateTime now = LocalDateTime.now();
+        members.put(username, new Member(username, boardName, now, now));
+    }
+
+    /**
+     * Moves a logged in user to another board
+     * @param username: the user
+     * @param boardName: the board they move to
+     */
+    public void switchBoard(String username, String boardName) {
+        LocalDateTime now = LocalDateTime.now();
+        members.computeIfPresent(username,
+                (name, member) -> new Member(name, boardName, member.loggedIn, now));
+    }
+
+    /**
+     * Logs a user out
+     * @param username: the user
+     * @return: the board the user was on, or null if they weren't logged in
+     */
+    public String leave(String username) {
+        Member member = members.remove(username);
+        return member == null ? null : member.boardName;
+    }
+
+    /**
+     * @param username: the user to look up
+     * @return: the user, or null if they aren't logged in
+     */
+    public Member getMember(String username) {
+        return members.get(username);
+    }
+
+    /**
+     * @return: a live view of every logged in user
+     */
+    public Collection<Member> getMembers() {
+        return Collections.unmodifiableCollection(members.values());
+    }
+
+    /**
+     * Counts a draw made on a board
+     * @param boardName: the board drawn on
+     */
+    public void drew(String boardName) {
+        DrawCounter counter = draws.get(boardName);
+        if (counter == null) {
+            counter = draws.computeIfAbsent(boardName, name -> new DrawCounter());
+        }
+        counter.record(currentSecond());
+    }
+
+    /**
+     * @param boardName: the board
+     * @return: the number of draws made on the board this session
+     */
+    public long getDrawCount(String boardName) {
+        DrawCounter counter = draws.get(boardName);
+        return counter == null ? 0 : counter.total.sum();
+    }
+
+    /**
+     * @param boardName: the board
+     * @param window: seconds to average over, from 1 to RATE_WINDOW; the
+     *                second in progress is included
+     * @return: draws per second made on the board over the last window seconds
+     */
+    public double getDrawRate(String boardName, int window) {
+        DrawCounter counter = draws.get(boardName);
+        return counter == null ? 0 : counter.rate(currentSecond(), Math.max(1, Math.min(window, RATE_WINDOW)));
+    }
+
+    /**
+     * @return: when this session started
+     */
+    public LocalDateTime getStarted() {
+        return started;
+    }
+
+    private long currentSecond() {
+        return (System.nanoTime() - startNanos) / 1000000000L;
+    }
+
+    /**
+     * Describes the live session: the users on each board, when they joined,
+     * and how fast each board is drawn on
+     * @return: formatted statistics string
+     */
+    public String getStatistics() {
+        // boards with users or draws, by name, each with its users by join time
+        Map<String, List<Member>> boards = new TreeMap<String, List<Member>>();
+        for (Member member : members.values()) {
+            boards.computeIfAbsent(member.boardName, name -> new ArrayList<Member>()).add(member);
+        }
+        for (String boardName : draws.keySet()) {
+            boards.computeIfAbsent(boardName, name -> new ArrayList<Member>());
+        }
+        int users = 0;
+        for (List<Member> boardMembers : boards.values()) {
+            boardMembers.sort(Comparator.comparing(Member::getJoinedBoard));
+            users += boardMembers.size();
+        }
+
+        Duration uptime = Duration.ofNanos(System.nanoTime() - startNanos);
+        StringBuilder stats = new StringBuilder();
+        stats.append("Started: ").append(started.format(TIME_FORMAT)).append(String.format(
+                " (up %dh %02dm %02ds)%n", uptime.toHours(), uptime.toMinutesPart(), uptime.toSecondsPart()));
+        stats.append("Active Users: ").append(users).append("\n\n");
+        for (Map.Entry<String, List<Member>> board : boards.entrySet()) {
+            stats.append(String.format("Board %s: %d users, %.1f draws/s (last minute), %d draws%n",
+                    board.getKey(), board.getValue().size(), getDrawRate(board.getKey(), RATE_WINDOW),
+                    getDrawCount(board.getKey())));
+            for (Member member : board.getValue()) {
+                stats.append("- ").append(member.username)
+                     .append(" (Joined: ").append(member.joinedBoard.format(TIME_FORMAT))
+                     .append(")\n");
+            }
+        }
+        return stats.toString();
+    }
+}
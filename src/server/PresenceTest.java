@@ -0,0 +1,125 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PresenceTest {
+
+    /*
+     * Testing Strategy:
+     * 
+     * -join claims a username once; enter replaces whoever had it
+     * -switching boards moves the user and updates when they joined the
+     *  board, but not when they logged in; switching a user who isn't
+     *  logged in does nothing
+     * -leave returns the user's board, or null if they weren't logged in
+     * -draws are counted per board, in total and as a rate over the window,
+     *  including draws counted from many threads at once
+     * -statistics list each board's users and draws, and leave out users
+     *  who have left
+     * -the server answers its session statistics from presence
+     */
+
+    @Test
+    public void joinTest() {
+        Presence presence = new Presence();
+        assertTrue(presence.join("alice", "board1"));
+        assertFalse(presence.join("alice", "board2"));
+        assertEquals("board1", presence.getMember("alice").getBoardName());
+        presence.enter("alice", "board2");
+        assertEquals("board2", presence.getMember("alice").getBoardName());
+        assertEquals(1, presence.getMembers().size());
+    }
+
+    @Test
+    public void switchBoardTest() throws InterruptedException {
+        Presence presence = new Presence();
+        presence.join("alice", "board1");
+        Presence.Member before = presence.getMember("alice");
+        Thread.sleep(1100);
+        presence.switchBoard("alice", "board2");
+        Presence.Member after = presence.getMember("alice");
+        assertEquals("board2", after.getBoardName());
+        assertEquals(before.getLoggedIn(), after.getLoggedIn());
+        assertTrue(after.getJoinedBoard().isAfter(before.getJoinedBoard()));
+        presence.switchBoard("bob", "board2");
+        assertNull(presence.getMember("bob"));
+    }
+
+    @Test
+    public void leaveTest() {
+        Presence presence = new Presence();
+        presence.join("alice", "board1");
+        assertEquals("board1", presence.leave("alice"));
+        assertNull(presence.leave("alice"));
+        assertNull(presence.getMember("alice"));
+        assertTrue(presence.join("alice", "board2"));
+    }
+
+    @Test
+    public void drawCountTest() throws InterruptedException {
+        final Presence presence = new Presence();
+        assertEquals(0, presence.getDrawCount("board1"));
+        assertEquals(0, presence.getDrawRate("board1", 10), 0);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        presence.drew("board1");
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        presence.drew("board2");
+        assertEquals(40000, presence.getDrawCount("board1"));
+        assertEquals(1, presence.getDrawCount("board2"));
+        // every draw was made in the last couple of seconds, well inside the window
+        assertEquals(40000 / (double) Presence.RATE_WINDOW,
+                presence.getDrawRate("board1", Presence.RATE_WINDOW), 40000 * 0.01);
+        assertEquals(1 / (double) Presence.RATE_WINDOW, presence.getDrawRate("board2", Presence.RATE_WINDOW), 1e-9);
+    }
+
+    @Test
+    public void statisticsTest() {
+        Presence presence = new Presence();
+        presence.join("alice", "board1");
+        presence.join("bob", "board1");
+        presence.join("carol", "board2");
+        presence.leave("carol");
+        presence.drew("board1");
+        presence.drew("board3");
+        String stats = presence.getStatistics();
+        assertTrue(stats.contains("Active Users: 2"));
+        assertTrue(stats.contains("Board board1: 2 users"));
+        assertTrue(stats.contains("- alice (Joined: "));
+        assertTrue(stats.contains("- bob (Joined: "));
+        assertTrue(stats.contains("Board board3: 0 users"));
+        assertFalse(stats.contains("carol"));
+        assertFalse(stats.contains("board2"));
+    }
+
+    @Test
+    public void serverStatisticsTest() throws Exception {
+        Server server = new Server(0);
+        server.newBoard("board1");
+        assertTrue(server.checkUser("alice", "board1"));
+        server.submitDraw("board1", new command.Command("draw board1 drawLineSegment 1 2 3 4 0 1.0".split(" ")), null, null).join();
+        String stats = server.getSessionStatistics();
+        assertTrue(stats.contains("Board board1: 1 users"));
+        assertTrue(stats.contains("1 draws"));
+        assertTrue(stats.contains("- alice"));
+        server.exit("alice");
+        assertFalse(server.getSessionStatistics().contains("alice"));
+        server.shutDown();
+    }
+}
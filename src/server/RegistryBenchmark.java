@@ -0,0 +1,88 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures throughput of the server's board registry and login paths under
+ * contention.  Each thread runs a mix of board listings, board creations and
+ * logins followed by exits, as many clients connecting and browsing boards
+ * at once would.  No clients connect; the Server's methods are called directly.
+ *
+ * Usage: RegistryBenchmark [operations per thread] [thread counts...]
+ *        (default 20000 1 2 4 8 16)
+ */
+public class RegistryBenchmark {
+
+    private static final int BOARDS = 200;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int[] threadCounts = {1, 2, 4, 8, 16};
+        if (args.length > 1) {
+            threadCounts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                threadCounts[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        // the server logs every login and exit; keep that out of the measurements
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Server server = new Server(0);
+        for (int i = 0; i < BOARDS; i++) {
+            server.newBoard("board" + i);
+        }
+
+        // warm up before measuring
+        run(server, 4, operations / 4, "warmup");
+
+        console.printf("%-10s %-14s%n", "Threads", "Ops/ms");
+        for (int threads : threadCounts) {
+            long start = System.nanoTime();
+            run(server, threads, operations, "t" + threads);
+            double millis = (System.nanoTime() - start) / 1e6;
+            console.printf("%-10d %-14.1f%n", threads, threads * (double) operations / millis);
+        }
+        server.close();
+        System.exit(0);
+    }
+
+    /**
+     * Runs operations mixed operations on each of threads threads
+     * @param prefix: distinguishes the users and boards made by this run
+     */
+    private static void run(final Server server, int threads, final int operations, final String prefix)
+            throws InterruptedException {
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    Random random = new Random(id);
+                    for (int i = 0; i < operations; i++) {
+                        int choice = random.nextInt(1000);
+                        if (choice < 800) {
+                            server.getBoards();
+                        } else if (choice < 801) {
+                            server.newBoard(prefix + "b" + id + "x" + i);
+                        } else {
+                            String username = prefix + "u" + id + "x" + i;
+                            server.checkUser(username, "board" + random.nextInt(BOARDS));
+                            server.exit(username);
+                        }
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+}
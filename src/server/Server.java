@@ -5,15 +5,19 @@ import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.Arrays;
-import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 import command.Command;
+import logging.Log;
 import server.ServerGUI;
-import server.DatabaseManager;
 
 
 /**
@@ -21,22 +25,79 @@ import server.DatabaseManager;
  * 
  * Concurrency Argument:
  *   - All board objects are thread safe (see Board.java)
- *   - All methods that modify this objects data representation are 
- *     made concurrent via the monitor pattern
+ *   - Boards are registered in a ConcurrentHashMap with putIfAbsent, so
+ *     creating, finding and listing boards takes no lock on the server
+ *   - The board listing is a copy-on-write string, rebuilt under
+ *     boardNamesLock only when a board is created
+ *   - Every logged in user and their board is indexed in presence, the
+ *     live session model (see Presence.java); a login claims its username
+ *     with putIfAbsent, so uniqueness checks, exits and board lookups take
+ *     no lock and don't scan the boards
+ *   - Draws are appended and broadcast by each board's BoardSequencer, the
+ *     only thread writing that board's draws (see BoardSequencer.java)
+ *   - Connected clients are registered in a ConcurrentHashMap from socket to
+ *     the connection's one PrintWriter, which its ServerProtocol and the
+ *     sequencers share, so lines written to it never interleave.  Broadcasts
+ *     iterate the registry while clients connect and disconnect, which its
+ *     weakly consistent iterators allow.
+ *   - The activity store is opened on a background thread; attachDatabase
+ *     publishes it and its activity writer through volatile fields.
+ *     attachDatabase and shutDown are made concurrent via the monitor
+ *     pattern, so a store opened during shutdown is closed, not attached.
+ *     The rollup thread attachDatabase starts is stopped by shutDown before
+ *     the store is closed.
+ *   - Metrics are counted without a lock, and gauges read the thread safe
+ *     structures above (see Metrics.java)
+ *   - Logging queues lines for a writer thread without a lock, so handling
+ *     clients never waits on the console (see Log.java)
  * 
  * @author Josh
  */
 public class Server {
     
+    private static final Log LOG = Log.get("Server");
+    // every broadcast, when debugging at TRACE level
+    private static final Log.Sampled BROADCASTS = LOG.sampled(Log.Level.TRACE);
+    
     //stores all the boards created as Board objects associated with names
-    private Hashtable<String, Board> boards = new Hashtable<String, Board>();
-    private List<Socket> clients = new LinkedList<Socket>();
+    private final ConcurrentHashMap<String, Board> boards = new ConcurrentHashMap<String, Board>();
+    private final ConcurrentHashMap<String, BoardSequencer> sequencers = new ConcurrentHashMap<String, BoardSequencer>();
+    // " board1 board2 ...", replaced whenever a board is created
+    private volatile String boardListing = "";
+    private final Object boardNamesLock = new Object();
+    // every logged in user, the board they are on, and draw rates
+    private final Presence presence = new Presence();
+    // connected clients and the writer for each
+    private final ConcurrentHashMap<Socket, PrintWriter> clients = new ConcurrentHashMap<Socket, PrintWriter>();
     private final ServerSocket serverSocket;
     private boolean running;
     private boolean shuttingDown = false; // Add flag to prevent double shutdown
     
-    // Database manager for tracking sessions and user activity
-    private DatabaseManager databaseManager;
+    // Store tracking sessions and user activity (MySQL unless configured
+    // otherwise, see ActivityStore.open), and the writer recording logins and
+    // exits in it off the login path; both null until the store has been
+    // opened and a session started
+    private volatile ActivityStore activityStore;
+    private volatile ActivityWriter activityWriter;
+    
+    // milliseconds between rollups of the store's activity into its usage
+    // summaries (see ActivityRollup.java), and the thread running them
+    private static final long ROLLUP_INTERVAL = 5 * 60 * 1000;
+    private Thread rollupThread;
+    
+    // counts of draws per board and user written to the store, when turned
+    // on by the whiteboard.telemetry system property (or WHITEBOARD_TELEMETRY
+    // environment variable); null until the store is attached, or if off
+    private volatile DrawTelemetry drawTelemetry;
+    
+    // counters, gauges and latencies of the server (see Metrics.java), and
+    // the local HTTP endpoint serving them when the whiteboard.metrics.port
+    // system property (or WHITEBOARD_METRICS_PORT environment variable) is set
+    private final Metrics metrics = new Metrics();
+    private final Metrics.Counter connectionsAccepted;
+    private final Metrics.Counter broadcastLines;
+    private final Metrics.Histogram broadcastTime;
+    private final MetricsEndpoint metricsEndpoint;
     
     /**
      * Create our server on port port
@@ -44,17 +105,169 @@ public class Server {
      * @throws IOException 
      */
     public Server(int port) throws IOException {
+    	long start = System.nanoTime();
     	running = true;
     	serverSocket = new ServerSocket(port);
     	
-    	// Initialize database manager
-    	databaseManager = new DatabaseManager();
+    	connectionsAccepted = metrics.counter("whiteboard_connections_accepted_total", "Client connections accepted");
+    	broadcastLines = messagesOut("draw");
+    	broadcastTime = metrics.histogram("whiteboard_broadcast_seconds",
+    	        "Time to write a draw to every other client", Metrics.LATENCY_BUCKETS);
+    	registerMetrics();
+    	metricsEndpoint = serveMetrics();
     	
-    	// Start server session in database
-    	databaseManager.startServerSession();
+    	// Open the activity store in the background; activity tracking
+    	// attaches once it is ready, and clients are served meanwhile
+    	Thread discovery = new Thread(new Runnable() {
+    	    public void run() {
+    	        attachDatabase(ActivityStore.open());
+    	    }
+    	}, "Database discovery");
+    	discovery.setDaemon(true);
+    	discovery.start();
     	
     	// Add shutdown hook to close server gracefully
     	addShutDownHook();
+    	LOG.info("Server started in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+    
+    /**
+     * Registers the gauges read from the server's state when metrics are
+     * written out
+     */
+    private void registerMetrics() {
+        metrics.gauge("whiteboard_connections", "Connected clients", () -> clients.size());
+        metrics.gauge("whiteboard_users", "Logged in users", () -> presence.getMembers().size());
+        metrics.gauge("whiteboard_boards", "Boards created", () -> boards.size());
+        metrics.gauge("whiteboard_activity_queue_depth", "User activities waiting to be written to the activity store", () -> {
+            ActivityWriter writer = activityWriter;
+            return writer == null ? 0 : writer.getQueued();
+        });
+        metrics.gauge("whiteboard_activity_writer_lag_seconds",
+                "Time from the oldest activity of the last batch written happening to its being written", () -> {
+            ActivityWriter writer = activityWriter;
+            return writer == null ? 0 : writer.getLag() / 1000.0;
+        });
+        metrics.counter("whiteboard_activity_written_total", "User activities written to the activity store", () -> {
+            ActivityWriter writer = activityWriter;
+            return writer == null ? 0 : writer.getWritten();
+        });
+        metrics.counter("whiteboard_activity_dropped_total", "User activities dropped because the writer fell behind", () -> {
+            ActivityWriter writer = activityWriter;
+            return writer == null ? 0 : writer.getDropped();
+        });
+        metrics.counter("whiteboard_activity_failed_total", "User activities the activity store failed to record", () -> {
+            ActivityWriter writer = activityWriter;
+            return writer == null ? 0 : writer.getFailed();
+        });
+    }
+    
+    /**
+     * Serves the metrics on the configured port, if one is
+     * @return the endpoint, or null if the metrics aren't served
+     */
+    private MetricsEndpoint serveMetrics() {
+        String port = DatabaseManager.configuredSetting("whiteboard.metrics.port", "WHITEBOARD_METRICS_PORT");
+        if (port == null) {
+            return null;
+        }
+        try {
+            MetricsEndpoint endpoint = new MetricsEndpoint(metrics, Integer.parseInt(port));
+            LOG.info("Metrics served at " + endpoint.getUrl());
+            return endpoint;
+        } catch (IOException | NumberFormatException e) {
+            LOG.error("Could not serve metrics on port " + port + ": " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Gets the counter of lines received from clients with a verb
+     * @param verb: the request's first word, e.g. draw, or "invalid"
+     * @return the counter
+     */
+    Metrics.Counter messagesIn(String verb) {
+        return metrics.counter("whiteboard_messages_in_total", "Requests received from clients, by verb", "verb", verb);
+    }
+    
+    /**
+     * Gets the counter of lines sent to clients with a verb, responses and
+     * broadcasts alike
+     * @param verb: the line's first word, e.g. draw
+     * @return the counter
+     */
+    Metrics.Counter messagesOut(String verb) {
+        return metrics.counter("whiteboard_messages_out_total", "Lines sent to clients, by verb", "verb", verb);
+    }
+    
+    /**
+     * Gets the server's metrics, e.g. to show or serve them
+     * @return the metrics registry
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Gets where the metrics are served
+     * @return the metrics endpoint's URL, or null if they aren't served
+     */
+    public String getMetricsUrl() {
+        return metricsEndpoint == null ? null : metricsEndpoint.getUrl();
+    }
+    
+    /**
+     * Starts tracking activity in a store that has finished opening,
+     * recording an entry for every user already logged in
+     * @param store: the activity store, which may have failed to open
+     */
+    private synchronized void attachDatabase(ActivityStore store) {
+        if (shuttingDown) {
+            store.close();
+            return;
+        }
+        store.startServerSession();
+        if (!store.isAvailable()) {
+            LOG.info("Database not available - skipping user activity tracking");
+            store.close();
+            return;
+        }
+        ActivityWriter writer = new ActivityWriter(store::writeActivity);
+        activityStore = store;
+        activityWriter = writer;
+        if (Boolean.parseBoolean(DatabaseManager.configuredSetting("whiteboard.telemetry", "WHITEBOARD_TELEMETRY"))) {
+            drawTelemetry = new DrawTelemetry(store::writeDrawStats);
+            LOG.info("Draw telemetry on");
+        }
+        // users who logged in before the writer was published; anyone logging
+        // in from now on is recorded by checkUser and enter.  A login racing
+        // with this may be recorded twice, which its exit closes both of.
+        for (Presence.Member member : presence.getMembers()) {
+            writer.recordEntry(member.getUsername(), member.getBoardName());
+        }
+        
+        // roll up activity recorded before now straight away, then periodically
+        rollupThread = new Thread(new Runnable() {
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    try {
+                        int visits = ActivityRollup.run(store);
+                        if (visits > 0) {
+                            LOG.info("Rolled up " + visits + " visits into usage summaries");
+                        }
+                    } catch (Exception e) {
+                        LOG.error("Error rolling up activity: " + e.getMessage());
+                    }
+                    try {
+                        Thread.sleep(ROLLUP_INTERVAL);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "Activity rollup");
+        rollupThread.setDaemon(true);
+        rollupThread.start();
     }
     /**
      * Run the server, listening for client connections and handling them.
@@ -64,13 +277,17 @@ public class Server {
      *   Note: (IOExceptions from individual clients do *not* terminate serve())
      */
     public void serve() {
-    	System.out.println("Server serving");
+    	LOG.info("Server serving");
         
 		try {
 	        // block until a client connects
 			while (running) {
 				Socket socket = serverSocket.accept();
-	            clients.add(socket);
+				connectionsAccepted.inc();
+	            if (!addClient(socket)) {
+	                socket.close();
+	                continue;
+	            }
 	            
 	            // create new thread for each connection
 	            new Thread(new ServerProtocol(socket, this)).start();
@@ -78,7 +295,7 @@ public class Server {
 		} catch (IOException e) {
 		}
         
-		System.out.println("Server Shut down");
+		LOG.info("Server Shut down");
     }
     
     /**
@@ -92,25 +309,143 @@ public class Server {
         boards.get(boardName).addCommand(command);
     }
     
+    /**
+     * Queues a draw on its board's sequencer, which appends it to the board,
+     * sends it to every client but the sender and then sends ack to the sender.
+     * Requires valid board name
+     * 
+     * @param boardName: the board to draw on
+     * @param command: the command to perform on the board
+     * @param sender: the client that drew, or null
+     * @param ack: line to send the sender once the draw is sequenced, or null
+     * @return: future completed once the draw has been appended and broadcast
+     */
+    public CompletableFuture<Void> submitDraw(String boardName, Command command, Socket sender, String ack) {
+        return submitDraw(boardName, null, command.toString().length() + 1, command, sender, ack);
+    }
+    
+    /**
+     * Queues a draw on its board's sequencer as above, counting it against
+     * the user who drew it in the draw telemetry, if on
+     * 
+     * @param boardName: the board to draw on
+     * @param username: the user who drew, or null if not known
+     * @param bytes: the length of the draw's request line
+     * @param command: the command to perform on the board
+     * @param sender: the client that drew, or null
+     * @param ack: line to send the sender once the draw is sequenced, or null
+     * @return: future completed once the draw has been appended and broadcast
+     * @throws IllegalArgumentException if there is no board with the name
+     */
+    public CompletableFuture<Void> submitDraw(String boardName, String username, int bytes, Command command,
+            Socket sender, String ack) {
+        BoardSequencer sequencer = getSequencer(boardName);
+        presence.drew(boardName);
+        DrawTelemetry telemetry = drawTelemetry;
+        if (telemetry != null) {
+            telemetry.record(boardName, username, bytes);
+        }
+        return sequencer.submit(command, sender, ack);
+    }
+    
+    /**
+     * Runs a task on a board's sequencer, in order with the board's draws:
+     * every draw sequenced before it is in the board's history when it
+     * runs, and every draw sequenced after it is broadcast after it
+     * 
+     * @param boardName: the board to order the task with
+     * @param task: the task, e.g. sending the board's history to a client
+     * @return: future completed with the task's result once it has run
+     * @throws IllegalArgumentException if there is no board with the name
+     */
+    public <T> CompletableFuture<T> submitToBoard(String boardName, Supplier<T> task) {
+        return getSequencer(boardName).submit(task);
+    }
+    
+    /**
+     * Gets a board's sequencer, making it the first time
+     * @param boardName: the board
+     * @return: the board's sequencer
+     * @throws IllegalArgumentException if there is no board with the name
+     */
+    private BoardSequencer getSequencer(String boardName) {
+        BoardSequencer sequencer = sequencers.get(boardName);
+        if (sequencer == null) {
+            final Board board = boards.get(boardName);
+            if (board == null) {
+                // boards are never removed, so a sequencer is only made for
+                // a board that exists and stays
+                throw new IllegalArgumentException("No board named " + boardName);
+            }
+            sequencer = sequencers.computeIfAbsent(boardName, name -> {
+                BoardSequencer created = new BoardSequencer(board, this);
+                metrics.gauge("whiteboard_sequencer_queue_depth", "Draws waiting to be sequenced, by board",
+                        () -> created.getQueued(), "board", name);
+                return created;
+            });
+        }
+        return sequencer;
+    }
+    
     /**
      * Iterates through all the sockets and sends the command to each
      * 
      * @param Command - command to be sent to all clients 
      */
     public void sendCommandToClients(Command command, Socket skip) {
-        for (Socket client: clients) {
-            if (!skip.equals(client)) {
-                try {
-                    if (!client.isClosed()) {
-                        System.out.println("sending to client");
-                        PrintWriter out = new PrintWriter(client.getOutputStream(), true);
-                        out.println(command.toString());
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
+        long start = System.nanoTime();
+        String line = command.toString();
+        int sent = 0;
+        for (Map.Entry<Socket, PrintWriter> client: clients.entrySet()) {
+            if (!client.getKey().equals(skip)) {
+                if (client.getKey().isClosed()) {
+                    // its handler will remove it too, but don't wait for that
+                    clients.remove(client.getKey(), client.getValue());
+                } else {
+                    client.getValue().println(line);
+                    sent++;
                 }
             }
         }
+        broadcastLines.add(sent);
+        broadcastTime.observeSince(start);
+        if (BROADCASTS.sample()) {
+            BROADCASTS.log("Sent to " + sent + " clients: " + line);
+        }
+    }
+    
+    /**
+     * Registers a newly connected client, making the PrintWriter every line to
+     * it is written with
+     * @param client: the client's socket
+     * @return true if the client was registered, false if its socket can't be
+     *         written to
+     */
+    public boolean addClient(Socket client) {
+        try {
+            clients.put(client, new PrintWriter(client.getOutputStream(), true));
+            return true;
+        } catch (IOException e) {
+            LOG.error("Could not write to client " + client.getRemoteSocketAddress(), e);
+            return false;
+        }
+    }
+    
+    /**
+     * Unregisters a disconnected client
+     * @param client: the client's socket
+     */
+    public void removeClient(Socket client) {
+        clients.remove(client);
+    }
+    
+    /**
+     * Gets the PrintWriter every line to a client is written with
+     * @param client: the client's socket
+     * @return the client's writer, or null if the client isn't registered
+     */
+    public PrintWriter getWriter(Socket client) {
+        return clients.get(client);
     }
     
     /**
@@ -120,13 +455,18 @@ public class Server {
      * @param boardName: the name of the new board
      * @return: whether or not the new board was successfully made
      */
-    public synchronized boolean newBoard(String boardName) {
-        if(boards.containsKey(boardName)) {
+    public boolean newBoard(String boardName) {
+        Board board = new Board();
+        if (boards.putIfAbsent(boardName, board) != null) {
         	return false;
-        } else {
-            boards.put(boardName, new Board());
-            return true;
         }
+        metrics.gauge("whiteboard_board_commands", "Commands in each board's history",
+                () -> board.getHistory().size(), "board", boardName);
+        metrics.gauge("whiteboard_board_users", "Users on each board", () -> board.getUsers().length, "board", boardName);
+        synchronized (boardNamesLock) {
+            boardListing = boardListing + " " + boardName;
+        }
+        return true;
     }
     
     /**
@@ -140,6 +480,7 @@ public class Server {
     public void switchBoard(String username, String oldBoardName, String newBoardName) {
         boards.get(oldBoardName).deleteUser(username);
         boards.get(newBoardName).addUser(username);
+        presence.switchBoard(username, newBoardName);
     }
     
     /**
@@ -165,33 +506,30 @@ public class Server {
     
     /**
      * Gets a list of all the board names
-     * @return: a String listing all of the board names with a space in front
-     */
-    public synchronized String getBoards() {
-        String[] boardsArray = boards.keySet().toArray(new String[0]);
-       
-        StringBuilder boardsString = new StringBuilder("");
-        for (String board: boardsArray) {
-            boardsString.append(" "+board);
-        }
-        
-        return boardsString.toString();
+     * @return: a String listing all of the board names, in the order they
+     *          were made, each with a space in front
+     */
+    public String getBoards() {
+        return boardListing;
     }
     
     /**
      * Checks if the username is unique and if it is, return true and enter the user
      * @param username: the username to check
      * @param boardName: the board the user wants to enter
-     * @return: whether or not the user entered successfully
+     * @return: whether or not the user entered successfully; false if
+     *          there is no board with the name
      */
-    public synchronized boolean checkUser(String username, String boardName) {
-        for (String board : boards.keySet()) {
-            if (!boards.get(board).checkUsernameAvailable(username)) {
-                return false;
-            }
+    public boolean checkUser(String username, String boardName) {
+        // boards are never removed, so the board is still there once the
+        // username is claimed
+        Board board = boards.get(boardName);
+        if (board == null || !presence.join(username, boardName)) {
+            return false;
         }
         // If user is unique, add them to board
-        enter(username, boardName);
+        board.addUser(username);
+        recordUserEntry(username, boardName);
         return true;
     }
     
@@ -200,13 +538,20 @@ public class Server {
      * @param username: the entering user
      * @param boardName: the board they have chosen to enter
      */
-    public synchronized void enter(String username, String boardName) {
+    public void enter(String username, String boardName) {
         Board board = boards.get(boardName);
         board.addUser(username);
-        
-        // Record user entry in database
-        if (databaseManager != null) {
-            databaseManager.recordUserEntry(username, boardName);
+        presence.enter(username, boardName);
+        recordUserEntry(username, boardName);
+    }
+    
+    /**
+     * Queues a user's entry to be recorded in the database, if there is one
+     */
+    private void recordUserEntry(String username, String boardName) {
+        ActivityWriter writer = activityWriter;
+        if (writer != null) {
+            writer.recordEntry(username, boardName);
         }
     }
     
@@ -214,33 +559,50 @@ public class Server {
      * Removes the user from all boards
      * @param username: the username of the user exiting
      */
-    public synchronized void exit(String username) {
-        for(String boardName: boards.keySet()) {
-            Board board = boards.get(boardName);
-            board.deleteUser(username);
+    public void exit(String username) {
+        String boardName = presence.leave(username);
+        if (boardName != null) {
+            boards.get(boardName).deleteUser(username);
+        } else {
+            // not logged in through the server, e.g. placed on a board
+            // directly with Board.setUsers
+            for (Board board : boards.values()) {
+                board.deleteUser(username);
+            }
         }
         
-        // Record user exit in database
-        if (databaseManager != null) {
-            databaseManager.recordUserExit(username);
+        // Queue user exit to be recorded in database
+        ActivityWriter writer = activityWriter;
+        if (writer != null) {
+            writer.recordExit(username);
         }
     }
     
+    /**
+     * Finds the board a logged in user is on
+     * @param username: the user to look up
+     * @return the name of the user's board, or null if the user isn't logged in
+     */
+    public String getBoardOfUser(String username) {
+        Presence.Member member = presence.getMember(username);
+        return member == null ? null : member.getBoardName();
+    }
+    
     /**
      * Gets all commands sent to a specific board
      * @param boardName
      * @return
      */
-    public LinkedList<Command> getCommands(String boardName) {
+    public List<Command> getCommands(String boardName) {
         return boards.get(boardName).getCommands();
     }
     
     /**
      * Returns clients connected to server
-     * @return
+     * @return a live view of the connected clients' sockets
      */
-    public List<Socket> getClients() {
-        return clients;
+    public Set<Socket> getClients() {
+        return clients.keySet();
     }
     
     /**
@@ -253,24 +615,84 @@ public class Server {
     }
     
     /**
-     * Gets the hashtable of board names associated with boards
-     * @return the hashtable
+     * Gets the map of board names associated with boards
+     * @return the map
      */
-    public Hashtable<String, Board> getBoardsHashtable() {
+    public Map<String, Board> getBoardsMap() {
         return boards;
     }
     
     /**
-     * Get current session statistics from database
+     * Get statistics about the live session: the users on each board, when
+     * they joined and how fast each board is drawn on.  Answered from memory;
+     * the activity store is not queried.
      * @return formatted statistics string
      */
     public String getSessionStatistics() {
-        if (databaseManager != null) {
-            return databaseManager.getSessionStatistics();
+        return presence.getStatistics();
+    }
+    
+    /**
+     * Get statistics about the session as recorded in the activity store
+     * @return formatted statistics string
+     */
+    public String getStoredSessionStatistics() {
+        ActivityStore store = activityStore;
+        if (store != null) {
+            return store.getSessionStatistics();
         }
         return "Database not available";
     }
     
+    /**
+     * Get board and user usage trends from the activity store's rolled up
+     * summaries, which are only as recent as the last rollup
+     * @param hours: how many hours back to describe
+     * @return formatted report string
+     */
+    public String getUsageReport(int hours) {
+        ActivityStore store = activityStore;
+        if (store == null) {
+            return "Database not available";
+        }
+        try {
+            return ActivityRollup.getUsageReport(store, hours, 10);
+        } catch (Exception e) {
+            LOG.error("Error getting usage report: " + e.getMessage());
+            return "Error retrieving usage";
+        }
+    }
+    
+    /**
+     * Get each board's and user's drawing from the draw telemetry's counts,
+     * which are only as recent as the last flush
+     * @param hours: how many hours back to describe
+     * @return formatted report string
+     */
+    public String getDrawReport(int hours) {
+        ActivityStore store = activityStore;
+        if (store == null) {
+            return "Database not available";
+        }
+        if (drawTelemetry == null) {
+            return "Draw telemetry is off; start the server with -Dwhiteboard.telemetry=true";
+        }
+        try {
+            return DrawTelemetry.getReport(store, hours);
+        } catch (Exception e) {
+            LOG.error("Error getting draw report: " + e.getMessage());
+            return "Error retrieving draw counts";
+        }
+    }
+    
+    /**
+     * Gets the live model of the session's users and draws
+     * @return the presence model
+     */
+    public Presence getPresence() {
+        return presence;
+    }
+    
     /**
      * Shuts down all client connections and then shuts down serverSocket
      * @throws IOException
@@ -285,28 +707,53 @@ public class Server {
     	running = false;
     	
     	// Record all active users as exited before shutting down
-    	if (databaseManager != null) {
-    	    System.out.println("Recording user exits for server shutdown...");
+    	if (activityWriter != null) {
+    	    LOG.info("Recording user exits for server shutdown...");
     	    for (String boardName : boards.keySet()) {
     	        Board board = boards.get(boardName);
     	        String[] activeUsers = board.getUsers();
     	        for (String username : activeUsers) {
-    	            System.out.println("Recording exit for user: " + username + " on board: " + boardName);
-    	            databaseManager.recordUserExit(username);
+    	            LOG.debug("Recording exit for user: " + username + " on board: " + boardName);
+    	            activityWriter.recordExit(username);
     	        }
     	    }
+    	    // write everything queued before the session is ended
+    	    activityWriter.close();
+    	}
+    	if (drawTelemetry != null) {
+    	    drawTelemetry.close();
+    	}
+    	
+    	// Stop rolling up before the store is closed under it
+    	if (rollupThread != null) {
+    	    rollupThread.interrupt();
+    	    try {
+    	        rollupThread.join(5000);
+    	    } catch (InterruptedException e) {
+    	        Thread.currentThread().interrupt();
+    	    }
     	}
     	
     	// End server session in database
-    	if (databaseManager != null) {
-    	    databaseManager.endServerSession();
-    	    databaseManager.close();
+    	if (activityStore != null) {
+    	    activityStore.endServerSession();
+    	    activityStore.close();
+    	}
+    	
+    	for (BoardSequencer sequencer: sequencers.values()) {
+    	    sequencer.shutdown();
     	}
     	
-    	for (Socket client: clients) {
+    	for (Socket client: clients.keySet()) {
     		if (!client.isClosed()) client.close();
     	}
+    	clients.clear();
+    	if (metricsEndpoint != null) {
+    	    metricsEndpoint.close();
+    	}
     	serverSocket.close();
+    	// print what shutting down logged before the JVM exits
+    	Log.flush();
     }
     
     public void close() throws IOException {
@@ -320,7 +767,7 @@ public class Server {
                 try {
 					shutDown();
 				} catch (IOException e) {
-					e.printStackTrace();
+					LOG.error("Error shutting down", e);
 				}
             }
         });
@@ -369,21 +816,20 @@ public class Server {
 				@Override
 				public void run() {
 					try {
-						System.out.println("Creating server GUI...");
+						LOG.info("Creating server GUI...");
 						ServerGUI serverGUI = new ServerGUI(server);
 						serverGUI.setVisible(true);
-						System.out.println("Server GUI is now visible");
+						LOG.info("Server GUI is now visible");
 						
 						// Run the server in a background thread so the GUI remains responsive
 						Thread serverThread = new Thread(new Runnable() {
 							@Override
 							public void run() {
 								try {
-									System.out.println("Starting server in background thread...");
+									LOG.info("Starting server in background thread...");
 									server.serve();
 								} catch (Exception e) {
-									System.err.println("Server error: " + e.getMessage());
-									e.printStackTrace();
+									LOG.error("Server error: " + e.getMessage(), e);
 								}
 							}
 						});
@@ -391,15 +837,13 @@ public class Server {
 						serverThread.start();
 						
 					} catch (Exception e) {
-						System.err.println("Error creating server GUI: " + e.getMessage());
-						e.printStackTrace();
+						LOG.error("Error creating server GUI: " + e.getMessage(), e);
 					}
 				}
 			});
 			
 		} catch (IOException e) {
-			System.out.println("Error in starting server.");
-			e.printStackTrace();
+			LOG.error("Error in starting server.", e);
 		}
     	
     }
@@ -24,6 +24,8 @@ public class ServerGUI extends JFrame {
     private JLabel pinLabel;
     private JButton stopButton;
     private JButton statsButton;
+    private JButton usageButton;
+    private JButton metricsButton;
     
     /**
      * Creates a new ServerGUI for the given server
@@ -40,7 +42,7 @@ public class ServerGUI extends JFrame {
     private void setupGUI() {
         setTitle("Ink-Sync Server");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        setSize(350, 250);
+        setSize(520, 250);
         setLocationRelativeTo(null);
         setResizable(false);
         
@@ -119,8 +121,26 @@ public class ServerGUI extends JFrame {
         statsButton.setBorderPainted(false);
         statsButton.setFocusPainted(false);
         
+        usageButton = new JButton("Usage");
+        usageButton.setFont(new Font("Arial", Font.BOLD, 12));
+        usageButton.setBackground(new Color(108, 117, 125));
+        usageButton.setForeground(Color.WHITE);
+        usageButton.setOpaque(true);
+        usageButton.setBorderPainted(false);
+        usageButton.setFocusPainted(false);
+        
+        metricsButton = new JButton("Metrics");
+        metricsButton.setFont(new Font("Arial", Font.BOLD, 12));
+        metricsButton.setBackground(new Color(108, 117, 125));
+        metricsButton.setForeground(Color.WHITE);
+        metricsButton.setOpaque(true);
+        metricsButton.setBorderPainted(false);
+        metricsButton.setFocusPainted(false);
+        
         controlPanel.add(stopButton);
         controlPanel.add(statsButton);
+        controlPanel.add(usageButton);
+        controlPanel.add(metricsButton);
         
         // Add components to main panel
         mainPanel.add(infoPanel, BorderLayout.CENTER);
@@ -168,6 +188,56 @@ public class ServerGUI extends JFrame {
             }
         });
         
+        // Usage button: the report reads the activity store, so it is
+        // fetched off the Event Dispatch Thread
+        usageButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                usageButton.setEnabled(false);
+            metricsButton.setEnabled(false);
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        String usage = server.getUsageReport(24) + "\n" + server.getDrawReport(24);
+                        SwingUtilities.invokeLater(new Runnable() {
+                            @Override
+                            public void run() {
+                                usageButton.setEnabled(true);
+                                JTextArea report = new JTextArea(usage);
+                                report.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+                                report.setEditable(false);
+                                JOptionPane.showMessageDialog(
+                                    ServerGUI.this,
+                                    report,
+                                    "Usage (last 24 hours)",
+                                    JOptionPane.INFORMATION_MESSAGE
+                                );
+                            }
+                        });
+                    }
+                }).start();
+            }
+        });
+        
+        // Metrics button: read from memory, so shown straight away
+        metricsButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                String url = server.getMetricsUrl();
+                JTextArea metrics = new JTextArea(
+                    (url != null ? "Served at " + url : "Serve at http://127.0.0.1:PORT/metrics with -Dwhiteboard.metrics.port=PORT")
+                    + "\n\n" + server.getMetrics().getSummary(), 25, 70);
+                metrics.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+                metrics.setEditable(false);
+                JOptionPane.showMessageDialog(
+                    ServerGUI.this,
+                    new JScrollPane(metrics),
+                    "Server Metrics",
+                    JOptionPane.INFORMATION_MESSAGE
+                );
+            }
+        });
+        
         // Window closing
         addWindowListener(new WindowAdapter() {
             @Override
@@ -186,6 +256,8 @@ public class ServerGUI extends JFrame {
             statusLabel.setForeground(new Color(255, 140, 0));
             stopButton.setEnabled(false);
             statsButton.setEnabled(false);
+            usageButton.setEnabled(false);
+            metricsButton.setEnabled(false);
             
             // Shutdown server in background thread
             new Thread(new Runnable() {
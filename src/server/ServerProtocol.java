@@ -5,9 +5,12 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import command.Command;
+import logging.Log;
 
 
 /**
@@ -22,8 +25,40 @@ import command.Command;
  */
 public class ServerProtocol implements Runnable {
     
+    private static final Log LOG = Log.get("ServerProtocol");
+    // every request received, when debugging at DEBUG level, and requests
+    // that couldn't be handled, sampled so a misbehaving client can't flood
+    // the console
+    private static final Log.Sampled REQUESTS = LOG.sampled(Log.Level.DEBUG);
+    private static final Log.Sampled INVALID = LOG.sampled(Log.Level.WARN);
+    
     private final Socket socket;
     private final Server server;
+    // the connection's writer, shared with the board sequencers; null when
+    // requests are handled without a connection, as in testHandleRequest
+    private PrintWriter out;
+    // the user logged in on this connection, for the draw telemetry; only
+    // this connection's thread uses it
+    private String username = null;
+    // this connection's metrics for each verb, looked up once each
+    private final Map<String, VerbMetrics> verbMetrics = new HashMap<String, VerbMetrics>();
+    
+    /**
+     * Requests with a verb received and responded to, and the time taken to
+     * handle them; a draw is handled once it is handed to its sequencer
+     */
+    private static class VerbMetrics {
+        private final Metrics.Counter in;
+        private final Metrics.Counter out;
+        private final Metrics.Histogram time;
+        
+        private VerbMetrics(Server server, String verb) {
+            in = server.messagesIn(verb);
+            out = server.messagesOut(verb);
+            time = server.getMetrics().histogram("whiteboard_request_seconds", "Time to handle a request, by verb",
+                    Metrics.LATENCY_BUCKETS, "verb", verb);
+        }
+    }
     
     public ServerProtocol(Socket socket, Server server) {
         this.socket = socket;
@@ -39,8 +74,9 @@ public class ServerProtocol implements Runnable {
         try {
             handleConnection(socket);
         } catch (IOException e) {
-            e.printStackTrace();
+            LOG.error("Connection to " + socket.getRemoteSocketAddress() + " failed", e);
         } finally {
+            server.removeClient(socket);
             try {
 				if (!socket.isClosed()) socket.close();
 			} catch (IOException e) {
@@ -57,7 +93,10 @@ public class ServerProtocol implements Runnable {
     private void handleConnection(Socket socket) throws IOException {
 
         BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+        out = server.getWriter(socket);
+        if (out == null) {
+            throw new IOException("Unable to write to client");
+        }
         try {
             for (String line = in.readLine(); line != null; line = in.readLine()) {
                 try {
@@ -68,7 +107,9 @@ public class ServerProtocol implements Runnable {
 	            	}
 	                
                 } catch (IllegalArgumentException e) {
-	                	e.printStackTrace();   
+                    if (INVALID.sample()) {
+                        INVALID.log("Could not handle \"" + line + "\": " + e.getMessage());
+                    }
                 }                
             }
         } finally {
@@ -98,19 +139,39 @@ public class ServerProtocol implements Runnable {
 	 * Switch Board = "switch username oldBoardName newBoardName command1 command2 command3..."
 	 * Update Users = "users boardName user1 user2 user3..."
 	 * Update Available Boards = "boards board1 board2 board3"
-	 * Draw = "draw boardName command param1 param2 param3"
+	 * Draw = "draw boardName command param1 param2 param3", to every other client
 	 *      Example: "draw boardName drawLineSegment x1 y1 x2 y2 color width"
+	 * Draw acknowledgement = "draw", to the client that drew, which has already
+	 *      drawn the command locally
 	 * Check and add User = "checkAndAddUser username boardName boolean"
 	 * 
-     * 
+	 * Request ids:
+	 * 
+	 * Any request may be prefixed with a request id, as in "#id boards".  The
+	 * response to it is then prefixed with the same id, as in "#id boards board1",
+	 * so a client may have many requests outstanding and match their responses
+	 * out of order.  Draws broadcast to other clients never carry an id.
      * 
      * @param input message from client
      * @return message to client
      * @throws IOException 
      */
     private String handleRequest(String input) throws IOException, IllegalArgumentException {
-        System.out.println(input);
+        long start = System.nanoTime();
+        if (REQUESTS.sample()) {
+            REQUESTS.log("Request: " + input);
+        }
     	String nameReg = "[a-zA-Z0-9\\.]+";
+    	// at most 18 digits, so any id fits in a long
+    	String requestIdReg = "#[0-9]{1,18}";
+    	
+    	// strip off the request id, if the request carries one
+    	String requestId = null;
+    	if (input.matches(requestIdReg+" .*")) {
+    		requestId = input.substring(0, input.indexOf(' '));
+    		input = input.substring(input.indexOf(' ')+1);
+    	}
+    	
     	String regex = "(boards)|(newBoard "+nameReg+")|"
     			+ "(switch "+nameReg+" "+nameReg+" "+nameReg+")|"
     			+ "(exit "+nameReg+")|(users "+nameReg+")|"
@@ -119,12 +180,43 @@ public class ServerProtocol implements Runnable {
         
         if ( ! input.matches(regex)) {
             // invalid input
-        	System.out.println("Invalid input: "+input);
+        	if (INVALID.sample()) {
+        	    INVALID.log("Invalid input: " + input);
+        	}
+        	metricsFor("invalid").in.inc();
             return null;
         }
 
         String[] tokens = input.split(" ");
-        
+        VerbMetrics metrics = metricsFor(tokens[0]);
+        metrics.in.inc();
+        String output = dispatch(tokens, requestId);
+        if (output != null) {
+            metrics.out.inc();
+            if (requestId != null) {
+                output = requestId + " " + output;
+            }
+        }
+        metrics.time.observeSince(start);
+        return output;
+    }
+    
+    private VerbMetrics metricsFor(String verb) {
+        VerbMetrics metrics = verbMetrics.get(verb);
+        if (metrics == null) {
+            metrics = new VerbMetrics(server, verb);
+            verbMetrics.put(verb, metrics);
+        }
+        return metrics;
+    }
+    
+    /**
+     * Calls the handler for the request tokens
+     * @param tokens: the tokens of a valid request, without its request id
+     * @param requestId: the request's "#id", or null if it had none
+     * @return message to client
+     */
+    private String dispatch(String[] tokens, String requestId) {
         // Get Boards
         if (tokens[0].equals("boards")) {
         	return boards(tokens);
@@ -135,7 +227,7 @@ public class ServerProtocol implements Runnable {
         } 
         // Switch Board
         else if (tokens[0].equals("switch")) {
-        	return switchBoard(tokens);
+        	return switchBoard(tokens, requestId);
         }
         // Exit 
         else if (tokens[0].equals("exit")) {
@@ -143,7 +235,7 @@ public class ServerProtocol implements Runnable {
         } 
         // Draw Command 
         else if (tokens[0].equals("draw")) {
-        	return draw(tokens);
+        	return draw(tokens, requestId);
         } 
         // Check and add User
         else if (tokens[0].equals("checkAndAddUser")) {
@@ -184,17 +276,52 @@ public class ServerProtocol implements Runnable {
      * @return
      */
     public String switchBoard(String[] tokens) {
+        return switchBoard(tokens, null);
+    }
+    
+    /**
+     * Switches the user's board and replies with the new board's history.
+     * The reply is built and sent on the new board's sequencer, so every
+     * draw on the board is either in the history replayed or sent after
+     * it, and never wiped by the client's replay; nothing is returned to
+     * write.  Without a connection to reply on, waits for the reply and
+     * returns it.
+     * @param tokens
+     * @param requestId: the switch's "#id", or null if it had none
+     * @return
+     */
+    private String switchBoard(String[] tokens, String requestId) {
         String userName = tokens[1];
         String oldBoardName = tokens[2];
         String newBoardName = tokens[3];
-        String newLine = System.getProperty("line.separator");
         server.switchBoard(userName, oldBoardName, newBoardName);
-        List<Command> commands = server.getCommands(newBoardName);
-    	String str =  "switch " + userName + " " + oldBoardName + " " + newBoardName;
+        username = userName;
+        String reply = "switch " + userName + " " + oldBoardName + " " + newBoardName;
+        if (out != null) {
+            final PrintWriter writer = out;
+            final Metrics.Counter sent = metricsFor("switch").out;
+            server.submitToBoard(newBoardName, () -> {
+                writer.println(withHistory(requestId == null ? reply : requestId + " " + reply, newBoardName));
+                sent.inc();
+                return null;
+            });
+            return null;
+        }
+        return server.submitToBoard(newBoardName, () -> withHistory(reply, newBoardName)).join();
+    }
+    
+    /**
+     * @return: a reply followed by a board's history, a command a line
+     */
+    private String withHistory(String reply, String boardName) {
+        String newLine = System.getProperty("line.separator");
+        // an immutable view of the history, so draws made meanwhile don't disturb the replay
+        List<Command> commands = server.getCommands(boardName);
+    	StringBuilder str = new StringBuilder(reply);
     	for (Command command: commands) {
-    	    str += newLine+command.toString();
+    	    str.append(newLine).append(command.toString());
     	}
-    	return str;
+    	return str.toString();
     }
     
     /**
@@ -203,22 +330,49 @@ public class ServerProtocol implements Runnable {
      * @return
      */
     public String exit(String[] tokens) {
-        String username = tokens[1];
-        server.exit(username);
-        return "exit " + username;
+        String exiting = tokens[1];
+        server.exit(exiting);
+        if (exiting.equals(username)) {
+            username = null;
+        }
+        return "exit " + exiting;
     }
     
     /**
-     * draw response
+     * draw response.  The command is not echoed back to the client that drew it,
+     * which has already drawn it; that client is only sent an acknowledgement.
      * @param tokens
      * @return
      */
     public String draw(String[] tokens) {
+        return draw(tokens, null);
+    }
+    
+    /**
+     * Hands a draw to its board's sequencer.  The sequencer sends the
+     * acknowledgement itself, in order with the board's other draws, so
+     * nothing is returned to write.  Without a connection to acknowledge on,
+     * waits for the draw to be sequenced and returns the acknowledgement.
+     * @param tokens
+     * @param requestId: the draw's "#id", or null if it had none
+     * @return
+     */
+    private String draw(String[] tokens, String requestId) {
         String boardName = tokens[1];
         Command command = new Command(tokens);
-        server.updateBoard(boardName, command);
-        server.sendCommandToClients(command, socket);
-        return command.toString();
+        // the request's length without its request id: its tokens, the spaces
+        // between them and a newline
+        int bytes = tokens.length;
+        for (String token : tokens) {
+            bytes += token.length();
+        }
+        if (out != null) {
+            String ack = requestId == null ? "draw" : requestId + " draw";
+            server.submitDraw(boardName, username, bytes, command, socket, ack);
+            return null;
+        }
+        server.submitDraw(boardName, username, bytes, command, socket, null).join();
+        return "draw";
     }
     
     /**
@@ -228,8 +382,12 @@ public class ServerProtocol implements Runnable {
      */
     public String checkAndAddUser(String[] tokens) {
         String boardName = tokens[2];
-        String username = tokens[1];
-        return "checkAndAddUser " + username + " " + boardName + " " + String.valueOf(server.checkUser(username, boardName));
+        String joining = tokens[1];
+        boolean added = server.checkUser(joining, boardName);
+        if (added) {
+            username = joining;
+        }
+        return "checkAndAddUser " + joining + " " + boardName + " " + String.valueOf(added);
     }
     
     /**
@@ -41,6 +41,9 @@ import command.Command;
  *  Draw:
  *      Basic Draw
  *      Multiple Draw Commands
+ *  Request Ids:
+ *      Responses echo request ids
+ *      Malformed request ids, including ones too long for a long
  *  Invalid Input
  */
 public class ServerProtocolTest {
@@ -268,7 +271,8 @@ public class ServerProtocolTest {
         String input = "boards";
         String output = protocol.testHandleRequest(input);
 
-        assertEquals("boards board2 board1", output);
+        // listed in the order they were made
+        assertEquals("boards board1 board2", output);
 
         server.shutDown();
     }
@@ -646,4 +650,38 @@ public class ServerProtocolTest {
         server.shutDown();
     }
 
+    /*********************** Request Ids *******************/
+
+    // responses echo the request id they answer
+    @Test
+    public void requestIdEchoedTest()
+            throws IllegalArgumentException, IOException, InterruptedException {
+        Server server = new Server(4444);
+        ServerProtocol protocol = new ServerProtocol(null, server);
+
+        assertEquals("#1 newBoard board true", protocol.testHandleRequest("#1 newBoard board"));
+        assertEquals("#2 newBoard board false", protocol.testHandleRequest("#2 newBoard board"));
+        assertEquals("#3 boards board", protocol.testHandleRequest("#3 boards"));
+        assertEquals("#4 checkAndAddUser user board true", protocol.testHandleRequest("#4 checkAndAddUser user board"));
+        assertEquals("#5 users board user", protocol.testHandleRequest("#5 users board"));
+        assertEquals("#6 exit user", protocol.testHandleRequest("#6 exit user"));
+
+        server.shutDown();
+    }
+
+    // malformed request ids are invalid input
+    @Test
+    public void invalidRequestIdTest()
+            throws IllegalArgumentException, IOException, InterruptedException {
+        Server server = new Server(4444);
+        ServerProtocol protocol = new ServerProtocol(null, server);
+
+        assertEquals(null, protocol.testHandleRequest("#x1 boards"));
+        assertEquals(null, protocol.testHandleRequest("#1"));
+        assertEquals(null, protocol.testHandleRequest("#1234567890123456789 boards"));
+        assertEquals("#123456789012345678 boards", protocol.testHandleRequest("#123456789012345678 boards"));
+
+        server.shutDown();
+    }
+
 }
@@ -2,7 +2,11 @@ package server;
 
 import static org.junit.Assert.*;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -23,6 +27,8 @@ public class ServerTest {
      * -New board for a board whose name is unique adds the board and returns true
      * -New board for a board whose name is already taken returns false
      * -Update board adds a command to a board
+     * -A draw for a board that doesn't exist is refused without breaking
+     *  draws on a board of that name made later
      * -Get users for a board with no users returns an empty string
      * -Get users for a board with users returns the users separated with spaces
      * -Switch boards successfully deletes a user from a board and adds it to the correct one
@@ -32,6 +38,12 @@ public class ServerTest {
      * -Get boards when there are boards returns the list of boards separated by spaces
      * -Check username returns false if the username is not unique (for all boards), and does not enter the user
      * -Check username returns true if the username is unique and enters the user
+     * -Check username for a board that doesn't exist returns false and leaves
+     *  the username free
+     * -The board of a logged in user follows switches and is forgotten on exit,
+     *  after which the username may be used again
+     * -Clients are registered and removed; broadcasts skip the sender, reach
+     *  every other open client and drop closed clients from the registry
      */
     public Server makeServer() {
         Server server = null;
@@ -50,18 +62,18 @@ public class ServerTest {
         Server server = makeServer();
         //board1 adds correctly
         assertTrue(server.newBoard("board1"));
-        assertTrue(server.getBoardsHashtable().containsKey("board1")
-                && server.getBoardsHashtable().size() == 1);
+        assertTrue(server.getBoardsMap().containsKey("board1")
+                && server.getBoardsMap().size() == 1);
         //board2 adds correctly
         assertTrue(server.newBoard("board2"));
-        assertTrue(server.getBoardsHashtable().containsKey("board1") 
-                && server.getBoardsHashtable().containsKey("board2")
-                && server.getBoardsHashtable().size() == 2);
+        assertTrue(server.getBoardsMap().containsKey("board1") 
+                && server.getBoardsMap().containsKey("board2")
+                && server.getBoardsMap().size() == 2);
         //board2 will not add again
         assertTrue(!server.newBoard("board2"));
-        assertTrue(server.getBoardsHashtable().containsKey("board1") 
-                && server.getBoardsHashtable().containsKey("board2")
-                && server.getBoardsHashtable().size() == 2);
+        assertTrue(server.getBoardsMap().containsKey("board1") 
+                && server.getBoardsMap().containsKey("board2")
+                && server.getBoardsMap().size() == 2);
         server.close();
     }
     
@@ -79,6 +91,22 @@ public class ServerTest {
         server.close();
     }
     
+    @Test
+    public void submitDrawUnknownBoardTest() throws IOException {
+        Server server = makeServer();
+        Command command = new Command("draw board1 drawLineSegment 50 50 60 60 0 10.0".split(" "));
+        try {
+            server.submitDraw("board1", null, 0, command, null, null);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // no such board
+        }
+        server.newBoard("board1");
+        server.submitDraw("board1", null, 0, command, null, null).join();
+        assertEquals(1, server.getBoard("board1").getCommands().size());
+        server.close();
+    }
+    
     @Test
     public void getUsersTest() throws IOException {
         Server server = makeServer();
@@ -168,4 +196,67 @@ public class ServerTest {
         assertTrue(Arrays.toString(server.getBoard("board2").getUsers()).equals(Arrays.toString(new String[0])));
         server.close();
     }
+    
+    @Test
+    public void checkUsernameUnknownBoardTest() throws IOException {
+        Server server = makeServer();
+        assertTrue(!server.checkUser("josh", "board1"));
+        assertNull(server.getBoardOfUser("josh"));
+        server.newBoard("board1");
+        assertTrue(server.checkUser("josh", "board1"));
+        assertTrue(Arrays.equals(server.getBoard("board1").getUsers(), new String[] {"josh"}));
+        server.close();
+    }
+    
+    @Test
+    public void userIndexTest() throws IOException {
+        Server server = makeServer();
+        server.newBoard("board1");
+        server.newBoard("board2");
+        assertNull(server.getBoardOfUser("jessica"));
+        assertTrue(server.checkUser("jessica", "board1"));
+        assertEquals("board1", server.getBoardOfUser("jessica"));
+        server.switchBoard("jessica", "board1", "board2");
+        assertEquals("board2", server.getBoardOfUser("jessica"));
+        assertTrue(!server.checkUser("jessica", "board1"));
+        server.exit("jessica");
+        assertNull(server.getBoardOfUser("jessica"));
+        assertTrue(Arrays.equals(server.getBoard("board2").getUsers(), new String[0]));
+        assertTrue(server.checkUser("jessica", "board1"));
+        assertTrue(Arrays.equals(server.getBoard("board1").getUsers(), new String[] {"jessica"}));
+        server.close();
+    }
+    
+    @Test
+    public void clientRegistryTest() throws IOException {
+        Server server = makeServer();
+        ServerSocket listener = new ServerSocket(0);
+        Socket[] remote = new Socket[3];
+        Socket[] local = new Socket[3];
+        for (int i = 0; i < 3; i++) {
+            remote[i] = new Socket("localhost", listener.getLocalPort());
+            local[i] = listener.accept();
+            assertTrue(server.addClient(local[i]));
+        }
+        assertEquals(3, server.getClients().size());
+        
+        local[2].close();
+        Command command = new Command("draw board1 drawLineSegment 50 50 60 60 0 10.0".split(" "));
+        server.sendCommandToClients(command, local[0]);
+        BufferedReader in = new BufferedReader(new InputStreamReader(remote[1].getInputStream()));
+        assertEquals(command.toString(), in.readLine());
+        assertEquals(0, remote[0].getInputStream().available());
+        assertEquals(2, server.getClients().size());
+        
+        server.removeClient(local[0]);
+        assertEquals(1, server.getClients().size());
+        assertNull(server.getWriter(local[0]));
+        
+        for (int i = 0; i < 3; i++) {
+            remote[i].close();
+            local[i].close();
+        }
+        listener.close();
+        server.close();
+    }
 }
@@ -0,0 +1,147 @@
+package server;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import logging.Log;
+
+/**
+ * PreparedStatements for one connection, prepared once per SQL string and
+ * reused for the connection's lifetime, so the database parses each query
+ * once and doesn't accumulate a cursor per call.  Also keeps count of how
+ * often statements are reused and how long the queries run on them take.
+ *
+ * A cached statement is shared by everyone using the cache, so callers must
+ * not use the same statement from two threads at once; DatabaseManager
+ * makes its uses of the cache mutually exclusive under its own lock.
+ *
+ * Concurrency Argument:
+ *   - the map of statements is guarded by this object's lock
+ *   - metrics are AtomicLongs, so they can be read while queries run
+ */
+public class StatementCache {
+
+    private static final Log LOG = Log.get("StatementCache");
+
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+
+    private final AtomicLong prepared = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong queryNanos = new AtomicLong();
+    private final AtomicLong maxQueryNanos = new AtomicLong();
+
+    /**
+     * @param connection: the connection statements are prepared on
+     */
+    public StatementCache(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Gets the statement for some SQL, preparing it on first use
+     * @param sql: the statement's SQL
+     * @return: the cached statement, with its parameters and batch cleared
+     * @throws SQLException if the statement can't be prepared
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        return prepare(sql, false);
+    }
+
+    /**
+     * Gets the statement for some SQL, preparing it on first use
+     * @param sql: the statement's SQL
+     * @param returnKeys: whether the statement returns generated keys
+     * @return: the cached statement, with its parameters and batch cleared
+     * @throws SQLException if the statement can't be prepared
+     */
+    public synchronized PreparedStatement prepare(String sql, boolean returnKeys) throws SQLException {
+        String key = returnKeys ? "keys:" + sql : sql;
+        PreparedStatement statement = statements.get(key);
+        if (statement != null && !statement.isClosed()) {
+            statement.clearParameters();
+            statement.clearBatch();
+            reused.incrementAndGet();
+            return statement;
+        }
+        statement = returnKeys
+                ? connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)
+                : connection.prepareStatement(sql);
+        statements.put(key, statement);
+        prepared.incrementAndGet();
+        return statement;
+    }
+
+    /**
+     * Records a query that has just finished
+     * @param startNanos: System.nanoTime() when the query started
+     */
+    public void recordQuery(long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        queries.incrementAndGet();
+        queryNanos.addAndGet(nanos);
+        maxQueryNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Closes every cached statement
+     */
+    public synchronized void close() {
+        for (PreparedStatement statement : statements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                LOG.warn("Error closing statement: " + e.getMessage());
+            }
+        }
+        statements.clear();
+    }
+
+    /**
+     * @return: the number of statements prepared
+     */
+    public long getPrepared() {
+        return prepared.get();
+    }
+
+    /**
+     * @return: the number of times a cached statement was reused
+     */
+    public long getReused() {
+        return reused.get();
+    }
+
+    /**
+     * @return: the number of queries recorded
+     */
+    public long getQueries() {
+        return queries.get();
+    }
+
+    /**
+     * @return: mean time taken by the queries recorded, in milliseconds
+     */
+    public double getMeanQueryMillis() {
+        long count = queries.get();
+        return count == 0 ? 0 : queryNanos.get() / 1e6 / count;
+    }
+
+    /**
+     * @return: longest time taken by a query recorded, in milliseconds
+     */
+    public double getMaxQueryMillis() {
+        return maxQueryNanos.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Statements prepared: %d, reused: %d%nQueries: %d, mean %.2f ms, max %.2f ms%n",
+                getPrepared(), getReused(), getQueries(), getMeanQueryMillis(), getMaxQueryMillis());
+    }
+}
@@ -0,0 +1,130 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class StatementCacheTest {
+
+    /*
+     * Testing Strategy:
+     * 
+     * -the first use of some SQL prepares a statement, later uses reuse it
+     *  with its parameters and batch cleared
+     * -statements returning generated keys are cached apart from those that don't
+     * -a statement closed behind the cache's back is prepared again
+     * -close closes every cached statement
+     * -recorded queries are counted and timed
+     * 
+     * No database is needed; the connection and statements are proxies that
+     * record the calls made on them.
+     */
+
+    /**
+     * Statement proxy recording the names of the methods called on it
+     */
+    private static class FakeStatement implements InvocationHandler {
+        private final List<String> calls = new ArrayList<String>();
+        private boolean closed = false;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            calls.add(method.getName());
+            if (method.getName().equals("close")) {
+                closed = true;
+            } else if (method.getName().equals("isClosed")) {
+                return closed;
+            }
+            return null;
+        }
+    }
+
+    private final List<FakeStatement> prepared = new ArrayList<FakeStatement>();
+
+    private Connection makeConnection() {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Connection.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (!method.getName().equals("prepareStatement")) {
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                        FakeStatement statement = new FakeStatement();
+                        prepared.add(statement);
+                        return Proxy.newProxyInstance(getClass().getClassLoader(),
+                                new Class<?>[] {PreparedStatement.class}, statement);
+                    }
+                });
+    }
+
+    @Test
+    public void reuseTest() throws SQLException {
+        StatementCache cache = new StatementCache(makeConnection());
+        PreparedStatement first = cache.prepare("SELECT 1");
+        PreparedStatement second = cache.prepare("SELECT 1");
+        assertSame(first, second);
+        assertEquals(1, prepared.size());
+        assertTrue(prepared.get(0).calls.contains("clearParameters"));
+        assertTrue(prepared.get(0).calls.contains("clearBatch"));
+        assertNotSame(first, cache.prepare("SELECT 2"));
+        assertEquals(2, cache.getPrepared());
+        assertEquals(1, cache.getReused());
+    }
+
+    @Test
+    public void generatedKeysTest() throws SQLException {
+        StatementCache cache = new StatementCache(makeConnection());
+        PreparedStatement plain = cache.prepare("INSERT 1");
+        PreparedStatement keys = cache.prepare("INSERT 1", true);
+        assertNotSame(plain, keys);
+        assertSame(keys, cache.prepare("INSERT 1", true));
+        assertEquals(2, prepared.size());
+    }
+
+    @Test
+    public void closedStatementTest() throws SQLException {
+        StatementCache cache = new StatementCache(makeConnection());
+        PreparedStatement first = cache.prepare("SELECT 1");
+        first.close();
+        PreparedStatement second = cache.prepare("SELECT 1");
+        assertNotSame(first, second);
+        assertEquals(2, cache.getPrepared());
+        assertEquals(0, cache.getReused());
+    }
+
+    @Test
+    public void closeTest() throws SQLException {
+        StatementCache cache = new StatementCache(makeConnection());
+        cache.prepare("SELECT 1");
+        cache.prepare("SELECT 2");
+        cache.close();
+        for (FakeStatement statement : prepared) {
+            assertTrue(statement.closed);
+        }
+        cache.prepare("SELECT 1");
+        assertEquals(3, prepared.size());
+    }
+
+    @Test
+    public void metricsTest() throws InterruptedException {
+        StatementCache cache = new StatementCache(makeConnection());
+        assertEquals(0, cache.getMeanQueryMillis(), 0);
+        long start = System.nanoTime();
+        Thread.sleep(20);
+        cache.recordQuery(start);
+        cache.recordQuery(System.nanoTime());
+        assertEquals(2, cache.getQueries());
+        assertTrue(cache.getMaxQueryMillis() >= 20);
+        assertTrue(cache.getMeanQueryMillis() >= 10);
+        assertTrue(cache.getMeanQueryMillis() < cache.getMaxQueryMillis());
+        assertTrue(cache.toString().contains("Queries: 2"));
+    }
+}